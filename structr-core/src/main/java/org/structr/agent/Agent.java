@@ -51,12 +51,14 @@ public abstract class Agent extends Thread implements StatusInfo {
 	private final AtomicBoolean acceptingTasks = new AtomicBoolean(true);
 	private AgentService agentService          = null;
 	private long averageExecutionTime          = 0;
-	private Task currentTask                   = null;
+	private volatile Task currentTask          = null;
 	private long lastStartTime                 = 0;
 	private int maxAgents                      = 4;
 	private int maxQueueSize                   = 10;
 	private final AtomicBoolean suspended      = new AtomicBoolean(false);
 	private final Queue<Task> taskQueue        = new ConcurrentLinkedQueue<>();
+	private final Object workerLock            = new Object();
+	private volatile Thread worker             = null;
 
 	//~--- methods --------------------------------------------------------
 
@@ -73,89 +75,118 @@ public abstract class Agent extends Thread implements StatusInfo {
 
 			}
 
+			final Task nextTask;
+
 			synchronized (taskQueue) {
 
-				currentTask = taskQueue.poll();
+				nextTask = taskQueue.poll();
 
 			}
 
-			if (currentTask != null) {
+			if (nextTask != null) {
+
+				execute(nextTask);
 
-				lastStartTime = System.nanoTime();
+			} else {
 
-				ReturnValue ret = null;
+				// queue is empty, quit.
+				acceptingTasks.set(false);
+			}
 
-				// only execute process if Service layer is ready
-				// (and not shutting down right now)
-				if (Services.getInstance().isInitialized()) {
+		} while (acceptingTasks.get());
 
-					if (createEnclosingTransaction()) {
+		// call beforeShutdown to allow agents to clean up
+		beforeShutdown();
+		agentService.notifyAgentStop(this);
+	}
 
-						try (final Tx tx = StructrApp.getInstance().tx()) {
+	/**
+	 * Processes a single task on the calling thread. This is used by the
+	 * {@link AgentService} to run tasks on its worker pool.
+	 *
+	 * @param task the task
+	 * @return the return value of the task, or null if processing failed
+	 */
+	final ReturnValue execute(final Task task) {
 
-							ret = processTask(currentTask);
-							tx.success();
+		ReturnValue ret = null;
 
-						} catch (Throwable t) {
+		worker        = Thread.currentThread();
+		currentTask   = task;
+		lastStartTime = System.nanoTime();
 
-							// someone killed us or the task processing failed..
-							// Log this!!
-							logger.log(Level.SEVERE, "Processing task {0} failed. Maybe someone killed us?", currentTask.getType());
-							t.printStackTrace();
-						}
-						
-					} else {
+		try {
 
-						try {
+			// only execute process if Service layer is ready
+			// (and not shutting down right now)
+			if (Services.getInstance().isInitialized()) {
 
-							ret = processTask(currentTask);
+				if (createEnclosingTransaction()) {
 
-						} catch (Throwable t) {
+					try (final Tx tx = StructrApp.getInstance().tx()) {
 
-							// someone killed us or the task processing failed..
-							// Log this!!
-							logger.log(Level.SEVERE, "Processing task {0} failed. Maybe someone killed us?", currentTask.getType());
-							t.printStackTrace();
-						}
-					}
-				}
+						ret = processTask(task);
+						tx.success();
 
-				if (ret != null) {
+					} catch (Throwable t) {
 
-					// handle return value
-					switch (ret) {
+						// someone killed us or the task processing failed..
+						// Log this!!
+						logger.log(Level.SEVERE, "Processing task {0} failed. Maybe someone killed us?", task.getType());
+						t.printStackTrace();
+					}
 
-						case Success :
-						case Abort :
+				} else {
 
-							// task finished, nothing to do in these cases
-							break;
+					try {
 
-						case Retry :
+						ret = processTask(task);
 
-							// TODO: schedule task for re-execution
-							break;
+					} catch (Throwable t) {
 
+						// someone killed us or the task processing failed..
+						// Log this!!
+						logger.log(Level.SEVERE, "Processing task {0} failed. Maybe someone killed us?", task.getType());
+						t.printStackTrace();
 					}
 				}
+			}
 
-				long endTime = System.nanoTime();
+			if (ret != null) {
 
-				// calc. average execution time
-				averageExecutionTime += endTime;
-				averageExecutionTime /= 2;
+				// handle return value
+				switch (ret) {
 
-			} else {
+					case Success :
+					case Abort :
 
-				// queue is empty, quit.
-				acceptingTasks.set(false);
+						// task finished, nothing to do in these cases
+						break;
+
+					case Retry :
+
+						// TODO: schedule task for re-execution
+						break;
+
+				}
 			}
 
-		} while (acceptingTasks.get());
+		} finally {
 
-		// call beforeShutdown to allow agents to clean up
-		beforeShutdown();
-		agentService.notifyAgentStop(this);
+			final long executionTime = System.nanoTime() - lastStartTime;
+
+			// calc. average execution time
+			averageExecutionTime = averageExecutionTime == 0 ? executionTime : (averageExecutionTime + executionTime) / 2;
+
+			currentTask = null;
+
+			// do not let killAgent interrupt the worker after the task finished
+			synchronized (workerLock) {
+				worker = null;
+			}
+		}
+
+		return ret;
 	}
 
 	public final boolean assignTask(Task task) {
@@ -187,7 +218,17 @@ public abstract class Agent extends Thread implements StatusInfo {
 		// interrupt running process..
 		// not sure if this works... see Thread.interrupt()'s description!
 		// may not work if the processTask method itself catches the interrupt..
-		this.interrupt();
+		synchronized (workerLock) {
+
+			if (worker != null) {
+
+				worker.interrupt();
+
+			} else {
+
+				this.interrupt();
+			}
+		}
 	}
 
 	public final void suspendAgent() {
@@ -306,7 +347,16 @@ public abstract class Agent extends Thread implements StatusInfo {
 
 		} else if (key.equals(EXECUTION_STATUS)) {
 
-			// TODO.
+			if (isSuspended()) {
+
+				return "suspended";
+
+			} else if (currentTask != null) {
+
+				return "running";
+			}
+
+			return "idle";
 		}
 
 		return (null);
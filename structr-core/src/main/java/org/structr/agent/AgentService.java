@@ -24,17 +24,24 @@ import org.structr.core.Services;
 
 //~--- JDK imports ------------------------------------------------------------
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.structr.common.StructrConf;
@@ -45,20 +52,40 @@ import org.structr.schema.ConfigurationProvider;
 /**
  * The agent service main class.
  *
+ * Submitted tasks wait in a queue ordered by {@link Task#priority()}
+ * (highest first) and submission order. The service thread blocks until a
+ * task can be started and hands it to a work-stealing worker pool
+ * (agent.threads, default: number of cores). The number of tasks of the
+ * same type running concurrently is limited by agent.maxagents (default 4),
+ * which can be overridden per task type with &lt;TaskClass&gt;.maxagents.
+ * A task whose type has reached its limit does not hold up tasks of other
+ * types.
+ *
  * @author Christian Morgner
  */
 public class AgentService extends Thread implements RunnableService {
 
 	private static final Logger logger = Logger.getLogger(AgentService.class.getName());
 
+	public static final String MAX_AGENTS_SUFFIX        = ".maxagents";
+
 	//~--- fields ---------------------------------------------------------
 
-	private int maxAgents                               = 4;    // TODO: make configurable
 	private final Map<Class, List<Agent>> runningAgents = new ConcurrentHashMap<>(10, 0.9f, 8);
 	private final Map<Class, Class> agentClassCache     = new ConcurrentHashMap<>(10, 0.9f, 8);
-	private final Queue<Task> taskQueue                 = new ConcurrentLinkedQueue<>();
+	private final Map<Class, TaskType> taskTypes        = new LinkedHashMap<>();
+	private final TreeSet<QueuedTask> taskQueue         = new TreeSet<>();
+	private final ReentrantLock lock                    = new ReentrantLock();
+	private final Condition changed                     = lock.newCondition();
+	private ForkJoinPool workers                        = null;
+	private StructrConf config                          = null;
 	private Set<Class> supportedCommands                = null;
-	private boolean run                                 = false;
+	private int maxAgents                               = 4;
+	private int threads                                 = Runtime.getRuntime().availableProcessors();
+	private int busy                                    = 0;
+	private long sequence                               = 0L;
+	private boolean stopped                             = false;
+	private volatile boolean run                        = false;
 
 	//~--- constructors ---------------------------------------------------
 
@@ -73,10 +100,27 @@ public class AgentService extends Thread implements RunnableService {
 
 	public void processTask(Task task) {
 
-		synchronized (taskQueue) {
+		lock.lock();
+		try {
+
+			if (stopped) {
+
+				logger.log(Level.WARNING, "Agent service is shutting down, rejecting task {0}", task.getType());
+				return;
+			}
+
+			final TaskType type = getTaskType(task.getClass());
+
+			taskQueue.add(new QueuedTask(task, sequence++));
+			type.statistics.queued();
+			type.queued++;
 
-			taskQueue.add(task);
 			logger.log(Level.FINE, "Task {0} added to task queue", task);
+
+			changed.signal();
+
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -88,7 +132,7 @@ public class AgentService extends Thread implements RunnableService {
 
 			for (Agent agent : agents) {
 
-				if (agent.getTaskQueue().contains(task)) {
+				if (agent.getCurrentTask() == task || agent.getTaskQueue().contains(task)) {
 					return (agent);
 				}
 			}
@@ -100,19 +144,76 @@ public class AgentService extends Thread implements RunnableService {
 	@Override
 	public void run() {
 
-		logger.log(Level.INFO, "AgentService started");
+		logger.log(Level.INFO, "AgentService started with {0} worker threads", threads);
 
 		while (run) {
 
-			Task nextTask = taskQueue.poll();
-			if (nextTask != null) {
+			QueuedTask nextTask = null;
+			TaskType type       = null;
+			Agent agent         = null;
+
+			lock.lock();
+			try {
+
+				// block until a task can be started
+				while (run && (nextTask = nextRunnableTask()) == null) {
+					changed.await();
+				}
+
+				if (nextTask != null) {
+
+					type = getTaskType(nextTask.task.getClass());
+
+					taskQueue.remove(nextTask);
+					type.queued--;
+
+					agent = type.idle.poll();
+					if (agent == null) {
+
+						agent = createAgent(nextTask.task);
+					}
+
+					if (agent != null) {
+
+						type.busy++;
+						busy++;
 
-				assignNextAgentForTask(nextTask);
+					} else {
+
+						logger.log(Level.WARNING, "No agent found for task {0}, discarding it", nextTask.task.getType());
+						type.statistics.dropped();
+
+						nextTask = null;
+					}
+				}
+
+			} catch (InterruptedException iex) {
+
+				break;
+
+			} finally {
+				lock.unlock();
 			}
 
-			// let others act
-			try { Thread.sleep(10); } catch(Throwable ignore) {}
+			if (nextTask != null) {
+
+				final TaskRunner runner = new TaskRunner(nextTask, type, agent);
+
+				try {
+
+					workers.execute(runner);
+
+				} catch (RejectedExecutionException rex) {
+
+					logger.log(Level.WARNING, "Unable to process task {0}, agent service is shutting down", nextTask.task.getType());
+
+					type.statistics.dropped();
+					finished(runner);
+				}
+			}
 		}
+
+		logger.log(Level.INFO, "AgentService stopped");
 	}
 
 	public void notifyAgentStart(Agent agent) {
@@ -151,24 +252,78 @@ public class AgentService extends Thread implements RunnableService {
 	}
 
 	@Override
-	public void initialize(final StructrConf config) {}
+	public void initialize(final StructrConf config) {
+
+		this.config    = config;
+		this.threads   = Services.parseInt(config.getProperty(Services.AGENT_THREADS), Runtime.getRuntime().availableProcessors());
+		this.maxAgents = Services.parseInt(config.getProperty(Services.AGENT_MAX_AGENTS), 4);
+	}
 
 	@Override
 	public void initialized() {}
 
 	@Override
-	public void shutdown() {}
+	public void shutdown() {
+
+		if (workers != null) {
+			workers.shutdown();
+		}
+	}
 
 	@Override
 	public void startService() {
 
+		workers = new ForkJoinPool(Math.max(1, threads), new AgentThreadFactory(), null, true);
+
 		run = true;
 		this.start();
 	}
 
 	@Override
 	public void stopService() {
-		run = false;
+
+		final List<Agent> idleAgents = new LinkedList<>();
+
+		lock.lock();
+		try {
+
+			run     = false;
+			stopped = true;
+			changed.signalAll();
+
+			// tasks that did not start yet are not processed any more
+			if (!taskQueue.isEmpty()) {
+
+				logger.log(Level.WARNING, "Agent service is shutting down, discarding {0} queued tasks", taskQueue.size());
+
+				for (final QueuedTask queuedTask : taskQueue) {
+
+					final TaskType type = getTaskType(queuedTask.task.getClass());
+
+					type.statistics.dropped();
+					type.queued--;
+				}
+
+				taskQueue.clear();
+			}
+
+			for (final TaskType type : taskTypes.values()) {
+
+				idleAgents.addAll(type.idle);
+				type.idle.clear();
+			}
+
+		} finally {
+			lock.unlock();
+		}
+
+		for (final Agent agent : idleAgents) {
+
+			agent.beforeShutdown();
+			notifyAgentStop(agent);
+		}
+
+		shutdown();
 	}
 
 	@Override
@@ -179,58 +334,86 @@ public class AgentService extends Thread implements RunnableService {
 	// </editor-fold>
 
 	// <editor-fold defaultstate="collapsed" desc="private methods">
-	private void assignNextAgentForTask(Task nextTask) {
+	/**
+	 * Returns the first task in queue order whose type has not reached its
+	 * concurrency limit, or null if no task can be started right now. Must
+	 * be called with the lock held.
+	 */
+	private QueuedTask nextRunnableTask() {
 
-		Class taskClass    = nextTask.getClass();
-		List<Agent> agents = getRunningAgentsForTask(taskClass);
+		if (busy >= threads) {
+			return null;
+		}
 
-		// need to synchronize on agents
-		synchronized (agents) {
+		for (final QueuedTask queuedTask : taskQueue) {
 
-			// find next free agent (agents should be sorted by load, so one
-			// of the first should do..
-			for (Agent agent : agents) {
+			if (getTaskType(queuedTask.task.getClass()).hasCapacity()) {
+				return queuedTask;
+			}
+		}
 
-				if (agent.assignTask(nextTask)) {
+		return null;
+	}
 
-					// ok, task is assigned
-					logger.log(Level.FINE, "Task assigned to agent {0}", agent.getName());
+	private void finished(final TaskRunner runner) {
 
-					return;
-				}
-			}
-		}
+		final TaskType type = runner.type;
+		final Agent agent   = runner.agent;
+		boolean retire      = false;
+
+		lock.lock();
+		try {
 
-		// FIXME: find better solution for hard limit here!
-		if (agents.size() < maxAgents) {
+			type.busy--;
+			busy--;
 
-			// if we get here, task was not assigned to any agent, need to
-			// create a new one.
-			Agent agent = createAgent(nextTask);
+			// agents are kept as long as there are tasks of their type left
+			if (run && agent.isAcceptingTasks() && type.queued > 0) {
+
+				type.idle.add(agent);
 
-			if ((agent != null) && agent.assignTask(nextTask)) {
-				agent.start();
 			} else {
 
-				// re-add task..
-				synchronized (taskQueue) {
-					taskQueue.add(nextTask);
-				}
+				retire = true;
 			}
-		} else {
 
-			logger.log(Level.FINE, "Overall agents limit reached, re-queueing task");
+			changed.signal();
 
-			// re-add task..
-			synchronized (taskQueue) {
-				taskQueue.add(nextTask);
+		} finally {
+			lock.unlock();
+		}
+
+		if (retire) {
+
+			// call beforeShutdown to allow agents to clean up
+			agent.beforeShutdown();
+			notifyAgentStop(agent);
+		}
+	}
+
+	/**
+	 * Must be called with the lock held.
+	 */
+	private TaskType getTaskType(final Class taskClass) {
+
+		TaskType type = taskTypes.get(taskClass);
+		if (type == null) {
+
+			int limit = maxAgents;
+
+			if (config != null) {
+				limit = Services.parseInt(config.getProperty(taskClass.getSimpleName() + MAX_AGENTS_SUFFIX), maxAgents);
 			}
+
+			type = new TaskType(taskClass, Math.max(1, limit));
+			taskTypes.put(taskClass, type);
 		}
+
+		return type;
 	}
 
 	/**
-	 * Creates a new agent for the given Task. Note that the agent must be
-	 * started manually after creation.
+	 * Creates a new agent for the given Task.
 	 *
 	 * @param forTask
 	 * @return a new agent for the given task
@@ -247,6 +430,8 @@ public class AgentService extends Thread implements RunnableService {
 
 				// register us in agent..
 				agent.setAgentService(this);
+
+				notifyAgentStart(agent);
 			}
 
 		} catch (Exception ex) {
@@ -257,7 +442,7 @@ public class AgentService extends Thread implements RunnableService {
 		return (agent);
 	}
 
-	private Agent lookupAgent(Task task) {
+	protected Agent lookupAgent(Task task) {
 
 		// FIXME: superuser security context
 		Class taskClass  = task.getClass();
@@ -307,11 +492,64 @@ public class AgentService extends Thread implements RunnableService {
 	//~--- get methods ----------------------------------------------------
 
 	/**
-	 * Returns the current queue of remaining tasks.
+	 * Returns the current queue of remaining tasks, in the order they will
+	 * be processed.
 	 * @return tasks
 	 */
 	public Collection<Task> getTaskQueue() {
-		return (taskQueue);
+
+		final List<Task> tasks = new ArrayList<>();
+
+		lock.lock();
+		try {
+
+			for (final QueuedTask queuedTask : taskQueue) {
+				tasks.add(queuedTask.task);
+			}
+
+		} finally {
+			lock.unlock();
+		}
+
+		return (tasks);
+	}
+
+	/**
+	 * Returns the number of tasks waiting to be processed.
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+
+		lock.lock();
+		try {
+
+			return taskQueue.size();
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns queue depth and latency statistics for each task type.
+	 * @return statistics by task type
+	 */
+	public Map<Class, TaskStatistics> getTaskStatistics() {
+
+		final Map<Class, TaskStatistics> statistics = new LinkedHashMap<>();
+
+		lock.lock();
+		try {
+
+			for (final TaskType type : taskTypes.values()) {
+				statistics.put(type.taskClass, type.statistics);
+			}
+
+		} finally {
+			lock.unlock();
+		}
+
+		return (statistics);
 	}
 
 	/**
@@ -346,4 +584,111 @@ public class AgentService extends Thread implements RunnableService {
 	public boolean isVital() {
 		return false;
 	}
+
+	// ----- nested classes -----
+	private static class QueuedTask implements Comparable<QueuedTask> {
+
+		private Task task      = null;
+		private long sequence  = 0L;
+		private long submitted = 0L;
+		private int priority   = 0;
+
+		public QueuedTask(final Task task, final long sequence) {
+
+			this.task      = task;
+			this.sequence  = sequence;
+			this.submitted = System.nanoTime();
+			this.priority  = task.priority();
+		}
+
+		@Override
+		public int compareTo(final QueuedTask other) {
+
+			// higher priority first, then in submission order
+			final int result = Integer.compare(other.priority, priority);
+			if (result != 0) {
+
+				return result;
+			}
+
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private static class TaskType {
+
+		private final LinkedList<Agent> idle = new LinkedList<>();
+		private TaskStatistics statistics    = null;
+		private Class taskClass              = null;
+		private int maxAgents                = 0;
+		private int queued                   = 0;
+		private int busy                     = 0;
+
+		public TaskType(final Class taskClass, final int maxAgents) {
+
+			this.statistics = new TaskStatistics(taskClass);
+			this.taskClass  = taskClass;
+			this.maxAgents  = maxAgents;
+		}
+
+		public boolean hasCapacity() {
+			return busy < maxAgents;
+		}
+	}
+
+	private class TaskRunner implements Runnable {
+
+		private QueuedTask queuedTask = null;
+		private TaskType type         = null;
+		private Agent agent           = null;
+
+		public TaskRunner(final QueuedTask queuedTask, final TaskType type, final Agent agent) {
+
+			this.queuedTask = queuedTask;
+			this.type       = type;
+			this.agent      = agent;
+		}
+
+		@Override
+		public void run() {
+
+			final long start = System.nanoTime();
+			ReturnValue ret  = null;
+
+			type.statistics.started(start - queuedTask.submitted);
+
+			try {
+
+				ret = agent.execute(queuedTask.task);
+
+			} finally {
+
+				type.statistics.finished(System.nanoTime() - start, ret != null);
+				finished(this);
+
+				// the worker thread is shared, so an interrupt that was
+				// meant for this task must not leak into the next one
+				Thread.interrupted();
+			}
+		}
+	}
+
+	private static class AgentThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+
+			final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+
+			thread.setName("Agent-" + count.incrementAndGet());
+
+			// NOTE: this is important! We do not want running tasks to die when the
+			// server is going down!
+			thread.setDaemon(false);
+
+			return thread;
+		}
+	}
 }
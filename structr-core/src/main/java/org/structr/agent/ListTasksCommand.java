@@ -19,6 +19,7 @@
 package org.structr.agent;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Returns a Collection of the currently remaining {@link Task}s
@@ -37,4 +38,37 @@ public class ListTasksCommand extends AgentServiceCommand {
 
 		return null;
 	}
+
+	/**
+	 * Returns the number of tasks waiting to be processed.
+	 *
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+
+		AgentService agentService = (AgentService)arguments.get("agentService");
+		if(agentService != null) {
+
+			return agentService.getQueueDepth();
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns queue depth, latency and execution time statistics for each
+	 * task type that has been submitted so far.
+	 *
+	 * @return statistics by task type
+	 */
+	public Map<Class, TaskStatistics> getStatistics() {
+
+		AgentService agentService = (AgentService)arguments.get("agentService");
+		if(agentService != null) {
+
+			return agentService.getTaskStatistics();
+		}
+
+		return null;
+	}
 }
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.agent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth and latency figures of a single task type in the
+ * {@link AgentService}.
+ *
+ * @author Christian Morgner
+ */
+public class TaskStatistics implements StatusInfo {
+
+	public static final String QUEUED                 = "queued";
+	public static final String RUNNING                = "running";
+	public static final String COMPLETED              = "completed";
+	public static final String FAILED                 = "failed";
+	public static final String AVERAGE_LATENCY        = "average_latency";
+	public static final String MAX_LATENCY            = "max_latency";
+	public static final String AVERAGE_EXECUTION_TIME = "average_execution_time";
+
+	private final AtomicInteger queued      = new AtomicInteger();
+	private final AtomicInteger running     = new AtomicInteger();
+	private final AtomicLong started        = new AtomicLong();
+	private final AtomicLong finished       = new AtomicLong();
+	private final AtomicLong completed      = new AtomicLong();
+	private final AtomicLong failed         = new AtomicLong();
+	private final AtomicLong totalLatency   = new AtomicLong();
+	private final AtomicLong maxLatency     = new AtomicLong();
+	private final AtomicLong totalExecution = new AtomicLong();
+	private Class taskType                  = null;
+
+	public TaskStatistics(final Class taskType) {
+		this.taskType = taskType;
+	}
+
+	public Class getTaskType() {
+		return taskType;
+	}
+
+	/**
+	 * @return the number of tasks waiting to be processed
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the number of tasks currently being processed
+	 */
+	public int getRunning() {
+		return running.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * @return the number of tasks that failed or were dropped without being processed
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds between the submission of a task and the start of its execution
+	 */
+	public double getAverageLatency() {
+
+		final long count = started.get();
+
+		return count > 0 ? toMillis(totalLatency.get()) / count : 0.0;
+	}
+
+	/**
+	 * @return the longest time in milliseconds a task waited for its execution
+	 */
+	public double getMaxLatency() {
+		return toMillis(maxLatency.get());
+	}
+
+	/**
+	 * @return the average execution time in milliseconds
+	 */
+	public double getAverageExecutionTime() {
+
+		final long count = finished.get();
+
+		return count > 0 ? toMillis(totalExecution.get()) / count : 0.0;
+	}
+
+	// ----- interface StatusInfo -----
+	@Override
+	public Object getStatusProperty(final String key) {
+
+		switch (key) {
+
+			case QUEUED:
+				return getQueued();
+
+			case RUNNING:
+				return getRunning();
+
+			case COMPLETED:
+				return getCompleted();
+
+			case FAILED:
+				return getFailed();
+
+			case AVERAGE_LATENCY:
+				return getAverageLatency();
+
+			case MAX_LATENCY:
+				return getMaxLatency();
+
+			case AVERAGE_EXECUTION_TIME:
+				return getAverageExecutionTime();
+		}
+
+		return null;
+	}
+
+	// ----- package-private methods -----
+	void queued() {
+		queued.incrementAndGet();
+	}
+
+	void started(final long latency) {
+
+		queued.decrementAndGet();
+		running.incrementAndGet();
+		started.incrementAndGet();
+
+		totalLatency.addAndGet(latency);
+
+		long max = maxLatency.get();
+		while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+			max = maxLatency.get();
+		}
+	}
+
+	void finished(final long executionTime, final boolean success) {
+
+		running.decrementAndGet();
+		finished.incrementAndGet();
+		totalExecution.addAndGet(executionTime);
+
+		if (success) {
+			completed.incrementAndGet();
+		} else {
+			failed.incrementAndGet();
+		}
+	}
+
+	void dropped() {
+
+		queued.decrementAndGet();
+		failed.incrementAndGet();
+	}
+
+	// ----- private methods -----
+	private static double toMillis(final long nanos) {
+		return (double)nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -18,8 +18,11 @@
  */
 package org.structr.common;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
@@ -112,6 +115,66 @@ public class PagingHelper {
 
 	}
 
+	/**
+	 * Return a single page of the list as if the list had been sorted
+	 * with the given comparator first. For pages counted from the start
+	 * of the list, only the first page * pageSize elements are selected
+	 * with a bounded heap, so the cost is O(n log k) instead of a full
+	 * sort. The selection is stable, i.e. equal elements keep the order
+	 * they have in the input list.
+	 *
+	 * @param list the List of GraphObjects
+	 * @param comparator the comparator
+	 * @param pageSize the page size
+	 * @param page the page number
+	 * @param offsetId the offset as String
+	 * @return subList the resulting List of GraphObjects
+	 */
+	public static <T extends GraphObject> List<T> sortedSubList(final List<T> list, final Comparator<? super T> comparator, int pageSize, int page, String offsetId) {
+
+		if (pageSize <= 0 || page == 0) {
+
+			return Collections.EMPTY_LIST;
+		}
+
+		final int size  = list.size();
+		final long topK = (long)page * (long)pageSize;
+
+		// offset and negative pages need the complete sorted list, and
+		// a heap does not pay off if (almost) all elements are selected
+		if (StringUtils.isNotBlank(offsetId) || page < 0 || topK >= size / 2) {
+
+			Collections.sort(list, comparator);
+
+			return (List<T>)subList(list, pageSize, page, offsetId);
+		}
+
+		final int k                              = (int)topK;
+		final PriorityQueue<Ranked<T>> heap      = new PriorityQueue<>(k + 1);
+		int position                             = 0;
+
+		for (final T obj : list) {
+
+			heap.add(new Ranked<>(obj, position++, comparator));
+
+			if (heap.size() > k) {
+
+				// remove the element that ranks lowest
+				heap.poll();
+			}
+		}
+
+		final List<T> selected = new ArrayList<>(heap.size());
+		while (!heap.isEmpty()) {
+
+			selected.add(heap.poll().obj);
+		}
+
+		Collections.reverse(selected);
+
+		return (List<T>)subList(selected, pageSize, page, null);
+	}
+
 	/**
 	 * Return a single page of the result with the given paging parameters.
 	 *
@@ -175,4 +238,36 @@ public class PagingHelper {
 
 	}
 
+	//~--- nested classes -------------------------------------------------
+
+	/**
+	 * Heap entry that orders by the given comparator in reverse, using
+	 * the original position as a tie breaker, so that the head of the
+	 * heap is always the element that would be sorted last.
+	 */
+	private static class Ranked<T> implements Comparable<Ranked<T>> {
+
+		private Comparator<? super T> comparator = null;
+		private T obj                            = null;
+		private int position                     = 0;
+
+		public Ranked(final T obj, final int position, final Comparator<? super T> comparator) {
+
+			this.comparator = comparator;
+			this.position   = position;
+			this.obj        = obj;
+		}
+
+		@Override
+		public int compareTo(final Ranked<T> other) {
+
+			final int result = comparator.compare(other.obj, obj);
+			if (result != 0) {
+
+				return result;
+			}
+
+			return Integer.compare(other.position, position);
+		}
+	}
 }
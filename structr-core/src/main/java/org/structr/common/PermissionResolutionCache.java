@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Principal;
+import org.structr.core.entity.Security;
+import org.structr.core.entity.relationship.Groups;
+import org.structr.core.entity.relationship.PrincipalOwnsNode;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.RelationshipInterface;
+
+/**
+ * Caches the results of permission resolution, i.e. the transitive group
+ * memberships of principals and the effective permissions granted on nodes
+ * via Security relationships.
+ *
+ * Entries are invalidated by {@link org.structr.core.graph.TransactionCommand}
+ * after every transaction, based on the modification events of the
+ * transaction. Permission changes that are written directly to the database
+ * and do not produce modification events must be reported via
+ * {@link #invalidate(GraphObject)}. A generation counter makes sure that
+ * results computed concurrently to an invalidation are never stored.
+ *
+ * @author Christian Morgner
+ */
+public class PermissionResolutionCache {
+
+	public static final String PERMISSION_CACHE_SIZE_KEY = "security.permissioncache.size";
+
+	private static final Map<String, Map<String, Set<String>>> nodeGrants = new ConcurrentHashMap<>();
+	private static final Map<String, PrincipalClosure> principalClosures  = new ConcurrentHashMap<>();
+	private static final AtomicLong generation                            = new AtomicLong(0);
+	private static final AtomicLong hits                                  = new AtomicLong(0);
+	private static final AtomicLong misses                                = new AtomicLong(0);
+	private static final AtomicLong invalidations                         = new AtomicLong(0);
+	private static final ThreadLocal<Set<GraphObject>> pending            = new ThreadLocal<>();
+	private static int maxSize                                            = -1;
+
+	/**
+	 * Returns the current generation of this cache. Callers must obtain the
+	 * generation before they compute a value to be stored in the cache.
+	 *
+	 * @return the current generation
+	 */
+	public static long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Returns the set of the given principal and all its direct and
+	 * indirect parents.
+	 *
+	 * @param principal the principal
+	 * @return the principal closure
+	 */
+	public static PrincipalClosure getPrincipalClosure(final Principal principal) {
+
+		final long currentGeneration = generation.get();
+		final String uuid            = principal.getUuid();
+		PrincipalClosure closure     = principalClosures.get(uuid);
+
+		if (closure != null) {
+
+			hits.incrementAndGet();
+			return closure;
+		}
+
+		misses.incrementAndGet();
+
+		closure = new PrincipalClosure(principal);
+
+		if (currentGeneration == generation.get() && ensureCapacity(principalClosures)) {
+			principalClosures.put(uuid, closure);
+		}
+
+		return closure;
+	}
+
+	/**
+	 * Returns the cached effective permissions of all principals with a
+	 * Security relationship to the node with the given UUID, or null.
+	 *
+	 * @param nodeId the UUID of the node
+	 * @return a map of principal UUIDs to permission names, or null
+	 */
+	public static Map<String, Set<String>> getGrants(final String nodeId) {
+
+		final Map<String, Set<String>> grants = nodeGrants.get(nodeId);
+		if (grants != null) {
+
+			hits.incrementAndGet();
+
+		} else {
+
+			misses.incrementAndGet();
+		}
+
+		return grants;
+	}
+
+	public static void putGrants(final String nodeId, final Map<String, Set<String>> grants, final long computedInGeneration) {
+
+		if (computedInGeneration == generation.get() && ensureCapacity(nodeGrants)) {
+			nodeGrants.put(nodeId, grants);
+		}
+	}
+
+	/**
+	 * Invalidates all entries that are affected by the given modification
+	 * events, and all entries affected by permission changes that were
+	 * reported via {@link #invalidate(GraphObject)} in the current thread.
+	 *
+	 * @param modificationEvents the modification events of a transaction
+	 */
+	public static void invalidate(final List<ModificationEvent> modificationEvents) {
+
+		final Set<GraphObject> changedObjects = pending.get();
+		if (changedObjects != null) {
+
+			// invalidate again after commit, entries may have been
+			// re-populated from the old state by other transactions
+			pending.remove();
+
+			for (final GraphObject changedObject : changedObjects) {
+				invalidateObject(changedObject);
+			}
+		}
+
+		if (modificationEvents == null || modificationEvents.isEmpty()) {
+			return;
+		}
+
+		generation.incrementAndGet();
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			final GraphObject graphObject = event.getGraphObject();
+
+			if (event.isNode()) {
+
+				if (graphObject instanceof Principal) {
+
+					// permissions, admin flag or parents of a principal
+					// may have changed, which affects all entries
+					clear();
+					return;
+				}
+
+				if (nodeGrants.remove(event.getUuid()) != null) {
+					invalidations.incrementAndGet();
+				}
+
+			} else if (graphObject instanceof Groups) {
+
+				invalidations.addAndGet(principalClosures.size());
+				principalClosures.clear();
+
+			} else if (graphObject instanceof Security || graphObject instanceof PrincipalOwnsNode) {
+
+				// the target node of a deleted relationship is not
+				// available any more, so drop all grants
+				invalidations.addAndGet(nodeGrants.size());
+				nodeGrants.clear();
+			}
+		}
+	}
+
+	/**
+	 * Invalidates all entries that are affected by a change of the
+	 * permissions stored on the given object. The entries are invalidated
+	 * immediately and again when the current transaction is finished.
+	 *
+	 * @param graphObject the Security relationship or principal
+	 */
+	public static void invalidate(final GraphObject graphObject) {
+
+		Set<GraphObject> changedObjects = pending.get();
+		if (changedObjects == null) {
+
+			changedObjects = new HashSet<>();
+			pending.set(changedObjects);
+		}
+
+		changedObjects.add(graphObject);
+
+		invalidateObject(graphObject);
+	}
+
+	public static void clear() {
+
+		generation.incrementAndGet();
+		invalidations.addAndGet(nodeGrants.size() + principalClosures.size());
+
+		nodeGrants.clear();
+		principalClosures.clear();
+	}
+
+	public static long getHits() {
+		return hits.get();
+	}
+
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	public static long getInvalidations() {
+		return invalidations.get();
+	}
+
+	public static int size() {
+		return nodeGrants.size() + principalClosures.size();
+	}
+
+	// ----- private methods -----
+	private static void invalidateObject(final GraphObject graphObject) {
+
+		if (graphObject instanceof RelationshipInterface) {
+
+			generation.incrementAndGet();
+
+			final String targetNodeId = ((RelationshipInterface)graphObject).getTargetNodeId();
+			if (targetNodeId != null) {
+
+				if (nodeGrants.remove(targetNodeId) != null) {
+					invalidations.incrementAndGet();
+				}
+
+			} else {
+
+				invalidations.addAndGet(nodeGrants.size());
+				nodeGrants.clear();
+			}
+
+		} else {
+
+			// permissions of a principal affect all entries
+			clear();
+		}
+	}
+
+	private static boolean ensureCapacity(final Map map) {
+
+		if (maxSize < 0) {
+			maxSize = Services.parseInt(StructrApp.getConfigurationValue(PERMISSION_CACHE_SIZE_KEY), 100000);
+		}
+
+		if (map.size() >= maxSize) {
+
+			// simple strategy: start over
+			invalidations.addAndGet(map.size());
+			map.clear();
+		}
+
+		return maxSize > 0;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The UUIDs of a principal and all its transitive parents, and whether
+	 * any of them is an admin.
+	 */
+	public static class PrincipalClosure {
+
+		private Set<String> principalIds = null;
+		private boolean admin            = false;
+
+		private PrincipalClosure(final Principal principal) {
+
+			final List<Principal> queue = new LinkedList<>();
+			final Set<String> ids       = new HashSet<>();
+
+			queue.add(principal);
+
+			// breadth-first search, safe against cycles in the group hierarchy
+			while (!queue.isEmpty()) {
+
+				final Principal current = queue.remove(0);
+				if (current != null && ids.add(current.getUuid())) {
+
+					admin |= current.isAdmin();
+					queue.addAll(current.getParents());
+				}
+			}
+
+			this.principalIds = Collections.unmodifiableSet(ids);
+		}
+
+		public Set<String> getPrincipalIds() {
+			return principalIds;
+		}
+
+		public boolean contains(final String uuid) {
+			return principalIds.contains(uuid);
+		}
+
+		public boolean isAdmin() {
+			return admin;
+		}
+	}
+}
@@ -59,6 +59,9 @@ public class SecurityDelegate {
 
 		final PropertyContainer propertyContainer = graphObject.getPropertyContainer();
 		propertyContainer.setProperty(key.dbName(), allowed);
+
+		// direct property writes do not create modification events
+		PermissionResolutionCache.invalidate(graphObject);
 	}
 
 	public static Set<String> getPermissions(final GraphObject graphObject, final PropertyKey<String[]> key) {
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core;
+
+/**
+ * A lazily evaluated query result. Elements are instantiated on demand
+ * while iterating, and the underlying index resources are released when
+ * the iteration reaches the end or when the stream is closed.
+ *
+ * A result stream can only be iterated once.
+ *
+ * @author Christian Morgner
+ * @param <T>
+ */
+public interface ResultStream<T extends GraphObject> extends Iterable<T>, AutoCloseable {
+
+	@Override
+	public void close();
+}
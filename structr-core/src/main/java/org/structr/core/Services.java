@@ -69,10 +69,16 @@ public class Services {
 
 	// Configuration constants
 	public static final String INITIAL_SEED_FILE                = "seed.zip";
+	public static final String AGENT_MAX_AGENTS                 = "agent.maxagents";
+	public static final String AGENT_THREADS                    = "agent.threads";
 	public static final String BASE_PATH                        = "base.path";
+	public static final String BULK_OPERATION_THREADS           = "bulk.threads";
+	public static final String CACHE_FUNCTION_MAX_ENTRIES       = "cachefunction.maxentries";
+	public static final String CACHE_FUNCTION_MAX_WEIGHT        = "cachefunction.maxweight";
 	public static final String CONFIGURED_SERVICES              = "configured.services";
 	public static final String CONFIG_FILE_PATH                 = "configfile.path";
 	public static final String DATABASE_PATH                    = "database.path";
+	public static final String EXPRESSION_CACHE_SIZE            = "expression.cache.size";
 	public static final String FILES_PATH                       = "files.path";
 	public static final String DATA_EXCHANGE_PATH               = "data.exchange.path";
 	public static final String LOG_DATABASE_PATH                = "log.database.path";
@@ -93,6 +99,9 @@ public class Services {
 	public static final String TCP_PORT                         = "tcp.port";
 	public static final String TMP_PATH                         = "tmp.path";
 	public static final String UDP_PORT                         = "udp.port";
+	public static final String UUID_PROVIDER                    = "uuid.provider";
+	public static final String JAVASCRIPT_CACHE_SIZE            = "javascript.cache.size";
+	public static final String JAVASCRIPT_OPTIMIZATION_LEVEL    = "javascript.optimization.level";
 	public static final String JSON_INDENTATION                 = "json.indentation";
 	public static final String JSON_REDUNDANCY_REDUCTION        = "json.redundancyReduction";
 	public static final String GEOCODING_PROVIDER               = "geocoding.provider";
@@ -35,4 +35,15 @@ public interface StructrTransactionListener {
 
 	public void beforeCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) throws FrameworkException;
 	public void afterCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source);
+
+	/**
+	 * Called when a top-level transaction has finished, regardless of its
+	 * outcome and of whether notifications are enabled for it.
+	 *
+	 * @param securityContext
+	 * @param modificationEvents the modification events of the transaction
+	 * @param source the transaction source
+	 * @param committed whether the transaction was committed successfully
+	 */
+	public void transactionFinished(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source, final boolean committed);
 }
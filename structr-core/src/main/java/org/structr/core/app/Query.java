@@ -23,6 +23,7 @@ import org.neo4j.helpers.Predicate;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.Result;
+import org.structr.core.ResultStream;
 import org.structr.core.graph.search.SearchAttribute;
 import org.structr.core.graph.search.SearchAttributeGroup;
 import org.structr.core.property.PropertyKey;
@@ -38,6 +39,7 @@ public interface Query<T extends GraphObject> extends Iterable<T> {
 	public Result<T> getResult() throws FrameworkException;
 	public List<T> getAsList() throws FrameworkException;
 	public T getFirst() throws FrameworkException;
+	public ResultStream<T> getResultStream() throws FrameworkException;
 	public boolean isExactSearch();
 
 	// ----- builder methods -----
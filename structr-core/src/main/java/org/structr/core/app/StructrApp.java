@@ -289,7 +289,14 @@ public class StructrApp implements App {
 			config.setProperty(key, value);
 			tx.success();
 
-		} catch (Throwable t) {}
+		} catch (FrameworkException fex) {
+
+			throw fex;
+
+		} catch (Throwable t) {
+
+			throw new FrameworkException(500, "Unable to store global setting " + key + ": " + t.getMessage());
+		}
 	}
 
 	@Override
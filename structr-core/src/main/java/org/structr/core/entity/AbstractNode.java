@@ -23,6 +23,8 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -30,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -42,6 +45,8 @@ import org.neo4j.graphdb.index.Index;
 import org.structr.common.AccessControllable;
 import org.structr.common.GraphObjectComparator;
 import org.structr.common.Permission;
+import org.structr.common.PermissionResolutionCache;
+import org.structr.common.PermissionResolutionCache.PrincipalClosure;
 import org.structr.common.PropertyView;
 import org.structr.common.SecurityContext;
 import org.structr.common.ValidationHelper;
@@ -62,6 +67,7 @@ import org.structr.core.graph.NodeRelationshipStatisticsCommand;
 import org.structr.core.graph.NodeService;
 import org.structr.core.graph.RelationshipFactory;
 import org.structr.core.graph.RelationshipInterface;
+import org.structr.core.graph.TransactionCommand;
 import org.structr.core.parser.Functions;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
@@ -797,6 +803,12 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable
 				return true;
 			}
 
+			// use cached permission resolution if this transaction has not
+			// modified anything yet, uncommitted changes must not be cached
+			if (!TransactionCommand.hasModifications()) {
+				return isGrantedCached(permission, accessingUser, owner);
+			}
+
 			final Security security = getSecurityRelationship(accessingUser);
 			if (security != null && security.isAllowed(permission)) {
 
@@ -816,6 +828,81 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable
 		return false;
 	}
 
+	/**
+	 * Resolves permissions for the accessing user and all its (transitive)
+	 * parents at once, using the {@link PermissionResolutionCache}.
+	 */
+	private boolean isGrantedCached(final Permission permission, final Principal accessingUser, final Principal owner) {
+
+		final PrincipalClosure closure = PermissionResolutionCache.getPrincipalClosure(accessingUser);
+
+		// admin flag of a parent principal
+		if (closure.isAdmin()) {
+			return true;
+		}
+
+		// parent principal accessing itself
+		if (closure.contains(getUuid())) {
+			return true;
+		}
+
+		// parent principal is owner
+		if (owner != null && closure.contains(owner.getUuid())) {
+			return true;
+		}
+
+		final Map<String, Set<String>> grants = getSecurityGrants();
+
+		for (final String principalId : closure.getPrincipalIds()) {
+
+			final Set<String> permissions = grants.get(principalId);
+			if (permissions != null && permissions.contains(permission.name())) {
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the effective permissions granted to principals via incoming
+	 * Security relationships, mapped by principal UUID.
+	 */
+	private Map<String, Set<String>> getSecurityGrants() {
+
+		final String uuid               = getUuid();
+		final long generation           = PermissionResolutionCache.getGeneration();
+		Map<String, Set<String>> grants = PermissionResolutionCache.getGrants(uuid);
+
+		if (grants == null) {
+
+			grants = new HashMap<>();
+
+			for (final Security security : getIncomingRelationshipsAsSuperUser(Security.class)) {
+
+				final Principal principal = security != null ? security.getSourceNode() : null;
+				if (principal != null) {
+
+					final Set<String> permissions = new HashSet<>();
+
+					for (final Permission candidate : Permission.allPermissions) {
+
+						if (security.isAllowed(candidate)) {
+							permissions.add(candidate.name());
+						}
+					}
+
+					grants.put(principal.getUuid(), permissions);
+				}
+			}
+
+			PermissionResolutionCache.putGrants(uuid, grants, generation);
+		}
+
+		return grants;
+	}
+
 	@Override
 	public boolean onCreation(SecurityContext securityContext, ErrorBuffer errorBuffer) throws FrameworkException {
 		return isValid(errorBuffer);
@@ -1032,22 +1119,55 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable
 	@Override
 	public void removeFromIndex() {
 
-		for (Index<Node> index : Services.getInstance().getService(NodeService.class).getNodeIndices()) {
+		final NodeService nodeService = Services.getInstance().getService(NodeService.class);
+
+		for (Index<Node> index : nodeService.getNodeIndices()) {
+
+			// spatial queries only hold a read lock, so we need to exclude them explicitly
+			final Lock writeLock = nodeService.getIndexWriteLock(index);
+			if (writeLock != null) {
+				writeLock.lock();
+			}
+
+			try {
+
+				synchronized (index) {
+
+					index.remove(dbNode);
+				}
 
-			synchronized (index) {
+			} finally {
 
-				index.remove(dbNode);
+				if (writeLock != null) {
+					writeLock.unlock();
+				}
 			}
 		}
 	}
 
 	public void removeFromIndex(PropertyKey key) {
 
-		for (Index<Node> index : Services.getInstance().getService(NodeService.class).getNodeIndices()) {
+		final NodeService nodeService = Services.getInstance().getService(NodeService.class);
 
-			synchronized (index) {
+		for (Index<Node> index : nodeService.getNodeIndices()) {
+
+			final Lock writeLock = nodeService.getIndexWriteLock(index);
+			if (writeLock != null) {
+				writeLock.lock();
+			}
 
-				index.remove(dbNode, key.dbName());
+			try {
+
+				synchronized (index) {
+
+					index.remove(dbNode, key.dbName());
+				}
+
+			} finally {
+
+				if (writeLock != null) {
+					writeLock.unlock();
+				}
 			}
 		}
 	}
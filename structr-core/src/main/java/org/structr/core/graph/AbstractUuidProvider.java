@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.security.SecureRandom;
+
+/**
+ * Abstract base class for UUID providers with per-thread state.
+ *
+ * @author Christian Morgner
+ */
+public abstract class AbstractUuidProvider implements UuidProvider {
+
+	private static final char[] HEX_DIGITS    = "0123456789abcdef".toCharArray();
+	private static final SecureRandom seeds   = new SecureRandom();
+
+	/**
+	 * Renders the given 128 bits as a 32 character hex string.
+	 *
+	 * @param hi the upper 64 bits
+	 * @param lo the lower 64 bits
+	 * @return the hex string
+	 */
+	protected static String toHex(final long hi, final long lo) {
+
+		final char[] buf = new char[32];
+
+		for (int i=15; i>=0; i--) {
+
+			buf[i]      = HEX_DIGITS[(int)(hi >>> ((15 - i) << 2)) & 0xf];
+			buf[i + 16] = HEX_DIGITS[(int)(lo >>> ((15 - i) << 2)) & 0xf];
+		}
+
+		return new String(buf);
+	}
+
+	/**
+	 * Returns a new seed from a shared SecureRandom. This method is
+	 * synchronized and should only be called when a thread initializes
+	 * its own generator.
+	 *
+	 * @return a random seed
+	 */
+	protected static synchronized long newSeed() {
+		return seeds.nextLong();
+	}
+
+	/**
+	 * A small xorshift128+ generator, one instance per thread.
+	 */
+	protected static class Xorshift {
+
+		private long s0 = 0L;
+		private long s1 = 0L;
+
+		public Xorshift() {
+
+			do {
+
+				s0 = newSeed();
+				s1 = newSeed();
+
+			} while (s0 == 0L && s1 == 0L);
+		}
+
+		public long nextLong() {
+
+			long x       = s0;
+			final long y = s1;
+
+			s0  = y;
+			x  ^= x << 23;
+			s1  = x ^ y ^ (x >>> 17) ^ (y >>> 26);
+
+			return s1 + y;
+		}
+	}
+}
@@ -56,6 +56,7 @@ public class BulkCreateLabelsCommand extends NodeServiceCommand implements Maint
 		final GraphDatabaseService graphDb = (GraphDatabaseService) arguments.get("graphDb");
 		final SecurityContext superUserContext = SecurityContext.getSuperUserInstance();
 		final NodeFactory nodeFactory = new NodeFactory(superUserContext);
+		final int threads = getThreadCount(attributes);
 
 		Class type = null;
 		if (entityType != null) {
@@ -130,7 +131,7 @@ public class BulkCreateLabelsCommand extends NodeServiceCommand implements Maint
 
 			}
 
-		});
+		}, true, threads);
 
 		logger.log(Level.INFO, "Done with creating labels on {0} nodes", count);
 	}
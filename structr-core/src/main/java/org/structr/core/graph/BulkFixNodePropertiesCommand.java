@@ -49,6 +49,7 @@ public class BulkFixNodePropertiesCommand extends NodeServiceCommand implements
 
 		final String propertyName   = (String)attributes.get("name");
 		final String entityTypeName = (String)attributes.get("type");
+		final int threads           = getThreadCount(attributes);
 
 		if (entityTypeName != null) {
 
@@ -151,7 +152,7 @@ public class BulkFixNodePropertiesCommand extends NodeServiceCommand implements
 						public void handleTransactionFailure(SecurityContext securityContext, Throwable t) {
 							t.printStackTrace();
 						}
-					});
+					}, true, threads);
 
 					logger.log(Level.INFO, "Fixed {0} nodes", nodeCount);
 
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress information for a running or recently finished bulk graph
+ * operation, see {@link NodeServiceCommand#bulkGraphOperation}. The most
+ * recent operations are kept in a static registry so they can be
+ * inspected through the maintenance resource.
+ *
+ * @author Christian Morgner
+ */
+public class BulkOperationStatus {
+
+	private static final int MAX_FINISHED_OPERATIONS                      = 20;
+	private static final ConcurrentLinkedQueue<BulkOperationStatus> registry = new ConcurrentLinkedQueue<>();
+	private static final AtomicLong idSource                              = new AtomicLong();
+
+	private final AtomicLong failedTransactions = new AtomicLong();
+	private final AtomicLong processed          = new AtomicLong();
+	private final AtomicLong failed             = new AtomicLong();
+	private final long id                       = idSource.incrementAndGet();
+	private final long startTime                = System.currentTimeMillis();
+	private volatile long endTime               = 0L;
+	private String description                  = null;
+	private int workers                         = 1;
+
+	private BulkOperationStatus(final String description, final int workers) {
+
+		this.description = description;
+		this.workers     = workers;
+	}
+
+	public static BulkOperationStatus start(final String description, final int workers) {
+
+		final BulkOperationStatus status = new BulkOperationStatus(description, workers);
+
+		registry.add(status);
+		removeOldOperations();
+
+		return status;
+	}
+
+	/**
+	 * Returns all running operations and the most recently finished ones,
+	 * in the order they were started.
+	 *
+	 * @return a list of operations
+	 */
+	public static List<BulkOperationStatus> getOperations() {
+		return new LinkedList<>(registry);
+	}
+
+	public void finish() {
+		endTime = System.currentTimeMillis();
+	}
+
+	public void processed() {
+		processed.incrementAndGet();
+	}
+
+	public void failed() {
+		failed.incrementAndGet();
+	}
+
+	public void transactionFailed() {
+		failedTransactions.incrementAndGet();
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getFailedTransactions() {
+		return failedTransactions.get();
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public boolean isRunning() {
+		return endTime == 0L;
+	}
+
+	/**
+	 * Returns the average number of objects processed per second.
+	 *
+	 * @return the throughput in objects/s
+	 */
+	public double getThroughput() {
+
+		final long end = isRunning() ? System.currentTimeMillis() : endTime;
+
+		return processed.get() * 1000.0 / Math.max(1L, end - startTime);
+	}
+
+	// ----- private methods -----
+	private static void removeOldOperations() {
+
+		int finished = 0;
+
+		// count finished operations, newest first
+		final List<BulkOperationStatus> operations = new LinkedList<>(registry);
+		for (int i=operations.size()-1; i>=0; i--) {
+
+			final BulkOperationStatus status = operations.get(i);
+			if (!status.isRunning() && ++finished > MAX_FINISHED_OPERATIONS) {
+
+				registry.remove(status);
+			}
+		}
+	}
+}
@@ -60,6 +60,7 @@ public class BulkRebuildIndexCommand extends NodeServiceCommand implements Maint
 		final SecurityContext superUserContext = SecurityContext.getSuperUserInstance();
 		final NodeFactory nodeFactory          = new NodeFactory(superUserContext);
 		final RelationshipFactory relFactory   = new RelationshipFactory(superUserContext);
+		final int threads                      = getThreadCount(attributes);
 
 		Class type = null;
 		if (entityType != null) {
@@ -128,7 +129,7 @@ public class BulkRebuildIndexCommand extends NodeServiceCommand implements Maint
 
 				}
 
-			});
+			}, true, threads);
 
 			logger.log(Level.INFO, "Done with (re-)indexing {0} nodes", count);
 		}
@@ -186,7 +187,7 @@ public class BulkRebuildIndexCommand extends NodeServiceCommand implements Maint
 
 				}
 
-			});
+			}, true, threads);
 
 			logger.log(Level.INFO, "Done with (re-)indexing {0} relationships", count);
 		}
@@ -56,6 +56,7 @@ public class BulkSetNodePropertiesCommand extends NodeServiceCommand implements
 		final GraphDatabaseService graphDb     = (GraphDatabaseService) arguments.get("graphDb");
 		final SecurityContext superUserContext = SecurityContext.getSuperUserInstance();
 		final NodeFactory nodeFactory          = new NodeFactory(superUserContext);
+		final int threads                      = getThreadCount(properties);
 
 		final String type = (String)properties.get("type");
 		if (StringUtils.isBlank(type)) {
@@ -89,8 +90,9 @@ public class BulkSetNodePropertiesCommand extends NodeServiceCommand implements
 				}
 			}
 
-			// remove "type" so it won't be set later
+			// remove "type" and "threads" so they won't be set later
 			properties.remove("type");
+			properties.remove("threads");
 
 			long nodeCount  = bulkGraphOperation(securityContext, nodes.getResults(), 1000, "SetNodeProperties", new BulkGraphOperation<AbstractNode>() {
 
@@ -152,7 +154,7 @@ public class BulkSetNodePropertiesCommand extends NodeServiceCommand implements
 				public void handleTransactionFailure(SecurityContext securityContext, Throwable t) {
 					logger.log(Level.WARNING, "Unable to set node properties: {0}", t.getMessage() );
 				}
-			});
+			}, true, threads);
 
 
 			logger.log(Level.INFO, "Fixed {0} nodes ...", nodeCount);
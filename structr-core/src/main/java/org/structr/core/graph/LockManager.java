@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read/write locks for synchronization keys.
+ *
+ * Keys are mapped onto a fixed number of lock stripes. All stripes that
+ * are needed for a set of keys are acquired in ascending stripe order,
+ * so two callers with overlapping key sets can never deadlock each other.
+ * Keys can be locked in shared or exclusive mode, and acquisition gives
+ * up after the given timeout, releasing all stripes it already holds.
+ *
+ * Note that a thread holding a shared lock cannot upgrade it to an
+ * exclusive lock on the same stripe.
+ *
+ * @author Christian Morgner
+ */
+public class LockManager {
+
+	private final ConcurrentHashMap<String, KeyStatistics> statistics = new ConcurrentHashMap<>();
+	private ReentrantReadWriteLock[] stripes                          = null;
+
+	public LockManager(final int stripeCount) {
+
+		this.stripes = new ReentrantReadWriteLock[Math.max(1, stripeCount)];
+
+		for (int i=0; i<stripes.length; i++) {
+			stripes[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Acquires the locks for all the given keys, waiting at most the
+	 * given time.
+	 *
+	 * @param keys the keys to lock, can be null
+	 * @param exclusive whether to lock in exclusive or shared mode
+	 * @param timeout the maximum time to wait
+	 * @param unit the time unit of the timeout argument
+	 *
+	 * @return the acquired locks, or null if the timeout elapsed before all locks could be acquired
+	 * @throws InterruptedException
+	 */
+	public Locks acquire(final Set<String> keys, final boolean exclusive, final long timeout, final TimeUnit unit) throws InterruptedException {
+
+		if (keys == null || keys.isEmpty()) {
+			return new Locks(Collections.EMPTY_LIST);
+		}
+
+		// canonical order: stripe index, then key
+		final TreeMap<Integer, List<String>> keysByStripe = new TreeMap<>();
+		for (final String key : keys) {
+
+			if (key != null) {
+
+				final int stripe = getStripe(key);
+
+				List<String> stripeKeys = keysByStripe.get(stripe);
+				if (stripeKeys == null) {
+
+					stripeKeys = new ArrayList<>();
+					keysByStripe.put(stripe, stripeKeys);
+				}
+
+				stripeKeys.add(key);
+			}
+		}
+
+		final long deadline    = System.nanoTime() + unit.toNanos(timeout);
+		final List<Lock> locks = new ArrayList<>(keysByStripe.size());
+		boolean success        = false;
+
+		try {
+
+			for (final Map.Entry<Integer, List<String>> entry : keysByStripe.entrySet()) {
+
+				final ReentrantReadWriteLock stripe = stripes[entry.getKey()];
+				final Lock lock                     = exclusive ? stripe.writeLock() : stripe.readLock();
+				final long start                    = System.nanoTime();
+				boolean contended                   = false;
+
+				if (!lock.tryLock()) {
+
+					contended = true;
+
+					if (!lock.tryLock(Math.max(0L, deadline - start), TimeUnit.NANOSECONDS)) {
+
+						for (final String key : entry.getValue()) {
+							getStatistics(key).timeout();
+						}
+
+						return null;
+					}
+				}
+
+				locks.add(lock);
+
+				final long waited = System.nanoTime() - start;
+				for (final String key : entry.getValue()) {
+					getStatistics(key).acquired(contended, waited);
+				}
+			}
+
+			success = true;
+
+		} finally {
+
+			if (!success) {
+
+				// release in reverse order
+				for (int i=locks.size()-1; i>=0; i--) {
+					locks.get(i).unlock();
+				}
+			}
+		}
+
+		return new Locks(locks);
+	}
+
+	/**
+	 * Returns a snapshot of the contention statistics for all keys
+	 * that have been locked so far.
+	 *
+	 * @return a map from key to statistics
+	 */
+	public Map<String, Map<String, Object>> getStatistics() {
+
+		final Map<String, Map<String, Object>> result = new TreeMap<>();
+
+		for (final Map.Entry<String, KeyStatistics> entry : statistics.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().toMap());
+		}
+
+		return result;
+	}
+
+	// ----- private methods -----
+	private int getStripe(final String key) {
+
+		// spread bits like HashMap does
+		final int hash = key.hashCode();
+		return ((hash ^ (hash >>> 16)) & 0x7fffffff) % stripes.length;
+	}
+
+	private KeyStatistics getStatistics(final String key) {
+
+		KeyStatistics stats = statistics.get(key);
+		if (stats == null) {
+
+			stats = new KeyStatistics();
+
+			final KeyStatistics existing = statistics.putIfAbsent(key, stats);
+			if (existing != null) {
+
+				stats = existing;
+			}
+		}
+
+		return stats;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The set of locks held by a caller, must be released exactly once.
+	 */
+	public static class Locks implements AutoCloseable {
+
+		private List<Lock> locks = null;
+
+		private Locks(final List<Lock> locks) {
+			this.locks = locks;
+		}
+
+		@Override
+		public void close() {
+
+			if (locks != null) {
+
+				// release in reverse order
+				for (int i=locks.size()-1; i>=0; i--) {
+					locks.get(i).unlock();
+				}
+
+				locks = null;
+			}
+		}
+	}
+
+	private static class KeyStatistics {
+
+		private final AtomicLong acquisitions = new AtomicLong();
+		private final AtomicLong contentions  = new AtomicLong();
+		private final AtomicLong timeouts     = new AtomicLong();
+		private final AtomicLong waitNanos    = new AtomicLong();
+
+		public void acquired(final boolean contended, final long waited) {
+
+			acquisitions.incrementAndGet();
+
+			if (contended) {
+
+				contentions.incrementAndGet();
+				waitNanos.addAndGet(waited);
+			}
+		}
+
+		public void timeout() {
+			timeouts.incrementAndGet();
+		}
+
+		public Map<String, Object> toMap() {
+
+			final Map<String, Object> map = new LinkedHashMap<>();
+
+			map.put("acquisitions", acquisitions.get());
+			map.put("contentions",  contentions.get());
+			map.put("timeouts",     timeouts.get());
+			map.put("waitTimeMs",   TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+
+			return map;
+		}
+	}
+}
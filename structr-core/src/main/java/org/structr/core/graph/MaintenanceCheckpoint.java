@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.StructrApp;
+
+/**
+ * Persistent progress of a maintenance command. While a command runs, each
+ * bulk graph operation it starts records the id of the last object whose
+ * batch was committed, so that an interrupted run can be resumed with the
+ * same parameters instead of starting from zero. Checkpoints are stored as
+ * global settings in the database. The command parameters themselves are
+ * not stored, since they may contain credentials, only a fingerprint that
+ * identifies them, so a run can only be resumed with the same parameters.
+ *
+ * @author Christian Morgner
+ */
+public class MaintenanceCheckpoint {
+
+	private static final Logger logger                           = Logger.getLogger(MaintenanceCheckpoint.class.getName());
+	private static final ThreadLocal<MaintenanceCheckpoint> current = new ThreadLocal<>();
+	private static final String KEY_PREFIX                       = "maintenance.checkpoint.";
+	private static final Gson gson                               = new GsonBuilder().create();
+
+	private transient Map<String, Object> parameters = new LinkedHashMap<>();
+	private Map<String, Operation> operations        = new LinkedHashMap<>();
+	private String fingerprint                       = null;
+	private String command                           = null;
+	private boolean finished                  = false;
+	private long updated                      = 0L;
+
+	public MaintenanceCheckpoint() {
+	}
+
+	private MaintenanceCheckpoint(final String command, final Map<String, Object> parameters) {
+
+		this.command     = command;
+		this.fingerprint = fingerprint(parameters);
+
+		if (parameters != null) {
+			this.parameters.putAll(parameters);
+		}
+	}
+
+	/**
+	 * Starts a checkpointed run of the given command on the current thread.
+	 * If resume is set and an unfinished checkpoint exists for the command
+	 * and the same parameters, its state is continued.
+	 *
+	 * @param command the command name
+	 * @param parameters the command parameters
+	 * @param resume whether to resume an unfinished run
+	 * @return the checkpoint
+	 * @throws FrameworkException
+	 */
+	public static MaintenanceCheckpoint begin(final String command, final Map<String, Object> parameters, final boolean resume) throws FrameworkException {
+
+		MaintenanceCheckpoint checkpoint = null;
+
+		if (resume) {
+
+			checkpoint = load(command);
+
+			if (checkpoint == null || checkpoint.finished) {
+
+				logger.log(Level.INFO, "No unfinished run of {0} found, starting from the beginning", command);
+				checkpoint = null;
+
+			} else if (!fingerprint(parameters).equals(checkpoint.fingerprint)) {
+
+				logger.log(Level.WARNING, "Unfinished run of {0} was started with different parameters, starting from the beginning", command);
+				checkpoint = null;
+
+			} else {
+
+				logger.log(Level.INFO, "Resuming {0}", command);
+
+				if (parameters != null) {
+					checkpoint.parameters.putAll(parameters);
+				}
+			}
+		}
+
+		if (checkpoint == null) {
+			checkpoint = new MaintenanceCheckpoint(command, parameters);
+		}
+
+		checkpoint.save();
+
+		current.set(checkpoint);
+
+		return checkpoint;
+	}
+
+	/**
+	 * Returns the checkpoint of the maintenance command that runs on the
+	 * current thread, or null.
+	 *
+	 * @return the current checkpoint or null
+	 */
+	public static MaintenanceCheckpoint getCurrent() {
+		return current.get();
+	}
+
+	public static MaintenanceCheckpoint load(final String command) throws FrameworkException {
+
+		final String json = StructrApp.getInstance().getGlobalSetting(KEY_PREFIX + command, null);
+		if (json != null) {
+
+			final MaintenanceCheckpoint checkpoint = gson.fromJson(json, MaintenanceCheckpoint.class);
+
+			// transient fields are not initialized by Gson
+			checkpoint.parameters = new LinkedHashMap<>();
+
+			return checkpoint;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Ends the run on the current thread. The checkpoint is marked as
+	 * finished if the command completed successfully, otherwise it is kept
+	 * so the run can be resumed.
+	 *
+	 * @param success whether the command completed
+	 * @throws FrameworkException
+	 */
+	public void end(final boolean success) throws FrameworkException {
+
+		current.remove();
+
+		if (success) {
+
+			finished = true;
+			save();
+		}
+	}
+
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public long getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Returns the state of the bulk operation with the given description,
+	 * creating it if necessary.
+	 *
+	 * @param description the description of the bulk operation
+	 * @return the operation state
+	 */
+	public synchronized Operation getOperation(final String description) {
+
+		Operation operation = operations.get(description);
+		if (operation == null) {
+
+			operation = new Operation();
+			operations.put(description, operation);
+		}
+
+		operation.checkpoint = this;
+
+		return operation;
+	}
+
+	// ----- private methods -----
+	private synchronized void save() throws FrameworkException {
+
+		updated = System.currentTimeMillis();
+
+		StructrApp.getInstance().setGlobalSetting(KEY_PREFIX + command, gson.toJson(this));
+	}
+
+	private static String fingerprint(final Map<String, Object> parameters) {
+
+		final Map<String, String> sorted = new TreeMap<>();
+
+		if (parameters != null) {
+
+			for (final Map.Entry<String, Object> entry : parameters.entrySet()) {
+				sorted.put(entry.getKey(), String.valueOf(entry.getValue()));
+			}
+		}
+
+		return DigestUtils.sha256Hex(sorted.toString());
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Progress of a single bulk operation. Batches may be committed out of
+	 * order by parallel workers, so the last id only advances over a
+	 * contiguous run of completed batches. All state is guarded by the
+	 * enclosing checkpoint.
+	 */
+	public static class Operation {
+
+		private transient TreeMap<Long, long[]> pending  = new TreeMap<>();
+		private transient MaintenanceCheckpoint checkpoint = null;
+		private transient long nextSequence              = 0L;
+		private boolean finished                         = false;
+		private long processed                           = 0L;
+		private long lastId                              = -1L;
+
+		public Operation() {
+		}
+
+		public boolean isFinished() {
+			return finished;
+		}
+
+		public long getProcessed() {
+			return processed;
+		}
+
+		public long getLastId() {
+			return lastId;
+		}
+
+		/**
+		 * Resets the batch sequence, must be called before the first batch
+		 * of a run is handed out.
+		 */
+		public void start() {
+
+			synchronized (checkpoint) {
+
+				pending      = new TreeMap<>();
+				nextSequence = 0L;
+			}
+		}
+
+		/**
+		 * Records that the batch with the given sequence number has been
+		 * committed, and persists the checkpoint if the last id advanced.
+		 *
+		 * @param sequence the sequence number of the batch
+		 * @param batchLastId the highest id in the batch
+		 * @param count the number of objects in the batch
+		 * @throws FrameworkException if the checkpoint could not be stored
+		 */
+		public void completed(final long sequence, final long batchLastId, final long count) throws FrameworkException {
+
+			synchronized (checkpoint) {
+
+				pending.put(sequence, new long[] { batchLastId, count });
+
+				if (pending.containsKey(nextSequence)) {
+
+					while (pending.containsKey(nextSequence)) {
+
+						final long[] batch = pending.remove(nextSequence++);
+
+						lastId     = Math.max(lastId, batch[0]);
+						processed += batch[1];
+					}
+
+					store();
+				}
+			}
+		}
+
+		public void finish() throws FrameworkException {
+
+			synchronized (checkpoint) {
+
+				finished = true;
+				store();
+			}
+		}
+
+		// ----- private methods -----
+		private void store() throws FrameworkException {
+
+			try {
+				checkpoint.save();
+
+			} catch (FrameworkException fex) {
+
+				logger.log(Level.WARNING, "Unable to store maintenance checkpoint: {0}", fex.getMessage());
+
+				// a run that cannot record its progress must not continue silently
+				throw fex;
+			}
+		}
+	}
+}
@@ -229,6 +229,10 @@ public class ModificationQueue {
 		return modificationEvents;
 	}
 
+	public boolean isEmpty() {
+		return modificationEvents.isEmpty();
+	}
+
 	public void postProcess(final String key, final TransactionPostProcess process) {
 
 		if (!postProcesses.containsKey(key)) {
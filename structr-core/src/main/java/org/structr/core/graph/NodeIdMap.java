@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A disk-backed map from structr UUIDs to database node IDs, used to resolve
+ * relationship endpoints during large imports without keeping all imported
+ * nodes on the heap. UUIDs are stored as two longs in an open-addressing
+ * hash table in a memory-mapped temporary file; the rare UUID that is not
+ * a 32 character hex string is kept in a small map on the heap. All methods
+ * are synchronized so the map can be shared by parallel import workers.
+ *
+ * @author Christian Morgner
+ */
+public class NodeIdMap implements AutoCloseable {
+
+	private static final int ENTRY_SIZE          = 24;
+	private static final int SEGMENT_BITS        = 24;
+	private static final long SEGMENT_ENTRIES    = 1L << SEGMENT_BITS;
+	private static final double MAX_LOAD         = 0.7;
+
+	private final Map<String, Long> fallback     = new HashMap<>();
+	private MappedByteBuffer[] segments          = null;
+	private RandomAccessFile file                = null;
+	private File directory                       = null;
+	private File tableFile                       = null;
+	private long capacity                        = 0L;
+	private long size                            = 0L;
+
+	public NodeIdMap() throws IOException {
+		this(new File(System.getProperty("java.io.tmpdir")), 1L << 16);
+	}
+
+	/**
+	 * Creates a new map with a table file in the given directory.
+	 *
+	 * @param directory the directory for the table file
+	 * @param initialCapacity the initial number of slots, will be rounded to a power of two
+	 * @throws IOException
+	 */
+	public NodeIdMap(final File directory, final long initialCapacity) throws IOException {
+
+		this.directory = directory;
+
+		allocate(Long.highestOneBit(Math.max(16L, initialCapacity - 1)) << 1);
+	}
+
+	public synchronized void put(final String uuid, final long nodeId) throws IOException {
+
+		if (!isHex(uuid)) {
+
+			fallback.put(uuid, nodeId);
+			return;
+		}
+
+		if (size + 1 > capacity * MAX_LOAD) {
+			grow();
+		}
+
+		if (insert(parse(uuid, 0), parse(uuid, 16), nodeId)) {
+			size++;
+		}
+	}
+
+	/**
+	 * Returns the node ID for the given UUID, or -1 if there is none.
+	 *
+	 * @param uuid
+	 * @return the node ID or -1
+	 */
+	public synchronized long get(final String uuid) {
+
+		if (!isHex(uuid)) {
+
+			final Long nodeId = fallback.get(uuid);
+			return nodeId != null ? nodeId : -1L;
+		}
+
+		final long hi = parse(uuid, 0);
+		final long lo = parse(uuid, 16);
+		final long mask = capacity - 1;
+
+		for (long slot = hash(hi, lo) & mask;; slot = (slot + 1) & mask) {
+
+			final long value = getLong(slot, 16);
+			if (value == 0L) {
+				return -1L;
+			}
+
+			if (getLong(slot, 0) == hi && getLong(slot, 8) == lo) {
+				return value - 1;
+			}
+		}
+	}
+
+	public synchronized long size() {
+		return size + fallback.size();
+	}
+
+	@Override
+	public synchronized void close() {
+
+		try {
+			file.close();
+
+		} catch (IOException ignore) {}
+
+		segments = null;
+		tableFile.delete();
+	}
+
+	// ----- private methods -----
+	private void allocate(final long newCapacity) throws IOException {
+
+		final int segmentCount = (int)Math.max(1L, newCapacity / SEGMENT_ENTRIES);
+		final long segmentSize = Math.min(newCapacity, SEGMENT_ENTRIES) * ENTRY_SIZE;
+
+		tableFile = File.createTempFile("structr-import", ".map", directory);
+		file      = new RandomAccessFile(tableFile, "rw");
+		segments  = new MappedByteBuffer[segmentCount];
+		capacity  = newCapacity;
+		size      = 0L;
+
+		file.setLength(segmentCount * segmentSize);
+
+		for (int i=0; i<segmentCount; i++) {
+			segments[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, i * segmentSize, segmentSize);
+		}
+	}
+
+	private void grow() throws IOException {
+
+		final MappedByteBuffer[] oldSegments = segments;
+		final RandomAccessFile oldFile       = file;
+		final File oldTableFile              = tableFile;
+		final long oldCapacity               = capacity;
+
+		allocate(oldCapacity << 1);
+
+		for (long slot=0; slot<oldCapacity; slot++) {
+
+			final MappedByteBuffer segment = oldSegments[(int)(slot >>> SEGMENT_BITS)];
+			final int offset               = (int)(slot & (SEGMENT_ENTRIES - 1)) * ENTRY_SIZE;
+			final long value               = segment.getLong(offset + 16);
+
+			if (value != 0L) {
+
+				insert(segment.getLong(offset), segment.getLong(offset + 8), value - 1);
+				size++;
+			}
+		}
+
+		oldFile.close();
+		oldTableFile.delete();
+	}
+
+	private boolean insert(final long hi, final long lo, final long nodeId) {
+
+		final long mask = capacity - 1;
+
+		for (long slot = hash(hi, lo) & mask;; slot = (slot + 1) & mask) {
+
+			final long value = getLong(slot, 16);
+			if (value == 0L) {
+
+				putLong(slot, 0, hi);
+				putLong(slot, 8, lo);
+
+				// store node ID + 1 so that 0 marks an empty slot
+				putLong(slot, 16, nodeId + 1);
+
+				return true;
+			}
+
+			if (getLong(slot, 0) == hi && getLong(slot, 8) == lo) {
+
+				putLong(slot, 16, nodeId + 1);
+				return false;
+			}
+		}
+	}
+
+	private long getLong(final long slot, final int field) {
+		return segments[(int)(slot >>> SEGMENT_BITS)].getLong((int)(slot & (SEGMENT_ENTRIES - 1)) * ENTRY_SIZE + field);
+	}
+
+	private void putLong(final long slot, final int field, final long value) {
+		segments[(int)(slot >>> SEGMENT_BITS)].putLong((int)(slot & (SEGMENT_ENTRIES - 1)) * ENTRY_SIZE + field, value);
+	}
+
+	private static long hash(final long hi, final long lo) {
+
+		long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+
+		return h;
+	}
+
+	private static boolean isHex(final String uuid) {
+
+		if (uuid == null || uuid.length() != 32) {
+			return false;
+		}
+
+		for (int i=0; i<32; i++) {
+
+			if (Character.digit(uuid.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static long parse(final String uuid, final int offset) {
+
+		long value = 0L;
+
+		for (int i=offset; i<offset+16; i++) {
+			value = (value << 4) | Character.digit(uuid.charAt(i), 16);
+		}
+
+		return value;
+	}
+}
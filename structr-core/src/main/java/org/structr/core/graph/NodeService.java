@@ -41,6 +41,9 @@ import org.structr.core.entity.Location;
 import java.io.File;
 
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.neo4j.cypher.javacompat.ExecutionEngine;
@@ -78,6 +81,8 @@ public class NodeService implements SingletonService {
 	private Index<Node> userIndex                   = null;
 	private Index<Node> uuidIndex                   = null;
 
+	private final ReadWriteLock layerIndexLock      = new ReentrantReadWriteLock();
+
 	private Index<Relationship> relFulltextIndex    = null;
 	private Index<Relationship> relKeywordIndex     = null;
 	private Index<Relationship> relUuidIndex        = null;
@@ -91,6 +96,7 @@ public class NodeService implements SingletonService {
 	/** Dependent services */
 	private String filesPath      = null;
 	private boolean isInitialized = false;
+	private long lockTimeout      = 60L;
 
 	//~--- constant enums -------------------------------------------------
 
@@ -126,6 +132,7 @@ public class NodeService implements SingletonService {
 			command.setArgument(RelationshipIndex.rel_keyword.name(), relKeywordIndex);
 
 			command.setArgument("filesPath", filesPath);
+			command.setArgument(TransactionCommand.LOCK_TIMEOUT_KEY, lockTimeout);
 
 			command.setArgument("indices", NodeIndex.values());
 			command.setArgument("relationshipIndices", RelationshipIndex.values());
@@ -140,6 +147,8 @@ public class NodeService implements SingletonService {
 		final String dbPath                = config.getProperty(Services.DATABASE_PATH);
 		final GraphDatabaseBuilder builder = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(dbPath);
 
+		lockTimeout = Services.parseInt(config.getProperty(TransactionCommand.LOCK_TIMEOUT_KEY), 60);
+
 		logger.log(Level.INFO, "Initializing database ({0}) ...", dbPath);
 
 		if (graphDb != null) {
@@ -342,6 +351,34 @@ public class NodeService implements SingletonService {
 		return relIndices.get(name);
 	}
 
+	/**
+	 * Returns the lock that spatial queries must hold while reading the
+	 * layer index. Any number of queries can hold it at the same time.
+	 *
+	 * @return the read lock for the layer index
+	 */
+	public Lock getLayerIndexReadLock() {
+		return layerIndexLock.readLock();
+	}
+
+	/**
+	 * Returns the lock that must be held in addition to the index monitor
+	 * when the given index is modified, or null if the index can be
+	 * modified under its monitor alone.
+	 *
+	 * @param index the index to modify
+	 * @return the write lock for the layer index, or null
+	 */
+	public Lock getIndexWriteLock(final Index index) {
+
+		if (index != null && index == layerIndex) {
+
+			return layerIndexLock.writeLock();
+		}
+
+		return null;
+	}
+
 	private void importSeedFile(final String basePath) {
 
 		final File seedFile = new File(Services.trim(basePath) + "/" + Services.INITIAL_SEED_FILE);
@@ -18,18 +18,27 @@
  */
 package org.structr.core.graph;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.lang3.StringUtils;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.GraphObject;
 import org.structr.core.Predicate;
+import org.structr.core.Services;
 import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
 
@@ -40,8 +49,8 @@ import org.structr.core.app.StructrApp;
  */
 public abstract class NodeServiceCommand extends Command {
 
-	private static final Logger logger                        = Logger.getLogger(NodeServiceCommand.class.getName());
-	private static final ArrayBlockingQueue<String> uuidQueue = new ArrayBlockingQueue<>(100000);
+	private static final Logger logger              = Logger.getLogger(NodeServiceCommand.class.getName());
+	private static volatile UuidProvider uuidProvider = null;
 
 	@Override
 	public Class getServiceClass()	{
@@ -77,48 +86,109 @@ public abstract class NodeServiceCommand extends Command {
 	 * @throws FrameworkException on exceptions
 	 */
 	public static <T extends GraphObject> long bulkGraphOperation(final SecurityContext securityContext, final Iterable<T> nodes, final long commitCount, String description, final BulkGraphOperation<T> operation, boolean validation) throws FrameworkException {
+		return bulkGraphOperation(securityContext, nodes, commitCount, description, operation, validation, 1);
+	}
+
+	/**
+	 * Executes the given operation on all nodes in the given list, using
+	 * the given number of worker threads. Each worker takes the next
+	 * partition of commitCount objects from the input and processes it in
+	 * its own transaction, so the operation must not depend on the order
+	 * in which objects are handled. Progress is published through
+	 * {@link BulkOperationStatus}.
+	 *
+	 * @param <T> the type T
+	 * @param securityContext the SecurityContext
+	 * @param nodes the nodes to operate on
+	 * @param commitCount the commit count
+	 * @param description the description
+	 * @param operation the operation to execute
+	 * @param validation whether validation should be performed
+	 * @param threads the number of worker threads
+	 * @return the number of nodes processed
+	 * @throws FrameworkException on exceptions
+	 */
+	public static <T extends GraphObject> long bulkGraphOperation(final SecurityContext securityContext, final Iterable<T> nodes, final long commitCount, final String description, final BulkGraphOperation<T> operation, final boolean validation, final int threads) throws FrameworkException {
 
-		final App app              = StructrApp.getInstance(securityContext);
-		final Iterator<T> iterator = nodes.iterator();
-		long objectCount           = 0L;
+		final MaintenanceCheckpoint checkpoint         = MaintenanceCheckpoint.getCurrent();
+		final MaintenanceCheckpoint.Operation progress = checkpoint != null ? checkpoint.getOperation(description) : null;
+		Iterable<T> input                              = nodes;
 
-		while (iterator.hasNext()) {
+		if (progress != null) {
 
-			try (final Tx tx = app.tx()) {
+			if (progress.isFinished()) {
+
+				logger.log(Level.INFO, "{0}: already completed in a previous run, skipping", description);
+				return progress.getProcessed();
+			}
+
+			if (progress.getLastId() >= 0) {
+				logger.log(Level.INFO, "{0}: resuming after id {1}, {2} objects processed before", new Object[] { description, progress.getLastId(), progress.getProcessed() } );
+			}
+
+			// process objects in id order so the checkpoint can record a position
+			input = sortById(nodes, progress.getLastId());
+			progress.start();
+		}
+
+		final BulkOperationStatus status = BulkOperationStatus.start(description, Math.max(1, threads));
+		final PartitionSource<T> source  = new PartitionSource<>(input.iterator(), commitCount);
+
+		try {
+
+			if (threads <= 1) {
 
-				while (iterator.hasNext()) {
+				processPartitions(securityContext, source, description, operation, validation, status, progress);
 
-					T node = iterator.next();
+			} else {
 
-					try {
+				final ExecutorService executor     = Executors.newFixedThreadPool(threads);
+				final List<Future<Object>> results = new LinkedList<>();
 
-						operation.handleGraphObject(securityContext, node);
+				try {
 
-					} catch (Throwable t) {
+					for (int i=0; i<threads; i++) {
 
-						operation.handleThrowable(securityContext, t, node);
+						results.add(executor.submit(new Callable<Object>() {
+
+							@Override
+							public Object call() throws Exception {
+
+								processPartitions(securityContext, source, description, operation, validation, status, progress);
+								return null;
+							}
+						}));
 					}
 
-					// commit transaction after commitCount
-					if ((++objectCount % commitCount) == 0) {
-						break;
+					for (final Future<Object> result : results) {
+						result.get();
 					}
-				}
 
-				tx.success();
+				} catch (InterruptedException iex) {
 
-			} catch (Throwable t) {
+					Thread.currentThread().interrupt();
+					throw new FrameworkException(500, "Interrupted while waiting for bulk operation " + description);
 
-				// bulk transaction failed, what to do?
-				operation.handleTransactionFailure(securityContext, t);
+				} catch (ExecutionException eex) {
+
+					throw new FrameworkException(500, eex.getCause().getMessage());
+
+				} finally {
+
+					executor.shutdownNow();
+				}
 			}
 
-			if (description != null) {
-				logger.log(Level.INFO, "{0}: {1} objects processed", new Object[] { description, objectCount } );
+			if (progress != null && status.getFailedTransactions() == 0) {
+				progress.finish();
 			}
-		}
 
-		return objectCount;
+			return status.getProcessed();
+
+		} finally {
+
+			status.finish();
+		}
 	}
 
 	/**
@@ -153,43 +223,202 @@ public abstract class NodeServiceCommand extends Command {
 		}
 	}
 
-	public static String getNextUuid() {
+	// ----- private methods -----
+	private static <T extends GraphObject> void processPartitions(final SecurityContext securityContext, final PartitionSource<T> source, final String description, final BulkGraphOperation<T> operation, final boolean validation, final BulkOperationStatus status, final MaintenanceCheckpoint.Operation progress) throws FrameworkException {
+
+		final App app = StructrApp.getInstance(securityContext);
+
+		while (true) {
+
+			Partition<T> partition = null;
+			boolean committed      = false;
+
+			try {
+
+				try (final Tx tx = app.tx(validation)) {
+
+					partition = source.next();
+
+					handlePartition(securityContext, partition.objects, operation, status);
+
+					tx.success();
+				}
+
+				// the transaction is committed when it is closed
+				committed = true;
+
+			} catch (Throwable t) {
+
+				// bulk transaction failed, what to do?
+				status.transactionFailed();
+				operation.handleTransactionFailure(securityContext, t);
+			}
+
+			if (partition == null || partition.objects.isEmpty()) {
+				break;
+			}
+
+			// a failed batch must not advance the checkpoint, so that it is
+			// processed again when the run is resumed
+			if (progress != null && committed) {
+				progress.completed(partition.sequence, partition.objects.get(partition.objects.size() - 1).getId(), partition.objects.size());
+			}
+
+			logProgress(description, status);
+		}
+	}
 
-		String uuid = null;
+	private static <T extends GraphObject> void handlePartition(final SecurityContext securityContext, final List<T> partition, final BulkGraphOperation<T> operation, final BulkOperationStatus status) {
 
-		do {
+		for (final T node : partition) {
 
-			uuid = uuidQueue.poll();
+			try {
 
-		} while (uuid == null);
+				operation.handleGraphObject(securityContext, node);
 
-		return uuid;
+			} catch (Throwable t) {
+
+				status.failed();
+				operation.handleThrowable(securityContext, t, node);
+			}
+
+			status.processed();
+		}
 	}
 
-	// create uuid producer that fills the queue
-	static {
+	private static <T extends GraphObject> List<T> sortById(final Iterable<T> source, final long lastId) {
+
+		final List<T> list = new ArrayList<>();
+
+		for (final T obj : source) {
+
+			if (obj.getId() > lastId) {
+				list.add(obj);
+			}
+		}
 
-		Thread uuidProducer = new Thread(new Runnable() {
+		Collections.sort(list, new Comparator<T>() {
 
 			@Override
-			public void run() {
+			public int compare(final T o1, final T o2) {
+				return Long.compare(o1.getId(), o2.getId());
+			}
+		});
+
+		return list;
+	}
+
+	private static void logProgress(final String description, final BulkOperationStatus status) {
+
+		if (description != null) {
+			logger.log(Level.INFO, "{0}: {1} objects processed, {2} objects/s", new Object[] { description, status.getProcessed(), (long)status.getThroughput() } );
+		}
+	}
+
+	/**
+	 * Returns the number of worker threads for a bulk operation, taken
+	 * from the "threads" attribute or the {@link Services#BULK_OPERATION_THREADS}
+	 * setting.
+	 *
+	 * @param attributes the command attributes
+	 * @return the number of threads
+	 */
+	protected static int getThreadCount(final Map<String, Object> attributes) {
+
+		final int defaultValue = Services.parseInt(StructrApp.getConfigurationValue(Services.BULK_OPERATION_THREADS), 1);
+		final Object value     = attributes.get("threads");
+
+		if (value instanceof Number) {
+			return Math.max(1, ((Number)value).intValue());
+		}
+
+		if (value != null) {
+			return Math.max(1, Services.parseInt(value.toString(), defaultValue));
+		}
+
+		return Math.max(1, defaultValue);
+	}
+
+	public static String getNextUuid() {
+		return getUuidProvider().getNextUuid();
+	}
+
+	/**
+	 * Returns the configured UUID provider, see {@link Services#UUID_PROVIDER}.
+	 *
+	 * @return the UUID provider
+	 */
+	public static UuidProvider getUuidProvider() {
+
+		if (uuidProvider == null) {
 
-				// please do not stop :)
-				while (true) {
+			UuidProvider provider = null;
 
-					try {
-						while (true) {
+			try {
+
+				final String providerName = StructrApp.getConfigurationValue(Services.UUID_PROVIDER, "random");
+
+				switch (providerName) {
+
+					case "random":
+						provider = new RandomUuidProvider();
+						break;
 
-							uuidQueue.put(StringUtils.replace(UUID.randomUUID().toString(), "-", ""));
-						}
+					case "time":
+						provider = new TimeOrderedUuidProvider();
+						break;
 
-					} catch (Throwable t) {	}
+					default:
+						provider = (UuidProvider)Class.forName(providerName).newInstance();
+						break;
 				}
+
+			} catch (Throwable t) {
+
+				logger.log(Level.WARNING, "Unable to instantiate UUID provider, using default: {0}", t.getMessage());
+				provider = new RandomUuidProvider();
 			}
 
-		}, "UuidProducerThread");
+			uuidProvider = provider;
+		}
+
+		return uuidProvider;
+	}
+
+	// ----- nested classes -----
+	private static class Partition<T> {
+
+		private List<T> objects = new ArrayList<>();
+		private long sequence   = 0L;
+	}
+
+	/**
+	 * Hands out numbered partitions of the input to the workers of a bulk
+	 * operation.
+	 */
+	private static class PartitionSource<T> {
+
+		private Iterator<T> iterator = null;
+		private long commitCount     = 0L;
+		private long sequence        = 0L;
+
+		public PartitionSource(final Iterator<T> iterator, final long commitCount) {
 
-		uuidProducer.setDaemon(true);
-		uuidProducer.start();
+			this.iterator    = iterator;
+			this.commitCount = commitCount;
+		}
+
+		public synchronized Partition<T> next() {
+
+			final Partition<T> partition = new Partition<>();
+
+			partition.sequence = sequence++;
+
+			while (iterator.hasNext() && partition.objects.size() < commitCount) {
+				partition.objects.add(iterator.next());
+			}
+
+			return partition;
+		}
 	}
 }
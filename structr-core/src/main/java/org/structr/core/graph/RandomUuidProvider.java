@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+/**
+ * Generates random (version 4) UUIDs from a per-thread generator that is
+ * seeded once from SecureRandom, so threads never wait for each other.
+ *
+ * @author Christian Morgner
+ */
+public class RandomUuidProvider extends AbstractUuidProvider {
+
+	private static final ThreadLocal<Xorshift> generators = new ThreadLocal<Xorshift>() {
+
+		@Override
+		protected Xorshift initialValue() {
+			return new Xorshift();
+		}
+	};
+
+	@Override
+	public String getNextUuid() {
+
+		final Xorshift random = generators.get();
+		final long hi         = (random.nextLong() & 0xffffffffffff0fffL) | 0x0000000000004000L;
+		final long lo         = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+
+		return toHex(hi, lo);
+	}
+}
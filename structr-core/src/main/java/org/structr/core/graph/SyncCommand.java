@@ -33,6 +33,8 @@ import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -42,8 +44,17 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -70,6 +81,11 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 	private static final Logger logger                = Logger.getLogger(SyncCommand.class.getName());
 	private static final String STRUCTR_ZIP_DB_NAME   = "db";
+	private static final String STRUCTR_ZIP_MANIFEST_NAME = "db.manifest";
+	private static final int DEFAULT_IMPORT_BATCH_SIZE = 200;
+	private static final long IMPORT_REPORT_INTERVAL  = 5000L;
+	private static final int EXPORT_SEGMENT_THRESHOLD = 10000;
+	private static final int SEGMENT_BUFFER_SIZE      = 65536;
 
 	private static final Map<Class, Byte> typeMap     = new HashMap<>();
 	private static final Map<Byte, Class> classMap    = new HashMap<>();
@@ -109,7 +125,9 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 		String mode                  = (String)attributes.get("mode");
 		String fileName              = (String)attributes.get("file");
 		String validate              = (String)attributes.get("validate");
+		Object batchSizeValue        = attributes.get("batchSize");
 		boolean doValidation         = true;
+		int batchSize                = DEFAULT_IMPORT_BATCH_SIZE;
 
 		// should we validate imported nodes?
 		if (validate != null) {
@@ -124,6 +142,11 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 			}
 		}
 
+		if (batchSizeValue != null) {
+
+			batchSize = Math.max(1, Services.parseInt(batchSizeValue.toString(), DEFAULT_IMPORT_BATCH_SIZE));
+		}
+
 		if (fileName == null) {
 
 			throw new FrameworkException(400, "Please specify sync file.");
@@ -139,7 +162,7 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 		} else if ("import".equals(mode)) {
 
-			importFromFile(graphDb, securityContext, fileName, doValidation);
+			importFromFile(graphDb, securityContext, fileName, doValidation, batchSize);
 
 		} else {
 
@@ -261,9 +284,13 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 	}
 
 	public static void importFromFile(final GraphDatabaseService graphDb, final SecurityContext securityContext, final String fileName, boolean doValidation) throws FrameworkException {
+		importFromFile(graphDb, securityContext, fileName, doValidation, DEFAULT_IMPORT_BATCH_SIZE);
+	}
+
+	public static void importFromFile(final GraphDatabaseService graphDb, final SecurityContext securityContext, final String fileName, boolean doValidation, final int batchSize) throws FrameworkException {
 
 		try {
-			importFromStream(graphDb, securityContext, new FileInputStream(fileName), doValidation);
+			importFromStream(graphDb, securityContext, new FileInputStream(fileName), doValidation, batchSize);
 
 		} catch (Throwable t) {
 
@@ -274,6 +301,12 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 	}
 
 	public static void importFromStream(final GraphDatabaseService graphDb, final SecurityContext securityContext, final InputStream inputStream, boolean doValidation) throws FrameworkException {
+		importFromStream(graphDb, securityContext, inputStream, doValidation, DEFAULT_IMPORT_BATCH_SIZE);
+	}
+
+	public static void importFromStream(final GraphDatabaseService graphDb, final SecurityContext securityContext, final InputStream inputStream, boolean doValidation, final int batchSize) throws FrameworkException {
+
+		final Map<String, ExportSegment> segments = new LinkedHashMap<>();
 
 		try {
 			ZipInputStream zis = new ZipInputStream(inputStream);
@@ -281,9 +314,28 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 			while (entry != null) {
 
-				if (STRUCTR_ZIP_DB_NAME.equals(entry.getName())) {
+				final String name = entry.getName();
+
+				if (STRUCTR_ZIP_DB_NAME.equals(name)) {
+
+					importDatabase(graphDb, securityContext, zis, doValidation, batchSize);
+
+				} else if (STRUCTR_ZIP_MANIFEST_NAME.equals(name)) {
+
+					for (final ExportSegment segment : readManifest(zis)) {
+						segments.put(segment.name, segment);
+					}
+
+				} else if (segments.containsKey(name)) {
+
+					// segments are spooled to disk so they can be imported in parallel
+					final ExportSegment segment = segments.get(name);
 
-					importDatabase(graphDb, securityContext, zis, doValidation);
+					segment.file = File.createTempFile("structr-import", ".segment");
+
+					try (final FileOutputStream fos = new FileOutputStream(segment.file)) {
+						IOUtils.copy(zis, fos);
+					}
 
 				} else {
 
@@ -294,9 +346,23 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 				entry = zis.getNextEntry();
 			}
 
+			if (!segments.isEmpty()) {
+
+				importSegments(graphDb, securityContext, segments.values(), doValidation, batchSize);
+			}
+
 		} catch (IOException ioex) {
 
 			ioex.printStackTrace();
+
+		} finally {
+
+			for (final ExportSegment segment : segments.values()) {
+
+				if (segment.file != null) {
+					segment.file.delete();
+				}
+			}
 		}
 	}
 
@@ -315,8 +381,6 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 		outputStream.writeInt(data.length);
 		outputStream.write(data);
-
-		outputStream.flush();
 	}
 
 	public static void serialize(DataOutputStream outputStream, Object obj) throws IOException {
@@ -358,8 +422,6 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 			// null value
 			outputStream.writeByte((byte)127);
 		}
-
-		outputStream.flush();
 	}
 
 	public static byte[] deserializeData(final DataInputStream inputStream) throws IOException {
@@ -367,7 +429,7 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 		final int len       = inputStream.readInt();
 		final byte[] buffer = new byte[len];
 
-		inputStream.read(buffer, 0, len);
+		inputStream.readFully(buffer, 0, len);
 
 		return buffer;
 	}
@@ -467,80 +529,257 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 	private static void exportDatabase(final ZipOutputStream zos, final OutputStream outputStream,  final Iterable<? extends NodeInterface> nodes, final Iterable<? extends RelationshipInterface> relationships) throws IOException, FrameworkException {
 
+		final List<? extends NodeInterface> nodeList        = toList(nodes);
+		final List<? extends RelationshipInterface> relList = toList(relationships);
+		final int threads                                   = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue("sync.export.threads"), Runtime.getRuntime().availableProcessors()));
+
+		// small exports are written as a single entry that older versions can import
+		if (threads > 1 && nodeList.size() + relList.size() >= EXPORT_SEGMENT_THRESHOLD) {
+
+			exportSegments(zos, nodeList, relList, threads);
+			return;
+		}
+
 		// start database zip entry
 		final ZipEntry dbEntry        = new ZipEntry(STRUCTR_ZIP_DB_NAME);
 		final DataOutputStream dos    = new DataOutputStream(outputStream);
-		final String uuidPropertyName = GraphObject.id.dbName();
 		int nodeCount                 = 0;
 		int relCount                  = 0;
 
 		zos.putNextEntry(dbEntry);
 
-		for (NodeInterface nodeObject : nodes) {
+		for (NodeInterface nodeObject : nodeList) {
 
-			final Node node = nodeObject.getNode();
+			if (exportNode(dos, nodeObject)) {
+				nodeCount++;
+			}
+		}
 
-			// ignore non-structr nodes
-			if (node.hasProperty(GraphObject.id.dbName())) {
+		for (RelationshipInterface relObject : relList) {
 
-				outputStream.write('N');
+			if (exportRelationship(dos, relObject)) {
+				relCount++;
+			}
+		}
 
-				for (String key : node.getPropertyKeys()) {
+		dos.flush();
 
-					serialize(dos, key);
-					serialize(dos, node.getProperty(key));
+		// finish db entry
+		zos.closeEntry();
+
+		logger.log(Level.INFO, "Exported {0} nodes and {1} rels", new Object[] { nodeCount, relCount } );
+	}
+
+	/**
+	 * Exports nodes and relationships in parallel. The id space is split into
+	 * one contiguous range per thread, and each range is written into its own
+	 * compressed segment file. The segments are then copied into the ZIP file
+	 * as stored entries, preceded by a manifest that lists them, so the import
+	 * can read them in parallel as well.
+	 */
+	private static void exportSegments(final ZipOutputStream zos, final List<? extends NodeInterface> nodes, final List<? extends RelationshipInterface> relationships, final int threads) throws IOException, FrameworkException {
+
+		final List<Future<ExportSegment>> results = new LinkedList<>();
+		final List<ExportSegment> segments        = new LinkedList<>();
+		final ExecutorService executor            = Executors.newFixedThreadPool(threads);
+		long nodeCount                            = 0;
+		long relCount                             = 0;
+
+		try {
+
+			for (int i=0; i<threads; i++) {
+				results.add(executor.submit(new ExportWorker(new ExportSegment(STRUCTR_ZIP_DB_NAME + ".nodes." + i, false), slice(nodes, i, threads))));
+			}
+
+			for (int i=0; i<threads; i++) {
+				results.add(executor.submit(new ExportWorker(new ExportSegment(STRUCTR_ZIP_DB_NAME + ".rels." + i, true), slice(relationships, i, threads))));
+			}
+
+			for (final Future<ExportSegment> result : results) {
+				segments.add(await(result));
+			}
+
+			// write manifest
+			zos.putNextEntry(new ZipEntry(STRUCTR_ZIP_MANIFEST_NAME));
+
+			final DataOutputStream dos = new DataOutputStream(zos);
+
+			serialize(dos, segments.size());
+
+			for (final ExportSegment segment : segments) {
+
+				serialize(dos, segment.name);
+				serialize(dos, segment.relationships);
+				serialize(dos, segment.count);
+			}
+
+			dos.flush();
+			zos.closeEntry();
+
+			// segments are compressed already
+			for (final ExportSegment segment : segments) {
+
+				final ZipEntry entry = new ZipEntry(segment.name);
+
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(segment.file.length());
+				entry.setCompressedSize(segment.file.length());
+				entry.setCrc(segment.crc);
+
+				zos.putNextEntry(entry);
+
+				try (final FileInputStream fis = new FileInputStream(segment.file)) {
+					IOUtils.copy(fis, zos);
 				}
 
-				// do not use platform-specific line ending here!
-				dos.write('\n');
+				zos.closeEntry();
 
-				nodeCount++;
+				if (segment.relationships) {
+
+					relCount += segment.count;
+
+				} else {
+
+					nodeCount += segment.count;
+				}
+			}
+
+		} finally {
+
+			executor.shutdownNow();
+
+			for (final ExportSegment segment : segments) {
+				segment.file.delete();
 			}
 		}
 
-		dos.flush();
+		logger.log(Level.INFO, "Exported {0} nodes and {1} rels in {2} segments", new Object[] { nodeCount, relCount, segments.size() } );
+	}
 
-		for (RelationshipInterface relObject : relationships) {
+	private static boolean exportNode(final DataOutputStream dos, final NodeInterface nodeObject) throws IOException {
 
-			final Relationship rel = relObject.getRelationship();
+		final Node node = nodeObject.getNode();
 
-			// ignore non-structr nodes
-			if (rel.hasProperty(GraphObject.id.dbName())) {
+		// ignore non-structr nodes
+		if (node.hasProperty(GraphObject.id.dbName())) {
 
-				final Node startNode = rel.getStartNode();
-				final Node endNode   = rel.getEndNode();
+			dos.write('N');
 
-				if (startNode.hasProperty(uuidPropertyName) && endNode.hasProperty(uuidPropertyName)) {
+			for (String key : node.getPropertyKeys()) {
 
-					String startId = (String)startNode.getProperty(uuidPropertyName);
-					String endId   = (String)endNode.getProperty(uuidPropertyName);
+				serialize(dos, key);
+				serialize(dos, node.getProperty(key));
+			}
 
-					outputStream.write('R');
-					serialize(dos, startId);
-					serialize(dos, endId);
-					serialize(dos, rel.getType().name());
+			// do not use platform-specific line ending here!
+			dos.write('\n');
 
-					for (String key : rel.getPropertyKeys()) {
+			return true;
+		}
 
-						serialize(dos, key);
-						serialize(dos, rel.getProperty(key));
-					}
+		return false;
+	}
+
+	private static boolean exportRelationship(final DataOutputStream dos, final RelationshipInterface relObject) throws IOException {
+
+		final String uuidPropertyName = GraphObject.id.dbName();
+		final Relationship rel        = relObject.getRelationship();
 
-					// do not use platform-specific line ending here!
-					dos.write('\n');
+		// ignore non-structr nodes
+		if (rel.hasProperty(uuidPropertyName)) {
 
-					relCount++;
+			final Node startNode = rel.getStartNode();
+			final Node endNode   = rel.getEndNode();
+
+			if (startNode.hasProperty(uuidPropertyName) && endNode.hasProperty(uuidPropertyName)) {
+
+				String startId = (String)startNode.getProperty(uuidPropertyName);
+				String endId   = (String)endNode.getProperty(uuidPropertyName);
+
+				dos.write('R');
+				serialize(dos, startId);
+				serialize(dos, endId);
+				serialize(dos, rel.getType().name());
+
+				for (String key : rel.getPropertyKeys()) {
+
+					serialize(dos, key);
+					serialize(dos, rel.getProperty(key));
 				}
+
+				// do not use platform-specific line ending here!
+				dos.write('\n');
+
+				return true;
 			}
+		}
+
+		return false;
+	}
+
+	private static List<ExportSegment> readManifest(final InputStream inputStream) throws IOException {
+
+		final List<ExportSegment> segments = new LinkedList<>();
+		final DataInputStream dis          = new DataInputStream(inputStream);
+		final int count                    = (Integer)deserialize(dis);
 
+		for (int i=0; i<count; i++) {
+
+			final ExportSegment segment = new ExportSegment((String)deserialize(dis), (Boolean)deserialize(dis));
+			segment.count               = (Long)deserialize(dis);
+
+			segments.add(segment);
 		}
 
-		dos.flush();
+		return segments;
+	}
 
-		// finish db entry
-		zos.closeEntry();
+	private static <T> List<T> toList(final Iterable<T> source) {
 
-		logger.log(Level.INFO, "Exported {0} nodes and {1} rels", new Object[] { nodeCount, relCount } );
+		if (source instanceof List) {
+			return (List<T>)source;
+		}
+
+		final List<T> list = new ArrayList<>();
+
+		for (final T obj : source) {
+			list.add(obj);
+		}
+
+		return list;
+	}
+
+	private static <T> List<T> slice(final List<T> source, final int index, final int count) {
+
+		final long size = source.size();
+
+		return source.subList((int)(size * index / count), (int)(size * (index + 1) / count));
+	}
+
+	private static <T> T await(final Future<T> future) throws FrameworkException, IOException {
+
+		try {
+			return future.get();
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+			throw new FrameworkException(500, "Interrupted while waiting for sync worker");
+
+		} catch (ExecutionException eex) {
+
+			final Throwable cause = eex.getCause();
+
+			if (cause instanceof FrameworkException) {
+				throw (FrameworkException)cause;
+			}
+
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+
+			throw new FrameworkException(500, cause.getMessage());
+		}
 	}
 
 	private static void importDirectory(ZipInputStream zis, ZipEntry entry) throws IOException {
@@ -582,29 +821,112 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 		}
 	}
 
-	private static void importDatabase(final GraphDatabaseService graphDb, final SecurityContext securityContext, final ZipInputStream zis, boolean doValidation) throws FrameworkException, IOException {
+	private static void importDatabase(final GraphDatabaseService graphDb, final SecurityContext securityContext, final ZipInputStream zis, boolean doValidation, final int batchSize) throws FrameworkException, IOException {
+
+		final ImportProgress progress = new ImportProgress();
+
+		try (final NodeIdMap uuidMap = new NodeIdMap()) {
+
+			importObjects(graphDb, securityContext, new DataInputStream(new BufferedInputStream(zis)), uuidMap, progress, doValidation, batchSize);
+		}
+
+		progress.done();
+	}
+
+	private static void importSegments(final GraphDatabaseService graphDb, final SecurityContext securityContext, final Collection<ExportSegment> segments, boolean doValidation, final int batchSize) throws FrameworkException, IOException {
+
+		final List<ExportSegment> nodeSegments = new LinkedList<>();
+		final List<ExportSegment> relSegments  = new LinkedList<>();
+		final ImportProgress progress          = new ImportProgress();
+
+		for (final ExportSegment segment : segments) {
+
+			if (segment.file == null) {
+
+				logger.log(Level.WARNING, "Segment {0} listed in manifest but missing in import file, ignoring", segment.name);
+
+			} else if (segment.relationships) {
+
+				relSegments.add(segment);
+
+			} else {
+
+				nodeSegments.add(segment);
+			}
+		}
+
+		final int threads = Math.max(1, Services.parseInt(StructrApp.getConfigurationValue("sync.import.threads"), Runtime.getRuntime().availableProcessors()));
+
+		try (final NodeIdMap uuidMap = new NodeIdMap()) {
+
+			// all nodes must be known before the first relationship is created
+			importSegments(graphDb, securityContext, nodeSegments, uuidMap, progress, doValidation, batchSize, threads);
+
+			// relationships are imported on a single thread, creating them in parallel
+			// locks their end nodes in arbitrary order, which results in deadlocks
+			importSegments(graphDb, securityContext, relSegments, uuidMap, progress, doValidation, batchSize, 1);
+		}
+
+		progress.done();
+	}
+
+	private static void importSegments(final GraphDatabaseService graphDb, final SecurityContext securityContext, final List<ExportSegment> segments, final NodeIdMap uuidMap, final ImportProgress progress, final boolean doValidation, final int batchSize, final int threads) throws FrameworkException, IOException {
+
+		if (segments.isEmpty()) {
+			return;
+		}
+
+		final ExecutorService executor       = Executors.newFixedThreadPool(Math.min(threads, segments.size()));
+		final List<Future<Object>> results   = new LinkedList<>();
+
+		try {
+
+			for (final ExportSegment segment : segments) {
+
+				results.add(executor.submit(new Callable<Object>() {
+
+					@Override
+					public Object call() throws Exception {
+
+						try (final DataInputStream dis = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(segment.file), SEGMENT_BUFFER_SIZE), SEGMENT_BUFFER_SIZE))) {
+
+							importObjects(graphDb, securityContext, dis, uuidMap, progress, doValidation, batchSize);
+						}
+
+						return null;
+					}
+				}));
+			}
+
+			for (final Future<Object> result : results) {
+				await(result);
+			}
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+	}
+
+	private static void importObjects(final GraphDatabaseService graphDb, final SecurityContext securityContext, final DataInputStream dis, final NodeIdMap uuidMap, final ImportProgress progress, final boolean doValidation, final int batchSize) throws FrameworkException, IOException {
 
 		final App app                        = StructrApp.getInstance();
-		final DataInputStream dis            = new DataInputStream(new BufferedInputStream(zis));
 		final RelationshipFactory relFactory = new RelationshipFactory(securityContext);
 		final NodeFactory nodeFactory        = new NodeFactory(securityContext);
 		final String uuidPropertyName        = GraphObject.id.dbName();
-		double t0                            = System.nanoTime();
-		Map<String, Node> uuidMap            = new LinkedHashMap<>();
 		PropertyContainer currentObject      = null;
 		String currentKey                    = null;
 		boolean finished                     = false;
-		long totalNodeCount                  = 0;
-		long totalRelCount                   = 0;
 
 		do {
 
+			long nodeCount = 0;
+			long relCount  = 0;
+
 			try (final Tx tx = app.tx(doValidation)) {
 
 				final List<Relationship> rels = new LinkedList<>();
 				final List<Node> nodes        = new LinkedList<>();
-				long nodeCount                = 0;
-				long relCount                 = 0;
 
 				do {
 
@@ -623,11 +945,11 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 						if (objectType == 'N') {
 
-							// break look after 200 objects, commit and restart afterwards
-							 if(nodeCount + relCount >= 200) {
-								 dis.reset();
-								 break;
-							 }
+							// break loop after batchSize objects, commit and restart afterwards
+							if (nodeCount + relCount >= batchSize) {
+								dis.reset();
+								break;
+							}
 
 							currentObject = graphDb.createNode();
 							nodeCount++;
@@ -637,18 +959,21 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 						} else if (objectType == 'R') {
 
-							// break look after 200 objects, commit and restart afterwards
-							 if(nodeCount + relCount >= 200) {
-								 dis.reset();
-								 break;
-							 }
+							// relationships follow all nodes in the export, commit the
+							// last node batch first so the relationship pass starts fresh
+							if (nodeCount + relCount >= batchSize || nodeCount > 0) {
+								dis.reset();
+								break;
+							}
 
 							String startId     = (String)deserialize(dis);
 							String endId       = (String)deserialize(dis);
 							String relTypeName = (String)deserialize(dis);
 
-							Node endNode   = uuidMap.get(endId);
-							Node startNode = uuidMap.get(startId);
+							final long endNodeId   = uuidMap.get(endId);
+							final long startNodeId = uuidMap.get(startId);
+							Node endNode           = endNodeId   >= 0 ? graphDb.getNodeById(endNodeId) : null;
+							Node startNode         = startNodeId >= 0 ? graphDb.getNodeById(startNodeId) : null;
 
 							if (startNode != null && endNode != null) {
 
@@ -683,7 +1008,7 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 									if (uuidPropertyName.equals(currentKey) && currentObject instanceof Node) {
 
 										String uuid = (String)obj;
-										uuidMap.put(uuid, (Node)currentObject);
+										uuidMap.put(uuid, ((Node)currentObject).getId());
 									}
 
 									if (currentKey.length() != 0) {
@@ -717,9 +1042,6 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 
 				} while (!finished);
 
-				totalNodeCount += nodeCount;
-				totalRelCount  += relCount;
-
 				for (Node node : nodes) {
 
 					NodeInterface entity = nodeFactory.instantiate(node);
@@ -734,19 +1056,13 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 					entity.addToIndex();
 				}
 
-				logger.log(Level.INFO, "Imported {0} nodes and {1} rels, committing transaction..", new Object[] { totalNodeCount, totalRelCount } );
-
 				tx.success();
-
 			}
 
-		} while (!finished);
-
-		double t1   = System.nanoTime();
-		double time = ((t1 - t0) / 1000000000.0);
+			// the transaction is committed when it is closed
+			progress.add(nodeCount, relCount);
 
-		DecimalFormat decimalFormat  = new DecimalFormat("0.000000000", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
-		logger.log(Level.INFO, "Import done in {0} s", decimalFormat.format(time));
+		} while (!finished);
 	}
 
 	private static Object readObject(final DataInputStream inputStream, final byte type) throws IOException {
@@ -843,4 +1159,99 @@ public class SyncCommand extends NodeServiceCommand implements MaintenanceComman
 				break;
 		}
 	}
+
+	// ----- nested classes -----
+	private static class ExportSegment {
+
+		private String name           = null;
+		private boolean relationships = false;
+		private File file             = null;
+		private long count            = 0L;
+		private long crc              = 0L;
+
+		public ExportSegment(final String name, final boolean relationships) {
+
+			this.name          = name;
+			this.relationships = relationships;
+		}
+	}
+
+	private static class ExportWorker implements Callable<ExportSegment> {
+
+		private List<? extends GraphObject> objects = null;
+		private ExportSegment segment               = null;
+
+		public ExportWorker(final ExportSegment segment, final List<? extends GraphObject> objects) {
+
+			this.segment = segment;
+			this.objects = objects;
+		}
+
+		@Override
+		public ExportSegment call() throws Exception {
+
+			final CRC32 crc = new CRC32();
+
+			segment.file = File.createTempFile("structr-export", ".segment");
+
+			try (final Tx tx = StructrApp.getInstance().tx()) {
+
+				try (final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new CheckedOutputStream(new FileOutputStream(segment.file), crc), SEGMENT_BUFFER_SIZE), SEGMENT_BUFFER_SIZE))) {
+
+					for (final GraphObject obj : objects) {
+
+						if (segment.relationships ? exportRelationship(dos, (RelationshipInterface)obj) : exportNode(dos, (NodeInterface)obj)) {
+							segment.count++;
+						}
+					}
+				}
+
+			} catch (Throwable t) {
+
+				segment.file.delete();
+				throw t;
+			}
+
+			segment.crc = crc.getValue();
+
+			return segment;
+		}
+	}
+
+	private static class ImportProgress {
+
+		private final long t0         = System.nanoTime();
+		private long lastReport       = System.currentTimeMillis();
+		private long lastReportCount  = 0L;
+		private long nodeCount        = 0L;
+		private long relCount         = 0L;
+
+		public synchronized void add(final long nodes, final long rels) {
+
+			final long now = System.currentTimeMillis();
+
+			nodeCount += nodes;
+			relCount  += rels;
+
+			if (now - lastReport >= IMPORT_REPORT_INTERVAL) {
+
+				final long count  = nodeCount + relCount;
+				final double rate = (count - lastReportCount) * 1000.0 / Math.max(1L, now - lastReport);
+
+				logger.log(Level.INFO, "Imported {0} nodes and {1} rels, {2} objects/s", new Object[] { nodeCount, relCount, (long)rate } );
+
+				lastReportCount = count;
+				lastReport      = now;
+			}
+		}
+
+		public synchronized void done() {
+
+			double t1   = System.nanoTime();
+			double time = ((t1 - t0) / 1000000000.0);
+
+			DecimalFormat decimalFormat  = new DecimalFormat("0.000000000", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+			logger.log(Level.INFO, "Import of {0} nodes and {1} rels done in {2} s ({3} objects/s)", new Object[] { nodeCount, relCount, decimalFormat.format(time), (long)((nodeCount + relCount) / Math.max(time, 0.001)) } );
+		}
+	}
 }
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+/**
+ * Generates time-ordered (version 7 layout) UUIDs: a 48 bit millisecond
+ * timestamp, a 12 bit per-thread sequence and 62 random bits. Successive
+ * ids share a common prefix, which keeps inserts into the id index close
+ * together. Ids created by one thread are strictly increasing.
+ *
+ * @author Christian Morgner
+ */
+public class TimeOrderedUuidProvider extends AbstractUuidProvider {
+
+	private static final ThreadLocal<State> states = new ThreadLocal<State>() {
+
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	@Override
+	public String getNextUuid() {
+
+		final State state = states.get();
+		final long now    = System.currentTimeMillis();
+
+		if (now > state.millis) {
+
+			state.millis   = now;
+			state.sequence = 0;
+
+		} else if (++state.sequence > 0xfff) {
+
+			// sequence exhausted (or clock moved backwards), borrow from the next millisecond
+			state.millis++;
+			state.sequence = 0;
+		}
+
+		final long hi = (state.millis << 16) | 0x7000L | state.sequence;
+		final long lo = (state.random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+
+		return toHex(hi, lo);
+	}
+
+	// ----- nested classes -----
+	private static class State {
+
+		private final Xorshift random = new Xorshift();
+		private long millis           = 0L;
+		private int sequence          = 0;
+	}
+}
@@ -21,7 +21,9 @@ package org.structr.core.graph;
 
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import org.neo4j.graphdb.GraphDatabaseService;
 
@@ -30,6 +32,7 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import java.util.logging.Logger;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.structr.common.PermissionResolutionCache;
 import org.structr.common.error.ErrorBuffer;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.StructrTransactionListener;
@@ -57,13 +60,16 @@ import org.structr.core.property.PropertyKey;
  */
 public class TransactionCommand extends NodeServiceCommand implements AutoCloseable {
 
+	public static final String LOCK_TIMEOUT_KEY                         = "TransactionCommand.locktimeout";
+
 	private static final Logger logger                                  = Logger.getLogger(TransactionCommand.class.getName());
+	private static final int LOCK_STRIPES                               = 1024;
 	private static final Set<StructrTransactionListener> listeners      = new LinkedHashSet<>();
 	private static final ThreadLocal<ModificationQueue> queues          = new ThreadLocal<>();
 	private static final ThreadLocal<ErrorBuffer> buffers               = new ThreadLocal<>();
 	private static final ThreadLocal<TransactionCommand> currentCommand = new ThreadLocal<>();
 	private static final ThreadLocal<TransactionReference> transactions = new ThreadLocal<>();
-	private static final MultiSemaphore                    semaphore    = new MultiSemaphore();
+	private static final LockManager lockManager                        = new LockManager(LOCK_STRIPES);
 
 	public TransactionCommand beginTx() {
 
@@ -95,11 +101,6 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 			final ModificationQueue modificationQueue = queues.get();
 			final ErrorBuffer errorBuffer             = buffers.get();
 
-			// 0.5: let transaction listeners examine (and prevent?) commit
-			for (final StructrTransactionListener listener : listeners) {
-				listener.beforeCommit(securityContext, modificationQueue.getModificationEvents(), tx.getSource());
-			}
-
 			// 1. do inner callbacks (may cause transaction to fail)
 			if (doValidation && !modificationQueue.doInnerCallbacks(securityContext, errorBuffer)) {
 
@@ -120,42 +121,64 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 				throw new FrameworkException(422, errorBuffer);
 			}
 
+			// 1.75: let transaction listeners examine (and prevent?) commit,
+			// after the callbacks so that they see all modifications
+			for (final StructrTransactionListener listener : listeners) {
+				listener.beforeCommit(securityContext, modificationQueue.getModificationEvents(), tx.getSource());
+			}
+
 			// 2. fetch all types of entities modified in this tx
 			Set<String> synchronizationKeys = modificationQueue.getSynchronizationKeys();
 
 			// we need to protect the validation and indexing part of every transaction
 			// from being entered multiple times in the presence of validators
-			// 3. acquire semaphores for each modified type
-			try { semaphore.acquire(synchronizationKeys); } catch (InterruptedException iex) { return; }
+			// 3. acquire exclusive locks for each modified type
+			final LockManager.Locks locks;
+			try {
+				locks = lockManager.acquire(synchronizationKeys, true, getLockTimeout(), TimeUnit.SECONDS);
 
-			// finally, do validation under the protection of the semaphores for each type
-			if (!modificationQueue.doValidation(securityContext, errorBuffer, doValidation)) {
+			} catch (InterruptedException iex) {
+				return;
+			}
 
-				tx.failure();
+			if (locks == null) {
 
-				// release semaphores as the transaction is now finished
-				semaphore.release(synchronizationKeys);	// careful: this can be null
+				tx.failure();
 
-				// create error
-				throw new FrameworkException(422, errorBuffer);
+				throw new FrameworkException(503, "Timeout while waiting for locks on " + synchronizationKeys);
 			}
 
+			// finally, do validation under the protection of the locks for each type
 			try {
-				tx.success();
 
-			} catch (Throwable t) {
-				t.printStackTrace();
-			}
+				if (!modificationQueue.doValidation(securityContext, errorBuffer, doValidation)) {
+
+					tx.failure();
+
+					// create error
+					throw new FrameworkException(422, errorBuffer);
+				}
+
+				try {
+					tx.success();
+
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+
+			} finally {
 
-			// release semaphores as the transaction is now finished
-			semaphore.release(synchronizationKeys);	// careful: this can be null
+				// release locks as the transaction is now finished
+				locks.close();
+			}
 		}
 	}
 
-	public ModificationQueue finishTx() {
+	public ModificationQueue finishTx() throws FrameworkException {
 
 		final TransactionReference tx       = transactions.get();
 		ModificationQueue modificationQueue = null;
+		Throwable commitFailure             = null;
 
 		if (tx != null) {
 
@@ -169,11 +192,34 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 				currentCommand.remove();
 				transactions.remove();
 
+				final boolean successful = tx.isSuccessful();
+
 				try {
 					tx.close();
 
 				} catch (Throwable t) {
-					t.printStackTrace();
+
+					logger.log(Level.SEVERE, "Unable to commit transaction", t);
+					commitFailure = t;
+				}
+
+				if (modificationQueue != null) {
+
+					final List<ModificationEvent> modificationEvents = modificationQueue.getModificationEvents();
+					final boolean committed                          = successful && commitFailure == null;
+
+					// invalidate cached permissions, regardless of transaction notifications
+					PermissionResolutionCache.invalidate(modificationEvents);
+
+					// notify listeners regardless of the outcome and of transaction notifications
+					for (final StructrTransactionListener listener : listeners) {
+						listener.transactionFinished(securityContext, modificationEvents, tx.getSource(), committed);
+					}
+				}
+
+				// a transaction that was marked successful must not fail silently
+				if (successful && commitFailure != null) {
+					throw new FrameworkException(500, "Unable to commit transaction: " + commitFailure.getMessage());
 				}
 
 			} else {
@@ -384,6 +430,41 @@ public class TransactionCommand extends NodeServiceCommand implements AutoClosea
 		return currentCommand.get() != null;
 	}
 
+	/**
+	 * @return contention statistics for all synchronization keys that have been locked so far
+	 */
+	public static Map<String, Map<String, Object>> getLockStatistics() {
+		return lockManager.getStatistics();
+	}
+
+	/**
+	 * @return the lock timeout in seconds, read once when the node service is initialized
+	 */
+	private long getLockTimeout() {
+
+		final Long lockTimeout = (Long)arguments.get(LOCK_TIMEOUT_KEY);
+		if (lockTimeout != null) {
+
+			return lockTimeout;
+		}
+
+		return 60L;
+	}
+
+	/**
+	 * @return whether the current transaction contains uncommitted modifications
+	 */
+	public static boolean hasModifications() {
+
+		final ModificationQueue queue = queues.get();
+		if (queue != null) {
+
+			return !queue.isEmpty();
+		}
+
+		return false;
+	}
+
 	public static boolean isDeleted(final Node node) {
 
 		if (!inTransaction()) {
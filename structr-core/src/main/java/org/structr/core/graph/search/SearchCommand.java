@@ -26,7 +26,9 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.lucene.search.BooleanClause;
@@ -35,6 +37,7 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.neo4j.gis.spatial.indexprovider.LayerNodeIndex;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
@@ -48,17 +51,15 @@ import org.structr.common.geo.GeoCodingResult;
 import org.structr.common.geo.GeoHelper;
 import org.structr.core.GraphObject;
 import org.structr.core.Result;
-import org.structr.core.app.StructrApp;
+import org.structr.core.ResultStream;
+import org.structr.core.Services;
 import org.structr.core.entity.AbstractNode;
-import org.structr.core.entity.AbstractRelationship;
 import org.structr.core.graph.Factory;
 import org.structr.core.graph.NodeFactory;
-import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.NodeService;
 import org.structr.core.graph.NodeServiceCommand;
-import org.structr.core.graph.RelationshipInterface;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
-import org.structr.schema.ConfigurationProvider;
 
 /**
  *
@@ -218,36 +219,8 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 
 		} else {
 
-			BooleanQuery query    = new BooleanQuery();
-			boolean allExactMatch = true;
-
-			// build query
-			for (SearchAttribute attr : rootGroup.getSearchAttributes()) {
-
-				Query queryElement = attr.getQuery();
-				if (queryElement != null) {
-
-					query.add(queryElement, attr.getOccur());
-				}
-
-				allExactMatch &= attr.isExactMatch();
-			}
-
-			QueryContext queryContext = new QueryContext(query);
-
-			if (sortKey != null && !doNotSort) {
-
-				Integer sortType = sortKey.getSortType();
-				if (sortType != null) {
-
-					queryContext.sort(new Sort(new SortField(sortKey.dbName(), sortType, sortDescending)));
-
-				} else {
-
-					queryContext.sort(new Sort(new SortField(sortKey.dbName(), Locale.getDefault(), sortDescending)));
-				}
-
-			}
+			final QueryContext queryContext = getQueryContext();
+			final boolean allExactMatch     = isAllExactMatch();
 
 			if (distanceSearch != null) {
 
@@ -261,15 +234,20 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 					LayerNodeIndex spatialIndex = this.getSpatialIndex();
 					if (spatialIndex != null) {
 
-						synchronized (spatialIndex) {
+						// spatial queries can run in parallel, index
+						// modifications acquire the write lock
+						final Lock readLock = Services.getInstance().getService(NodeService.class).getLayerIndexReadLock();
+						readLock.lock();
+
+						try (final IndexHits hits = spatialIndex.query(LayerNodeIndex.WITHIN_DISTANCE_QUERY, params)) {
 
-							try (final IndexHits hits = spatialIndex.query(LayerNodeIndex.WITHIN_DISTANCE_QUERY, params)) {
+							// instantiate spatial search results without paging,
+							// as the results must be filtered by type anyway
+							intermediateResult = new NodeFactory(securityContext).instantiate(hits);
 
-								// instantiate spatial search results without paging,
-								// as the results must be filtered by type anyway
-								intermediateResult = new NodeFactory(securityContext).instantiate(hits);
+						} finally {
 
-							}
+							readLock.unlock();
 						}
 					}
 				}
@@ -368,11 +346,16 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 				}
 			}
 
-			// sort list
-			Collections.sort(finalResult, new GraphObjectComparator(sortKey, sortDescending));
+			// the index result is already sorted if the sort key could be pushed
+			// down into the query context and no other sources were merged in
+			if (sortKey == null || (!hasGraphSources && !hasSpatialSource && isSortedByIndex())) {
+
+				// return paged final result
+				return new Result(PagingHelper.subList(finalResult, pageSize, page, offsetId), resultCount, true, false);
+			}
 
-			// return paged final result
-			return new Result(PagingHelper.subList(finalResult, pageSize, page, offsetId), resultCount, true, false);
+			// return sorted and paged final result, only selects the top k elements for paged requests
+			return new Result(PagingHelper.sortedSubList(finalResult, new GraphObjectComparator(sortKey, sortDescending), pageSize, page, offsetId), resultCount, true, false);
 
 		} else {
 
@@ -381,6 +364,132 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		}
 	}
 
+	private ResultStream<T> doStream() throws FrameworkException {
+
+		if (page == 0 || pageSize <= 0) {
+
+			return new ListResultStream<>(Collections.EMPTY_LIST);
+		}
+
+		// offset-based paging, pages counted from the end, graph
+		// sources and spatial queries need the complete intermediate
+		// result, so we fall back to the materializing search for those.
+		if (offsetId != null || page < 0 || !isStreamable()) {
+
+			return new ListResultStream<>(doSearch().getResults());
+		}
+
+		if (securityContext.getUser(false) == null) {
+
+			rootGroup.add(new PropertySearchAttribute(GraphObject.visibleToPublicUsers, true, BooleanClause.Occur.MUST, true));
+		}
+
+		// the stream does its own paging, so the factory must not
+		final Factory<S, T> factory     = getFactory(securityContext, includeDeletedAndHidden, publicOnly, Integer.MAX_VALUE, 1, null);
+		final QueryContext queryContext = getQueryContext();
+		final Index<S> index            = isAllExactMatch() ? getKeywordIndex() : getFulltextIndex();
+		final IndexHits<S> hits;
+
+		synchronized (index) {
+
+			hits = index.query(queryContext);
+		}
+
+		return new IndexHitsResultStream(factory, hits, hasEmptySearchFields());
+	}
+
+	private QueryContext getQueryContext() {
+
+		final BooleanQuery query = new BooleanQuery();
+
+		// build query
+		for (SearchAttribute attr : rootGroup.getSearchAttributes()) {
+
+			Query queryElement = attr.getQuery();
+			if (queryElement != null) {
+
+				query.add(queryElement, attr.getOccur());
+			}
+		}
+
+		final QueryContext queryContext = new QueryContext(query);
+
+		if (sortKey != null && !doNotSort) {
+
+			Integer sortType = sortKey.getSortType();
+			if (sortType != null) {
+
+				queryContext.sort(new Sort(new SortField(sortKey.dbName(), sortType, sortDescending)));
+
+			} else {
+
+				queryContext.sort(new Sort(new SortField(sortKey.dbName(), Locale.getDefault(), sortDescending)));
+			}
+
+		}
+
+		return queryContext;
+	}
+
+	private boolean isSortedByIndex() {
+		return sortKey != null && !doNotSort && sortKey.getSortType() != null;
+	}
+
+	private boolean isAllExactMatch() {
+
+		boolean allExactMatch = true;
+
+		for (SearchAttribute attr : rootGroup.getSearchAttributes()) {
+			allExactMatch &= attr.isExactMatch();
+		}
+
+		return allExactMatch;
+	}
+
+	private boolean isStreamable() {
+
+		for (final SearchAttribute attr : rootGroup.getSearchAttributes()) {
+
+			if (attr instanceof DistanceSearchAttribute || attr instanceof SourceSearchAttribute) {
+				return false;
+			}
+
+			if (attr instanceof SearchAttributeGroup) {
+
+				for (final SearchAttribute item : ((SearchAttributeGroup)attr).getSearchAttributes()) {
+
+					if (item instanceof SourceSearchAttribute) {
+						return false;
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	private boolean hasEmptySearchFields() {
+
+		for (final SearchAttribute attr : rootGroup.getSearchAttributes()) {
+
+			if (attr instanceof EmptySearchAttribute) {
+				return true;
+			}
+
+			if (attr instanceof SearchAttributeGroup) {
+
+				for (final SearchAttribute item : ((SearchAttributeGroup)attr).getSearchAttributes()) {
+
+					if (item instanceof EmptySearchAttribute) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
 	private Set<GraphObject> mergeSources(List<SourceSearchAttribute> sources) {
 
 		Set<GraphObject> mergedResult = new LinkedHashSet<>();
@@ -430,6 +539,11 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		return getResult().getResults();
 	}
 
+	@Override
+	public ResultStream<T> getResultStream() throws FrameworkException {
+		return doStream();
+	}
+
 	@Override
 	public T getFirst() throws FrameworkException {
 
@@ -773,6 +887,14 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		return new AndPredicate(rootGroup.getSearchAttributes());
 	}
 
+	/**
+	 * Returns an iterator over the complete result. A for-each loop has no
+	 * way to release the index resources when it stops early, so this
+	 * method materializes the result. Use {@link #getResultStream} in a
+	 * try-with-resources block to iterate large results in constant memory.
+	 *
+	 * @return an iterator over the result
+	 */
 	@Override
 	public Iterator<T> iterator() {
 
@@ -795,88 +917,192 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		return rootGroup;
 	}
 
-	// ----- static methods -----
-	public static String escapeForLucene(String input) {
+	// ----- nested classes -----
+	/**
+	 * Pulls nodes from the given index hits one at a time, applying
+	 * the result filters and paging settings of the enclosing query.
+	 * The hits are closed as soon as the last element was returned.
+	 */
+	private class IndexHitsResultStream implements ResultStream<T>, Iterator<T> {
 
-		StringBuilder output = new StringBuilder();
+		private Factory<S, T> factory  = null;
+		private IndexHits<S> hits      = null;
+		private boolean filterResults  = false;
+		private boolean closed         = false;
+		private T next                 = null;
+		private int remaining          = 0;
+		private int skip               = 0;
 
-		for (int i = 0; i < input.length(); i++) {
+		public IndexHitsResultStream(final Factory<S, T> factory, final IndexHits<S> hits, final boolean filterResults) {
 
-			char c = input.charAt(i);
+			this.factory       = factory;
+			this.hits          = hits;
+			this.filterResults = filterResults;
 
-			if (specialChars.contains(c) || Character.isWhitespace(c)) {
+			if (pageSize < Integer.MAX_VALUE) {
 
-				output.append('\\');
+				this.skip      = (page - 1) * pageSize;
+				this.remaining = pageSize;
+
+			} else {
+
+				this.remaining = Integer.MAX_VALUE;
 			}
+		}
 
-			output.append(c);
+		@Override
+		public Iterator<T> iterator() {
+			return this;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			if (next == null && !closed) {
+
+				next = fetchNext();
+				if (next == null) {
 
+					close();
+				}
+			}
+
+			return next != null;
 		}
 
-		return output.toString();
+		@Override
+		public T next() {
 
-	}
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
 
-	// ----- public static methods -----
-	public static Set<Class> allSubtypes(final Class type) {
+			final T current = next;
+			next            = null;
+
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Removal is not supported by result streams.");
+		}
+
+		@Override
+		public void close() {
+
+			if (!closed) {
+
+				closed = true;
+				hits.close();
+			}
+		}
+
+		private T fetchNext() {
+
+			while (remaining > 0 && hits.hasNext()) {
+
+				final T obj = instantiate(hits.next());
+				if (obj != null && includeInResult(obj)) {
 
-		final ConfigurationProvider configuration                             = StructrApp.getConfiguration();
-		final Map<String, Class<? extends NodeInterface>> nodeEntities        = configuration.getNodeEntities();
-		final Map<String, Class<? extends RelationshipInterface>> relEntities = configuration.getRelationshipEntities();
-		final Set<Class> allSubtypes                                          = new LinkedHashSet<>();
+					if (skip > 0) {
 
-		// add type first (this is neccesary because two class objects of the same dynamic type node are not equal
-		// to each other and not assignable, if the schema node was modified in the meantime)
-		allSubtypes.add(type);
+						skip--;
 
-		// scan all node entities for subtypes
-		for (Map.Entry<String, Class<? extends NodeInterface>> entity : nodeEntities.entrySet()) {
+					} else {
 
-			Class<? extends NodeInterface> entityClass = entity.getValue();
+						if (remaining < Integer.MAX_VALUE) {
+							remaining--;
+						}
+
+						return obj;
+					}
+				}
+			}
+
+			return null;
+		}
+
+		private T instantiate(final S entity) {
+
+			try {
+				return factory.instantiate(entity);
+
+			} catch (FrameworkException fex) {
+
+				logger.log(Level.WARNING, "Unable to instantiate query result: {0}", fex.getMessage());
 
-			if (type.isAssignableFrom(entityClass)) {
+			} catch (NotFoundException nfex) {
 
-				allSubtypes.add(entityClass);
+				// node was deleted while iterating, ignore
 			}
+
+			return null;
 		}
 
-		// scan all relationship entities for subtypes
-		for (Map.Entry<String, Class<? extends RelationshipInterface>> entity : relEntities.entrySet()) {
+		private boolean includeInResult(final T obj) {
 
-			Class<? extends RelationshipInterface> entityClass = entity.getValue();
+			if (filterResults) {
 
-			if (type.isAssignableFrom(entityClass)) {
+				for (SearchAttribute attr : rootGroup.getSearchAttributes()) {
 
-				allSubtypes.add(entityClass);
+					if (!attr.includeInResult(obj)) {
+						return false;
+					}
+				}
 			}
+
+			return true;
 		}
+	}
+
+	private static class ListResultStream<T extends GraphObject> implements ResultStream<T> {
+
+		private List<T> list = null;
 
-		return allSubtypes;
+		public ListResultStream(final List<T> list) {
+			this.list = list;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return list.iterator();
+		}
+
+		@Override
+		public void close() {
+		}
 	}
 
-	public static Set<Class> typeAndAllSupertypes(final Class type) {
+	// ----- static methods -----
+	public static String escapeForLucene(String input) {
 
-		final ConfigurationProvider configuration = StructrApp.getConfiguration();
-		final Set<Class> allSupertypes            = new LinkedHashSet<>();
+		StringBuilder output = new StringBuilder();
 
-		Class localType = type;
+		for (int i = 0; i < input.length(); i++) {
 
-		while (localType != null && !localType.equals(Object.class)) {
+			char c = input.charAt(i);
 
-			allSupertypes.add(localType);
-			allSupertypes.addAll(configuration.getInterfacesForType(localType));
+			if (specialChars.contains(c) || Character.isWhitespace(c)) {
 
-			localType = localType.getSuperclass();
+				output.append('\\');
+			}
+
+			output.append(c);
 
 		}
 
-		// remove base types
-		allSupertypes.remove(RelationshipInterface.class);
-		allSupertypes.remove(AbstractRelationship.class);
-		allSupertypes.remove(NodeInterface.class);
-		allSupertypes.remove(AbstractNode.class);
+		return output.toString();
+
+	}
 
-		return allSupertypes;
+	// ----- public static methods -----
+	public static Set<Class> allSubtypes(final Class type) {
+		return TypeHierarchy.getInstance().getSubtypes(type);
+	}
+
+	public static Set<Class> typeAndAllSupertypes(final Class type) {
+		return TypeHierarchy.getInstance().getSupertypes(type);
 	}
 
 	// ----- nested classes -----
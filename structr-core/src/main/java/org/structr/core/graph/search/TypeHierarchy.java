@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.AbstractRelationship;
+import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.RelationshipInterface;
+import org.structr.schema.ConfigurationProvider;
+
+/**
+ * Immutable snapshot of the entity type hierarchy known to the
+ * configuration provider. The snapshot is built once and replaced
+ * as a whole when entity types are registered or the dynamic schema
+ * is recompiled, so lookups never see a partially updated hierarchy.
+ * A generation counter makes sure that a snapshot built from the old
+ * configuration is never installed after an invalidation.
+ *
+ * @author Christian Morgner
+ */
+public class TypeHierarchy {
+
+	private static final AtomicReference<TypeHierarchy> instance = new AtomicReference<>();
+	private static final AtomicLong generation                   = new AtomicLong();
+
+	private final Map<Class, Set<Class>> subtypes   = new ConcurrentHashMap<>();
+	private final Map<Class, Set<Class>> supertypes = new ConcurrentHashMap<>();
+	private final Map<String, Term> exactTerms      = new HashMap<>();
+	private final Map<String, Term> inexactTerms    = new HashMap<>();
+	private final ConfigurationProvider configuration;
+	private final List<Class> entityTypes;
+
+	private TypeHierarchy(final ConfigurationProvider configuration) {
+
+		this.configuration = configuration;
+		this.entityTypes   = new ArrayList<>();
+
+		entityTypes.addAll(configuration.getNodeEntities().values());
+		entityTypes.addAll(configuration.getRelationshipEntities().values());
+
+		for (final Class type : entityTypes) {
+
+			final String typeName = type.getSimpleName();
+
+			subtypes.put(type, collectSubtypes(type));
+			supertypes.put(type, collectSupertypes(type));
+
+			// terms are only cached for known types, so that arbitrary
+			// type names from user queries cannot grow the snapshot
+			exactTerms.put(typeName, createTerm(typeName, true));
+			inexactTerms.put(typeName, createTerm(typeName, false));
+		}
+	}
+
+	/**
+	 * Returns the current type hierarchy, building it if necessary.
+	 *
+	 * @return the current type hierarchy
+	 */
+	public static TypeHierarchy getInstance() {
+
+		while (true) {
+
+			final TypeHierarchy current = instance.get();
+			if (current != null) {
+
+				return current;
+			}
+
+			final long expectedGeneration = generation.get();
+			final TypeHierarchy hierarchy = new TypeHierarchy(StructrApp.getConfiguration());
+
+			// another thread may have installed a snapshot in the meantime
+			if (instance.compareAndSet(null, hierarchy)) {
+
+				if (generation.get() == expectedGeneration) {
+
+					return hierarchy;
+				}
+
+				// invalidated while building, the snapshot may be stale
+				instance.compareAndSet(hierarchy, null);
+			}
+		}
+	}
+
+	/**
+	 * Discards the current snapshot, the next lookup will build a new one.
+	 */
+	public static void invalidate() {
+
+		generation.incrementAndGet();
+		instance.set(null);
+	}
+
+	/**
+	 * Builds a new snapshot from the current configuration and
+	 * replaces the existing one.
+	 */
+	public static void rebuild() {
+
+		invalidate();
+		getInstance();
+	}
+
+	/**
+	 * Returns the given type and all registered entity types that are
+	 * assignable to it, with the given type first.
+	 *
+	 * @param type
+	 * @return an unmodifiable set of types
+	 */
+	public Set<Class> getSubtypes(final Class type) {
+
+		Set<Class> result = subtypes.get(type);
+		if (result == null) {
+
+			result = collectSubtypes(type);
+			subtypes.put(type, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the given type, its superclasses and their interfaces,
+	 * without the abstract base types.
+	 *
+	 * @param type
+	 * @return an unmodifiable set of types
+	 */
+	public Set<Class> getSupertypes(final Class type) {
+
+		Set<Class> result = supertypes.get(type);
+		if (result == null) {
+
+			result = collectSupertypes(type);
+			supertypes.put(type, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a new Lucene clause that matches nodes of the given type.
+	 * Queries are mutable, so every caller gets its own instance.
+	 *
+	 * @param typeName the simple name of the type
+	 * @param exact
+	 * @return the query clause
+	 */
+	public Query getTypeClause(final String typeName, final boolean exact) {
+
+		Term term = exact ? exactTerms.get(typeName) : inexactTerms.get(typeName);
+		if (term == null) {
+
+			term = createTerm(typeName, exact);
+		}
+
+		return new TermQuery(term);
+	}
+
+	// ----- private methods -----
+	private Term createTerm(final String typeName, final boolean exact) {
+		return new Term(AbstractNode.type.dbName(), exact ? typeName : typeName.toLowerCase());
+	}
+
+	private Set<Class> collectSubtypes(final Class type) {
+
+		final Set<Class> allSubtypes = new LinkedHashSet<>();
+
+		// add type first (this is neccesary because two class objects of the same dynamic type node are not equal
+		// to each other and not assignable, if the schema node was modified in the meantime)
+		allSubtypes.add(type);
+
+		// node entities come before relationship entities
+		for (final Class entityClass : entityTypes) {
+
+			if (type.isAssignableFrom(entityClass)) {
+
+				allSubtypes.add(entityClass);
+			}
+		}
+
+		return Collections.unmodifiableSet(allSubtypes);
+	}
+
+	private Set<Class> collectSupertypes(final Class type) {
+
+		final Set<Class> allSupertypes = new LinkedHashSet<>();
+
+		Class localType = type;
+
+		while (localType != null && !localType.equals(Object.class)) {
+
+			allSupertypes.add(localType);
+			allSupertypes.addAll(configuration.getInterfacesForType(localType));
+
+			localType = localType.getSuperclass();
+
+		}
+
+		// remove base types
+		allSupertypes.remove(RelationshipInterface.class);
+		allSupertypes.remove(AbstractRelationship.class);
+		allSupertypes.remove(NodeInterface.class);
+		allSupertypes.remove(AbstractNode.class);
+
+		return Collections.unmodifiableSet(allSupertypes);
+	}
+}
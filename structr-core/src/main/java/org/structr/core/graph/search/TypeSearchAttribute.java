@@ -18,10 +18,8 @@
  */
 package org.structr.core.graph.search;
 
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TermQuery;
 import org.structr.core.GraphObject;
 import org.structr.core.entity.AbstractNode;
 
@@ -43,15 +41,7 @@ public class TypeSearchAttribute<S extends GraphObject> extends PropertySearchAt
 	@Override
 	public Query getQuery() {
 
-		String value = getStringValue();
-		if (isExactMatch()) {
-
-			return new TermQuery(new Term(getKey().dbName(), value));
-
-		} else {
-
-			return new TermQuery(new Term(getKey().dbName(), value.toLowerCase()));
-		}
+		return TypeHierarchy.getInstance().getTypeClause(getStringValue(), isExactMatch());
 	}
 
 }
@@ -121,6 +121,16 @@ public class Functions {
 	private static final Logger logger = Logger.getLogger(Functions.class.getName());
 	public static final Map<String, Function<Object, Object>> functions = new LinkedHashMap<>();
 
+	private static final Map<String, Expression> expressionCache = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Expression> eldest) {
+			return size() > getExpressionCacheSize();
+		}
+	};
+
+	private static int expressionCacheSize = -1;
+
 	public static final String NULL_STRING = "___NULL___";
 
 	public static final String ERROR_MESSAGE_MD5 = "Usage: ${md5(string)}. Example: ${md5(this.email)}";
@@ -246,6 +256,19 @@ public class Functions {
 	}
 
 	public static Object evaluate(final ActionContext actionContext, final GraphObject entity, final String expression) throws FrameworkException {
+		return getCachedExpression(expression).evaluate(actionContext, entity);
+	}
+
+	/**
+	 * Parses the given expression into an expression tree. The tree holds
+	 * no evaluation state, so it can be cached and evaluated concurrently.
+	 *
+	 * @param expression the expression
+	 *
+	 * @return the root of the expression tree
+	 * @throws FrameworkException if the expression is invalid
+	 */
+	public static Expression parse(final String expression) throws FrameworkException {
 
 		final String expressionWithoutNewlines = expression.replace('\n', ' ');
 		final StreamTokenizer tokenizer = new StreamTokenizer(new StringReader(expressionWithoutNewlines));
@@ -364,7 +387,37 @@ public class Functions {
 			throw new FrameworkException(422, "Invalid expression: mismatched closing bracket after " + lastToken);
 		}
 
-		return root.evaluate(actionContext, entity);
+		return root;
+	}
+
+	private static Expression getCachedExpression(final String expression) throws FrameworkException {
+
+		Expression root = null;
+
+		synchronized (expressionCache) {
+			root = expressionCache.get(expression);
+		}
+
+		if (root == null) {
+
+			// parse outside of the lock, invalid expressions are not cached
+			root = parse(expression);
+
+			synchronized (expressionCache) {
+				expressionCache.put(expression, root);
+			}
+		}
+
+		return root;
+	}
+
+	private static int getExpressionCacheSize() {
+
+		if (expressionCacheSize < 0) {
+			expressionCacheSize = Services.parseInt(StructrApp.getConfigurationValue(Services.EXPRESSION_CACHE_SIZE), 1000);
+		}
+
+		return expressionCacheSize;
 	}
 
 	private static Expression checkReservedWords(final String word) throws FrameworkException {
@@ -0,0 +1,303 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.parser;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+
+/**
+ * Backing store of the cache() builtin function.
+ *
+ * Values expire after their time-to-live, the least recently used entries
+ * are evicted when the number of entries or their total weight exceeds the
+ * configured limits. The weight of a value is its length for strings, its
+ * number of elements for collections and arrays, and 1 for anything else.
+ *
+ * Only one thread computes the value of a missing or expired key. While
+ * the value is being refreshed, other threads get the previous value, or
+ * wait for the result if there is none yet. Waiting is limited, a thread
+ * that waited too long computes the value itself without caching it. The
+ * same applies to a loader that requests its own key.
+ *
+ * @author Christian Morgner
+ */
+public class ValueCache {
+
+	private static final long DEFAULT_MAX_WAIT = 10000L;
+	private static ValueCache instance        = null;
+
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final AtomicLong hits            = new AtomicLong();
+	private final AtomicLong misses          = new AtomicLong();
+	private final AtomicLong evictions       = new AtomicLong();
+	private long maxEntries                  = 0L;
+	private long maxWeight                   = 0L;
+	private long maxWait                     = 0L;
+	private long weight                      = 0L;
+
+	public ValueCache(final long maxEntries, final long maxWeight) {
+		this(maxEntries, maxWeight, DEFAULT_MAX_WAIT);
+	}
+
+	public ValueCache(final long maxEntries, final long maxWeight, final long maxWait) {
+
+		this.maxEntries = maxEntries;
+		this.maxWeight  = maxWeight;
+		this.maxWait    = maxWait;
+	}
+
+	public static synchronized ValueCache getInstance() {
+
+		if (instance == null) {
+
+			instance = new ValueCache(
+				Services.parseInt(StructrApp.getConfigurationValue(Services.CACHE_FUNCTION_MAX_ENTRIES), 10000),
+				Services.parseInt(StructrApp.getConfigurationValue(Services.CACHE_FUNCTION_MAX_WEIGHT), 10000000)
+			);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns the cached value for the given key, computing it with the
+	 * given loader if it is missing or expired.
+	 *
+	 * @param key the cache key
+	 * @param timeToLive the time in milliseconds a newly computed value stays valid
+	 * @param loader the loader
+	 *
+	 * @return the cached or newly computed value
+	 * @throws FrameworkException if the loader fails
+	 */
+	public Object get(final String key, final long timeToLive, final Loader loader) throws FrameworkException {
+
+		final Thread currentThread = Thread.currentThread();
+		final long deadline        = System.currentTimeMillis() + maxWait;
+		final Entry entry          = getEntry(key);
+		boolean loadDirectly       = false;
+
+		synchronized (entry) {
+
+			while (entry.isExpired() && entry.loading) {
+
+				if (entry.loaded) {
+
+					// serve the previous value while another thread refreshes it
+					hits.incrementAndGet();
+					return entry.value;
+				}
+
+				final long remaining = deadline - System.currentTimeMillis();
+
+				// the loader of this key requests its own key, or the
+				// other thread takes too long, waiting would block the
+				// current transaction
+				if (entry.loadingThread == currentThread || remaining <= 0) {
+
+					loadDirectly = true;
+					break;
+				}
+
+				try {
+					entry.wait(remaining);
+
+				} catch (InterruptedException iex) {
+
+					Thread.currentThread().interrupt();
+
+					loadDirectly = true;
+					break;
+				}
+			}
+
+			if (!loadDirectly) {
+
+				if (!entry.isExpired()) {
+
+					hits.incrementAndGet();
+					return entry.value;
+				}
+
+				entry.loading       = true;
+				entry.loadingThread = currentThread;
+			}
+		}
+
+		misses.incrementAndGet();
+
+		if (loadDirectly) {
+			return loader.load();
+		}
+
+		Object value    = null;
+		boolean success = false;
+
+		try {
+
+			value   = loader.load();
+			success = true;
+
+		} finally {
+
+			synchronized (entry) {
+
+				if (success) {
+
+					entry.value   = value;
+					entry.expires = System.currentTimeMillis() + timeToLive;
+					entry.loaded  = true;
+				}
+
+				entry.loading       = false;
+				entry.loadingThread = null;
+				entry.notifyAll();
+			}
+
+			updateWeight(key, entry, success ? weigh(value) : 0L);
+		}
+
+		return value;
+	}
+
+	public void clear() {
+
+		synchronized (entries) {
+
+			entries.clear();
+			weight = 0L;
+		}
+	}
+
+	public int size() {
+
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getWeight() {
+
+		synchronized (entries) {
+			return weight;
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	// ----- private methods -----
+	private Entry getEntry(final String key) {
+
+		synchronized (entries) {
+
+			Entry entry = entries.get(key);
+			if (entry == null) {
+
+				entry = new Entry();
+				entries.put(key, entry);
+			}
+
+			return entry;
+		}
+	}
+
+	private void updateWeight(final String key, final Entry entry, final long newWeight) {
+
+		synchronized (entries) {
+
+			// the entry may have been evicted while its value was computed
+			if (entries.get(key) == entry) {
+
+				weight      += newWeight - entry.weight;
+				entry.weight = newWeight;
+
+				final Iterator<Entry> iterator = entries.values().iterator();
+				while ((entries.size() > maxEntries || weight > maxWeight) && iterator.hasNext()) {
+
+					weight -= iterator.next().weight;
+					iterator.remove();
+
+					evictions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private static long weigh(final Object value) {
+
+		if (value instanceof CharSequence) {
+			return Math.max(1, ((CharSequence)value).length());
+		}
+
+		if (value instanceof Collection) {
+			return Math.max(1, ((Collection)value).size());
+		}
+
+		if (value != null && value.getClass().isArray()) {
+			return Math.max(1, Array.getLength(value));
+		}
+
+		return 1L;
+	}
+
+	// ----- nested classes -----
+	public interface Loader {
+
+		public Object load() throws FrameworkException;
+	}
+
+	private static final class Entry {
+
+		private Thread loadingThread = null;
+		private Object value         = null;
+		private boolean loading      = false;
+		private boolean loaded       = false;
+		private long expires         = 0L;
+		private long weight          = 0L;
+
+		public boolean isExpired() {
+			return !loaded || System.currentTimeMillis() > expires;
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -455,6 +456,12 @@ public abstract class Property<T> implements PropertyKey<T> {
 				Index<Node> index = nodeService.getNodeIndex(indexName);
 				if (index != null) {
 
+					// spatial queries only hold a read lock, so we need to exclude them explicitly
+					final Lock writeLock = nodeService.getIndexWriteLock(index);
+					if (writeLock != null) {
+						writeLock.lock();
+					}
+
 					try {
 
 						synchronized (index) {
@@ -477,6 +484,12 @@ public abstract class Property<T> implements PropertyKey<T> {
 					} catch (Throwable t) {
 
 						logger.log(Level.INFO, "Unable to index property with dbName {0} and value {1} of type {2} on {3}: {4}", new Object[] { dbName, value, this.getClass().getSimpleName(), entity, t } );
+
+					} finally {
+
+						if (writeLock != null) {
+							writeLock.unlock();
+						}
 					}
 				}
 			}
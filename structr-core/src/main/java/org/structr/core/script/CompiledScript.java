@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.script;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.mozilla.javascript.Script;
+
+/**
+ * A compiled Javascript snippet along with its execution statistics.
+ *
+ * @author Christian Morgner
+ */
+public class CompiledScript {
+
+	private final AtomicLong evaluations = new AtomicLong();
+	private final AtomicLong totalTime   = new AtomicLong();
+	private final AtomicLong maxTime     = new AtomicLong();
+	private Script script                = null;
+	private String source                = null;
+	private long compileTime             = 0L;
+
+	public CompiledScript(final String source, final Script script, final long compileTime) {
+
+		this.source      = source;
+		this.script      = script;
+		this.compileTime = compileTime;
+	}
+
+	public Script getScript() {
+		return script;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public long getEvaluations() {
+		return evaluations.get();
+	}
+
+	/**
+	 * @return the compilation time in milliseconds
+	 */
+	public double getCompileTime() {
+		return toMillis(compileTime);
+	}
+
+	/**
+	 * @return the accumulated execution time in milliseconds
+	 */
+	public double getTotalTime() {
+		return toMillis(totalTime.get());
+	}
+
+	/**
+	 * @return the longest execution time in milliseconds
+	 */
+	public double getMaxTime() {
+		return toMillis(maxTime.get());
+	}
+
+	/**
+	 * @return the average execution time in milliseconds
+	 */
+	public double getAverageTime() {
+
+		final long count = evaluations.get();
+
+		return count > 0 ? toMillis(totalTime.get()) / count : 0.0;
+	}
+
+	void recordExecution(final long nanos) {
+
+		evaluations.incrementAndGet();
+		totalTime.addAndGet(nanos);
+
+		long max = maxTime.get();
+		while (nanos > max && !maxTime.compareAndSet(max, nanos)) {
+			max = maxTime.get();
+		}
+	}
+
+	// ----- private methods -----
+	private static double toMillis(final long nanos) {
+		return (double)nanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -20,17 +20,24 @@ package org.structr.core.script;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.Undefined;
 import org.structr.common.error.ErrorToken;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.parser.Functions;
 import org.structr.core.property.DateProperty;
@@ -43,6 +50,20 @@ import org.structr.schema.parser.DatePropertyParser;
  */
 public class Scripting {
 
+	private static final Logger logger = Logger.getLogger(Scripting.class.getName());
+
+	private static final int cacheSize             = Services.parseInt(StructrApp.getConfigurationValue(Services.JAVASCRIPT_CACHE_SIZE), 1000);
+	private static final int optimizationLevel     = getOptimizationLevel();
+	private static volatile Scriptable sharedScope = null;
+
+	private static final Map<String, CompiledScript> scriptCache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CompiledScript> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
 	public static String replaceVariables(final ActionContext actionContext, final GraphObject entity, final Object rawValue) throws FrameworkException {
 
 		if (rawValue == null) {
@@ -138,19 +159,32 @@ public class Scripting {
 		}
 	}
 
+	/**
+	 * Returns the compiled scripts currently held in the script cache,
+	 * along with their execution statistics.
+	 *
+	 * @return the cached scripts
+	 */
+	public static List<CompiledScript> getCompiledScripts() {
+
+		synchronized (scriptCache) {
+			return new ArrayList<>(scriptCache.values());
+		}
+	}
+
 	private static Object evaluateJavascript(final ActionContext actionContext, final GraphObject entity, final String script) throws FrameworkException {
 
-		final Context scriptingContext = Context.enter();
+		final String sourceName        = "script source [" + ( !((NodeInterface)entity).getName().equals("") ? "\""+((NodeInterface)entity).getName()+"\":" : "" ) + entity.getUuid() + "], line ";
+		final Context scriptingContext = enterContext();
 
 		try {
 
-			// Set version to JavaScript1.2 so that we get object-literal style
-			// printing instead of "[object Object]"
-			scriptingContext.setLanguageVersion(Context.VERSION_1_2);
+			final CompiledScript compiledScript = compileOrGetCached(scriptingContext, script, sourceName);
 
-			// Initialize the standard objects (Object, Function, etc.)
-			// This must be done before scripts can be executed.
-			Scriptable scope = scriptingContext.initStandardObjects();
+			// per-evaluation scope on top of the shared, sealed standard objects
+			final Scriptable scope = scriptingContext.newObject(getSharedScope(scriptingContext));
+			scope.setPrototype(getSharedScope(scriptingContext));
+			scope.setParentScope(null);
 
 			final StructrScriptable scriptable = new StructrScriptable(actionContext, entity);
 			scriptable.setParentScope(scope);
@@ -161,7 +195,17 @@ public class Scripting {
 			// clear output buffer
 			actionContext.clear();
 
-			Object extractedValue = scriptingContext.evaluateString(scope, embedInFunction(script), "script source [" + ( !((NodeInterface)entity).getName().equals("") ? "\""+((NodeInterface)entity).getName()+"\":" : "" ) + entity.getUuid() + "], line ", 1, null);
+			final long t0         = System.nanoTime();
+			Object extractedValue = null;
+
+			try {
+
+				extractedValue = compiledScript.getScript().exec(scriptingContext, scope);
+
+			} finally {
+
+				compiledScript.recordExecution(System.nanoTime() - t0);
+			}
 
 			if (scriptable.hasException()) {
 				throw scriptable.getException();
@@ -188,6 +232,11 @@ public class Scripting {
 			// just throw the FrameworkException so we dont lose the information contained
 			throw fex;
 
+		} catch (final RhinoException rex) {
+
+			// compiled scripts are shared between entities, so the error message must refer to the current one
+			throw new FrameworkException(422, getErrorMessage(rex, sourceName));
+
 		} catch (final Throwable t) {
 
 			// if any other kind of Throwable is encountered throw a new FrameworkException and be done with it
@@ -200,6 +249,81 @@ public class Scripting {
 
 	}
 
+	private static Context enterContext() {
+
+		final Context scriptingContext = Context.enter();
+
+		// Set version to JavaScript1.2 so that we get object-literal style
+		// printing instead of "[object Object]"
+		scriptingContext.setLanguageVersion(Context.VERSION_1_2);
+		scriptingContext.setOptimizationLevel(optimizationLevel);
+
+		return scriptingContext;
+	}
+
+	private static Scriptable getSharedScope(final Context scriptingContext) {
+
+		Scriptable scope = sharedScope;
+		if (scope == null) {
+
+			synchronized (Scripting.class) {
+
+				scope = sharedScope;
+				if (scope == null) {
+
+					// Initialize the standard objects (Object, Function, etc.) once,
+					// sealed so that scripts cannot modify them for other scripts.
+					scope = scriptingContext.initStandardObjects(null, true);
+					sharedScope = scope;
+				}
+			}
+		}
+
+		return scope;
+	}
+
+	private static CompiledScript compileOrGetCached(final Context scriptingContext, final String source, final String sourceName) {
+
+		CompiledScript compiledScript = null;
+
+		synchronized (scriptCache) {
+			compiledScript = scriptCache.get(source);
+		}
+
+		if (compiledScript == null) {
+
+			// compile outside of the lock, concurrent compilations of the same source are harmless
+			final long t0       = System.nanoTime();
+			final Script script = scriptingContext.compileString(embedInFunction(source), sourceName, 1, null);
+
+			compiledScript = new CompiledScript(source, script, System.nanoTime() - t0);
+
+			synchronized (scriptCache) {
+				scriptCache.put(source, compiledScript);
+			}
+		}
+
+		return compiledScript;
+	}
+
+	private static String getErrorMessage(final RhinoException rex, final String sourceName) {
+
+		// same format as RhinoException.getMessage()
+		final StringBuilder buf = new StringBuilder(rex.details());
+		final int lineNumber    = rex.lineNumber();
+
+		if (lineNumber > 0) {
+
+			buf.append(" (");
+			buf.append(sourceName);
+			buf.append("#");
+			buf.append(lineNumber);
+			buf.append(")");
+		}
+
+		return buf.toString();
+	}
+
 	private static String embedInFunction(final String source) {
 
 		final StringBuilder buf = new StringBuilder();
@@ -285,6 +409,19 @@ public class Scripting {
 		return expressions;
 	}
 
+	private static int getOptimizationLevel() {
+
+		final int level = Services.parseInt(StructrApp.getConfigurationValue(Services.JAVASCRIPT_OPTIMIZATION_LEVEL), 0);
+		if (Context.isValidOptimizationLevel(level)) {
+
+			return level;
+		}
+
+		logger.log(Level.WARNING, "Invalid Javascript optimization level {0}, using 0.", level);
+
+		return 0;
+	}
+
 	private static String formatToDefaultDateOrString(final Object value) {
 
 		if (value instanceof Date) {
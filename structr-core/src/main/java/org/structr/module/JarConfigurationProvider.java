@@ -62,6 +62,7 @@ import org.structr.core.*;
 import org.structr.core.entity.Relation;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.RelationshipInterface;
+import org.structr.core.graph.search.TypeHierarchy;
 import org.structr.core.property.GenericProperty;
 import org.structr.core.property.PropertyKey;
 import org.structr.schema.ConfigurationProvider;
@@ -512,6 +513,8 @@ public class JarConfigurationProvider implements ConfigurationProvider {
 		globalPropertyViewMap.remove(typeName);
 		globalClassDBNamePropertyMap.remove(typeName);
 		globalClassJSNamePropertyMap.remove(typeName);
+
+		TypeHierarchy.invalidate();
 	}
 
 	@Override
@@ -601,6 +604,8 @@ public class JarConfigurationProvider implements ConfigurationProvider {
 
 		// extract interfaces for later use
 		getInterfacesForType(type);
+
+		TypeHierarchy.invalidate();
 	}
 
 	/**
@@ -41,6 +41,7 @@ import org.structr.core.app.StructrApp;
 import org.structr.core.entity.SchemaNode;
 import org.structr.core.entity.SchemaRelationshipNode;
 import org.structr.core.graph.Tx;
+import org.structr.core.graph.search.TypeHierarchy;
 import org.structr.schema.compiler.NodeExtender;
 
 /**
@@ -147,6 +148,10 @@ public class SchemaService implements Service {
 
 					success = false;
 				}
+
+				// replace the type hierarchy snapshot with one that
+				// contains the newly compiled types
+				TypeHierarchy.rebuild();
 			}
 
 			// compiling done
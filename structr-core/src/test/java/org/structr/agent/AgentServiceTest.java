@@ -0,0 +1,421 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.agent;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.structr.common.StructrConf;
+import org.structr.common.StructrTest;
+import org.structr.core.Services;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.Principal;
+
+/**
+ * Test scheduling in the {@link AgentService}.
+ *
+ * @author Christian Morgner
+ */
+public class AgentServiceTest extends StructrTest {
+
+	private static final long TIMEOUT = 10000;
+
+	public void test01PriorityOrder() throws InterruptedException {
+
+		final AgentService service    = startService(1, null);
+		final List<Integer> processed = Collections.synchronizedList(new LinkedList<Integer>());
+		final CountDownLatch release  = new CountDownLatch(1);
+		final CountDownLatch started  = new CountDownLatch(1);
+		final CountDownLatch done     = new CountDownLatch(3);
+
+		try {
+
+			// occupy the only worker so that the following tasks are queued
+			service.processTask(new BlockingTask(release, started));
+			assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+			service.processTask(new OrderedTask(1, processed, done));
+			service.processTask(new OrderedTask(5, processed, done));
+			service.processTask(new OrderedTask(3, processed, done));
+
+			release.countDown();
+
+			assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertEquals(5, (int)processed.get(0));
+			assertEquals(3, (int)processed.get(1));
+			assertEquals(1, (int)processed.get(2));
+
+		} finally {
+
+			service.stopService();
+		}
+	}
+
+	public void test02MaxAgentsPerType() throws InterruptedException {
+
+		final AgentService service = startService(4, "1");
+		final AtomicInteger max    = new AtomicInteger();
+		final AtomicInteger active = new AtomicInteger();
+		final CountDownLatch done  = new CountDownLatch(3);
+
+		try {
+
+			for (int i=0; i<3; i++) {
+				service.processTask(new LimitedTask(active, max, done));
+			}
+
+			assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertEquals(1, max.get());
+
+		} finally {
+
+			service.stopService();
+		}
+	}
+
+	public void test03LimitedTypeDoesNotBlockOthers() throws InterruptedException {
+
+		final AgentService service   = startService(4, "1");
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch done    = new CountDownLatch(1);
+
+		try {
+
+			// the limited type is blocked and has more tasks waiting
+			service.processTask(new LimitedBlockingTask(release, started));
+			service.processTask(new LimitedBlockingTask(release, null));
+			service.processTask(new LimitedBlockingTask(release, null));
+
+			assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+			service.processTask(new OrderedTask(0, new LinkedList<Integer>(), done));
+
+			assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertEquals(2, service.getQueueDepth());
+
+		} finally {
+
+			release.countDown();
+			service.stopService();
+		}
+	}
+
+	public void test04DroppedTask() throws InterruptedException {
+
+		final AgentService service = startService(1, null);
+
+		try {
+
+			service.processTask(new UnknownTask());
+
+			final TaskStatistics statistics = waitForStatistics(service, UnknownTask.class);
+
+			assertEquals(0, statistics.getQueued());
+			assertEquals(0, statistics.getRunning());
+			assertEquals(0, statistics.getCompleted());
+			assertEquals(1, statistics.getFailed());
+			assertEquals(0.0, statistics.getAverageLatency(), 0.0);
+
+		} finally {
+
+			service.stopService();
+		}
+
+		// tasks submitted after shutdown are rejected
+		service.processTask(new UnknownTask());
+		assertEquals(0, service.getQueueDepth());
+	}
+
+	// ----- private methods -----
+	private AgentService startService(final int threads, final String maxAgents) {
+
+		final StructrConf config   = new StructrConf();
+		final AgentService service = new TestAgentService();
+
+		config.setProperty(Services.AGENT_THREADS, Integer.toString(threads));
+
+		if (maxAgents != null) {
+
+			config.setProperty(LimitedTask.class.getSimpleName() + AgentService.MAX_AGENTS_SUFFIX, maxAgents);
+			config.setProperty(LimitedBlockingTask.class.getSimpleName() + AgentService.MAX_AGENTS_SUFFIX, maxAgents);
+		}
+
+		service.initialize(config);
+		service.startService();
+
+		return service;
+	}
+
+	private TaskStatistics waitForStatistics(final AgentService service, final Class type) throws InterruptedException {
+
+		final long end = System.currentTimeMillis() + TIMEOUT;
+
+		while (System.currentTimeMillis() < end) {
+
+			final TaskStatistics statistics = service.getTaskStatistics().get(type);
+			if (statistics != null && statistics.getQueued() == 0 && statistics.getFailed() > 0) {
+
+				return statistics;
+			}
+
+			Thread.sleep(10);
+		}
+
+		fail("Task was not dropped within " + TIMEOUT + " ms.");
+
+		return null;
+	}
+
+	// ----- nested classes -----
+	private static class TestAgentService extends AgentService {
+
+		@Override
+		protected Agent lookupAgent(final Task task) {
+
+			if (task instanceof TestTask) {
+				return new TestAgent(task.getClass());
+			}
+
+			// no agent for other tasks
+			return null;
+		}
+	}
+
+	private static class TestAgent extends Agent {
+
+		private Class supportedType = null;
+
+		public TestAgent(final Class supportedType) {
+			this.supportedType = supportedType;
+		}
+
+		@Override
+		public Class getSupportedTaskType() {
+			return supportedType;
+		}
+
+		@Override
+		public ReturnValue processTask(final Task task) throws Throwable {
+
+			((TestTask)task).process();
+
+			return ReturnValue.Success;
+		}
+
+		@Override
+		public boolean createEnclosingTransaction() {
+			return false;
+		}
+	}
+
+	private static abstract class TestTask implements Task {
+
+		private int priority = 0;
+
+		public TestTask(final int priority) {
+			this.priority = priority;
+		}
+
+		public abstract void process() throws Exception;
+
+		@Override
+		public Principal getUser() {
+			return null;
+		}
+
+		@Override
+		public Set<AbstractNode> getNodes() {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public int priority() {
+			return priority;
+		}
+
+		@Override
+		public Date getScheduledTime() {
+			return new Date();
+		}
+
+		@Override
+		public Date getCreationTime() {
+			return new Date();
+		}
+
+		@Override
+		public String getType() {
+			return getClass().getSimpleName();
+		}
+
+		@Override
+		public long getDelay(final TimeUnit unit) {
+			return 0;
+		}
+
+		@Override
+		public int compareTo(final Delayed o) {
+			return 0;
+		}
+
+		@Override
+		public Object getStatusProperty(final String key) {
+			return null;
+		}
+	}
+
+	private static class BlockingTask extends TestTask {
+
+		private CountDownLatch release = null;
+		private CountDownLatch started = null;
+
+		public BlockingTask(final CountDownLatch release, final CountDownLatch started) {
+
+			super(0);
+
+			this.release = release;
+			this.started = started;
+		}
+
+		@Override
+		public void process() throws Exception {
+
+			if (started != null) {
+				started.countDown();
+			}
+
+			release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static class LimitedBlockingTask extends BlockingTask {
+
+		public LimitedBlockingTask(final CountDownLatch release, final CountDownLatch started) {
+			super(release, started);
+		}
+	}
+
+	private static class OrderedTask extends TestTask {
+
+		private List<Integer> processed = null;
+		private CountDownLatch done     = null;
+
+		public OrderedTask(final int priority, final List<Integer> processed, final CountDownLatch done) {
+
+			super(priority);
+
+			this.processed = processed;
+			this.done      = done;
+		}
+
+		@Override
+		public void process() throws Exception {
+
+			processed.add(priority());
+			done.countDown();
+		}
+	}
+
+	private static class LimitedTask extends TestTask {
+
+		private AtomicInteger active = null;
+		private AtomicInteger max    = null;
+		private CountDownLatch done  = null;
+
+		public LimitedTask(final AtomicInteger active, final AtomicInteger max, final CountDownLatch done) {
+
+			super(0);
+
+			this.active = active;
+			this.max    = max;
+			this.done   = done;
+		}
+
+		@Override
+		public void process() throws Exception {
+
+			final int current = active.incrementAndGet();
+
+			int value = max.get();
+			while (current > value && !max.compareAndSet(value, current)) {
+				value = max.get();
+			}
+
+			Thread.sleep(100);
+
+			active.decrementAndGet();
+			done.countDown();
+		}
+	}
+
+	private static class UnknownTask implements Task {
+
+		@Override
+		public Principal getUser() {
+			return null;
+		}
+
+		@Override
+		public Set<AbstractNode> getNodes() {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public int priority() {
+			return 0;
+		}
+
+		@Override
+		public Date getScheduledTime() {
+			return new Date();
+		}
+
+		@Override
+		public Date getCreationTime() {
+			return new Date();
+		}
+
+		@Override
+		public String getType() {
+			return "UnknownTask";
+		}
+
+		@Override
+		public long getDelay(final TimeUnit unit) {
+			return 0;
+		}
+
+		@Override
+		public int compareTo(final Delayed o) {
+			return 0;
+		}
+
+		@Override
+		public Object getStatusProperty(final String key) {
+			return null;
+		}
+	}
+}
@@ -437,6 +437,74 @@ public class AccessControlTest extends StructrTest {
 
 	}
 
+	public void test09GrantAndRevokeOnExistingSecurityRelationship() {
+
+		// remove auto-generated resource access objects
+		clearResourceAccess();
+
+		try {
+
+			final TestUser owner              = createTestNode(TestUser.class);
+			final TestUser user               = createTestNode(TestUser.class);
+			final TestOne t1                  = createTestNode(TestOne.class, owner);
+			final SecurityContext userContext = SecurityContext.getInstance(user, AccessMode.Backend);
+
+			try (final Tx tx = app.tx()) {
+
+				// creates the security relationship
+				t1.grant(Permission.write, user);
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertTrue(t1.isGranted(Permission.write, userContext));
+				assertFalse(t1.isGranted(Permission.read, userContext));
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				// modifies the existing security relationship
+				t1.grant(Permission.read, user);
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertTrue(t1.isGranted(Permission.read, userContext));
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				t1.revoke(Permission.read, user);
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertFalse(t1.isGranted(Permission.read, userContext));
+				assertTrue(t1.isGranted(Permission.write, userContext));
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				t1.revoke(Permission.write, user);
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertFalse(t1.isGranted(Permission.write, userContext));
+			}
+
+		} catch (FrameworkException ex) {
+
+			ex.printStackTrace();
+			fail("Unexpected exception");
+
+		}
+	}
+
 	public static void clearResourceAccess() {
 
 		final App app = StructrApp.getInstance();
@@ -42,12 +42,14 @@ package org.structr.common;
 import org.structr.core.property.PropertyKey;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Result;
+import org.structr.core.ResultStream;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.TestOne;
 
 //~--- JDK imports ------------------------------------------------------------
 
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Level;
@@ -183,6 +185,152 @@ public class PagingTest extends StructrTest {
 
 	}
 
+	/**
+	 * Test that streamed results are paged like materialized results,
+	 * including pages counted from the end.
+	 */
+	public void test02ResultStreamPaging() {
+
+		try {
+
+			final Class type                = TestOne.class;
+			final int number                = 25;
+			final List<NodeInterface> nodes = this.createTestNodes(type, number);
+
+			try (final Tx tx = app.tx()) {
+
+				int i = 10;
+				for (NodeInterface node : nodes) {
+
+					node.setProperty(AbstractNode.name, "TestOne-" + i++);
+				}
+
+				tx.success();
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				final PropertyKey sortKey = AbstractNode.name;
+				final int pageSize        = 10;
+
+				for (final int page : new int[] { 1, 2, 3, 4, -1, -2, -3, -4 }) {
+
+					final Result result         = app.nodeQuery(type).sort(sortKey).page(page).pageSize(pageSize).getResult();
+					final List<String> streamed = new LinkedList<>();
+
+					try (final ResultStream<TestOne> stream = app.nodeQuery(TestOne.class).sort(sortKey).page(page).pageSize(pageSize).getResultStream()) {
+
+						for (final TestOne obj : stream) {
+							streamed.add(obj.getProperty(AbstractNode.name));
+						}
+					}
+
+					assertEquals("Wrong number of results for page " + page, result.size(), streamed.size());
+
+					for (int j=0; j<result.size(); j++) {
+						assertEquals(result.get(j).getProperty(AbstractNode.name), streamed.get(j));
+					}
+				}
+
+				// the last page is partial, counted from either end
+				try (final ResultStream<TestOne> stream = app.nodeQuery(TestOne.class).sort(sortKey).page(-1).pageSize(pageSize).getResultStream()) {
+
+					final List<String> names = new LinkedList<>();
+					for (final TestOne obj : stream) {
+						names.add(obj.getProperty(AbstractNode.name));
+					}
+
+					assertEquals(10, names.size());
+					assertEquals("TestOne-25", names.get(0));
+					assertEquals("TestOne-34", names.get(9));
+				}
+
+				// leaving a stream early must not fail
+				try (final ResultStream<TestOne> stream = app.nodeQuery(TestOne.class).sort(sortKey).getResultStream()) {
+
+					for (final TestOne obj : stream) {
+						break;
+					}
+				}
+			}
+
+		} catch (FrameworkException ex) {
+
+			ex.printStackTrace();
+
+			logger.log(Level.SEVERE, ex.toString());
+			fail("Unexpected exception");
+		}
+	}
+
+	/**
+	 * Test that the sorted sub list selects the same elements as a full
+	 * sort, including a partial last page and pages out of range.
+	 */
+	public void test03SortedSubList() {
+
+		try {
+
+			final Class type                = TestOne.class;
+			final int number                = 25;
+			final List<NodeInterface> nodes = this.createTestNodes(type, number);
+
+			try (final Tx tx = app.tx()) {
+
+				int i = 10;
+				for (NodeInterface node : nodes) {
+
+					node.setProperty(AbstractNode.name, "TestOne-" + i++);
+				}
+
+				tx.success();
+			}
+
+			Collections.shuffle(nodes, new Random(System.nanoTime()));
+
+			try (final Tx tx = app.tx()) {
+
+				final GraphObjectComparator comparator = new GraphObjectComparator(AbstractNode.name, false);
+
+				// small pages from the start are selected with a heap
+				assertSortedSubList(nodes, comparator, 4, 1, "TestOne-10", "TestOne-11", "TestOne-12", "TestOne-13");
+				assertSortedSubList(nodes, comparator, 4, 2, "TestOne-14", "TestOne-15", "TestOne-16", "TestOne-17");
+
+				// full and partial pages
+				assertSortedSubList(nodes, comparator, 10, 1, "TestOne-10", "TestOne-11", "TestOne-12", "TestOne-13", "TestOne-14", "TestOne-15", "TestOne-16", "TestOne-17", "TestOne-18", "TestOne-19");
+				assertSortedSubList(nodes, comparator, 10, 3, "TestOne-30", "TestOne-31", "TestOne-32", "TestOne-33", "TestOne-34");
+				assertSortedSubList(nodes, comparator, 10, -3, "TestOne-10", "TestOne-11", "TestOne-12", "TestOne-13", "TestOne-14");
+
+				// pages out of range
+				assertSortedSubList(nodes, comparator, 10, 4);
+				assertSortedSubList(nodes, comparator, 10, 100);
+				assertSortedSubList(nodes, comparator, 10, -4);
+				assertSortedSubList(nodes, comparator, 10, 0);
+				assertSortedSubList(nodes, comparator, 0, 1);
+			}
+
+		} catch (FrameworkException ex) {
+
+			ex.printStackTrace();
+
+			logger.log(Level.SEVERE, ex.toString());
+			fail("Unexpected exception");
+		}
+	}
+
+	private void assertSortedSubList(final List<NodeInterface> nodes, final GraphObjectComparator comparator, final int pageSize, final int page, final String... expectedNames) {
+
+		// the list may be sorted in place, so always pass a copy
+		final List<NodeInterface> copy   = new LinkedList<>(nodes);
+		final List<NodeInterface> result = PagingHelper.sortedSubList(copy, comparator, pageSize, page, null);
+
+		assertEquals("Wrong number of results for page " + page + " with page size " + pageSize, expectedNames.length, result.size());
+
+		for (int j=0; j<expectedNames.length; j++) {
+			assertEquals(expectedNames[j], result.get(j).getProperty(AbstractNode.name));
+		}
+	}
+
 	protected void testPaging(final Class type, final int pageSize, final int page, final int number, final int offset, final boolean includeDeletedAndHidden, final boolean publicOnly, final PropertyKey sortKey, final boolean sortDesc) throws FrameworkException {
 
 		Result result = app.nodeQuery(type).sort(sortKey).order(sortDesc).page(page).pageSize(pageSize).getResult();
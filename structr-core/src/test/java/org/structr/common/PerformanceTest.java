@@ -32,6 +32,9 @@ import java.util.logging.Logger;
 import org.structr.core.entity.GenericNode;
 import org.structr.core.entity.relationship.NodeHasLocation;
 import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.Tx;
+import org.structr.core.parser.Functions;
+import org.structr.schema.action.ActionContext;
 
 //~--- classes ----------------------------------------------------------------
 
@@ -129,4 +132,69 @@ public class PerformanceTest extends StructrTest {
 
 	}
 
+	/**
+	 * Compares the evaluation of typical StructrScript expressions with and
+	 * without the expression cache, i.e. parsing every time vs. parsing once.
+	 *
+	 * The results are only logged, the test fails if the cached evaluation
+	 * yields different results than the cold one.
+	 */
+	public void test03PerformanceOfExpressionEvaluation() {
+
+		final String[] expressions = new String[] {
+			"this.name",
+			"upper(concat(this.name, ' ', this.id))",
+			"if(equal(this.name, 'test'), 'yes', 'no')",
+			"join(merge('a', 'b', 'c'), ',')",
+			"if(and(not(empty(this.name)), equal(length(this.name), 4)), substring(this.name, 0, 2), 'none')"
+		};
+
+		try (final Tx tx = app.tx()) {
+
+			final ActionContext actionContext = new ActionContext(securityContext);
+			final GenericNode node            = createTestNode(GenericNode.class, "test");
+			final int number                  = 10000;
+
+			// warm up both paths and verify that the results are identical
+			for (final String expression : expressions) {
+
+				assertEquals(Functions.parse(expression).evaluate(actionContext, node), Functions.evaluate(actionContext, node, expression));
+			}
+
+			final long t0 = System.nanoTime();
+
+			for (int i=0; i<number; i++) {
+
+				for (final String expression : expressions) {
+					Functions.parse(expression).evaluate(actionContext, node);
+				}
+			}
+
+			final long t1 = System.nanoTime();
+
+			for (int i=0; i<number; i++) {
+
+				for (final String expression : expressions) {
+					Functions.evaluate(actionContext, node, expression);
+				}
+			}
+
+			final long t2 = System.nanoTime();
+
+			DecimalFormat decimalFormat = new DecimalFormat("0.000000000", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+			Double coldRate             = (number * expressions.length) / ((t1 - t0) / 1000000000.0);
+			Double cachedRate           = (number * expressions.length) / ((t2 - t1) / 1000000000.0);
+
+			logger.log(Level.INFO, "Evaluated {0} expressions: {1} per s without cache, {2} per s with cache", new Object[] { number * expressions.length, decimalFormat.format(coldRate), decimalFormat.format(cachedRate) });
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+
+			logger.log(Level.SEVERE, ex.toString());
+			fail("Unexpected exception");
+
+		}
+	}
+
 }
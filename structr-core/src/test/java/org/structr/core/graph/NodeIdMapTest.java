@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.io.IOException;
+import java.util.UUID;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class NodeIdMapTest extends TestCase {
+
+	public void testPutAndGet() throws IOException {
+
+		final int count     = 100000;
+		final String[] keys = new String[count];
+
+		try (final NodeIdMap map = new NodeIdMap()) {
+
+			// small initial capacity so the table has to grow several times
+			for (int i=0; i<count; i++) {
+
+				keys[i] = UUID.randomUUID().toString().replaceAll("[\\-]+", "");
+				map.put(keys[i], i);
+			}
+
+			assertEquals(count, map.size());
+
+			for (int i=0; i<count; i++) {
+				assertEquals(i, map.get(keys[i]));
+			}
+
+			assertEquals(-1, map.get(UUID.randomUUID().toString().replaceAll("[\\-]+", "")));
+
+			// overwrite existing entry
+			map.put(keys[0], 4711);
+			assertEquals(4711, map.get(keys[0]));
+			assertEquals(count, map.size());
+
+			// non-hex ids
+			map.put("not-a-structr-uuid", 42);
+			assertEquals(42, map.get("not-a-structr-uuid"));
+			assertEquals(-1, map.get("unknown"));
+		}
+	}
+}
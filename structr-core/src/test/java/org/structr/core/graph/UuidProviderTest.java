@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class UuidProviderTest extends TestCase {
+
+	public void testRandomUuidProvider() {
+
+		final UuidProvider provider = new RandomUuidProvider();
+		final Set<String> uuids     = new HashSet<>();
+
+		for (int i=0; i<100000; i++) {
+
+			final String uuid = provider.getNextUuid();
+
+			assertTrue(uuid.matches("[0-9a-f]{12}4[0-9a-f]{3}[89ab][0-9a-f]{15}"));
+			assertTrue(uuids.add(uuid));
+		}
+	}
+
+	public void testTimeOrderedUuidProvider() {
+
+		final UuidProvider provider = new TimeOrderedUuidProvider();
+		final Set<String> uuids     = new HashSet<>();
+		String last                 = "";
+
+		for (int i=0; i<100000; i++) {
+
+			final String uuid = provider.getNextUuid();
+
+			assertTrue(uuid.matches("[0-9a-f]{12}7[0-9a-f]{3}[89ab][0-9a-f]{15}"));
+			assertTrue(uuids.add(uuid));
+
+			// ids from one thread must be strictly increasing
+			assertTrue(uuid.compareTo(last) > 0);
+
+			last = uuid;
+		}
+	}
+}
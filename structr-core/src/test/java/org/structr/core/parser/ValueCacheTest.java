@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.parser;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.structr.common.error.FrameworkException;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class ValueCacheTest extends TestCase {
+
+	public void testHitsAndExpiry() throws Exception {
+
+		final AtomicInteger count      = new AtomicInteger();
+		final ValueCache cache         = new ValueCache(100, 1000);
+		final ValueCache.Loader loader = new ValueCache.Loader() {
+
+			@Override
+			public Object load() throws FrameworkException {
+				return "value" + count.incrementAndGet();
+			}
+		};
+
+		assertEquals("value1", cache.get("key", 60000, loader));
+		assertEquals("value1", cache.get("key", 60000, loader));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// expired values are computed again
+		assertEquals("value2", cache.get("expiring", 0, loader));
+		Thread.sleep(5);
+		assertEquals("value3", cache.get("expiring", 0, loader));
+	}
+
+	public void testEviction() throws Exception {
+
+		final ValueCache cache = new ValueCache(10, 25);
+
+		for (int i=0; i<20; i++) {
+			cache.get("key" + i, 60000, constant("x"));
+		}
+
+		assertEquals(10, cache.size());
+		assertEquals(10, cache.getEvictions());
+
+		// the least recently used entries are evicted first
+		cache.get("key10", 60000, constant("x"));
+		cache.get("large", 60000, constant("0123456789012345678"));
+
+		assertEquals(7, cache.size());
+		assertTrue(cache.getWeight() <= 25);
+		assertEquals("x", cache.get("key10", 60000, constant("y")));
+		assertEquals("y", cache.get("key11", 60000, constant("y")));
+	}
+
+	public void testSingleFlight() throws Exception {
+
+		final ValueCache cache     = new ValueCache(100, 1000);
+		final AtomicInteger loads  = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] threads     = new Thread[8];
+		final Object[] results     = new Object[threads.length];
+
+		final ValueCache.Loader loader = new ValueCache.Loader() {
+
+			@Override
+			public Object load() throws FrameworkException {
+
+				loads.incrementAndGet();
+
+				try { Thread.sleep(100); } catch (InterruptedException ignore) {}
+
+				return "expensive";
+			}
+		};
+
+		for (int i=0; i<threads.length; i++) {
+
+			final int index = i;
+
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+						start.await();
+						results[index] = cache.get("key", 60000, loader);
+
+					} catch (Exception ex) {
+						results[index] = ex;
+					}
+				}
+			});
+
+			threads[i].start();
+		}
+
+		start.countDown();
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(1, loads.get());
+
+		for (final Object result : results) {
+			assertEquals("expensive", result);
+		}
+	}
+
+	public void testReentrantLoad() throws Exception {
+
+		final ValueCache cache         = new ValueCache(100, 1000);
+		final ValueCache.Loader loader = new ValueCache.Loader() {
+
+			private int depth = 0;
+
+			@Override
+			public Object load() throws FrameworkException {
+
+				// request the same key once from within the loader
+				if (depth++ == 0) {
+					return "outer-" + cache.get("key", 60000, this);
+				}
+
+				return "inner";
+			}
+		};
+
+		assertEquals("outer-inner", cache.get("key", 60000, loader));
+		assertEquals("outer-inner", cache.get("key", 60000, constant("other")));
+	}
+
+	public void testBoundedWait() throws Exception {
+
+		final ValueCache cache       = new ValueCache(100, 1000, 100);
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Object[] result        = new Object[1];
+
+		final Thread slowThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					result[0] = cache.get("key", 60000, new ValueCache.Loader() {
+
+						@Override
+						public Object load() throws FrameworkException {
+
+							loading.countDown();
+
+							try { release.await(); } catch (InterruptedException ignore) {}
+
+							return "slow";
+						}
+					});
+
+				} catch (Exception ex) {
+					result[0] = ex;
+				}
+			}
+		});
+
+		slowThread.start();
+		loading.await();
+
+		// the waiting thread gives up and computes its own value
+		final long t0 = System.currentTimeMillis();
+		assertEquals("fast", cache.get("key", 60000, constant("fast")));
+		assertTrue(System.currentTimeMillis() - t0 < 5000);
+
+		release.countDown();
+		slowThread.join();
+
+		// only the value of the first loader is cached
+		assertEquals("slow", result[0]);
+		assertEquals("slow", cache.get("key", 60000, constant("other")));
+	}
+
+	// ----- private methods -----
+	private ValueCache.Loader constant(final Object value) {
+
+		return new ValueCache.Loader() {
+
+			@Override
+			public Object load() throws FrameworkException {
+				return value;
+			}
+		};
+	}
+}
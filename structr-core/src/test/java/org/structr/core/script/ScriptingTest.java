@@ -86,6 +86,42 @@ public class ScriptingTest extends StructrTest {
 		}
 	}
 
+	public void testCompiledScriptCache() {
+
+		try (final Tx tx = app.tx()) {
+
+			final ActionContext actionContext = new ActionContext(securityContext);
+			final TestOne test1               = createTestNode(TestOne.class);
+			final TestOne test2               = createTestNode(TestOne.class);
+			final String source               = " var x = Structr.get('this').anInt; return 'v' + x; ";
+
+			test1.setProperty(TestOne.anInt, 1);
+			test2.setProperty(TestOne.anInt, 2);
+
+			// the same compiled script must be evaluated in a separate scope for each entity
+			assertEquals("Invalid JavaScript evaluation result", "v1", Scripting.replaceVariables(actionContext, test1, "${{" + source + "}}"));
+			assertEquals("Invalid JavaScript evaluation result", "v2", Scripting.replaceVariables(actionContext, test2, "${{" + source + "}}"));
+
+			CompiledScript compiledScript = null;
+			for (final CompiledScript script : Scripting.getCompiledScripts()) {
+
+				if (source.equals(script.getSource())) {
+					compiledScript = script;
+				}
+			}
+
+			assertNotNull("Script was not cached", compiledScript);
+			assertEquals("Invalid number of evaluations", 2, compiledScript.getEvaluations());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+	}
+
 	private void testExtraction(final String source) {
 
 		final List<String> scripts = Scripting.extractScripts(source);
@@ -53,6 +53,10 @@ public class DefaultResourceProvider implements ResourceProvider {
 		resourceMap.put(Pattern.compile("[a-zA-Z]+"),		MaintenanceParameterResource.class);	// maintenance parameter
 
 		resourceMap.put(Pattern.compile("_schema"),		SchemaResource.class);			// special resource for schema information
+		resourceMap.put(Pattern.compile("_scripts"),		ScriptsResource.class);			// special resource for script execution statistics
+		resourceMap.put(Pattern.compile("_cache"),		CacheResource.class);			// special resource for cache() statistics
+		resourceMap.put(Pattern.compile("_locks"),		LockResource.class);			// special resource for transaction lock statistics
+		resourceMap.put(Pattern.compile("_permissions"),	PermissionCacheResource.class);		// special resource for permission cache statistics
 		resourceMap.put(Pattern.compile("[a-z_A-Z][a-z_A-Z0-9]*"), TypeResource.class);			// any type match
 
 		return resourceMap;
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.rest.resource;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObjectMap;
+import org.structr.core.Result;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.Tx;
+import org.structr.core.parser.ValueCache;
+import org.structr.core.property.LongProperty;
+import org.structr.core.property.Property;
+import org.structr.core.property.PropertyKey;
+import org.structr.rest.RestMethodResult;
+import org.structr.rest.exception.IllegalMethodException;
+import org.structr.rest.exception.IllegalPathException;
+import org.structr.rest.exception.NotAllowedException;
+
+/**
+ * Shows the size and the hit, miss and eviction counts of the value cache
+ * used by the cache() builtin function. Superusers only.
+ *
+ * @author Christian Morgner
+ */
+public class CacheResource extends Resource {
+
+	private static final Property<Long> sizeProperty       = new LongProperty("size");
+	private static final Property<Long> maxSizeProperty    = new LongProperty("maxSize");
+	private static final Property<Long> weightProperty     = new LongProperty("weight");
+	private static final Property<Long> maxWeightProperty  = new LongProperty("maxWeight");
+	private static final Property<Long> hitsProperty       = new LongProperty("hits");
+	private static final Property<Long> missesProperty     = new LongProperty("misses");
+	private static final Property<Long> evictionsProperty  = new LongProperty("evictions");
+
+	public enum UriPart {
+		_cache
+	}
+
+	@Override
+	public boolean checkAndConfigure(String part, SecurityContext securityContext, HttpServletRequest request) throws FrameworkException {
+
+		this.securityContext = securityContext;
+
+		return UriPart._cache.name().equals(part);
+	}
+
+	@Override
+	public Result doGet(PropertyKey sortKey, boolean sortDescending, int pageSize, int page, String offsetId) throws FrameworkException {
+
+		if (!isSuperUser()) {
+			throw new NotAllowedException();
+		}
+
+		final ValueCache cache                = ValueCache.getInstance();
+		final List<GraphObjectMap> resultList = new LinkedList<>();
+		final GraphObjectMap info             = new GraphObjectMap();
+
+		info.put(sizeProperty, (long)cache.size());
+		info.put(maxSizeProperty, cache.getMaxEntries());
+		info.put(weightProperty, cache.getWeight());
+		info.put(maxWeightProperty, cache.getMaxWeight());
+		info.put(hitsProperty, cache.getHits());
+		info.put(missesProperty, cache.getMisses());
+		info.put(evictionsProperty, cache.getEvictions());
+
+		resultList.add(info);
+
+		return new Result(resultList, resultList.size(), false, false);
+	}
+
+	@Override
+	public RestMethodResult doPost(Map<String, Object> propertySet) throws FrameworkException {
+		throw new IllegalMethodException();
+	}
+
+	@Override
+	public Resource tryCombineWith(Resource next) throws FrameworkException {
+		throw new IllegalPathException();
+	}
+
+	@Override
+	public String getUriPart() {
+		return getResourceSignature();
+	}
+
+	@Override
+	public Class getEntityClass() {
+		return null;
+	}
+
+	@Override
+	public String getResourceSignature() {
+		return UriPart._cache.name();
+	}
+
+	@Override
+	public boolean isCollectionResource() throws FrameworkException {
+		return false;
+	}
+
+	// ----- private methods -----
+	private boolean isSuperUser() throws FrameworkException {
+
+		try (final Tx tx = StructrApp.getInstance().tx()) {
+			return securityContext != null && securityContext.isSuperUser();
+		}
+	}
+}
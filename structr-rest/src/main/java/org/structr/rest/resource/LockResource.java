@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.rest.resource;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.servlet.http.HttpServletRequest;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObjectMap;
+import org.structr.core.Result;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.Tx;
+import org.structr.core.property.LongProperty;
+import org.structr.core.property.Property;
+import org.structr.core.property.PropertyKey;
+import org.structr.core.property.StringProperty;
+import org.structr.rest.RestMethodResult;
+import org.structr.rest.exception.IllegalMethodException;
+import org.structr.rest.exception.IllegalPathException;
+import org.structr.rest.exception.NotAllowedException;
+
+/**
+ * Shows acquisition, contention and timeout counts for each synchronization
+ * key locked by write transactions. Superusers only.
+ *
+ * @author Christian Morgner
+ */
+public class LockResource extends Resource {
+
+	private static final Property<String> keyProperty        = new StringProperty("key");
+	private static final Property<Long> acquisitionsProperty = new LongProperty("acquisitions");
+	private static final Property<Long> contentionsProperty  = new LongProperty("contentions");
+	private static final Property<Long> timeoutsProperty     = new LongProperty("timeouts");
+	private static final Property<Long> waitTimeProperty     = new LongProperty("waitTimeMs");
+
+	public enum UriPart {
+		_locks
+	}
+
+	@Override
+	public boolean checkAndConfigure(String part, SecurityContext securityContext, HttpServletRequest request) throws FrameworkException {
+
+		this.securityContext = securityContext;
+
+		return UriPart._locks.name().equals(part);
+	}
+
+	@Override
+	public Result doGet(PropertyKey sortKey, boolean sortDescending, int pageSize, int page, String offsetId) throws FrameworkException {
+
+		if (!isSuperUser()) {
+			throw new NotAllowedException();
+		}
+
+		final List<GraphObjectMap> resultList = new LinkedList<>();
+
+		for (final Entry<String, Map<String, Object>> entry : TransactionCommand.getLockStatistics().entrySet()) {
+
+			final Map<String, Object> statistics = entry.getValue();
+			final GraphObjectMap info            = new GraphObjectMap();
+
+			info.put(keyProperty, entry.getKey());
+			info.put(acquisitionsProperty, getLong(statistics, "acquisitions"));
+			info.put(contentionsProperty, getLong(statistics, "contentions"));
+			info.put(timeoutsProperty, getLong(statistics, "timeouts"));
+			info.put(waitTimeProperty, getLong(statistics, "waitTimeMs"));
+
+			resultList.add(info);
+		}
+
+		return new Result(resultList, resultList.size(), true, false);
+	}
+
+	@Override
+	public RestMethodResult doPost(Map<String, Object> propertySet) throws FrameworkException {
+		throw new IllegalMethodException();
+	}
+
+	@Override
+	public Resource tryCombineWith(Resource next) throws FrameworkException {
+		throw new IllegalPathException();
+	}
+
+	@Override
+	public String getUriPart() {
+		return getResourceSignature();
+	}
+
+	@Override
+	public Class getEntityClass() {
+		return null;
+	}
+
+	@Override
+	public String getResourceSignature() {
+		return UriPart._locks.name();
+	}
+
+	@Override
+	public boolean isCollectionResource() throws FrameworkException {
+		return true;
+	}
+
+	// ----- private methods -----
+	private Long getLong(final Map<String, Object> statistics, final String key) {
+
+		final Object value = statistics.get(key);
+		if (value instanceof Number) {
+
+			return ((Number)value).longValue();
+		}
+
+		return 0L;
+	}
+
+	private boolean isSuperUser() throws FrameworkException {
+
+		try (final Tx tx = StructrApp.getInstance().tx()) {
+			return securityContext != null && securityContext.isSuperUser();
+		}
+	}
+}
@@ -29,6 +29,10 @@ import org.structr.rest.exception.SystemException;
 
 //~--- JDK imports ------------------------------------------------------------
 
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -36,7 +40,18 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
+import org.structr.core.GraphObjectMap;
+import org.structr.core.Services;
+import org.structr.core.property.BooleanProperty;
+import org.structr.core.property.DoubleProperty;
+import org.structr.core.property.ISO8601DateProperty;
+import org.structr.core.property.IntProperty;
+import org.structr.core.property.LongProperty;
+import org.structr.core.property.Property;
 import org.structr.core.property.PropertyKey;
+import org.structr.core.property.StringProperty;
+import org.structr.core.graph.BulkOperationStatus;
+import org.structr.core.graph.MaintenanceCheckpoint;
 import org.structr.core.graph.MaintenanceCommand;
 import org.structr.core.graph.Tx;
 
@@ -52,6 +67,17 @@ public class MaintenanceResource extends Resource {
 
 	private static final Logger logger = Logger.getLogger(MaintenanceResource.class.getName());
 
+	private static final Property<Long> idProperty                 = new LongProperty("id");
+	private static final Property<String> descriptionProperty      = new StringProperty("description");
+	private static final Property<Boolean> runningProperty         = new BooleanProperty("running");
+	private static final Property<Integer> workersProperty         = new IntProperty("workers");
+	private static final Property<Long> processedProperty          = new LongProperty("processed");
+	private static final Property<Long> failedProperty             = new LongProperty("failed");
+	private static final Property<Long> failedTransactionsProperty = new LongProperty("failedTransactions");
+	private static final Property<Double> throughputProperty       = new DoubleProperty("objectsPerSecond");
+	private static final ISO8601DateProperty startTimeProperty     = new ISO8601DateProperty("startTime");
+	private static final ISO8601DateProperty endTimeProperty       = new ISO8601DateProperty("endTime");
+
 	//~--- fields ---------------------------------------------------------
 
 	private Class taskOrCommand = null;
@@ -61,6 +87,9 @@ public class MaintenanceResource extends Resource {
 	@Override
 	public boolean checkAndConfigure(String part, SecurityContext securityContext, HttpServletRequest request) {
 
+		startTimeProperty.setDeclaringClass(MaintenanceResource.class);
+		endTimeProperty.setDeclaringClass(MaintenanceResource.class);
+
 		this.securityContext = securityContext;
 
 		return ("maintenance".equals(part));
@@ -68,6 +97,36 @@ public class MaintenanceResource extends Resource {
 
 	@Override
 	public Result doGet(PropertyKey sortKey, boolean sortDescending, int pageSize, int page, String offsetId) throws FrameworkException {
+
+		if ((securityContext != null) && isSuperUser()) {
+
+			final List<GraphObjectMap> resultList = new LinkedList<>();
+
+			// progress of running and recently finished bulk operations
+			for (final BulkOperationStatus status : BulkOperationStatus.getOperations()) {
+
+				final GraphObjectMap info = new GraphObjectMap();
+
+				info.put(idProperty, status.getId());
+				info.put(descriptionProperty, status.getDescription());
+				info.put(runningProperty, status.isRunning());
+				info.put(workersProperty, status.getWorkers());
+				info.put(processedProperty, status.getProcessed());
+				info.put(failedProperty, status.getFailed());
+				info.put(failedTransactionsProperty, status.getFailedTransactions());
+				info.put(throughputProperty, status.getThroughput());
+				info.put(startTimeProperty, new Date(status.getStartTime()));
+
+				if (!status.isRunning()) {
+					info.put(endTimeProperty, new Date(status.getEndTime()));
+				}
+
+				resultList.add(info);
+			}
+
+			return new Result(resultList, resultList.size(), true, false);
+		}
+
 		throw new NotAllowedException();
 	}
 
@@ -96,17 +155,33 @@ public class MaintenanceResource extends Resource {
 					} else if (MaintenanceCommand.class.isAssignableFrom(taskOrCommand)) {
 
 						MaintenanceCommand cmd = (MaintenanceCommand)StructrApp.getInstance(securityContext).command(taskOrCommand);
-						if (cmd.requiresEnclosingTransaction()) {
 
-							try (final Tx tx = app.tx()) {
+						// record progress so an interrupted run can be resumed with {"resume": true}
+						final boolean resume                   = Services.parseBoolean(propertySet.remove("resume"), false);
+						final MaintenanceCheckpoint checkpoint = MaintenanceCheckpoint.begin(taskOrCommand.getName(), propertySet, resume);
+						final Map<String, Object> parameters   = new LinkedHashMap<>(checkpoint.getParameters());
+						boolean success                        = false;
+
+						try {
 
-								cmd.execute(propertySet);
-								tx.success();
+							if (cmd.requiresEnclosingTransaction()) {
+
+								try (final Tx tx = app.tx()) {
+
+									cmd.execute(parameters);
+									tx.success();
+								}
+
+							} else {
+
+								cmd.execute(parameters);
 							}
 
-						} else {
+							success = true;
+
+						} finally {
 
-							cmd.execute(propertySet);
+							checkpoint.end(success);
 						}
 
 					} else {
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.rest.resource;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObjectMap;
+import org.structr.core.Result;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.Tx;
+import org.structr.core.property.DoubleProperty;
+import org.structr.core.property.LongProperty;
+import org.structr.core.property.Property;
+import org.structr.core.property.PropertyKey;
+import org.structr.core.property.StringProperty;
+import org.structr.core.script.CompiledScript;
+import org.structr.core.script.Scripting;
+import org.structr.rest.RestMethodResult;
+import org.structr.rest.exception.IllegalMethodException;
+import org.structr.rest.exception.IllegalPathException;
+import org.structr.rest.exception.NotAllowedException;
+
+/**
+ * Lists the compiled Javascript snippets in the script cache along with
+ * their execution times, slowest first. Superusers only.
+ *
+ * @author Christian Morgner
+ */
+public class ScriptsResource extends Resource {
+
+	private static final Property<String> sourceProperty       = new StringProperty("source");
+	private static final Property<Long> evaluationsProperty    = new LongProperty("evaluations");
+	private static final Property<Double> totalTimeProperty    = new DoubleProperty("totalTime");
+	private static final Property<Double> averageTimeProperty  = new DoubleProperty("averageTime");
+	private static final Property<Double> maxTimeProperty      = new DoubleProperty("maxTime");
+	private static final Property<Double> compileTimeProperty  = new DoubleProperty("compileTime");
+
+	public enum UriPart {
+		_scripts
+	}
+
+	@Override
+	public boolean checkAndConfigure(String part, SecurityContext securityContext, HttpServletRequest request) throws FrameworkException {
+
+		this.securityContext = securityContext;
+
+		return UriPart._scripts.name().equals(part);
+	}
+
+	@Override
+	public Result doGet(PropertyKey sortKey, boolean sortDescending, int pageSize, int page, String offsetId) throws FrameworkException {
+
+		if (!isSuperUser()) {
+			throw new NotAllowedException();
+		}
+
+		final List<CompiledScript> scripts    = Scripting.getCompiledScripts();
+		final List<GraphObjectMap> resultList = new LinkedList<>();
+
+		Collections.sort(scripts, new Comparator<CompiledScript>() {
+
+			@Override
+			public int compare(final CompiledScript o1, final CompiledScript o2) {
+				return Double.compare(o2.getTotalTime(), o1.getTotalTime());
+			}
+		});
+
+		for (final CompiledScript script : scripts) {
+
+			final GraphObjectMap info = new GraphObjectMap();
+
+			info.put(sourceProperty, script.getSource());
+			info.put(evaluationsProperty, script.getEvaluations());
+			info.put(totalTimeProperty, script.getTotalTime());
+			info.put(averageTimeProperty, script.getAverageTime());
+			info.put(maxTimeProperty, script.getMaxTime());
+			info.put(compileTimeProperty, script.getCompileTime());
+
+			resultList.add(info);
+		}
+
+		return new Result(resultList, resultList.size(), true, false);
+	}
+
+	@Override
+	public RestMethodResult doPost(Map<String, Object> propertySet) throws FrameworkException {
+		throw new IllegalMethodException();
+	}
+
+	@Override
+	public Resource tryCombineWith(Resource next) throws FrameworkException {
+		throw new IllegalPathException();
+	}
+
+	@Override
+	public String getUriPart() {
+		return getResourceSignature();
+	}
+
+	@Override
+	public Class getEntityClass() {
+		return null;
+	}
+
+	@Override
+	public String getResourceSignature() {
+		return UriPart._scripts.name();
+	}
+
+	@Override
+	public boolean isCollectionResource() throws FrameworkException {
+		return true;
+	}
+
+	// ----- private methods -----
+	private boolean isSuperUser() throws FrameworkException {
+
+		try (final Tx tx = StructrApp.getInstance().tx()) {
+			return securityContext != null && securityContext.isSuperUser();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.rest.serialization;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
+
+/**
+ * A RestWriter that records all calls so they can be replayed on another
+ * writer later. This allows the expensive part of serialization (property
+ * resolution and conversion) to run on a different thread than the one
+ * that owns the output stream.
+ *
+ * @author Christian Morgner
+ */
+public class RecordingRestWriter implements RestWriter {
+
+	private enum Op {
+		BeginDocument, EndDocument, BeginArray, EndArray, BeginObject, EndObject, Name, StringValue, NullValue, BooleanValue, DoubleValue, LongValue, NumberValue
+	}
+
+	private final List<Op> ops              = new ArrayList<>();
+	private final List<Object> args         = new ArrayList<>();
+	private SecurityContext securityContext = null;
+
+	public RecordingRestWriter(final SecurityContext securityContext) {
+		this.securityContext = securityContext;
+	}
+
+	/**
+	 * Replays all recorded calls on the given writer.
+	 *
+	 * @param writer the target writer
+	 * @throws IOException
+	 */
+	public void replay(final RestWriter writer) throws IOException {
+
+		final int size = ops.size();
+
+		for (int i=0; i<size; i++) {
+
+			final Object arg = args.get(i);
+
+			switch (ops.get(i)) {
+
+				case BeginDocument:
+					final String[] document = (String[])arg;
+					writer.beginDocument(document[0], document[1]);
+					break;
+
+				case EndDocument:
+					writer.endDocument();
+					break;
+
+				case BeginArray:
+					writer.beginArray();
+					break;
+
+				case EndArray:
+					writer.endArray();
+					break;
+
+				case BeginObject:
+					writer.beginObject((GraphObject)arg);
+					break;
+
+				case EndObject:
+					writer.endObject((GraphObject)arg);
+					break;
+
+				case Name:
+					writer.name((String)arg);
+					break;
+
+				case StringValue:
+					writer.value((String)arg);
+					break;
+
+				case NullValue:
+					writer.nullValue();
+					break;
+
+				case BooleanValue:
+					writer.value((boolean)(Boolean)arg);
+					break;
+
+				case DoubleValue:
+					writer.value((double)(Double)arg);
+					break;
+
+				case LongValue:
+					writer.value((long)(Long)arg);
+					break;
+
+				case NumberValue:
+					writer.value((Number)arg);
+					break;
+			}
+		}
+	}
+
+	@Override
+	public void setIndent(final String indent) {
+		// indentation is applied by the target writer
+	}
+
+	@Override
+	public SecurityContext getSecurityContext() {
+		return securityContext;
+	}
+
+	@Override
+	public RestWriter beginDocument(final String baseUrl, final String propertyView) throws IOException {
+		return record(Op.BeginDocument, new String[] { baseUrl, propertyView });
+	}
+
+	@Override
+	public RestWriter endDocument() throws IOException {
+		return record(Op.EndDocument, null);
+	}
+
+	@Override
+	public RestWriter beginArray() throws IOException {
+		return record(Op.BeginArray, null);
+	}
+
+	@Override
+	public RestWriter endArray() throws IOException {
+		return record(Op.EndArray, null);
+	}
+
+	@Override
+	public RestWriter beginObject() throws IOException {
+		return beginObject(null);
+	}
+
+	@Override
+	public RestWriter beginObject(final GraphObject graphObject) throws IOException {
+		return record(Op.BeginObject, graphObject);
+	}
+
+	@Override
+	public RestWriter endObject() throws IOException {
+		return endObject(null);
+	}
+
+	@Override
+	public RestWriter endObject(final GraphObject graphObject) throws IOException {
+		return record(Op.EndObject, graphObject);
+	}
+
+	@Override
+	public RestWriter name(final String name) throws IOException {
+		return record(Op.Name, name);
+	}
+
+	@Override
+	public RestWriter value(final String value) throws IOException {
+		return record(Op.StringValue, value);
+	}
+
+	@Override
+	public RestWriter nullValue() throws IOException {
+		return record(Op.NullValue, null);
+	}
+
+	@Override
+	public RestWriter value(final boolean value) throws IOException {
+		return record(Op.BooleanValue, value);
+	}
+
+	@Override
+	public RestWriter value(final double value) throws IOException {
+		return record(Op.DoubleValue, value);
+	}
+
+	@Override
+	public RestWriter value(final long value) throws IOException {
+		return record(Op.LongValue, value);
+	}
+
+	@Override
+	public RestWriter value(final Number value) throws IOException {
+		return record(Op.NumberValue, value);
+	}
+
+	// ----- private methods -----
+	private RestWriter record(final Op op, final Object arg) {
+
+		ops.add(op);
+		args.add(arg);
+
+		return this;
+	}
+}
@@ -23,15 +23,23 @@ import java.util.List;
 import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.neo4j.helpers.Predicate;
 import org.structr.common.PropertyView;
 import org.structr.common.SecurityContext;
@@ -39,8 +47,11 @@ import org.structr.core.GraphObject;
 import org.structr.core.Result;
 import org.structr.core.Services;
 import org.structr.core.Value;
+import org.structr.core.app.StructrApp;
 import org.structr.core.converter.PropertyConverter;
 import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
 
@@ -50,8 +61,13 @@ import org.structr.core.property.PropertyMap;
  */
 public abstract class StreamingWriter {
 
+	public static final String PARALLEL_SERIALIZATION_KEY       = "json.parallelSerialization";
+	public static final String PARALLEL_SERIALIZATION_THRESHOLD = "json.parallelSerialization.threshold";
+
 	private static final Logger logger                   = Logger.getLogger(StreamingWriter.class.getName());
+	private static ForkJoinPool serializationPool        = null;
 	private static final long MAX_SERIALIZATION_TIME     = TimeUnit.SECONDS.toMillis(30);
+	private static final int SERIALIZATION_BATCH_SIZE    = 32;
 	private static final Set<PropertyKey> idNameOnly     = new LinkedHashSet<>();
 
 	static {
@@ -60,16 +76,18 @@ public abstract class StreamingWriter {
 		idNameOnly.add(AbstractNode.name);
 	}
 
-	private final Map<Class, Serializer> serializerCache = new LinkedHashMap<>();
+	private final Map<Class, Serializer> serializerCache = new ConcurrentHashMap<>();
 	private final Map<Class, Serializer> serializers     = new LinkedHashMap<>();
 	private final Serializer<GraphObject> root           = new RootSerializer();
 	private final Set<Class> nonSerializerClasses        = new LinkedHashSet<>();
-	private final Set<String> visitedObjects             = new ConcurrentHashSet<>();
+	private final ThreadLocal<Set<String>> visitedObjects = new VisitedObjects();
 	private final DecimalFormat decimalFormat            = new DecimalFormat("0.000000000", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
 	private String resultKeyName                         = "result";
 	private boolean renderSerializationTime              = true;
 	private boolean renderResultCount                    = true;
 	private boolean reduceRedundancy                     = false;
+	private boolean parallelSerialization                = false;
+	private int parallelThreshold                        = 100;
 	private int outputNestingDepth                       = 3;
 	private Value<String> propertyView                   = null;
 	protected boolean indent                             = true;
@@ -105,6 +123,9 @@ public abstract class StreamingWriter {
 			logger.log(Level.WARNING, "Unable to parse value for {0} from configuration file, invalid value.", Services.JSON_REDUNDANCY_REDUCTION);
 		}
 
+		this.parallelSerialization = Boolean.valueOf(Services.getInstance().getConfigurationValue(PARALLEL_SERIALIZATION_KEY, "false"));
+		this.parallelThreshold     = Services.parseInt(Services.getInstance().getConfigurationValue(PARALLEL_SERIALIZATION_THRESHOLD), 100);
+
 		//this.writer = new StructrWriter(writer);
 		//this.writer.setIndent("   ");
 	}
@@ -207,18 +228,27 @@ public abstract class StreamingWriter {
 
 					writer.name(resultKeyName).beginArray();
 
-					// serialize list of results
-					for (GraphObject graphObject : results) {
+					// root objects are independent of each other, so they can be serialized in
+					// parallel as long as the worker threads see the same database state
+					if (parallelSerialization && results.size() >= parallelThreshold && !TransactionCommand.hasModifications()) {
 
-						root.serialize(writer, graphObject, localPropertyView, 0);
+						serializeParallel(writer, results, localPropertyView, startTime);
 
-						// check for timeout
-						if (System.currentTimeMillis() > startTime + MAX_SERIALIZATION_TIME) {
+					} else {
 
-							logger.log(Level.SEVERE, "JSON serialization took more than {0} ms, aborted. Please review output view size or adjust timeout.", MAX_SERIALIZATION_TIME);
+						// serialize list of results
+						for (GraphObject graphObject : results) {
 
-							// TODO: create some output indicating that streaming was interrupted
-							break;
+							root.serialize(writer, graphObject, localPropertyView, 0);
+
+							// check for timeout
+							if (System.currentTimeMillis() > startTime + MAX_SERIALIZATION_TIME) {
+
+								logger.log(Level.SEVERE, "JSON serialization took more than {0} ms, aborted. Please review output view size or adjust timeout.", MAX_SERIALIZATION_TIME);
+
+								// TODO: create some output indicating that streaming was interrupted
+								break;
+							}
 						}
 					}
 
@@ -261,6 +291,10 @@ public abstract class StreamingWriter {
 		writer.endDocument();
 	}
 
+	public void setParallelSerialization(final boolean parallelSerialization) {
+		this.parallelSerialization = parallelSerialization;
+	}
+
 	public void setResultKeyName(final String resultKeyName) {
 		this.resultKeyName = resultKeyName;
 	}
@@ -273,6 +307,82 @@ public abstract class StreamingWriter {
 		this.renderResultCount = doRender;
 	}
 
+	/**
+	 * Serializes the given root objects on the serialization pool in batches,
+	 * each into its own recording buffer, and replays the buffers on the given
+	 * writer in the original order. Only a limited number of batches is
+	 * serialized ahead of the writer, so memory usage does not depend on the
+	 * page size.
+	 */
+	private void serializeParallel(final RestWriter writer, final List<? extends GraphObject> results, final String localPropertyView, final long startTime) throws IOException {
+
+		final SecurityContext securityContext                = writer.getSecurityContext();
+		final ForkJoinPool pool                              = getSerializationPool();
+		final LinkedList<Future<RecordingRestWriter>> queue  = new LinkedList<>();
+		final Iterator<? extends GraphObject> iterator       = results.iterator();
+		final int window                                     = pool.getParallelism() * 2;
+
+		try {
+
+			while (iterator.hasNext() || !queue.isEmpty()) {
+
+				// keep the pool busy
+				while (iterator.hasNext() && queue.size() < window) {
+
+					final List<GraphObject> batch = new ArrayList<>(SERIALIZATION_BATCH_SIZE);
+
+					while (iterator.hasNext() && batch.size() < SERIALIZATION_BATCH_SIZE) {
+						batch.add(iterator.next());
+					}
+
+					queue.add(pool.submit(new SerializationTask(securityContext, batch, localPropertyView)));
+				}
+
+				final long remaining = startTime + MAX_SERIALIZATION_TIME - System.currentTimeMillis();
+
+				try {
+
+					queue.removeFirst().get(Math.max(0L, remaining), TimeUnit.MILLISECONDS).replay(writer);
+
+				} catch (TimeoutException tex) {
+
+					logger.log(Level.SEVERE, "JSON serialization took more than {0} ms, aborted. Please review output view size or adjust timeout.", MAX_SERIALIZATION_TIME);
+					break;
+
+				} catch (ExecutionException eex) {
+
+					final Throwable cause = eex.getCause();
+					if (cause instanceof IOException) {
+
+						throw (IOException)cause;
+					}
+
+					throw new IOException(cause);
+				}
+			}
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+
+		} finally {
+
+			// discard remaining work in case of an error or timeout
+			for (final Future future : queue) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private static synchronized ForkJoinPool getSerializationPool() {
+
+		if (serializationPool == null) {
+			serializationPool = new ForkJoinPool();
+		}
+
+		return serializationPool;
+	}
+
 	private Serializer getSerializerForType(Class type) {
 
 		Class localType       = type;
@@ -417,7 +527,7 @@ public abstract class StreamingWriter {
 				id = source.getUuid();
 				if (id != null) {
 
-					visitedObjects.add(id);
+					visitedObjects.get().add(id);
 				}
 			}
 
@@ -450,7 +560,7 @@ public abstract class StreamingWriter {
 								String valueId = ((GraphObject)value).getUuid();
 								if (valueId != null) {
 
-									skip = visitedObjects.contains(valueId);
+									skip = visitedObjects.get().contains(valueId);
 								}
 							}
 
@@ -478,7 +588,7 @@ public abstract class StreamingWriter {
 
 			// unmark (visiting only counts for children)
 			if (id != null) {
-				visitedObjects.remove(id);
+				visitedObjects.get().remove(id);
 			}
 		}
 	}
@@ -552,4 +662,51 @@ public abstract class StreamingWriter {
 			writer.endObject();
 		}
 	}
+
+	/**
+	 * Serializes a batch of root objects into a recording buffer, inside a
+	 * single read transaction of the worker thread. The transaction is
+	 * never marked successful, so nothing is committed and no callbacks or
+	 * notifications are run.
+	 */
+	private class SerializationTask implements Callable<RecordingRestWriter> {
+
+		private SecurityContext securityContext = null;
+		private String localPropertyView        = null;
+		private List<GraphObject> batch         = null;
+
+		public SerializationTask(final SecurityContext securityContext, final List<GraphObject> batch, final String localPropertyView) {
+
+			this.securityContext   = securityContext;
+			this.localPropertyView = localPropertyView;
+			this.batch             = batch;
+		}
+
+		@Override
+		public RecordingRestWriter call() throws Exception {
+
+			final RecordingRestWriter buffer = new RecordingRestWriter(securityContext);
+
+			try (final Tx tx = StructrApp.getInstance(securityContext).tx(false, false, false)) {
+
+				for (final GraphObject obj : batch) {
+					root.serialize(buffer, obj, localPropertyView, 0);
+				}
+			}
+
+			return buffer;
+		}
+	}
+
+	/**
+	 * The objects on the current serialization path, kept per thread
+	 * because root objects can be serialized concurrently.
+	 */
+	private static class VisitedObjects extends ThreadLocal<Set<String>> {
+
+		@Override
+		protected Set<String> initialValue() {
+			return new LinkedHashSet<>();
+		}
+	}
 }
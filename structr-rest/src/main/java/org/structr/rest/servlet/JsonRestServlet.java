@@ -20,12 +20,18 @@ package org.structr.rest.servlet;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -76,6 +82,7 @@ import org.tuckey.web.filters.urlrewrite.utils.StringUtils;
 public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 
 	public static final int DEFAULT_VALUE_PAGE_SIZE                     = 20;
+	public static final int DEFAULT_VALUE_BULK_BATCH_SIZE               = 1000;
 	public static final String DEFAULT_VALUE_SORT_ORDER                 = "asc";
 	public static final String REQUEST_PARAMETER_LOOSE_SEARCH           = "loose";
 	public static final String REQUEST_PARAMETER_PAGE_NUMBER            = "page";
@@ -83,6 +90,7 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 	public static final String REQUEST_PARAMETER_OFFSET_ID              = "pageStartId";
 	public static final String REQUEST_PARAMETER_SORT_KEY               = "sort";
 	public static final String REQUEST_PARAMETER_SORT_ORDER             = "order";
+	public static final String REQUEST_PARAMETER_BULK                   = "bulk";
 	public static final Set<String> commonRequestParameters             = new LinkedHashSet<>();
 	private static final Logger logger                                  = Logger.getLogger(JsonRestServlet.class.getName());
 
@@ -94,6 +102,7 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 		commonRequestParameters.add(REQUEST_PARAMETER_OFFSET_ID);
 		commonRequestParameters.add(REQUEST_PARAMETER_SORT_KEY);
 		commonRequestParameters.add(REQUEST_PARAMETER_SORT_ORDER);
+		commonRequestParameters.add(REQUEST_PARAMETER_BULK);
 
 		// cross reference here, but these need to be added as well..
 		commonRequestParameters.add(SearchCommand.DISTANCE_SEARCH_KEYWORD);
@@ -398,6 +407,13 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 				tx.success();
 			}
 
+			// bulk mode streams the request body, so it must not be read here
+			if (securityContext != null && request.getParameter(REQUEST_PARAMETER_BULK) != null) {
+
+				doBulkPost(request, response, securityContext, authenticator);
+				return;
+			}
+
 			final App app              = StructrApp.getInstance(securityContext);
 			final String input         = IOUtils.toString(request.getReader());
 			final IJsonInput jsonInput = cleanAndParseJsonString(app, input);
@@ -695,6 +711,213 @@ public class JsonRestServlet extends HttpServlet implements HttpServiceServlet {
 
 	// <editor-fold defaultstate="collapsed" desc="private methods">
 
+	/**
+	 * Creates the objects of a JSON array while the array is being read.
+	 * Objects are created in batches of the size given in the "bulk"
+	 * request parameter, each batch in a single transaction, so validation
+	 * and indexing run once per batch. If a batch fails, its objects are
+	 * created one by one to isolate the failing ones. Each array element
+	 * must describe exactly one object. The response contains the UUIDs of
+	 * the created objects at the index of their array element, and the
+	 * errors with the index of the element that caused them. A syntax error
+	 * stops reading; the objects created up to that point are reported and
+	 * the request fails with status 400.
+	 */
+	private void doBulkPost(final HttpServletRequest request, final HttpServletResponse response, final SecurityContext securityContext, final Authenticator authenticator) throws FrameworkException, IOException {
+
+		final Map<Integer, FrameworkException> errors = new LinkedHashMap<>();
+		final List<String> ids                        = new ArrayList<>();
+		final App app                                 = StructrApp.getInstance(securityContext);
+		final int batchSize                           = Math.max(1, Services.parseInt(request.getParameter(REQUEST_PARAMETER_BULK), DEFAULT_VALUE_BULK_BATCH_SIZE));
+		final JsonReader reader                       = new JsonReader(request.getReader());
+		final JsonParser parser                       = new JsonParser();
+		boolean syntaxError                           = false;
+		final Resource resource;
+
+		// isolate resource authentication
+		try (final Tx tx = app.tx()) {
+
+			resource = ResourceHelper.applyViewTransformation(request, securityContext, ResourceHelper.optimizeNestedResourceChain(ResourceHelper.parsePath(securityContext, request, resourceMap, propertyView)), propertyView);
+			authenticator.checkResourceAccess(securityContext, request, resource.getResourceSignature(), propertyView.get(securityContext));
+			tx.success();
+		}
+
+		if (!resource.createPostTransaction()) {
+			throw new FrameworkException(HttpServletResponse.SC_BAD_REQUEST, "Bulk mode is not supported for this resource");
+		}
+
+		final boolean isArray = reader.peek() == JsonToken.BEGIN_ARRAY;
+		if (isArray) {
+			reader.beginArray();
+		}
+
+		while (!syntaxError) {
+
+			final List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+			final List<Integer> positions         = new ArrayList<>(batchSize);
+
+			// isolate input parsing
+			try (final Tx tx = app.tx()) {
+
+				// a single object is the only element of a non-array body
+				while (batch.size() < batchSize && (isArray ? reader.hasNext() : ids.isEmpty())) {
+
+					final JsonElement element = parser.parse(reader);
+					final int position        = ids.size();
+
+					ids.add(null);
+
+					try {
+
+						final IJsonInput jsonInput   = gson.get().fromJson(element, IJsonInput.class);
+						final List<JsonInput> inputs = jsonInput != null ? jsonInput.getJsonInputs() : null;
+
+						if (inputs != null && inputs.size() == 1) {
+
+							batch.add(convertPropertySetToMap(inputs.get(0)));
+							positions.add(position);
+
+						} else {
+
+							errors.put(position, new FrameworkException(422, "Bulk mode expects exactly one object per array element"));
+						}
+
+					} catch (JsonParseException jpex) {
+
+						errors.put(position, new FrameworkException(422, jpex.getMessage()));
+					}
+				}
+
+				tx.success();
+
+			} catch (JsonParseException | IOException ex) {
+
+				// the rest of the input cannot be read, but the objects parsed so far are valid
+				errors.put(ids.size(), new FrameworkException(HttpServletResponse.SC_BAD_REQUEST, "Invalid JSON input: " + ex.getMessage()));
+				syntaxError = true;
+			}
+
+			// end of input or syntax error
+			if (batch.isEmpty()) {
+				break;
+			}
+
+			try {
+
+				final List<String> created = createBatch(app, resource, batch);
+
+				for (int i=0; i<created.size(); i++) {
+					ids.set(positions.get(i), created.get(i));
+				}
+
+			} catch (Throwable t) {
+
+				// isolate failing objects
+				for (int i=0; i<batch.size(); i++) {
+
+					final int position = positions.get(i);
+
+					try {
+
+						ids.set(position, createBatch(app, resource, batch.subList(i, i + 1)).get(0));
+
+					} catch (FrameworkException fex) {
+
+						errors.put(position, fex);
+
+					} catch (Throwable t2) {
+
+						errors.put(position, new FrameworkException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, t2.getMessage()));
+					}
+				}
+			}
+		}
+
+		if (isArray && !syntaxError) {
+			reader.endArray();
+		}
+
+		int created = 0;
+		for (final String id : ids) {
+
+			if (id != null) {
+				created++;
+			}
+		}
+
+		// write compact result
+		final JsonWriter writer = new JsonWriter(response.getWriter());
+
+		if (indentJson) {
+			writer.setIndent("	");
+		}
+
+		if (syntaxError) {
+
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+
+		} else {
+
+			response.setStatus(errors.isEmpty() ? HttpServletResponse.SC_CREATED : HttpServletResponse.SC_OK);
+		}
+
+		writer.beginObject();
+		writer.name("created").value(created);
+		writer.name("failed").value(errors.size());
+		writer.name("result");
+		writer.beginArray();
+
+		for (final String id : ids) {
+
+			if (id != null) {
+
+				writer.value(id);
+
+			} else {
+
+				writer.nullValue();
+			}
+		}
+
+		writer.endArray();
+		writer.name("errors");
+		writer.beginArray();
+
+		for (final Map.Entry<Integer, FrameworkException> error : errors.entrySet()) {
+
+			writer.beginObject();
+			writer.name("index").value(error.getKey());
+			writer.name("error");
+			gson.get().toJson(gson.get().toJsonTree(error.getValue()), writer);
+			writer.endObject();
+		}
+
+		writer.endArray();
+		writer.endObject();
+		writer.flush();
+	}
+
+	private List<String> createBatch(final App app, final Resource resource, final List<Map<String, Object>> batch) throws FrameworkException {
+
+		final List<String> ids = new ArrayList<>(batch.size());
+
+		try (final Tx tx = app.tx()) {
+
+			for (final Map<String, Object> propertySet : batch) {
+
+				// copy input, it is needed again if the batch fails
+				final RestMethodResult result   = resource.doPost(new LinkedHashMap<>(propertySet));
+				final List<GraphObject> content = result != null ? result.getContent() : null;
+
+				ids.add(content != null && !content.isEmpty() ? content.get(0).getUuid() : null);
+			}
+
+			tx.success();
+		}
+
+		return ids;
+	}
+
 	private IJsonInput cleanAndParseJsonString(final App app, final String input) throws FrameworkException {
 
 		IJsonInput jsonInput;
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.rest.test;
+
+import static org.hamcrest.Matchers.*;
+import com.jayway.restassured.RestAssured;
+import com.jayway.restassured.filter.log.ResponseLoggingFilter;
+import org.structr.rest.common.StructrRestTest;
+
+/**
+ * Test the bulk mode of POST requests.
+ *
+ * @author Christian Morgner
+ */
+public class BulkPostTest extends StructrRestTest {
+
+	/**
+	 * Test the creation of objects in several batches.
+	 */
+	public void test01CreateInBatches() {
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+				.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+				.body(" [ { 'name' : 'TestOne-0' }, { 'name' : 'TestOne-1' }, { 'name' : 'TestOne-2' }, { 'name' : 'TestOne-3' }, { 'name' : 'TestOne-4' } ] ")
+			.expect()
+				.statusCode(201)
+				.body("created",		equalTo(5))
+				.body("failed",			equalTo(0))
+				.body("result",			hasSize(5))
+				.body("result[4]",		notNullValue())
+			.when()
+				.post("/test_one?bulk=2");
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+			.expect()
+				.statusCode(200)
+				.body("result_count",		equalTo(5))
+			.when()
+				.get("/test_one");
+	}
+
+	/**
+	 * Test that failing objects are reported at the index of their
+	 * array element, and that nested arrays are rejected.
+	 */
+	public void test02ErrorIndices() {
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+				.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+				.body(" [ { 'name' : 'TestOne-0' }, [ { 'name' : 'TestOne-1' }, { 'name' : 'TestOne-2' } ], { 'name' : 'TestOne-3', 'anInt' : 'abc' }, { 'name' : 'TestOne-4' } ] ")
+			.expect()
+				.statusCode(200)
+				.body("created",		equalTo(2))
+				.body("failed",			equalTo(2))
+				.body("result",			hasSize(4))
+				.body("result[0]",		notNullValue())
+				.body("result[1]",		nullValue())
+				.body("result[2]",		nullValue())
+				.body("result[3]",		notNullValue())
+				.body("errors[0].index",	equalTo(1))
+				.body("errors[1].index",	equalTo(2))
+			.when()
+				.post("/test_one?bulk=2");
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+			.expect()
+				.statusCode(200)
+				.body("result_count",		equalTo(2))
+			.when()
+				.get("/test_one");
+	}
+
+	/**
+	 * Test that a syntax error reports the objects that were created
+	 * before it.
+	 */
+	public void test03SyntaxError() {
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+				.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+				.body(" [ { 'name' : 'TestOne-0' }, { 'name' : 'TestOne-1' }, { 'name' : 'TestOne-2' }, { 'name' : } ] ")
+			.expect()
+				.statusCode(400)
+				.body("created",		equalTo(3))
+				.body("failed",			equalTo(1))
+				.body("result",			hasSize(3))
+				.body("result[0]",		notNullValue())
+				.body("result[2]",		notNullValue())
+				.body("errors[0].index",	equalTo(3))
+			.when()
+				.post("/test_one?bulk=2");
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+			.expect()
+				.statusCode(200)
+				.body("result_count",		equalTo(3))
+			.when()
+				.get("/test_one");
+	}
+
+	/**
+	 * Test that a single object without an enclosing array is created.
+	 */
+	public void test04SingleObject() {
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+				.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+				.body(" { 'name' : 'TestOne-0' } ")
+			.expect()
+				.statusCode(201)
+				.body("created",		equalTo(1))
+				.body("failed",			equalTo(0))
+				.body("result",			hasSize(1))
+				.body("result[0]",		notNullValue())
+			.when()
+				.post("/test_one?bulk=2");
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+			.expect()
+				.statusCode(200)
+				.body("result_count",		equalTo(1))
+			.when()
+				.get("/test_one");
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.rest.test;
+
+import static org.hamcrest.Matchers.*;
+import com.jayway.restassured.RestAssured;
+import com.jayway.restassured.filter.log.ResponseLoggingFilter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.Tx;
+import org.structr.rest.common.StructrRestTest;
+import org.structr.rest.entity.TestOne;
+import org.structr.rest.serialization.StreamingWriter;
+
+/**
+ * Test that parallel serialization of large result pages produces the
+ * same output as sequential serialization.
+ *
+ * @author Christian Morgner
+ */
+public class ParallelSerializationTest extends StructrRestTest {
+
+	private static final Logger logger = Logger.getLogger(ParallelSerializationTest.class.getName());
+
+	@Override
+	protected void setUp() throws Exception {
+
+		final Map<String, Object> config = new HashMap<>();
+
+		config.put(StreamingWriter.PARALLEL_SERIALIZATION_KEY, "true");
+		config.put(StreamingWriter.PARALLEL_SERIALIZATION_THRESHOLD, "10");
+
+		super.setUp(config);
+	}
+
+	public void test01ParallelSerializationKeepsOrder() {
+
+		final int number = 150;
+
+		try {
+
+			final List<TestOne> nodes = createTestNodes(TestOne.class, number);
+
+			try (final Tx tx = app.tx()) {
+
+				int i = 100;
+				for (final TestOne node : nodes) {
+
+					node.setProperty(AbstractNode.name, "TestOne-" + i++);
+				}
+
+				tx.success();
+			}
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		final long t0 = System.currentTimeMillis();
+
+		RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+				.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+			.expect()
+				.statusCode(200)
+				.body("result",			hasSize(number))
+				.body("result_count",		equalTo(number))
+
+				.body("result[0]",		isEntity(TestOne.class))
+				.body("result[0].name",		equalTo("TestOne-100"))
+				.body("result[31].name",	equalTo("TestOne-131"))
+				.body("result[32].name",	equalTo("TestOne-132"))
+				.body("result[75].name",	equalTo("TestOne-175"))
+				.body("result[149].name",	equalTo("TestOne-249"))
+
+			.when()
+				.get("/test_one?sort=name&pageSize=" + number);
+
+		logger.log(Level.INFO, "Parallel serialization of {0} objects took {1} ms", new Object[] { number, System.currentTimeMillis() - t0 });
+	}
+}
@@ -18,25 +18,28 @@
  */
 package org.structr.cloud;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.security.InvalidKeyException;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.structr.cloud.message.DataContainer;
@@ -70,6 +73,10 @@ import org.structr.web.entity.User;
 import org.structr.web.entity.dom.Page;
 
 /**
+ * A connection to a remote structr instance. The socket I/O of all connections
+ * is done by the {@link CloudTransport}, this thread only decodes and handles
+ * the received messages. Since database transactions are bound to a thread,
+ * all messages of a connection are handled by the same thread.
  *
  * @author Christian Morgner
  */
@@ -83,10 +90,28 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 	private final Map<String, String> idMap = new LinkedHashMap<>();
 	private final Map<String, Object> data = new LinkedHashMap<>();
 
+	// transport, reading from the channel is suspended while more than
+	// INBOX_HIGH_WATER bytes are waiting to be processed
+	private static final long INBOX_HIGH_WATER      = 16 * 1024 * 1024;
+	private static final long INBOX_LOW_WATER       = 4 * 1024 * 1024;
+	private final BlockingQueue<byte[]> inbox       = new LinkedBlockingQueue<>();
+	private final AtomicLong inboxBytes             = new AtomicLong(0L);
+	private final Map<Long, Message> responses      = new ConcurrentHashMap<>();
+	private final Map<Long, Boolean> expected       = new ConcurrentHashMap<>();
+	private final Object encodeLock                 = new Object();
+	private final Object decodeLock                 = new Object();
+	private final Object monitor                    = new Object();
+	private CloudTransport.Endpoint endpoint        = null;
+	private SocketChannel channel                   = null;
+	private Deflater deflater                       = null;
+	private Inflater inflater                       = null;
+	private boolean compressed                      = true;
+
 	// private fields
 	private final ConfigurationProvider config = Services.getInstance().getConfigurationProvider();
 	private App app                            = StructrApp.getInstance();
 	private CloudListener listener             = null;
+	private CloudHost host                     = null;
 	private long transmissionAbortTime         = 0L;
 	private boolean authenticated              = false;
 	private String errorMessage                = null;
@@ -95,32 +120,29 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 	private String password                    = null;
 	private Cipher encrypter                   = null;
 	private Cipher decrypter                   = null;
-	private Receiver receiver                  = null;
-	private Sender sender                      = null;
-	private Socket socket                      = null;
  	private T payload                          = null;
  	private Tx tx                              = null;
 	private int count                          = 0;
 	private int total                          = 0;
 
-	public CloudConnection(final Socket socket, final CloudListener listener) {
+	public CloudConnection(final SocketChannel channel, final CloudListener listener) {
 
-		super("CloudConnection(" + socket.getRemoteSocketAddress() + ")");
+		super("CloudConnection(" + channel.socket().getRemoteSocketAddress() + ")");
 
-		this.remoteAddress = socket.getInetAddress().getHostAddress();
+		this.remoteAddress = channel.socket().getInetAddress().getHostAddress();
 		this.listener      = listener;
-		this.socket        = socket;
+		this.channel       = channel;
 
 		this.setDaemon(true);
 
-		logger.log(Level.INFO, "New connection from {0}", socket.getRemoteSocketAddress());
+		logger.log(Level.INFO, "New connection from {0}", channel.socket().getRemoteSocketAddress());
 	}
 
 	@Override
 	public void start() {
 
-		// setup read and write threads for the connection
-		if (socket.isConnected() && !socket.isClosed()) {
+		// register with the transport and start the handler thread
+		if (channel.isConnected()) {
 
 			try {
 
@@ -132,11 +154,10 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 				// password hash afterwards.
 				setEncryptionKey("StructrInitialEncryptionKey", 128);
 
-				sender = new Sender(this, new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new CipherOutputStream(socket.getOutputStream(), encrypter), 32768, true))));
-				receiver = new Receiver(this, new DataInputStream(new BufferedInputStream(new GZIPInputStream(new CipherInputStream(socket.getInputStream(), decrypter), 32768))));
+				deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+				inflater = new Inflater();
 
-				receiver.start();
-				sender.start();
+				endpoint = CloudTransport.getInstance().register(channel, this);
 
 				// start actual thread
 				super.start();
@@ -150,25 +171,44 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 	@Override
 	public void run() {
 
-		while (isConnected()) {
+		while (isConnected() || !inbox.isEmpty()) {
 
 			try {
 
-				final Message request = receiver.receive();
-				if (request != null) {
+				final byte[] frame = inbox.take();
+
+				// resume reading when enough frames have been processed
+				if (inboxBytes.addAndGet(-frame.length) < INBOX_LOW_WATER && endpoint != null) {
+					endpoint.resumeReading();
+				}
+
+				if (frame.length > 0) {
+
+					final Message request = decode(frame);
+					if (request != null) {
+
+						logDebug("RECEIVED ", request);
 
-					logDebug("RECEIVED ", request);
+						// refresh transmission timeout
+						refreshTransmissionTimeout();
 
-					// refresh transmission timeout
-					refreshTransmissionTimeout();
+						if (request.wasSentFromHere()) {
 
-					if (request.wasSentFromHere()) {
+							request.onResponse(this);
 
-						request.onResponse(this);
+							// hand response to a waiting exchange
+							if (expected.remove(request.getId()) != null) {
+								responses.put(request.getId(), request);
+							}
 
-					} else {
+						} else {
 
-						request.onRequest(this);
+							request.onRequest(this);
+						}
+					}
+
+					synchronized (monitor) {
+						monitor.notifyAll();
 					}
 				}
 
@@ -176,7 +216,7 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 					final String message = "Committing batch..";
 
-					sender.send(new Ping(message));
+					send(new Ping(message));
 
 					if (listener != null) {
 						listener.transmissionProgress(message);
@@ -205,7 +245,99 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 	public void send(final Message message) throws IOException, FrameworkException {
 
 		logDebug("SEND", message);
-		sender.send(message);
+
+		// frames must be enqueued in the order they were
+		// encrypted, since the cipher is a stream cipher
+		synchronized (encodeLock) {
+
+			endpoint.send(encode(message));
+			message.afterSend(this);
+		}
+	}
+
+	/**
+	 * Sends the given message and waits for the remote end to send it
+	 * back. This method must not be called from the connection thread,
+	 * which is the thread that receives the response.
+	 *
+	 * @param <M>
+	 * @param message the message to send
+	 * @return the response
+	 * @throws IOException
+	 * @throws FrameworkException if there is no response in time
+	 */
+	public <M extends Message> M exchange(final M message) throws IOException, FrameworkException {
+
+		if (Thread.currentThread() == this) {
+			throw new IllegalStateException("Cannot wait for a response on the connection thread.");
+		}
+
+		final Long id = message.getId();
+
+		expected.put(id, Boolean.TRUE);
+		send(message);
+
+		refreshTransmissionTimeout();
+
+		synchronized (monitor) {
+
+			while (!responses.containsKey(id)) {
+
+				if (errorMessage != null) {
+					throw new FrameworkException(errorCode, errorMessage);
+				}
+
+				if (!isConnected()) {
+					throw new FrameworkException(504, "Connection closed while waiting for response.");
+				}
+
+				final long remaining = transmissionAbortTime - System.currentTimeMillis();
+				if (remaining <= 0) {
+
+					expected.remove(id);
+					throw new FrameworkException(504, "Timeout while waiting for response.");
+				}
+
+				waitOnMonitor(remaining);
+			}
+		}
+
+		return (M)responses.remove(id);
+	}
+
+	/**
+	 * Called by the transport when a complete frame was received.
+	 *
+	 * @param frame the frame content
+	 * @return whether the transport should continue reading, false if the
+	 * inbox is above its high-water mark
+	 */
+	public boolean frameReceived(final byte[] frame) {
+
+		inbox.add(frame);
+
+		return inboxBytes.addAndGet(frame.length) < INBOX_HIGH_WATER;
+	}
+
+	/**
+	 * @return whether the inbox is below its low-water mark so that the
+	 * transport can resume reading
+	 */
+	public boolean canReceive() {
+		return inboxBytes.get() < INBOX_LOW_WATER;
+	}
+
+	/**
+	 * Called by the transport when the channel was closed.
+	 */
+	public void transportClosed() {
+
+		// wake up the connection thread
+		inbox.add(new byte[0]);
+
+		synchronized (monitor) {
+			monitor.notifyAll();
+		}
 	}
 
 	/**
@@ -219,12 +351,18 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 	public void close() {
 
-		try {
+		if (endpoint != null) {
 
-			socket.close();
+			endpoint.close();
 
-		} catch (Throwable t) {
-			t.printStackTrace();
+		} else {
+
+			try {
+				channel.close();
+
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
 		}
 	}
 
@@ -232,23 +370,21 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 		final long abortTime = System.currentTimeMillis() + CloudService.AUTH_TIMEOUT;
 
-		while (!authenticated) {
+		synchronized (monitor) {
 
-			if (errorMessage != null) {
-				throw new FrameworkException(errorCode, errorMessage);
-			}
+			while (!authenticated) {
 
-			if (System.currentTimeMillis() > abortTime) {
-
-				throw new FrameworkException(401, "Authentication failed.");
-			}
+				if (errorMessage != null) {
+					throw new FrameworkException(errorCode, errorMessage);
+				}
 
-			try {
+				final long remaining = abortTime - System.currentTimeMillis();
+				if (remaining <= 0) {
 
-				Thread.sleep(10);
+					throw new FrameworkException(401, "Authentication failed.");
+				}
 
-			} catch (Throwable t) {
-				t.printStackTrace();
+				waitOnMonitor(remaining);
 			}
 		}
 	}
@@ -261,23 +397,21 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 		transmissionAbortTime = System.currentTimeMillis() + CloudService.DEFAULT_TIMEOUT;
 
-		while (isConnected()) {
+		synchronized (monitor) {
 
-			if (errorMessage != null) {
-				throw new FrameworkException(errorCode, errorMessage);
-			}
-
-			if (System.currentTimeMillis() > transmissionAbortTime) {
+			while (isConnected()) {
 
-				throw new FrameworkException(504, "Timeout while waiting for response.");
-			}
+				if (errorMessage != null) {
+					throw new FrameworkException(errorCode, errorMessage);
+				}
 
-			try {
+				final long remaining = transmissionAbortTime - System.currentTimeMillis();
+				if (remaining <= 0) {
 
-				Thread.sleep(10);
+					throw new FrameworkException(504, "Timeout while waiting for response.");
+				}
 
-			} catch (Throwable t) {
-				t.printStackTrace();
+				waitOnMonitor(remaining);
 			}
 		}
 	}
@@ -286,39 +420,51 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 		final long abortTime = System.currentTimeMillis() + CloudService.DEFAULT_TIMEOUT;
 
-		while (isConnected() && System.currentTimeMillis() < abortTime) {
+		synchronized (monitor) {
 
-			try {
+			while (isConnected()) {
 
-				Thread.sleep(10);
+				final long remaining = abortTime - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
 
-			} catch (Throwable t) {
-				t.printStackTrace();
+				waitOnMonitor(remaining);
 			}
 		}
-
 	}
 
 	public void setEncryptionKey(final String key, final int keyLength) throws InvalidKeyException {
 
-		try {
+		synchronized (encodeLock) {
 
-			SecretKeySpec skeySpec = new SecretKeySpec(CloudService.trimToSize(DigestUtils.sha256(key), keyLength), CloudService.STREAM_CIPHER);
+			synchronized (decodeLock) {
 
-			decrypter.init(Cipher.DECRYPT_MODE, skeySpec);
-			encrypter.init(Cipher.ENCRYPT_MODE, skeySpec);
+				try {
 
-		} catch (Throwable t) {
-			t.printStackTrace();
+					SecretKeySpec skeySpec = new SecretKeySpec(CloudService.trimToSize(DigestUtils.sha256(key), keyLength), CloudService.STREAM_CIPHER);
+
+					decrypter.init(Cipher.DECRYPT_MODE, skeySpec);
+					encrypter.init(Cipher.ENCRYPT_MODE, skeySpec);
+
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
 		}
 	}
 
 	public boolean isConnected() {
-		return socket.isConnected() && !socket.isClosed();
+		return endpoint != null ? !endpoint.isClosed() : channel.isOpen();
 	}
 
 	public void setAuthenticated() {
-		authenticated = true;
+
+		synchronized (monitor) {
+
+			authenticated = true;
+			monitor.notifyAll();
+		}
 	}
 
 	public void setPassword(final String password) {
@@ -494,6 +640,35 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 		}
 	}
 
+	/**
+	 * Commits the current transaction and begins a new one. Unlike
+	 * {@link #commitTransaction()}, failures are not swallowed, so the
+	 * caller can be sure that everything up to here was persisted.
+	 *
+	 * @throws FrameworkException if the transaction could not be committed
+	 */
+	public void commitAndBeginTransaction() throws FrameworkException {
+
+		if (tx == null) {
+			throw new FrameworkException(500, "No transaction to commit.");
+		}
+
+		logDebug("######################## COMMITING TRANSACTION " + tx + " in thread " + Thread.currentThread(), null);
+
+		try {
+
+			tx.success();
+			tx.close();
+
+		} finally {
+
+			tx = null;
+			data.clear();
+
+			beginTransaction();
+		}
+	}
+
 	public void endTransaction() {
 
 		if (tx != null) {
@@ -535,8 +710,9 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 		app = StructrApp.getInstance(SecurityContext.getInstance(principal, AccessMode.Backend));
 	}
 
-	public void beginFile(final FileNodeDataContainer container) {
+	public void beginFile(final FileNodeDataContainer container) throws IOException {
 
+		container.openTemporaryFile();
 		fileMap.put(container.getSourceNodeId(), container);
 
 		count++;
@@ -550,9 +726,18 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 			logger.log(Level.WARNING, "Received file end chunk for ID {0} without file, this should not happen!", endChunk.getContainerId());
 
+		} else if (!container.isComplete()) {
+
+			// keep received chunks, the transfer will be resumed later
+			container.flushAndCloseTemporaryFile();
+			fileMap.remove(endChunk.getContainerId());
+
+			logger.log(Level.WARNING, "Received incomplete file {0}, not storing it.", endChunk.getContainerId());
+
 		} else {
 
 			container.flushAndCloseTemporaryFile();
+			fileMap.remove(endChunk.getContainerId());
 
 			final NodeInterface newNode = storeNode(container);
 			final String filesPath = StructrApp.getConfigurationValue(Services.FILES_PATH);
@@ -586,15 +771,22 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 	public void fileChunk(final FileNodeChunk chunk) {
 
-		final FileNodeDataContainer container = fileMap.get(chunk.getContainerId());
+		// chunks of a single file may arrive over different connections
+		final PartialFile partialFile = PartialFile.get(chunk.getContainerId());
 
-		if (container == null) {
+		if (partialFile == null) {
 
 			logger.log(Level.WARNING, "Received file chunk for ID {0} without file, this should not happen!", chunk.getContainerId());
 
 		} else {
 
-			container.addChunk(chunk);
+			try {
+				partialFile.write(chunk.getSequenceNumber(), chunk.getBinaryContent(), chunk.getChecksum());
+
+			} catch (IOException ioex) {
+
+				logger.log(Level.WARNING, "Unable to write chunk {0} of file {1}: {2}", new Object[] { chunk.getSequenceNumber(), chunk.getContainerId(), ioex.getMessage() } );
+			}
 
 			count++;
 			total++;
@@ -669,8 +861,11 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 
 	public void setError(final int errorCode, final String errorMessage) {
 
-		this.errorMessage = errorMessage;
-		this.errorCode = errorCode;
+		synchronized (monitor) {
+
+			this.errorMessage = errorMessage;
+			this.errorCode = errorCode;
+		}
 
 		close();
 	}
@@ -697,6 +892,20 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 		return remoteAddress;
 	}
 
+	public void setHost(final CloudHost host) {
+		this.host = host;
+	}
+
+	/**
+	 * Returns the host this connection was opened to, or null if this is
+	 * an incoming connection.
+	 *
+	 * @return the remote host or null
+	 */
+	public CloudHost getHost() {
+		return host;
+	}
+
 	public CloudListener getListener() {
 		return listener;
 	}
@@ -708,4 +917,89 @@ public class CloudConnection<T> extends Thread implements TransactionSource {
 	public int getTotal() {
 		return total;
 	}
+
+	// ----- private methods -----
+	/**
+	 * Serializes, compresses and encrypts the given message. The deflater
+	 * is flushed after each message, so every frame can be decoded as soon
+	 * as it is received, while the compression dictionary is kept across
+	 * messages.
+	 */
+	private byte[] encode(final Message message) throws IOException {
+
+		final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		final ByteArrayOutputStream deflated   = new ByteArrayOutputStream();
+		final byte[] buffer                    = new byte[CloudService.CHUNK_SIZE];
+
+		message.serialize(new DataOutputStream(serialized));
+
+		final boolean compressible = message.isCompressible();
+		if (compressible != this.compressed) {
+
+			// do not compress content that is compressed already
+			deflater.setLevel(compressible ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+			deflated.write(buffer, 0, deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH));
+
+			this.compressed = compressible;
+		}
+
+		deflater.setInput(serialized.toByteArray());
+
+		while (true) {
+
+			final int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+			deflated.write(buffer, 0, length);
+
+			if (length < buffer.length && deflater.needsInput()) {
+				break;
+			}
+		}
+
+		return encrypter.update(deflated.toByteArray());
+	}
+
+	private Message decode(final byte[] frame) throws IOException {
+
+		final ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		final byte[] buffer                      = new byte[CloudService.CHUNK_SIZE];
+
+		synchronized (decodeLock) {
+
+			final byte[] decrypted = decrypter.update(frame);
+			if (decrypted == null) {
+				return null;
+			}
+
+			inflater.setInput(decrypted);
+
+			try {
+				int length = 0;
+
+				while ((length = inflater.inflate(buffer)) > 0) {
+					decompressed.write(buffer, 0, length);
+				}
+
+			} catch (DataFormatException dfex) {
+				throw new IOException(dfex);
+			}
+		}
+
+		return Message.deserialize(new DataInputStream(new ByteArrayInputStream(decompressed.toByteArray())));
+	}
+
+	private void waitOnMonitor(final long timeout) throws FrameworkException {
+
+		try {
+
+			monitor.wait(timeout);
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+
+			logger.log(Level.WARNING, "Interrupted while waiting for remote host {0}", remoteAddress);
+
+			throw new FrameworkException(504, "Interrupted while waiting for remote host.");
+		}
+	}
 }
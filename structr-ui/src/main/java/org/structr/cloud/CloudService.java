@@ -19,10 +19,16 @@
 package org.structr.cloud;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.crypto.Cipher;
@@ -42,15 +48,26 @@ import org.structr.core.Services;
  */
 public class CloudService extends Thread implements RunnableService {
 
-	private static final Logger logger        = Logger.getLogger(CloudService.class.getName());
-	private static final int DefaultTcpPort   = 54555;
+	private static final Logger logger                   = Logger.getLogger(CloudService.class.getName());
+	private static final int DefaultTcpPort              = 54555;
+	private static final ExecutorService streamExecutor  = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+
+			final Thread thread = new Thread(runnable, "CloudService file stream");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	});
 
 	/**
 	 * The CloudService protocol version. Change this when adding new
 	 * fields etc., the protocol only works with the exact same
 	 * counterpart.
 	 */
-	public static final int PROTOCOL_VERSION  = 4;
+	public static final int PROTOCOL_VERSION  = 7;
 
 	public static final int CHUNK_SIZE        = 65536;
 	public static final int BUFFER_SIZE       = CHUNK_SIZE * 4;
@@ -60,10 +77,17 @@ public class CloudService extends Thread implements RunnableService {
 	public static final String STREAM_CIPHER  = "RC4";
 	public static boolean DEBUG               = false;
 
+	/**
+	 * Files with at least this number of chunks are resumed and sent
+	 * over multiple connections.
+	 */
+	public static final int FILE_STREAM_THRESHOLD = 16;
+	public static int FILE_STREAMS                = 4;
+
 
-	private ServerSocket serverSocket = null;
-	private boolean running           = false;
-	private int tcpPort               = DefaultTcpPort;
+	private ServerSocketChannel serverChannel = null;
+	private boolean running                   = false;
+	private int tcpPort                       = DefaultTcpPort;
 
 	public CloudService() {
 
@@ -80,6 +104,7 @@ public class CloudService extends Thread implements RunnableService {
 
 		tcpPort       = Integer.parseInt(config.getProperty(Services.TCP_PORT, "54555"));
 		DEBUG         = Boolean.parseBoolean(config.getProperty("sync.debug", "false"));
+		FILE_STREAMS  = Math.max(1, Services.parseInt(config.getProperty("sync.file.streams"), 4));
 	}
 
 	@Override
@@ -90,7 +115,7 @@ public class CloudService extends Thread implements RunnableService {
 
 		try {
 
-			serverSocket.close();
+			serverChannel.close();
 
 		} catch (Throwable t) {}
 
@@ -107,7 +132,8 @@ public class CloudService extends Thread implements RunnableService {
 
 		try {
 
-			serverSocket = new ServerSocket(tcpPort);
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(tcpPort));
 
 			running = true;
 			start();
@@ -127,8 +153,8 @@ public class CloudService extends Thread implements RunnableService {
 
 			try {
 
-				// start a new thread for the connection
-				new CloudConnection(serverSocket.accept(), null).start();
+				// accepted connections are handed over to the transport
+				new CloudConnection(serverChannel.accept(), null).start();
 
 			} catch (IOException ioex) {}
 		}
@@ -166,7 +192,8 @@ public class CloudService extends Thread implements RunnableService {
 
 		try {
 
-			client = new CloudConnection(new Socket(host.getHostName(), host.getPort()), listener);
+			client = new CloudConnection(SocketChannel.open(new InetSocketAddress(host.getHostName(), host.getPort())), listener);
+			client.setHost(host);
 			client.start();
 
 			// notify listener
@@ -213,6 +240,26 @@ public class CloudService extends Thread implements RunnableService {
 		return remoteResult;
 	}
 
+	/**
+	 * Runs the given transmission over a new connection to the given host
+	 * in the background.
+	 *
+	 * @param <T>
+	 * @param transmission the transmission
+	 * @param host the host
+	 * @return a future that completes when the transmission is finished
+	 */
+	public static <T> Future<T> doRemoteAsync(final CloudTransmission<T> transmission, final CloudHost host) {
+
+		return streamExecutor.submit(new Callable<T>() {
+
+			@Override
+			public T call() throws Exception {
+				return doRemote(transmission, host, null);
+			}
+		});
+	}
+
 	public static byte[] trimToSize(final byte[] source, final int maxKeyLengthBits) {
 
 		if (maxKeyLengthBits < Integer.MAX_VALUE) {
@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking transport for all cloud connections of this instance. A
+ * single selector thread reads and writes the socket channels of all
+ * connections. Messages are transferred as length-prefixed frames, the
+ * frame content is encoded and decoded by the connection itself.
+ *
+ * @author Christian Morgner
+ */
+public class CloudTransport extends Thread {
+
+	private static final Logger logger             = Logger.getLogger(CloudTransport.class.getName());
+	private static final int MAX_FRAME_SIZE        = 64 * 1024 * 1024;
+	private static final int MAX_PENDING_BYTES     = 4 * 1024 * 1024;
+	private static CloudTransport instance         = null;
+
+	private final Queue<Endpoint> registrations    = new ConcurrentLinkedQueue<>();
+	private final Queue<Endpoint> writeRequests    = new ConcurrentLinkedQueue<>();
+	private final Queue<Endpoint> readRequests     = new ConcurrentLinkedQueue<>();
+	private Selector selector                      = null;
+
+	private CloudTransport() throws IOException {
+
+		super("CloudTransport");
+		this.setDaemon(true);
+
+		this.selector = Selector.open();
+	}
+
+	public static synchronized CloudTransport getInstance() throws IOException {
+
+		if (instance == null) {
+
+			instance = new CloudTransport();
+			instance.start();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Registers the given channel for the given connection. The channel is
+	 * switched to non-blocking mode.
+	 *
+	 * @param channel the connected socket channel
+	 * @param connection the connection that receives the frames
+	 * @return the endpoint to write frames to
+	 * @throws IOException
+	 */
+	public Endpoint register(final SocketChannel channel, final CloudConnection connection) throws IOException {
+
+		channel.configureBlocking(false);
+
+		final Endpoint endpoint = new Endpoint(channel, connection);
+
+		registrations.add(endpoint);
+		selector.wakeup();
+
+		return endpoint;
+	}
+
+	@Override
+	public void run() {
+
+		while (true) {
+
+			try {
+
+				selector.select();
+
+				// register new channels, frames can have been queued before the
+				// registration, and their write request may have been dropped
+				Endpoint endpoint = null;
+				while ((endpoint = registrations.poll()) != null) {
+
+					try {
+						final int ops = endpoint.hasPending() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+
+						endpoint.key = endpoint.channel.register(selector, ops, endpoint);
+
+					} catch (ClosedChannelException ccex) {
+						endpoint.closed();
+					}
+				}
+
+				// enable write interest for endpoints with pending data
+				while ((endpoint = writeRequests.poll()) != null) {
+
+					final SelectionKey key = endpoint.key;
+					if (key != null && key.isValid()) {
+
+						key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					}
+				}
+
+				// re-enable read interest for endpoints whose connection caught up
+				while ((endpoint = readRequests.poll()) != null) {
+
+					final SelectionKey key = endpoint.key;
+					if (endpoint.readSuspended && key != null && key.isValid()) {
+
+						endpoint.readSuspended = false;
+						key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+					}
+				}
+
+				for (final Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+
+					final SelectionKey key      = it.next();
+					final Endpoint selected     = (Endpoint)key.attachment();
+
+					it.remove();
+
+					try {
+
+						if (key.isValid() && key.isReadable()) {
+							selected.read();
+						}
+
+						if (key.isValid() && key.isWritable()) {
+							selected.write();
+						}
+
+					} catch (IOException ioex) {
+
+						selected.close();
+					}
+				}
+
+			} catch (Throwable t) {
+				logger.log(Level.WARNING, "Unexpected exception in cloud transport", t);
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The transport side of a single connection.
+	 */
+	public class Endpoint {
+
+		private final Queue<ByteBuffer> pending = new LinkedList<>();
+		private final ByteBuffer header         = ByteBuffer.allocate(4);
+		private CloudConnection connection      = null;
+		private SocketChannel channel           = null;
+		private SelectionKey key                = null;
+		private ByteBuffer frame                = null;
+		private boolean closed                  = false;
+		private long pendingBytes               = 0L;
+		private volatile boolean readSuspended  = false;
+
+		private Endpoint(final SocketChannel channel, final CloudConnection connection) {
+
+			this.channel    = channel;
+			this.connection = connection;
+		}
+
+		/**
+		 * Queues the given frame for sending. Blocks while too much data
+		 * is waiting to be sent, so that a fast sender cannot exhaust
+		 * the heap.
+		 *
+		 * @param data the frame content
+		 * @throws IOException if the endpoint is closed
+		 */
+		public void send(final byte[] data) throws IOException {
+
+			final ByteBuffer buffer = ByteBuffer.allocate(data.length + 4);
+
+			buffer.putInt(data.length);
+			buffer.put(data);
+			buffer.flip();
+
+			synchronized (this) {
+
+				while (pendingBytes > MAX_PENDING_BYTES && !closed) {
+
+					try {
+						wait(1000);
+
+					} catch (InterruptedException iex) {
+						throw new IOException("Interrupted while sending.");
+					}
+				}
+
+				if (closed) {
+					throw new IOException("Connection closed.");
+				}
+
+				pending.add(buffer);
+				pendingBytes += buffer.remaining();
+			}
+
+			writeRequests.add(this);
+			selector.wakeup();
+		}
+
+		/**
+		 * Resumes reading from the channel if it was suspended because
+		 * the connection's inbox was full.
+		 */
+		public void resumeReading() {
+
+			if (readSuspended) {
+
+				readRequests.add(this);
+				selector.wakeup();
+			}
+		}
+
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+
+		public synchronized boolean hasPending() {
+			return !pending.isEmpty();
+		}
+
+		public void close() {
+
+			try {
+				channel.close();
+
+			} catch (IOException ignore) {}
+
+			closed();
+		}
+
+		// ----- private methods -----
+		private void read() throws IOException {
+
+			while (true) {
+
+				if (frame == null) {
+
+					if (channel.read(header) < 0) {
+						throw new IOException("End of stream.");
+					}
+
+					if (header.hasRemaining()) {
+						return;
+					}
+
+					header.flip();
+
+					final int length = header.getInt();
+					if (length < 0 || length > MAX_FRAME_SIZE) {
+						throw new IOException("Invalid frame size " + length);
+					}
+
+					header.clear();
+					frame = ByteBuffer.allocate(length);
+				}
+
+				if (channel.read(frame) < 0) {
+					throw new IOException("End of stream.");
+				}
+
+				if (frame.hasRemaining()) {
+					return;
+				}
+
+				final boolean proceed = connection.frameReceived(frame.array());
+				frame = null;
+
+				if (!proceed) {
+
+					// stop reading until the connection has processed its inbox,
+					// re-check afterwards in case it caught up in the meantime
+					readSuspended = true;
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+					if (connection.canReceive()) {
+						resumeReading();
+					}
+
+					return;
+				}
+			}
+		}
+
+		private void write() throws IOException {
+
+			synchronized (this) {
+
+				while (!pending.isEmpty()) {
+
+					final ByteBuffer buffer = pending.peek();
+					final int written       = channel.write(buffer);
+
+					pendingBytes -= written;
+
+					if (buffer.hasRemaining()) {
+
+						// socket buffer is full, wait for the next write event
+						notifyAll();
+						return;
+					}
+
+					pending.poll();
+				}
+
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				notifyAll();
+			}
+		}
+
+		private void closed() {
+
+			synchronized (this) {
+
+				if (closed) {
+					return;
+				}
+
+				closed = true;
+				pending.clear();
+				pendingBytes = 0L;
+
+				notifyAll();
+			}
+
+			if (key != null) {
+				key.cancel();
+			}
+
+			connection.transportClosed();
+		}
+	}
+}
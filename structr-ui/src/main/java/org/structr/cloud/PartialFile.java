@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.apache.commons.io.FileUtils;
+import org.structr.core.Services;
+import org.structr.core.app.StructrApp;
+
+/**
+ * A file that is being received from a remote instance. The file is
+ * preallocated in the transfer directory below the files path, and chunks
+ * are written at their position as they arrive, in any order and from any
+ * number of connections. The set of verified chunks is stored next to the
+ * file, so an interrupted transfer can be resumed later.
+ *
+ * @author Christian Morgner
+ */
+public class PartialFile {
+
+	private static final Logger logger                       = Logger.getLogger(PartialFile.class.getName());
+	private static final Map<String, PartialFile> transfers  = new ConcurrentHashMap<>();
+	private static final String TRANSFER_DIRECTORY           = ".transfer";
+	private static final int STATE_INTERVAL                  = 64;
+
+	private final BitSet received  = new BitSet();
+	private RandomAccessFile file  = null;
+	private FileChannel channel    = null;
+	private File dataFile          = null;
+	private File stateFile         = null;
+	private String id              = null;
+	private long fileSize          = 0L;
+	private long checksum          = 0L;
+	private int chunkSize          = 0;
+	private int chunkCount         = 0;
+	private int unsavedChunks      = 0;
+
+	private PartialFile(final File directory, final String id, final long fileSize, final int chunkSize, final long checksum) throws IOException {
+
+		directory.mkdirs();
+
+		this.id         = id;
+		this.fileSize   = fileSize;
+		this.chunkSize  = chunkSize;
+		this.checksum   = checksum;
+		this.chunkCount = getChunkCount(fileSize, chunkSize);
+		this.dataFile   = new File(directory, id + ".part");
+		this.stateFile  = new File(directory, id + ".chunks");
+
+		if (!loadState()) {
+
+			// no usable state, start from scratch
+			received.clear();
+			dataFile.delete();
+		}
+
+		this.file    = new RandomAccessFile(dataFile, "rw");
+		this.channel = file.getChannel();
+
+		file.setLength(fileSize);
+	}
+
+	/**
+	 * Returns the partial file with the given ID, creating it if necessary.
+	 * If a previous, interrupted transfer of the same content exists, the
+	 * chunks that were already received are kept.
+	 *
+	 * @param id the ID of the file node
+	 * @param fileSize the total size of the file
+	 * @param chunkSize the size of a single chunk
+	 * @param checksum the CRC32 checksum of the file content on the sending side
+	 * @return the partial file
+	 * @throws IOException
+	 */
+	public static PartialFile open(final String id, final long fileSize, final int chunkSize, final long checksum) throws IOException {
+		return open(new File(getTransferPath()), id, fileSize, chunkSize, checksum);
+	}
+
+	static PartialFile open(final File directory, final String id, final long fileSize, final int chunkSize, final long checksum) throws IOException {
+
+		synchronized (transfers) {
+
+			PartialFile partialFile = transfers.get(id);
+			if (partialFile != null && !partialFile.matches(fileSize, chunkSize, checksum)) {
+
+				partialFile.discard();
+				partialFile = null;
+			}
+
+			if (partialFile == null) {
+
+				partialFile = new PartialFile(directory, id, fileSize, chunkSize, checksum);
+				transfers.put(id, partialFile);
+			}
+
+			return partialFile;
+		}
+	}
+
+	public static PartialFile get(final String id) {
+		return transfers.get(id);
+	}
+
+	public static int getChunkCount(final long fileSize, final int chunkSize) {
+		return (int)((fileSize + chunkSize - 1) / chunkSize);
+	}
+
+	/**
+	 * Verifies the given chunk and writes it at its position in the file.
+	 *
+	 * @param index the index of the chunk
+	 * @param data the content of the chunk
+	 * @param crc the CRC32 checksum of the content
+	 * @return whether the chunk was written
+	 * @throws IOException
+	 */
+	public boolean write(final int index, final byte[] data, final long crc) throws IOException {
+
+		final CRC32 check = new CRC32();
+		check.update(data);
+
+		if (check.getValue() != crc) {
+
+			logger.log(Level.WARNING, "Checksum mismatch in chunk {0} of {1}, discarding chunk.", new Object[] { index, id } );
+			return false;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.wrap(data);
+		long position           = (long)index * chunkSize;
+
+		// positional writes do not affect the channel position, so
+		// chunks from different connections can be written concurrently
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+
+		synchronized (this) {
+
+			received.set(index);
+
+			if (++unsavedChunks >= STATE_INTERVAL) {
+				saveState();
+			}
+		}
+
+		return true;
+	}
+
+	public synchronized BitSet getReceivedChunks() {
+		return (BitSet)received.clone();
+	}
+
+	public synchronized boolean isComplete() {
+		return received.cardinality() == chunkCount;
+	}
+
+	/**
+	 * Flushes the received data and stores the transfer state, so that the
+	 * transfer can be resumed later.
+	 */
+	public synchronized void close() {
+
+		if (channel.isOpen()) {
+
+			try {
+				channel.force(false);
+				file.close();
+
+			} catch (IOException ioex) {
+				logger.log(Level.WARNING, "Unable to close partial file {0}: {1}", new Object[] { id, ioex.getMessage() } );
+			}
+		}
+
+		saveState();
+		transfers.remove(id);
+	}
+
+	/**
+	 * Verifies the checksum of the completely received file and moves it
+	 * to its final location. If the checksum does not match, the received
+	 * data is discarded and the existing file is left untouched.
+	 *
+	 * @param finalPath the final path of the file
+	 * @throws IOException
+	 */
+	public synchronized void moveTo(final String finalPath) throws IOException {
+
+		if (!isComplete()) {
+			throw new IOException("File " + id + " is incomplete, " + received.cardinality() + " of " + chunkCount + " chunks received.");
+		}
+
+		final long actualChecksum = FileUtils.checksumCRC32(dataFile);
+		if (actualChecksum != checksum) {
+
+			discard();
+
+			throw new IOException("Checksum mismatch in file " + id + ", expected " + checksum + " but received " + actualChecksum + ", discarding file.");
+		}
+
+		final File finalFile = new File(finalPath);
+		finalFile.getParentFile().mkdirs();
+
+		Files.move(dataFile.toPath(), finalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		stateFile.delete();
+	}
+
+	// ----- private methods -----
+	private boolean matches(final long fileSize, final int chunkSize, final long checksum) {
+		return this.fileSize == fileSize && this.chunkSize == chunkSize && this.checksum == checksum;
+	}
+
+	private synchronized void discard() {
+
+		close();
+
+		dataFile.delete();
+		stateFile.delete();
+	}
+
+	private boolean loadState() {
+
+		if (stateFile.exists() && dataFile.exists()) {
+
+			try (final DataInputStream dis = new DataInputStream(new FileInputStream(stateFile))) {
+
+				final long storedSize     = dis.readLong();
+				final int storedChunkSize = dis.readInt();
+				final long storedChecksum = dis.readLong();
+				final byte[] bits         = new byte[dis.readInt()];
+
+				dis.readFully(bits);
+
+				if (matches(storedSize, storedChunkSize, storedChecksum)) {
+
+					received.or(BitSet.valueOf(bits));
+
+					logger.log(Level.INFO, "Resuming transfer of {0}, {1} of {2} chunks already received.", new Object[] { id, received.cardinality(), chunkCount } );
+
+					return true;
+				}
+
+			} catch (IOException ioex) {
+				logger.log(Level.WARNING, "Unable to read transfer state of {0}: {1}", new Object[] { id, ioex.getMessage() } );
+			}
+		}
+
+		return false;
+	}
+
+	private void saveState() {
+
+		try {
+			// make sure that all chunks in the state are on disk
+			channel.force(false);
+
+		} catch (IOException ignore) {}
+
+		try (final DataOutputStream dos = new DataOutputStream(new FileOutputStream(stateFile))) {
+
+			final byte[] bits = received.toByteArray();
+
+			dos.writeLong(fileSize);
+			dos.writeInt(chunkSize);
+			dos.writeLong(checksum);
+			dos.writeInt(bits.length);
+			dos.write(bits);
+
+			unsavedChunks = 0;
+
+		} catch (IOException ioex) {
+			logger.log(Level.WARNING, "Unable to store transfer state of {0}: {1}", new Object[] { id, ioex.getMessage() } );
+		}
+	}
+
+	private static String getTransferPath() {
+
+		final String filesPath = StructrApp.getConfigurationValue(Services.FILES_PATH);
+
+		if (filesPath.endsWith("/")) {
+
+			return filesPath + TRANSFER_DIRECTORY;
+		}
+
+		return filesPath + "/" + TRANSFER_DIRECTORY;
+	}
+}
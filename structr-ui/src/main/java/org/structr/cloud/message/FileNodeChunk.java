@@ -21,6 +21,7 @@ package org.structr.cloud.message;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.zip.CRC32;
 import org.structr.cloud.CloudConnection;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.graph.SyncCommand;
@@ -35,8 +36,11 @@ public class FileNodeChunk extends DataContainer {
 	protected String containerId = null;
 	protected int chunkSize = 0;
 	protected long fileSize = 0;
+	protected long checksum = 0;
 	protected byte[] binaryContent;
 
+	private transient boolean compressible = true;
+
 	public FileNodeChunk() {
 		super(0);
 	}
@@ -52,6 +56,22 @@ public class FileNodeChunk extends DataContainer {
 		binaryContent = new byte[chunkSize];
 	}
 
+	public FileNodeChunk(final String containerId, final long fileSize, final int sequenceNumber, final byte[] data, final boolean compressible) {
+
+		super(sequenceNumber);
+
+		this.containerId   = containerId;
+		this.chunkSize     = data.length;
+		this.fileSize      = fileSize;
+		this.binaryContent = data;
+		this.compressible  = compressible;
+
+		final CRC32 crc = new CRC32();
+		crc.update(data);
+
+		this.checksum = crc.getValue();
+	}
+
 	public byte[] getBuffer() {
 		return (binaryContent);
 	}
@@ -68,6 +88,15 @@ public class FileNodeChunk extends DataContainer {
 		return (containerId);
 	}
 
+	public long getChecksum() {
+		return checksum;
+	}
+
+	@Override
+	public boolean isCompressible() {
+		return compressible;
+	}
+
 	@Override
 	public String toString() {
 		return "FileNodeChunk()";
@@ -93,6 +122,7 @@ public class FileNodeChunk extends DataContainer {
 		this.containerId   = (String)SyncCommand.deserialize(inputStream);
 		this.chunkSize     = (Integer)SyncCommand.deserialize(inputStream);
 		this.fileSize      = (Long)SyncCommand.deserialize(inputStream);
+		this.checksum      = (Long)SyncCommand.deserialize(inputStream);
 
 		this.binaryContent = SyncCommand.deserializeData(inputStream);
 
@@ -107,6 +137,7 @@ public class FileNodeChunk extends DataContainer {
 		SyncCommand.serialize(outputStream, containerId);
 		SyncCommand.serialize(outputStream, chunkSize);
 		SyncCommand.serialize(outputStream, fileSize);
+		SyncCommand.serialize(outputStream, checksum);
 
 		SyncCommand.serializeData(outputStream, binaryContent);
 
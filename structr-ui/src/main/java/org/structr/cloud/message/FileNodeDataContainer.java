@@ -20,49 +20,78 @@ package org.structr.cloud.message;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.commons.lang.StringUtils;
 import org.structr.cloud.CloudConnection;
+import org.structr.cloud.CloudService;
+import org.structr.cloud.PartialFile;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.graph.SyncCommand;
 import org.structr.dynamic.File;
+import org.structr.web.common.FileHelper;
 
 /**
- * Transport data container for file nodes
+ * Transport data container for file nodes. The receiving end answers with
+ * the set of chunks it already has, so that an interrupted transfer can be
+ * resumed.
  *
  * @author axel
  */
 public class FileNodeDataContainer extends NodeDataContainer {
 
-	private static final Logger logger = Logger.getLogger(FileNodeDataContainer.class.getName());
+	private static final Logger logger                      = Logger.getLogger(FileNodeDataContainer.class.getName());
+	private static final Set<String> compressedContentTypes = new HashSet<>(Arrays.asList(new String[] {
+		"application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+		"application/x-7z-compressed", "application/x-rar-compressed", "application/pdf"
+	}));
 
-	private transient java.io.File temporaryFile = null;
-	private transient OutputStream outputStream  = null;
- 	private long fileSize                        = 0;
+	private transient PartialFile partialFile = null;
+	private byte[] receivedChunks             = new byte[0];
+ 	private long fileSize                     = 0;
+	private long checksum                     = 0;
+	private int chunkSize                     = CloudService.CHUNK_SIZE;
 
 	public FileNodeDataContainer() throws FrameworkException {
 		super();
 	}
 
 	public FileNodeDataContainer(final File fileNode) throws FrameworkException {
+		this(fileNode, CloudService.CHUNK_SIZE);
+	}
+
+	public FileNodeDataContainer(final File fileNode, final int chunkSize) throws FrameworkException {
 
 		super(fileNode, 0);
 
-		this.fileSize = fileNode.getSize();
+		// the stored checksum may be missing or outdated, so compute it from
+		// the content that is actually sent, the receiving end uses it to
+		// identify resumable transfers and to verify the complete file
+		final Long fileChecksum = FileHelper.getChecksum(fileNode);
+
+		this.fileSize  = fileNode.getSize();
+		this.checksum  = fileChecksum != null ? fileChecksum : 0L;
+		this.chunkSize = chunkSize;
 	}
 
 	@Override
 	public void onRequest(CloudConnection serverConnection) throws IOException, FrameworkException {
+
 		serverConnection.beginFile(this);
-		sendKeepalive(serverConnection);
+
+		// tell the sender which chunks we already have
+		if (partialFile != null) {
+			receivedChunks = partialFile.getReceivedChunks().toByteArray();
+		}
+
+		serverConnection.send(this);
 	}
 
 	@Override
@@ -70,49 +99,14 @@ public class FileNodeDataContainer extends NodeDataContainer {
 	}
 
 	/**
-	 * Adds a chunk of data to this container's temporary file, creating the file if it does not exist yet.
+	 * Opens the temporary file for this container, resuming a previous
+	 * transfer of the same content if possible. This method is called
+	 * when the cloud service receives a <code>FileNodeDataContainer</code>.
 	 *
-	 * @param chunk the chunk to add
+	 * @throws IOException on I/O problems
 	 */
-	public void addChunk(FileNodeChunk chunk) {
-
-		// check file size
-		if (this.fileSize > 0) {
-
-			if (chunk.getFileSize() != this.fileSize) {
-				throw new IllegalStateException("File size mismatch while adding chunk. Expected " + fileSize + ", received " + chunk.getFileSize());
-			}
-
-		} else {
-
-			this.fileSize = chunk.getFileSize();
-		}
-
-		// check sequence number
-		if (chunk.getSequenceNumber() != this.sequenceNumber) {
-			throw new IllegalStateException("Sequence number mismatch while adding chunk. Expected " + sequenceNumber + ", received " + chunk.getSequenceNumber());
-
-		} else {
-
-			sequenceNumber++;
-		}
-
-		// TODO: check chunk checksum here?
-		try {
-			if (temporaryFile == null) {
-
-				temporaryFile = java.io.File.createTempFile("structr", "file");
-				outputStream = new FileOutputStream(temporaryFile);
-			}
-
-			if (outputStream != null) {
-
-				outputStream.write(chunk.getBinaryContent());
-			}
-
-		} catch (Throwable t) {
-			t.printStackTrace();
-		}
+	public void openTemporaryFile() throws IOException {
+		partialFile = PartialFile.open(sourceNodeId, fileSize, chunkSize, checksum);
 	}
 
 	/**
@@ -120,24 +114,25 @@ public class FileNodeDataContainer extends NodeDataContainer {
 	 */
 	public void flushAndCloseTemporaryFile() {
 
-		// TODO: check file checksum here?!
-
-		if (outputStream != null) {
+		if (partialFile != null) {
 
-			try {
-				outputStream.flush();
-				outputStream.close();
-
-			} catch (Throwable t) {
-				t.printStackTrace();
-			}
+			partialFile.close();
 
 		} else {
 
-			logger.log(Level.WARNING, "outputStream was null, fileSize: " + fileSize + "..");
+			logger.log(Level.WARNING, "partialFile was null, fileSize: " + fileSize + "..");
 		}
 	}
 
+	/**
+	 * Indicates whether all chunks of this file were received.
+	 *
+	 * @return whether the file is complete
+	 */
+	public boolean isComplete() {
+		return partialFile != null && partialFile.isComplete();
+	}
+
 	/**
 	 * Renames / moves the temporary file to its final location. This method is called when the cloud service recevies a <code>FileNodeEndChunk</code>.
 	 *
@@ -147,22 +142,14 @@ public class FileNodeDataContainer extends NodeDataContainer {
 	 */
 	public boolean persistTemporaryFile(String finalPath) throws IOException {
 
-		boolean ret = false;
-
-		if (temporaryFile != null) {
-
-			final java.io.File finalFile = new java.io.File(finalPath);
-			final Path source            = temporaryFile.toPath();
-			final Path dest              = finalFile.toPath();
+		if (partialFile != null) {
 
-			// create parent directories
-			finalFile.mkdirs();
+			partialFile.moveTo(finalPath);
 
-			// move file from tmp to final destination
-			Files.move(source, dest, StandardCopyOption.REPLACE_EXISTING);
+			return true;
 		}
 
-		return (ret);
+		return false;
 	}
 
 	public long getFileSize() {
@@ -173,10 +160,27 @@ public class FileNodeDataContainer extends NodeDataContainer {
 		this.fileSize = fileSize;
 	}
 
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the chunks the receiving end already has. Only valid in the
+	 * response to this container.
+	 *
+	 * @return the set of received chunks
+	 */
+	public BitSet getReceivedChunks() {
+		return BitSet.valueOf(receivedChunks);
+	}
+
 	@Override
 	protected void deserializeFrom(DataInputStream inputStream) throws IOException {
 
-		this.fileSize = (Long)SyncCommand.deserialize(inputStream);
+		this.fileSize       = (Long)SyncCommand.deserialize(inputStream);
+		this.checksum       = (Long)SyncCommand.deserialize(inputStream);
+		this.chunkSize      = (Integer)SyncCommand.deserialize(inputStream);
+		this.receivedChunks = SyncCommand.deserializeData(inputStream);
 
 		super.deserializeFrom(inputStream);
 	}
@@ -185,99 +189,67 @@ public class FileNodeDataContainer extends NodeDataContainer {
 	protected void serializeTo(DataOutputStream outputStream) throws IOException {
 
 		SyncCommand.serialize(outputStream, fileSize);
+		SyncCommand.serialize(outputStream, checksum);
+		SyncCommand.serialize(outputStream, chunkSize);
+		SyncCommand.serializeData(outputStream, receivedChunks);
 
 		super.serializeTo(outputStream);
 	}
 
 	// ----- public static methods -----
 	/**
-	 * Creates and returns an Iterable instance whose iterator creates <code>FileNodeChunk</code> instances of the given file.
+	 * Reads the chunk with the given index from the given channel, using a
+	 * positional read that does not depend on any other chunk.
 	 *
-	 * @param fileNode the node to read from
-	 * @param chunkSize the desired chunk size
-	 * @return an Iterable that generates FileNodeChunks
+	 * @param channel the channel to read from
+	 * @param containerId the ID of the file node
+	 * @param fileSize the size of the file
+	 * @param chunkSize the size of a single chunk
+	 * @param index the index of the chunk to read
+	 * @param compressible whether the content should be compressed on the wire
+	 * @return the chunk
+	 * @throws IOException on I/O problems
 	 */
-	public static Iterable<FileNodeChunk> getChunks(final File fileNode, final int chunkSize) {
+	public static FileNodeChunk readChunk(final FileChannel channel, final String containerId, final long fileSize, final int chunkSize, final int index, final boolean compressible) throws IOException {
 
-		return (new Iterable<FileNodeChunk>() {
+		final long position     = (long)index * chunkSize;
+		final int length        = (int)Math.min(chunkSize, fileSize - position);
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
 
-			@Override
-			public Iterator<FileNodeChunk> iterator() {
+		while (buffer.hasRemaining()) {
 
-				return (new ChunkIterator(fileNode, chunkSize));
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file " + containerId + " at position " + (position + buffer.position()));
 			}
-		});
+		}
+
+		return new FileNodeChunk(containerId, fileSize, index, buffer.array(), compressible);
 	}
 
-	// ----- nested classes -----
 	/**
-	 * An iterator that creates <code>FileNodeChunks</code> while reading a large file from disk.
+	 * Indicates whether content of the given type can be compressed in a
+	 * meaningful way. Images (except SVG), audio, video and archives are
+	 * compressed already.
+	 *
+	 * @param contentType the content type
+	 * @return whether the content should be compressed on the wire
 	 */
-	private static class ChunkIterator implements Iterator<FileNodeChunk> {
-
-		private InputStream inputStream = null;
-		private File fileNode = null;
-		private int sequenceNumber = 0;
-		private long fileSize = 0;
-		private int chunkSize = 0;
+	public static boolean isCompressible(final String contentType) {
 
-		public ChunkIterator(File fileNode, int chunkSize) {
-
-			this.fileNode = fileNode;
-			this.fileSize = fileNode.getSize();
-			this.chunkSize = chunkSize;
-
-			this.inputStream = fileNode.getInputStream();
-		}
-
-		@Override
-		public boolean hasNext() {
-			boolean ret = false;
-
-			if (inputStream != null) {
-				try {
-					ret = inputStream.available() > 0;
-					if (!ret) {
-						inputStream.close();
-					}
-
-				} catch (Throwable t) {
-					logger.log(Level.WARNING, "Exception in ChunkIterator: {0}", t);
-				}
-			}
-
-			return (ret);
+		if (StringUtils.isBlank(contentType)) {
+			return true;
 		}
 
-		@Override
-		public FileNodeChunk next() {
-
-			FileNodeChunk chunk = null;
-
-			if (inputStream != null) {
-
-				try {
-					int available = inputStream.available();
-					int readSize = available < chunkSize ? available : chunkSize;
-
-					chunk = new FileNodeChunk(fileNode.getUuid(), fileSize, sequenceNumber, readSize);
-					inputStream.read(chunk.getBuffer(), 0, readSize);
-
-					sequenceNumber++;
-
-				} catch (Throwable t) {
-					logger.log(Level.WARNING, "Exception in ChunkIterator: {0}", t);
-				}
-			}
-
-			return (chunk);
+		final String type = StringUtils.substringBefore(contentType, ";").trim().toLowerCase();
 
+		if (type.startsWith("image/")) {
+			return type.startsWith("image/svg");
 		}
 
-		@Override
-		public void remove() {
-			throw new UnsupportedOperationException("Not supported.");
+		if (type.startsWith("audio/") || type.startsWith("video/")) {
+			return false;
 		}
 
+		return !compressedContentTypes.contains(type);
 	}
 }
@@ -19,7 +19,6 @@
 package org.structr.cloud.message;
 
 import org.structr.cloud.sync.ReplicationStatus;
-import org.structr.cloud.sync.Synchronize;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -37,8 +36,10 @@ import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.Relationship;
 import org.structr.cloud.CloudConnection;
 import org.structr.cloud.CloudListener;
-import org.structr.cloud.sync.Diff;
+import org.structr.cloud.sync.CompareHashes;
+import org.structr.cloud.sync.CompareLeaf;
 import org.structr.cloud.sync.EndOfSync;
+import org.structr.cloud.sync.JournalAck;
 import org.structr.cloud.sync.Ping;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
@@ -61,9 +62,10 @@ public abstract class Message<T> {
 		typeMap.put(AuthenticationRequest.class.getSimpleName(),     AuthenticationRequest.class);
 		typeMap.put(AuthenticationResponse.class.getSimpleName(),    AuthenticationResponse.class);
 		typeMap.put(Begin.class.getSimpleName(),                     Begin.class);
+		typeMap.put(CompareHashes.class.getSimpleName(),             CompareHashes.class);
+		typeMap.put(CompareLeaf.class.getSimpleName(),               CompareLeaf.class);
 		typeMap.put(Crypt.class.getSimpleName(),                     Crypt.class);
 		typeMap.put(Delete.class.getSimpleName(),                    Delete.class);
-		typeMap.put(Diff.class.getSimpleName(),                      Diff.class);
 		typeMap.put(End.class.getSimpleName(),                       End.class);
 		typeMap.put(EndOfSync.class.getSimpleName(),                 EndOfSync.class);
 		typeMap.put(Error.class.getSimpleName(),                     Error.class);
@@ -71,6 +73,7 @@ public abstract class Message<T> {
 		typeMap.put(FileNodeDataContainer.class.getSimpleName(),     FileNodeDataContainer.class);
 		typeMap.put(FileNodeEndChunk.class.getSimpleName(),          FileNodeEndChunk.class);
 		typeMap.put(Finish.class.getSimpleName(),                    Finish.class);
+		typeMap.put(JournalAck.class.getSimpleName(),                JournalAck.class);
 		typeMap.put(ListSyncables.class.getSimpleName(),             ListSyncables.class);
 		typeMap.put(NodeDataContainer.class.getSimpleName(),         NodeDataContainer.class);
 		typeMap.put(Ping.class.getSimpleName(),                      Ping.class);
@@ -81,7 +84,6 @@ public abstract class Message<T> {
 		typeMap.put(PullRelationship.class.getSimpleName(),          PullRelationship.class);
 		typeMap.put(RelationshipDataContainer.class.getSimpleName(), RelationshipDataContainer.class);
 		typeMap.put(ReplicationStatus.class.getSimpleName(),         ReplicationStatus.class);
-		typeMap.put(Synchronize.class.getSimpleName(),               Synchronize.class);
 
 		// add local property keys that should be ignored
 		ignoredPropertyKeys.add(GraphObject.createdDate.dbName());
@@ -137,6 +139,17 @@ public abstract class Message<T> {
 		return sendCount > 1;
 	}
 
+	/**
+	 * Indicates whether the content of this message benefits from being
+	 * compressed on the wire. Messages that carry already compressed
+	 * data should return false.
+	 *
+	 * @return whether this message should be compressed
+	 */
+	public boolean isCompressible() {
+		return true;
+	}
+
 	// ----- protected methods -----
 	protected String contentHashCode(final GraphObject graphObject)  {
 
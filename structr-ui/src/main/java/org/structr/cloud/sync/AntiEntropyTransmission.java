@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import org.structr.cloud.CloudConnection;
+import org.structr.cloud.CloudService;
+import org.structr.cloud.CloudTransmission;
+import org.structr.cloud.message.End;
+import org.structr.cloud.message.NodeDataContainer;
+import org.structr.cloud.message.RelationshipDataContainer;
+import org.structr.cloud.transmission.PushTransmission;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.RelationshipInterface;
+import org.structr.dynamic.File;
+
+/**
+ * Brings a replication slave up to date by comparing the {@link HashTree}s
+ * of master and slave, starting at the root and descending only into the
+ * subtrees that differ. Only entities in differing leaves are compared
+ * individually, and only entities that differ are sent.
+ *
+ * @author Christian Morgner
+ */
+public class AntiEntropyTransmission implements CloudTransmission<Boolean> {
+
+	private static final String STATE_KEY = "antiEntropyState";
+
+	@Override
+	public Boolean doRemote(final CloudConnection client) throws IOException, FrameworkException {
+
+		final State state = new State();
+
+		client.storeValue(STATE_KEY, state);
+
+		// start with the root hash
+		state.requestSent();
+		client.send(new CompareHashes(Arrays.asList("")));
+
+		// wait for end of transmission
+		client.waitForTransmission();
+
+		return true;
+	}
+
+	public static State getState(final CloudConnection connection) {
+		return (State)connection.getValue(STATE_KEY);
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Keeps track of outstanding comparisons on the master side and ends
+	 * the transmission when the last one was answered.
+	 */
+	public static class State {
+
+		private final List<RelationshipInterface> relationships = new LinkedList<>();
+		private int outstanding                                 = 0;
+
+		public synchronized void requestSent() {
+			outstanding++;
+		}
+
+		public synchronized void update(final CloudConnection connection, final String uuid) throws IOException, FrameworkException {
+
+			final GraphObject obj = StructrApp.getInstance().get(uuid);
+			if (obj != null) {
+
+				if (obj instanceof File) {
+
+					PushTransmission.sendFile(connection, (File)obj, CloudService.CHUNK_SIZE);
+
+				} else if (obj.isNode()) {
+
+					connection.send(new NodeDataContainer(obj.getSyncNode(), 0));
+
+				} else {
+
+					// relationships are sent last, so that both
+					// end nodes exist on the remote side
+					relationships.add(obj.getSyncRelationship());
+				}
+			}
+		}
+
+		public synchronized void responseReceived(final CloudConnection connection) throws IOException, FrameworkException {
+
+			if (--outstanding == 0) {
+
+				for (final RelationshipInterface relationship : relationships) {
+					connection.send(new RelationshipDataContainer(relationship, 0));
+				}
+
+				relationships.clear();
+
+				connection.send(new End());
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.structr.cloud.CloudConnection;
+import org.structr.cloud.message.Message;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.SyncCommand;
+
+/**
+ * Anti-entropy message that carries the master's hashes for a set of
+ * subtrees of the {@link HashTree}. The slave answers with the prefixes
+ * of all subtrees whose hash differs from its own, so the master can
+ * descend into them.
+ *
+ * @author Christian Morgner
+ */
+public class CompareHashes extends Message {
+
+	private List<String> prefixes = new ArrayList<>();
+	private List<Long> hashes     = new ArrayList<>();
+
+	public CompareHashes() {}
+
+	public CompareHashes(final List<String> prefixes) {
+
+		final HashTree tree = HashTree.getInstance();
+
+		for (final String prefix : prefixes) {
+
+			this.prefixes.add(prefix);
+			this.hashes.add(tree.getHash(prefix));
+		}
+	}
+
+	@Override
+	public void onRequest(final CloudConnection serverConnection) throws IOException, FrameworkException {
+
+		final HashTree tree           = HashTree.getInstance();
+		final List<String> mismatches = new ArrayList<>();
+
+		for (int i=0; i<prefixes.size(); i++) {
+
+			final String prefix = prefixes.get(i);
+
+			// computing dirty leaves can take a while after a restart,
+			// keep the connection alive while doing so
+			for (final String leaf : tree.getDirtyLeaves(prefix)) {
+
+				tree.getHash(leaf);
+				sendKeepalive(serverConnection);
+			}
+
+			if (tree.getHash(prefix) != hashes.get(i)) {
+				mismatches.add(prefix);
+			}
+		}
+
+		// answer with the differing subtrees only
+		this.prefixes = mismatches;
+		this.hashes   = new ArrayList<>();
+
+		serverConnection.send(this);
+	}
+
+	@Override
+	public void onResponse(final CloudConnection clientConnection) throws IOException, FrameworkException {
+
+		final AntiEntropyTransmission.State state = AntiEntropyTransmission.getState(clientConnection);
+		final List<String> children               = new ArrayList<>();
+
+		for (final String prefix : prefixes) {
+
+			if (HashTree.isLeaf(prefix)) {
+
+				state.requestSent();
+				clientConnection.send(new CompareLeaf(prefix));
+
+			} else {
+
+				for (final String child : HashTree.getChildren(prefix)) {
+					children.add(child);
+				}
+			}
+		}
+
+		if (!children.isEmpty()) {
+
+			state.requestSent();
+			clientConnection.send(new CompareHashes(children));
+		}
+
+		state.responseReceived(clientConnection);
+	}
+
+	@Override
+	public void afterSend(final CloudConnection connection) {
+	}
+
+	@Override
+	protected void deserializeFrom(final DataInputStream inputStream) throws IOException {
+
+		final int prefixCount = inputStream.readInt();
+		for (int i=0; i<prefixCount; i++) {
+			prefixes.add((String)SyncCommand.deserialize(inputStream));
+		}
+
+		final int hashCount = inputStream.readInt();
+		for (int i=0; i<hashCount; i++) {
+			hashes.add((Long)SyncCommand.deserialize(inputStream));
+		}
+	}
+
+	@Override
+	protected void serializeTo(final DataOutputStream outputStream) throws IOException {
+
+		outputStream.writeInt(prefixes.size());
+		for (final String prefix : prefixes) {
+			SyncCommand.serialize(outputStream, prefix);
+		}
+
+		outputStream.writeInt(hashes.size());
+		for (final Long hash : hashes) {
+			SyncCommand.serialize(outputStream, hash);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.structr.cloud.CloudConnection;
+import org.structr.cloud.message.Message;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.SyncCommand;
+
+/**
+ * Anti-entropy message that carries the digests of all entities in a
+ * single leaf of the master's {@link HashTree}. The slave deletes all
+ * entities of the leaf that the master does not know of, and answers
+ * with the UUIDs of all entities that are missing or differ locally.
+ *
+ * @author Christian Morgner
+ */
+public class CompareLeaf extends Message {
+
+	private Map<String, Long> digests = new LinkedHashMap<>();
+	private List<String> uuids        = new ArrayList<>();
+	private String prefix             = null;
+
+	public CompareLeaf() {}
+
+	public CompareLeaf(final String prefix) {
+
+		this.digests = HashTree.getInstance().getDigests(prefix);
+		this.prefix  = prefix;
+	}
+
+	@Override
+	public void onRequest(final CloudConnection serverConnection) throws IOException, FrameworkException {
+
+		final Map<String, Long> localDigests = HashTree.getInstance().getDigests(prefix);
+
+		for (final String uuid : localDigests.keySet()) {
+
+			if (!digests.containsKey(uuid)) {
+
+				// master does not know of this one
+				serverConnection.delete(uuid);
+			}
+		}
+
+		for (final Map.Entry<String, Long> entry : digests.entrySet()) {
+
+			final String uuid = entry.getKey();
+
+			if (!entry.getValue().equals(localDigests.get(uuid))) {
+				uuids.add(uuid);
+			}
+		}
+
+		// answer with the UUIDs that need to be sent
+		this.digests = new LinkedHashMap<>();
+
+		serverConnection.send(this);
+	}
+
+	@Override
+	public void onResponse(final CloudConnection clientConnection) throws IOException, FrameworkException {
+
+		final AntiEntropyTransmission.State state = AntiEntropyTransmission.getState(clientConnection);
+
+		for (final String uuid : uuids) {
+			state.update(clientConnection, uuid);
+		}
+
+		state.responseReceived(clientConnection);
+	}
+
+	@Override
+	public void afterSend(final CloudConnection connection) {
+	}
+
+	@Override
+	protected void deserializeFrom(final DataInputStream inputStream) throws IOException {
+
+		this.prefix = (String)SyncCommand.deserialize(inputStream);
+
+		final int digestCount = inputStream.readInt();
+		for (int i=0; i<digestCount; i++) {
+
+			final String uuid = (String)SyncCommand.deserialize(inputStream);
+			final Long digest = (Long)SyncCommand.deserialize(inputStream);
+
+			digests.put(uuid, digest);
+		}
+
+		final int uuidCount = inputStream.readInt();
+		for (int i=0; i<uuidCount; i++) {
+			uuids.add((String)SyncCommand.deserialize(inputStream));
+		}
+	}
+
+	@Override
+	protected void serializeTo(final DataOutputStream outputStream) throws IOException {
+
+		SyncCommand.serialize(outputStream, prefix);
+
+		outputStream.writeInt(digests.size());
+		for (final Map.Entry<String, Long> entry : digests.entrySet()) {
+
+			SyncCommand.serialize(outputStream, entry.getKey());
+			SyncCommand.serialize(outputStream, entry.getValue());
+		}
+
+		outputStream.writeInt(uuids.size());
+		for (final String uuid : uuids) {
+			SyncCommand.serialize(outputStream, uuid);
+		}
+	}
+}
@@ -0,0 +1,560 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.tooling.GlobalGraphOperations;
+import org.structr.cloud.sync.MemberFile.Member;
+import org.structr.core.GraphObject;
+import org.structr.core.Services;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.NodeService;
+
+/**
+ * A hash tree over the UUIDs of all nodes and relationships in the local
+ * database, used by master and slave to find differing parts of their
+ * databases without comparing every single entity.
+ *
+ * The tree has a fixed depth, every level splits the bucket space by one
+ * more hex digit. Entities are assigned to a leaf by a hash of their UUID,
+ * so that UUIDs with a common prefix (e.g. time-ordered ones) are spread
+ * evenly. Each leaf holds the sum of the digests of its entities, inner
+ * nodes combine the hashes of their children.
+ *
+ * Only the leaf hashes are kept in memory. The members of each leaf are
+ * collected with a single scan of the database into a temporary
+ * {@link MemberFile}, entities created after the scan are kept on the heap
+ * until the next scan. The transaction listener of the SyncService marks
+ * the leaves of modified entities as dirty, and the members are rescanned
+ * when enough entities have been created or deleted since the last scan.
+ * Dirty leaves are lazily recomputed when a hash is requested, so lookups
+ * must be made inside a transaction.
+ *
+ * @author Christian Morgner
+ */
+public class HashTree {
+
+	public static final int DEPTH  = 3;
+	public static final int FANOUT = 16;
+
+	private static final int LEAF_COUNT        = 1 << (4 * DEPTH);
+	private static final int RESCAN_THRESHOLD  = 65536;
+	private static final HashTree instance     = new HashTree();
+
+	private final Map<Integer, Map<String, Member>> added = new HashMap<>();
+	private Map<Integer, Map<String, Member>> scanAdded   = null;
+	private final long[] versions                         = new long[LEAF_COUNT];
+	private final long[] leaves                           = new long[LEAF_COUNT];
+	private final BitSet dirty                            = new BitSet(LEAF_COUNT);
+	private MemberFile memberFile                         = null;
+	private boolean scanning                              = false;
+	private long changes                                  = 0L;
+
+	private HashTree() {
+
+		// everything needs to be computed on first use
+		dirty.set(0, LEAF_COUNT);
+	}
+
+	public static HashTree getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Marks the leaves of all entities in the given modification events
+	 * as dirty.
+	 *
+	 * @param modificationEvents
+	 */
+	public synchronized void invalidate(final List<ModificationEvent> modificationEvents) {
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			String uuid = event.getUuid();
+			if (uuid == null) {
+				uuid = event.getRemovedProperties().get(GraphObject.id);
+			}
+
+			if (uuid != null) {
+
+				final int leaf = getBucket(uuid);
+
+				dirty.set(leaf);
+				versions[leaf]++;
+
+				// members need to be tracked only if they were scanned already
+				// or are being scanned right now, otherwise the scan finds them
+				if (memberFile == null && !scanning) {
+					continue;
+				}
+
+				if (event.isDeleted()) {
+
+					// deleted entities are skipped when the members are read
+					removeMember(added, leaf, uuid);
+					changes++;
+
+					if (scanAdded != null) {
+						removeMember(scanAdded, leaf, uuid);
+					}
+
+				} else if (event.isCreated() && event.getGraphObject() != null) {
+
+					final Member member = new Member(uuid, event.getGraphObject().getId(), event.isNode());
+
+					addMember(added, leaf, member);
+					changes++;
+
+					if (scanAdded != null) {
+						addMember(scanAdded, leaf, member);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the hash of the subtree with the given prefix, the root
+	 * hash for the empty prefix. The digests of a dirty leaf are computed
+	 * without holding the lock of this tree, the result is discarded if
+	 * the leaf was invalidated in the meantime.
+	 *
+	 * @param prefix a prefix of at most DEPTH hex digits
+	 * @return the hash
+	 */
+	public long getHash(final String prefix) {
+
+		if (prefix.length() >= DEPTH) {
+
+			final int leaf = getLeaf(prefix);
+			if (leaf < 0) {
+				return 0L;
+			}
+
+			final long version;
+
+			synchronized (this) {
+
+				if (!dirty.get(leaf)) {
+					return leaves[leaf];
+				}
+
+				version = versions[leaf];
+			}
+
+			long sum = 0L;
+
+			for (final long digest : getDigests(prefix).values()) {
+				sum += digest;
+			}
+
+			synchronized (this) {
+
+				if (versions[leaf] == version) {
+
+					leaves[leaf] = sum;
+					dirty.clear(leaf);
+				}
+			}
+
+			return sum;
+		}
+
+		long hash = 1L;
+
+		for (final String child : getChildren(prefix)) {
+			hash = 31L * hash + getHash(child);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Returns the prefixes of all dirty leaves in the subtree with the
+	 * given prefix.
+	 *
+	 * @param prefix
+	 * @return the prefixes of the leaves that need to be recomputed
+	 */
+	public synchronized List<String> getDirtyLeaves(final String prefix) {
+
+		final List<String> dirtyLeaves = new ArrayList<>();
+
+		if (isLeaf(prefix)) {
+
+			final int leaf = getLeaf(prefix);
+			if (leaf >= 0 && dirty.get(leaf)) {
+
+				dirtyLeaves.add(prefix);
+			}
+
+		} else {
+
+			for (final String child : getChildren(prefix)) {
+				dirtyLeaves.addAll(getDirtyLeaves(child));
+			}
+		}
+
+		return dirtyLeaves;
+	}
+
+	/**
+	 * Returns the digests of all entities in the leaf with the given prefix.
+	 * Entities are looked up by their database ID, so that leaves can be
+	 * computed in parallel.
+	 *
+	 * @param prefix the leaf prefix
+	 * @return a map from UUID to digest
+	 */
+	public Map<String, Long> getDigests(final String prefix) {
+
+		final GraphDatabaseService graphDb = Services.getInstance().getService(NodeService.class).getGraphDb();
+		final String uuidPropertyName      = GraphObject.id.dbName();
+		final Map<String, Long> digests    = new LinkedHashMap<>();
+		final int leaf                     = getLeaf(prefix);
+
+		if (leaf < 0) {
+			return digests;
+		}
+
+		for (final Member member : getMembers(leaf)) {
+
+			final String uuid = member.getUuid();
+
+			try {
+
+				if (member.isNode()) {
+
+					final Node node = graphDb.getNodeById(member.getId());
+
+					// IDs of deleted entities can be reused
+					if (uuid.equals(node.getProperty(uuidPropertyName, null))) {
+						digests.put(uuid, digest(node));
+					}
+
+				} else {
+
+					final Relationship rel = graphDb.getRelationshipById(member.getId());
+
+					if (uuid.equals(rel.getProperty(uuidPropertyName, null))) {
+						digests.put(uuid, digest(rel));
+					}
+				}
+
+			} catch (NotFoundException nfex) {
+				// entity was deleted after the scan
+			}
+		}
+
+		return digests;
+	}
+
+	/**
+	 * Returns the prefixes of the child subtrees of the given prefix.
+	 *
+	 * @param prefix
+	 * @return the child prefixes
+	 */
+	public static String[] getChildren(final String prefix) {
+
+		final String[] children = new String[FANOUT];
+
+		for (int i=0; i<FANOUT; i++) {
+			children[i] = prefix + Integer.toHexString(i);
+		}
+
+		return children;
+	}
+
+	public static boolean isLeaf(final String prefix) {
+		return prefix.length() >= DEPTH;
+	}
+
+	// ----- private methods -----
+	/**
+	 * Returns the members of the given leaf, including the ones that were
+	 * created after the last scan. The list can contain entities that were
+	 * deleted in the meantime.
+	 */
+	private List<Member> getMembers(final int leaf) {
+
+		while (true) {
+
+			final List<Member> members = new ArrayList<>();
+			final MemberFile file;
+
+			updateMemberFile();
+
+			synchronized (this) {
+
+				final Map<String, Member> leafAdded = added.get(leaf);
+				if (leafAdded != null) {
+
+					members.addAll(leafAdded.values());
+				}
+
+				file = memberFile;
+			}
+
+			try {
+
+				members.addAll(file.get(leaf));
+
+				return members;
+
+			} catch (IOException ioex) {
+
+				synchronized (this) {
+
+					if (memberFile == file) {
+						throw new IllegalStateException("Unable to read hash tree members: " + ioex.getMessage());
+					}
+				}
+
+				// the file was replaced by a new scan, try again
+			}
+		}
+	}
+
+	/**
+	 * Scans the database on first use, and again when too many entities
+	 * were created or deleted since the last scan. The scan is done without
+	 * holding the lock of this tree, the previous member file is used until
+	 * the scan is finished.
+	 */
+	private void updateMemberFile() {
+
+		synchronized (this) {
+
+			while (memberFile == null && scanning) {
+
+				try {
+					wait();
+
+				} catch (InterruptedException iex) {
+
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for hash tree initialization");
+				}
+			}
+
+			if (memberFile != null && (scanning || changes < Math.max(RESCAN_THRESHOLD, memberFile.size() / 4))) {
+				return;
+			}
+
+			scanAdded = new HashMap<>();
+			scanning  = true;
+			changes   = 0L;
+		}
+
+		MemberFile scanned = null;
+
+		try {
+
+			scanned = scan();
+
+		} catch (IOException ioex) {
+
+			throw new IllegalStateException("Unable to scan hash tree members: " + ioex.getMessage());
+
+		} finally {
+
+			synchronized (this) {
+
+				if (scanned != null) {
+
+					if (memberFile != null) {
+						memberFile.close();
+					}
+
+					memberFile = scanned;
+
+					added.clear();
+					added.putAll(scanAdded);
+				}
+
+				scanAdded = null;
+				scanning  = false;
+
+				notifyAll();
+			}
+		}
+	}
+
+	private MemberFile scan() throws IOException {
+
+		final GraphDatabaseService graphDb = Services.getInstance().getService(NodeService.class).getGraphDb();
+		final GlobalGraphOperations ggo    = GlobalGraphOperations.at(graphDb);
+		final String uuidPropertyName      = GraphObject.id.dbName();
+		final String tmpPath               = Services.getInstance().getConfigurationValue(Services.TMP_PATH, System.getProperty("java.io.tmpdir"));
+		final MemberFile file              = new MemberFile(new File(tmpPath), LEAF_COUNT);
+		boolean success                    = false;
+
+		try {
+
+			for (final Node node : ggo.getAllNodes()) {
+
+				final Object uuid = node.getProperty(uuidPropertyName, null);
+				if (uuid instanceof String) {
+
+					file.add(getBucket((String)uuid), new Member((String)uuid, node.getId(), true));
+				}
+			}
+
+			for (final Relationship rel : ggo.getAllRelationships()) {
+
+				final Object uuid = rel.getProperty(uuidPropertyName, null);
+				if (uuid instanceof String) {
+
+					file.add(getBucket((String)uuid), new Member((String)uuid, rel.getId(), false));
+				}
+			}
+
+			file.finish();
+			success = true;
+
+		} finally {
+
+			if (!success) {
+				file.close();
+			}
+		}
+
+		return file;
+	}
+
+	private static void addMember(final Map<Integer, Map<String, Member>> target, final int leaf, final Member member) {
+
+		Map<String, Member> leafMembers = target.get(leaf);
+		if (leafMembers == null) {
+
+			leafMembers = new HashMap<>();
+			target.put(leaf, leafMembers);
+		}
+
+		leafMembers.put(member.getUuid(), member);
+	}
+
+	private static void removeMember(final Map<Integer, Map<String, Member>> target, final int leaf, final String uuid) {
+
+		final Map<String, Member> leafMembers = target.get(leaf);
+		if (leafMembers != null) {
+
+			leafMembers.remove(uuid);
+
+			if (leafMembers.isEmpty()) {
+				target.remove(leaf);
+			}
+		}
+	}
+
+	/**
+	 * Returns the leaf of the given UUID, based on a hash of the UUID.
+	 */
+	private static int getBucket(final String uuid) {
+		return (int)(mix(uuid.hashCode()) >>> (64 - 4 * DEPTH));
+	}
+
+	/**
+	 * Returns the leaf with the given prefix.
+	 */
+	private static int getLeaf(final String prefix) {
+
+		if (prefix != null && prefix.length() >= DEPTH) {
+
+			try {
+				return Integer.parseInt(prefix.substring(0, DEPTH), 16);
+
+			} catch (NumberFormatException nfex) {
+				// not a valid leaf prefix
+			}
+		}
+
+		return -1;
+	}
+
+	private static long digest(final Node node) {
+		return mix(propertyHash(node));
+	}
+
+	private static long digest(final Relationship relationship) {
+
+		long hash = propertyHash(relationship);
+
+		hash = 31L * hash + relationship.getType().name().hashCode();
+		hash = 31L * hash + relationship.getStartNode().getProperty(GraphObject.id.dbName(), "").hashCode();
+		hash = 31L * hash + relationship.getEndNode().getProperty(GraphObject.id.dbName(), "").hashCode();
+
+		return mix(hash);
+	}
+
+	private static long propertyHash(final PropertyContainer propertyContainer) {
+
+		final Set<String> sortedKeys = new TreeSet<>();
+		long hash                    = 34262L;
+
+		for (final String key : propertyContainer.getPropertyKeys()) {
+
+			// creation and modification dates are set locally on each instance
+			if (!GraphObject.createdDate.dbName().equals(key) && !GraphObject.lastModifiedDate.dbName().equals(key)) {
+				sortedKeys.add(key);
+			}
+		}
+
+		for (final String key : sortedKeys) {
+
+			final Object value = propertyContainer.getProperty(key, null);
+			if (value != null) {
+
+				hash = 31L * hash + key.hashCode();
+				hash = 31L * hash + Arrays.deepHashCode(new Object[] { value });
+			}
+		}
+
+		return hash;
+	}
+
+	private static long mix(long hash) {
+
+		// 64 bit finalizer from MurmurHash3, spreads the digests so that
+		// the sum of a leaf does not cancel out for similar entities
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+}
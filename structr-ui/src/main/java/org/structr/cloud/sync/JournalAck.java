@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.cloud.CloudConnection;
+import org.structr.cloud.message.Error;
+import org.structr.cloud.message.Message;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.SyncCommand;
+
+/**
+ * Marks the end of a batch of replicated transactions. The slave stores the
+ * sequence number in the same transaction as the batch itself, commits and
+ * sends the message back to acknowledge it.
+ *
+ * @author Christian Morgner
+ */
+public class JournalAck extends Message {
+
+	private static final Logger logger = Logger.getLogger(JournalAck.class.getName());
+
+	private String masterId = null;
+	private long sequence   = 0L;
+
+	public JournalAck() {}
+
+	public JournalAck(final String masterId, final long sequence) {
+
+		this.masterId = masterId;
+		this.sequence = sequence;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public void onRequest(CloudConnection serverConnection) throws IOException, FrameworkException {
+
+		try {
+
+			// the sequence number is committed atomically with the data
+			StructrApp.getInstance().setGlobalSetting(masterId + ".sequence", sequence);
+
+			serverConnection.commitAndBeginTransaction();
+
+		} catch (FrameworkException fex) {
+
+			logger.log(Level.SEVERE, "Unable to commit replication batch up to sequence {0}: {1}", new Object[] { sequence, fex.getMessage() } );
+
+			// do not acknowledge, the master resends the batch
+			serverConnection.send(new Error(fex.getStatus(), "Unable to commit replication batch: " + fex.getMessage()));
+
+			throw fex;
+		}
+
+		// only acknowledge what was actually persisted
+		serverConnection.send(this);
+	}
+
+	@Override
+	public void onResponse(CloudConnection clientConnection) throws IOException, FrameworkException {
+
+		final JournalTransmission.State state = JournalTransmission.getState(clientConnection);
+		if (state != null) {
+
+			state.acknowledged(sequence);
+		}
+	}
+
+	@Override
+	public void afterSend(CloudConnection connection) {
+	}
+
+	@Override
+	protected void deserializeFrom(DataInputStream inputStream) throws IOException {
+
+		this.masterId = (String)SyncCommand.deserialize(inputStream);
+		this.sequence = (Long)SyncCommand.deserialize(inputStream);
+	}
+
+	@Override
+	protected void serializeTo(DataOutputStream outputStream) throws IOException {
+
+		SyncCommand.serialize(outputStream, masterId);
+		SyncCommand.serialize(outputStream, sequence);
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.structr.cloud.CloudConnection;
+import org.structr.cloud.CloudService;
+import org.structr.cloud.CloudTransmission;
+import org.structr.cloud.message.Delete;
+import org.structr.cloud.message.NodeDataContainer;
+import org.structr.cloud.message.RelationshipDataContainer;
+import org.structr.cloud.transmission.PushTransmission;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.app.App;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.RelationshipInterface;
+import org.structr.core.graph.Tx;
+import org.structr.dynamic.File;
+
+/**
+ * Ships the entries of the {@link ReplicationJournal} to a slave in batches.
+ * Each batch is terminated by a {@link JournalAck}, and up to <code>window</code>
+ * batches can be in flight before the transmission waits for the slave to
+ * acknowledge them. Within a batch, multiple changes to the same entity are
+ * merged so that each entity is sent only once.
+ *
+ * @author Christian Morgner
+ */
+public class JournalTransmission implements CloudTransmission<Boolean> {
+
+	private static final String STATE_KEY = "journalState";
+
+	private ReplicationJournal journal = null;
+	private State state                = null;
+	private long fromSequence          = 0L;
+	private int batchSize              = 0;
+	private int window                 = 0;
+
+	public JournalTransmission(final ReplicationJournal journal, final long acknowledgedSequence, final int batchSize, final int window) {
+
+		this.journal      = journal;
+		this.fromSequence = acknowledgedSequence + 1;
+		this.batchSize    = batchSize;
+		this.window       = window;
+		this.state        = new State(acknowledgedSequence);
+	}
+
+	@Override
+	public Boolean doRemote(final CloudConnection client) throws IOException, FrameworkException {
+
+		final App app         = StructrApp.getInstance();
+		final String masterId = app.getInstanceId();
+		final long until      = journal.getLastSequence();
+		long next             = fromSequence;
+
+		client.storeValue(STATE_KEY, state);
+
+		while (next <= until) {
+
+			final List<ReplicationJournal.Entry> batch = journal.read(next, (int)Math.min(batchSize, until - next + 1));
+			if (batch.isEmpty()) {
+				break;
+			}
+
+			// do not send more than window batches without acknowledgement
+			state.await(client, window - 1);
+
+			try (final Tx tx = app.tx()) {
+
+				sendBatch(client, app, batch);
+				tx.success();
+			}
+
+			final long last = batch.get(batch.size() - 1).getSequence();
+
+			state.sent();
+			client.send(new JournalAck(masterId, last));
+
+			next = last + 1;
+		}
+
+		// wait for all outstanding acknowledgements
+		state.await(client, 0);
+
+		// synchronize last sync timestamp with slave instance
+		// (we're sending out own instance ID (master) for the slave to store)
+		client.send(new ReplicationStatus(masterId, app.getGlobalSetting(masterId + ".lastModified", 0L)));
+
+		// wait for end of transmission
+		client.waitForTransmission();
+
+		return true;
+	}
+
+	/**
+	 * Returns the last sequence number acknowledged by the slave. This value
+	 * is valid even if the transmission failed.
+	 *
+	 * @return the last acknowledged sequence number
+	 */
+	public long getAcknowledgedSequence() {
+		return state.getAcknowledged();
+	}
+
+	public static State getState(final CloudConnection connection) {
+		return (State)connection.getValue(STATE_KEY);
+	}
+
+	// ----- private methods -----
+	private void sendBatch(final CloudConnection client, final App app, final List<ReplicationJournal.Entry> batch) throws IOException, FrameworkException {
+
+		final Map<String, ReplicationJournal.Change> changes = new LinkedHashMap<>();
+		final Map<String, Set<String>> propertyKeys          = new LinkedHashMap<>();
+		final List<RelationshipInterface> relationships      = new LinkedList<>();
+		final List<String> deletions                         = new LinkedList<>();
+		int count                                            = 0;
+
+		// merge all changes of the batch, the last one wins
+		for (final ReplicationJournal.Entry entry : batch) {
+
+			for (final ReplicationJournal.Change change : entry.getChanges()) {
+
+				final String uuid = change.getUuid();
+
+				changes.remove(uuid);
+				changes.put(uuid, change);
+
+				Set<String> keys = propertyKeys.get(uuid);
+				if (keys == null) {
+
+					keys = new LinkedHashSet<>();
+					propertyKeys.put(uuid, keys);
+				}
+
+				keys.addAll(change.getPropertyKeys());
+			}
+		}
+
+		for (final ReplicationJournal.Change change : changes.values()) {
+
+			final String uuid = change.getUuid();
+
+			if (change.isDeleted()) {
+
+				// the entry of a transaction that was rolled back before a
+				// restart still contains its deletions, so verify them
+				if (app.get(uuid) == null) {
+					deletions.add(uuid);
+				}
+
+				continue;
+			}
+
+			// entities that do not exist anymore will be deleted by a later entry
+			final GraphObject obj = app.get(uuid);
+			if (obj != null) {
+
+				if (obj instanceof File) {
+
+					PushTransmission.sendFile(client, (File)obj, CloudService.CHUNK_SIZE);
+
+				} else if (obj.isNode()) {
+
+					client.send(new NodeDataContainer(obj.getSyncNode(), count++, propertyKeys.get(uuid)));
+
+				} else {
+
+					// relationships are sent after the nodes, so that
+					// both end nodes exist on the remote side
+					relationships.add(obj.getSyncRelationship());
+				}
+			}
+		}
+
+		for (final RelationshipInterface relationship : relationships) {
+			client.send(new RelationshipDataContainer(relationship, count++, propertyKeys.get(relationship.getUuid())));
+		}
+
+		for (final String uuid : deletions) {
+			client.send(new Delete(uuid));
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Keeps track of unacknowledged batches on the master side.
+	 */
+	public static class State {
+
+		private long lastProgress = System.currentTimeMillis();
+		private long acknowledged = 0L;
+		private int outstanding   = 0;
+
+		public State(final long acknowledged) {
+			this.acknowledged = acknowledged;
+		}
+
+		public synchronized void sent() {
+			outstanding++;
+		}
+
+		public synchronized void acknowledged(final long sequence) {
+
+			acknowledged = Math.max(acknowledged, sequence);
+			lastProgress = System.currentTimeMillis();
+			outstanding--;
+
+			notifyAll();
+		}
+
+		public synchronized long getAcknowledged() {
+			return acknowledged;
+		}
+
+		/**
+		 * Waits until at most <code>maxOutstanding</code> batches are
+		 * unacknowledged.
+		 */
+		public synchronized void await(final CloudConnection client, final int maxOutstanding) throws FrameworkException {
+
+			lastProgress = System.currentTimeMillis();
+
+			while (outstanding > maxOutstanding) {
+
+				if (!client.isConnected()) {
+					throw new FrameworkException(504, "Connection closed while waiting for acknowledgement.");
+				}
+
+				if (System.currentTimeMillis() > lastProgress + CloudService.DEFAULT_TIMEOUT) {
+					throw new FrameworkException(504, "Timeout while waiting for acknowledgement.");
+				}
+
+				try {
+
+					wait(100);
+
+				} catch (InterruptedException iex) {
+					throw new FrameworkException(504, "Interrupted while waiting for acknowledgement.");
+				}
+			}
+		}
+	}
+}
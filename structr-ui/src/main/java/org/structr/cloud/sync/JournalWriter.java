@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.TransactionSource;
+import org.structr.core.graph.ModificationEvent;
+
+/**
+ * Writes every local write transaction to the {@link ReplicationJournal} of
+ * a replication master. The entry is appended ahead of the commit, and it
+ * is finished with the outcome of the transaction when the transaction is
+ * over, so that rolled back transactions are never shipped.
+ *
+ * @author Christian Morgner
+ */
+public class JournalWriter implements StructrTransactionListener {
+
+	private static final Logger logger = Logger.getLogger(JournalWriter.class.getName());
+
+	private final ThreadLocal<Long> sequences = new ThreadLocal<>();
+	private ReplicationJournal journal        = null;
+
+	public JournalWriter(final ReplicationJournal journal) {
+		this.journal = journal;
+	}
+
+	@Override
+	public void beforeCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) throws FrameworkException {
+
+		// write the journal entry ahead of the commit, so that no committed
+		// transaction can be missing from the journal after a crash
+		if ((source == null || !source.isRemote()) && !modificationEvents.isEmpty()) {
+
+			try {
+
+				final long sequence = journal.append(modificationEvents);
+
+				sequences.set(sequence);
+				journal.force(sequence);
+
+			} catch (IOException ioex) {
+
+				logger.log(Level.SEVERE, "Unable to append transaction to replication journal.", ioex);
+
+				throw new FrameworkException(500, "Unable to append transaction to replication journal: " + ioex.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void afterCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) {
+	}
+
+	@Override
+	public void transactionFinished(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source, final boolean committed) {
+
+		final Long sequence = sequences.get();
+		if (sequence != null) {
+
+			sequences.remove();
+
+			// the entry can be shipped now, or is dropped if the transaction was rolled back
+			journal.finish(sequence, committed);
+		}
+	}
+}
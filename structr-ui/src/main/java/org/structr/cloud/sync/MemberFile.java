@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A temporary file that holds the members of all leaves of the
+ * {@link HashTree}, so that the UUIDs of the whole database do not have to
+ * be kept on the heap. Each record stores the UUID and the database ID of
+ * an entity, and the records of a leaf are chained backwards, so that only
+ * the offset of the last record of each leaf is kept in memory.
+ *
+ * The file is written once by a single thread, and is read-only after
+ * {@link #finish()} has been called. Records of entities that were deleted
+ * in the meantime are not removed, they must be verified when read.
+ *
+ * @author Christian Morgner
+ */
+class MemberFile implements AutoCloseable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private long[] heads              = null;
+	private DataOutputStream output   = null;
+	private RandomAccessFile input    = null;
+	private File file                 = null;
+	private long position             = 0L;
+	private long size                 = 0L;
+
+	public MemberFile(final File directory, final int leafCount) throws IOException {
+
+		this.file   = File.createTempFile("structr-hashtree", ".members", directory);
+		this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		this.heads  = new long[leafCount];
+
+		file.deleteOnExit();
+
+		// -1 marks the end of a chain
+		Arrays.fill(heads, -1L);
+	}
+
+	public void add(final int leaf, final Member member) throws IOException {
+
+		final byte[] uuid = member.getUuid().getBytes(UTF8);
+
+		output.writeLong(heads[leaf]);
+		output.writeLong(member.getId());
+		output.writeBoolean(member.isNode());
+		output.writeShort(uuid.length);
+		output.write(uuid);
+
+		heads[leaf] = position;
+		position   += 19 + uuid.length;
+
+		size++;
+	}
+
+	public void finish() throws IOException {
+
+		output.close();
+		output = null;
+
+		input = new RandomAccessFile(file, "r");
+	}
+
+	/**
+	 * Returns the members of the given leaf, the last one added first.
+	 *
+	 * @param leaf the leaf
+	 * @return the members of the leaf
+	 * @throws IOException if the file was closed or cannot be read
+	 */
+	public synchronized List<Member> get(final int leaf) throws IOException {
+
+		if (input == null) {
+			throw new IOException("Member file " + file + " is not readable.");
+		}
+
+		final List<Member> members = new ArrayList<>();
+		long offset                = heads[leaf];
+
+		while (offset >= 0L) {
+
+			input.seek(offset);
+
+			final long previous = input.readLong();
+			final long id       = input.readLong();
+			final boolean node  = input.readBoolean();
+			final byte[] uuid   = new byte[input.readUnsignedShort()];
+
+			input.readFully(uuid);
+
+			members.add(new Member(new String(uuid, UTF8), id, node));
+
+			offset = previous;
+		}
+
+		return members;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public synchronized void close() {
+
+		try {
+			if (output != null) {
+				output.close();
+			}
+
+			if (input != null) {
+				input.close();
+			}
+
+		} catch (IOException ignore) {}
+
+		output = null;
+		input  = null;
+
+		file.delete();
+	}
+
+	// ----- nested classes -----
+	public static class Member {
+
+		private String uuid  = null;
+		private boolean node = false;
+		private long id      = 0L;
+
+		public Member(final String uuid, final long id, final boolean node) {
+
+			this.uuid = uuid;
+			this.node = node;
+			this.id   = id;
+		}
+
+		public String getUuid() {
+			return uuid;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public boolean isNode() {
+			return node;
+		}
+	}
+}
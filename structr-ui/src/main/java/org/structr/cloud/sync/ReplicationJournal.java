@@ -0,0 +1,704 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.structr.core.GraphObject;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.property.PropertyKey;
+
+/**
+ * Append-only, memory-mapped log of committed transactions on a replication
+ * master. Every transaction is assigned a monotonically increasing sequence
+ * number and stored as the list of UUIDs it touched (with the modified
+ * property keys), so the actual data can be read from the database when
+ * the entry is shipped. The journal survives restarts, and the last
+ * sequence number acknowledged by each slave is stored next to it, so
+ * that replication can resume where it left off.
+ *
+ * Entries are written ahead of the commit of their transaction, and only
+ * become visible to the replication process when the transaction has
+ * finished, see {@link #finish(long, boolean)}. The entry of a transaction
+ * that was rolled back is read as an empty entry, so that it can neither
+ * ship modifications nor deletions that never happened (this information
+ * is not persisted, so deletions are verified again when an entry is
+ * shipped, see {@link JournalTransmission}). Forcing the entries to disk
+ * is batched, so that concurrently committing transactions share a single
+ * force.
+ *
+ * The journal is split into segments of a fixed size, segments that were
+ * acknowledged by all slaves can be removed with {@link #truncate(long)}.
+ *
+ * @author Christian Morgner
+ */
+public class ReplicationJournal {
+
+	private static final Logger logger         = Logger.getLogger(ReplicationJournal.class.getName());
+	private static final String SEGMENT_SUFFIX = ".journal";
+	private static final String ACK_SUFFIX     = ".ack";
+	private static final int HEADER_SIZE       = 16;
+
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	private final TreeSet<Long> pending           = new TreeSet<>();
+	private final TreeSet<Long> aborted           = new TreeSet<>();
+	private final Object forceLock                = new Object();
+	private File directory                        = null;
+	private Segment current                       = null;
+	private boolean force                         = true;
+	private long lastSequence                     = 0L;
+	private volatile long forcedSequence          = 0L;
+	private int segmentSize                       = 0;
+
+	/**
+	 * Opens the journal in the given directory, creating it if necessary.
+	 * Existing segments are scanned, a partially written entry at the end
+	 * of the last segment (e.g. after a crash) is discarded.
+	 *
+	 * @param directory the journal directory
+	 * @param segmentSize the size of a single segment file in bytes
+	 * @param force whether to force every appended entry to disk
+	 * @throws IOException
+	 */
+	public ReplicationJournal(final File directory, final int segmentSize, final boolean force) throws IOException {
+
+		this.directory   = directory;
+		this.segmentSize = segmentSize;
+		this.force       = force;
+
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Unable to create replication journal directory " + directory);
+		}
+
+		final File[] files = directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+
+		if (files != null) {
+
+			// segment file names are zero-padded start sequences
+			Arrays.sort(files);
+
+			for (final File file : files) {
+
+				final Segment segment = Segment.open(file);
+				if (segment.getFirstSequence() != lastSequence + 1 && lastSequence != 0L) {
+
+					logger.log(Level.WARNING, "Gap in replication journal before {0}, last sequence was {1}", new Object[] { file.getName(), lastSequence } );
+				}
+
+				segments.put(segment.getFirstSequence(), segment);
+
+				if (!segment.isEmpty()) {
+					lastSequence = segment.getLastSequence();
+				}
+
+				current = segment;
+			}
+		}
+
+		forcedSequence = lastSequence;
+
+		logger.log(Level.INFO, "Replication journal opened with {0} segment(s), last sequence is {1}", new Object[] { segments.size(), lastSequence } );
+	}
+
+	/**
+	 * Appends the given transaction to the journal and returns its sequence
+	 * number. The entry is not visible to the replication process until
+	 * {@link #finish(long, boolean)} is called for it. This method does not block on
+	 * the replication process, and it does not force the entry to disk,
+	 * see {@link #force(long)}.
+	 *
+	 * @param modificationEvents the modification events of a transaction that is about to be committed
+	 * @return the sequence number of the new entry
+	 * @throws IOException
+	 */
+	public synchronized long append(final List<ModificationEvent> modificationEvents) throws IOException {
+
+		final byte[] payload = encode(modificationEvents);
+		final long sequence  = lastSequence + 1;
+
+		if (current == null || !current.hasRoom(payload.length)) {
+
+			current = Segment.create(directory, sequence, Math.max(segmentSize, payload.length + HEADER_SIZE + 4));
+			segments.put(sequence, current);
+		}
+
+		current.append(sequence, payload);
+		lastSequence = sequence;
+
+		pending.add(sequence);
+
+		return sequence;
+	}
+
+	/**
+	 * Forces all entries up to (at least) the given sequence number to
+	 * disk, if forcing is enabled. Threads that call this method while a
+	 * force is in progress are covered by the next force, so that a single
+	 * force serves all transactions that were appended in the meantime.
+	 *
+	 * @param sequence the sequence number
+	 */
+	public void force(final long sequence) {
+
+		if (!force || forcedSequence >= sequence) {
+			return;
+		}
+
+		synchronized (forceLock) {
+
+			// another thread may have forced our entry while we were waiting
+			if (forcedSequence >= sequence) {
+				return;
+			}
+
+			final List<Segment> dirty = new ArrayList<>();
+			final long target;
+
+			synchronized (this) {
+
+				final Long from = segments.floorKey(forcedSequence + 1);
+
+				dirty.addAll(from != null ? segments.tailMap(from, true).values() : segments.values());
+				target = lastSequence;
+			}
+
+			for (final Segment segment : dirty) {
+				segment.force();
+			}
+
+			forcedSequence = target;
+		}
+	}
+
+	/**
+	 * Marks the entry with the given sequence number as finished, i.e. its
+	 * transaction was either committed or rolled back. Entries are shipped
+	 * in order, so an unfinished entry holds back all later entries. The
+	 * changes of an entry whose transaction was rolled back are dropped.
+	 *
+	 * @param sequence the sequence number
+	 * @param committed whether the transaction of the entry was committed
+	 */
+	public synchronized void finish(final long sequence, final boolean committed) {
+
+		if (!committed) {
+			aborted.add(sequence);
+		}
+
+		pending.remove(sequence);
+
+		notifyAll();
+	}
+
+	/**
+	 * Reads at most <code>maxEntries</code> entries, starting at the given
+	 * sequence number.
+	 *
+	 * @param fromSequence the sequence number of the first entry to read
+	 * @param maxEntries the maximum number of entries to return
+	 * @return a list of entries, empty if there are no entries
+	 * @throws IOException
+	 */
+	public synchronized List<Entry> read(final long fromSequence, final int maxEntries) throws IOException {
+
+		final List<Entry> entries = new LinkedList<>();
+		long sequence             = fromSequence;
+
+		Map.Entry<Long, Segment> floor = segments.floorEntry(sequence);
+		if (floor == null) {
+
+			// requested entries were truncated already, continue at the oldest one we have
+			floor = segments.firstEntry();
+			if (floor == null) {
+				return entries;
+			}
+
+			logger.log(Level.WARNING, "Replication journal entries before {0} are not available anymore, requested {1}", new Object[] { floor.getKey(), fromSequence } );
+			sequence = floor.getKey();
+		}
+
+		for (final Segment segment : segments.tailMap(floor.getKey(), true).values()) {
+
+			while (entries.size() < maxEntries && segment.contains(sequence)) {
+
+				if (aborted.contains(sequence)) {
+
+					// keep the sequence, so that acknowledgements can proceed
+					entries.add(new Entry(sequence, new ArrayList<Change>()));
+
+				} else {
+
+					entries.add(new Entry(sequence, decode(segment.read(sequence))));
+				}
+
+				sequence++;
+			}
+
+			if (entries.size() >= maxEntries) {
+				break;
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Blocks until there is an entry with a sequence number greater than
+	 * the given one, or until the timeout expires.
+	 *
+	 * @param sequence the sequence number
+	 * @param timeout the timeout in milliseconds
+	 * @return whether newer entries are available
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitNewerThan(final long sequence, final long timeout) throws InterruptedException {
+
+		final long abortTime = System.currentTimeMillis() + timeout;
+		long remaining       = timeout;
+
+		while (getLastSequence() <= sequence && remaining > 0) {
+
+			wait(remaining);
+			remaining = abortTime - System.currentTimeMillis();
+		}
+
+		return getLastSequence() > sequence;
+	}
+
+	/**
+	 * Returns the sequence number of the last entry that can be shipped,
+	 * i.e. the last entry before the first unfinished one.
+	 *
+	 * @return the last finished sequence number
+	 */
+	public synchronized long getLastSequence() {
+		return pending.isEmpty() ? lastSequence : pending.first() - 1;
+	}
+
+	/**
+	 * Returns the sequence number of the oldest entry that is still
+	 * available in the journal.
+	 *
+	 * @return the oldest available sequence number
+	 */
+	public synchronized long getFirstSequence() {
+		return segments.isEmpty() ? lastSequence + 1 : segments.firstKey();
+	}
+
+	/**
+	 * Removes all segments whose entries have all been acknowledged. The
+	 * segment that is currently written to is never removed.
+	 *
+	 * @param acknowledgedSequence the lowest sequence number acknowledged by all slaves
+	 */
+	public synchronized void truncate(final long acknowledgedSequence) {
+
+		for (final Iterator<Segment> it = segments.values().iterator(); it.hasNext();) {
+
+			final Segment segment = it.next();
+			if (segment != current && segment.getLastSequence() <= acknowledgedSequence) {
+
+				segment.close();
+				it.remove();
+
+				if (!segment.getFile().delete()) {
+					logger.log(Level.WARNING, "Unable to delete replication journal segment {0}", segment.getFile());
+				}
+			}
+		}
+
+		// forget aborted entries that are not available anymore
+		aborted.headSet(getFirstSequence()).clear();
+	}
+
+	/**
+	 * Returns the last sequence number that was acknowledged by the given
+	 * slave, or 0 if there is none.
+	 *
+	 * @param slaveId
+	 * @return the last acknowledged sequence number
+	 */
+	public synchronized long getAcknowledged(final String slaveId) {
+
+		final File file = new File(directory, slaveId + ACK_SUFFIX);
+		if (file.exists()) {
+
+			try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+
+				return raf.readLong();
+
+			} catch (IOException ioex) {
+				logger.log(Level.WARNING, "Unable to read acknowledged sequence for {0}: {1}", new Object[] { slaveId, ioex.getMessage() } );
+			}
+		}
+
+		return 0L;
+	}
+
+	/**
+	 * Stores the last sequence number acknowledged by the given slave.
+	 *
+	 * @param slaveId
+	 * @param sequence
+	 */
+	public synchronized void acknowledge(final String slaveId, final long sequence) {
+
+		try (final RandomAccessFile raf = new RandomAccessFile(new File(directory, slaveId + ACK_SUFFIX), "rw")) {
+
+			raf.seek(0);
+			raf.writeLong(sequence);
+
+			if (force) {
+				raf.getFD().sync();
+			}
+
+		} catch (IOException ioex) {
+			logger.log(Level.WARNING, "Unable to store acknowledged sequence for {0}: {1}", new Object[] { slaveId, ioex.getMessage() } );
+		}
+	}
+
+	public synchronized void close() {
+
+		for (final Segment segment : segments.values()) {
+			segment.close();
+		}
+
+		segments.clear();
+		aborted.clear();
+		current = null;
+	}
+
+	// ----- private methods -----
+	private byte[] encode(final List<ModificationEvent> modificationEvents) throws IOException {
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final DataOutputStream dos      = new DataOutputStream(bos);
+
+		dos.writeInt(modificationEvents.size());
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			String uuid = event.getUuid();
+			if (uuid == null) {
+				uuid = event.getRemovedProperties().get(GraphObject.id);
+			}
+
+			final Set<String> propertyKeys = new LinkedHashSet<>();
+
+			if (!event.isDeleted()) {
+
+				// collect all possibly modified property keys
+				mapPropertyKeysToStrings(propertyKeys, event.getNewProperties().keySet());
+				mapPropertyKeysToStrings(propertyKeys, event.getModifiedProperties().keySet());
+				mapPropertyKeysToStrings(propertyKeys, event.getRemovedProperties().keySet());
+			}
+
+			dos.writeUTF(uuid != null ? uuid : "");
+			dos.writeBoolean(event.isNode());
+			dos.writeBoolean(event.isDeleted());
+			dos.writeInt(propertyKeys.size());
+
+			for (final String key : propertyKeys) {
+				dos.writeUTF(key);
+			}
+		}
+
+		dos.flush();
+
+		return bos.toByteArray();
+	}
+
+	private List<Change> decode(final byte[] payload) throws IOException {
+
+		final DataInputStream dis  = new DataInputStream(new ByteArrayInputStream(payload));
+		final int count            = dis.readInt();
+		final List<Change> changes = new ArrayList<>(count);
+
+		for (int i=0; i<count; i++) {
+
+			final String uuid              = dis.readUTF();
+			final boolean node             = dis.readBoolean();
+			final boolean deleted          = dis.readBoolean();
+			final int keyCount             = dis.readInt();
+			final Set<String> propertyKeys = new LinkedHashSet<>();
+
+			for (int j=0; j<keyCount; j++) {
+				propertyKeys.add(dis.readUTF());
+			}
+
+			if (!uuid.isEmpty()) {
+				changes.add(new Change(uuid, node, deleted, propertyKeys));
+			}
+		}
+
+		return changes;
+	}
+
+	private void mapPropertyKeysToStrings(final Set<String> propertyKeys, final Set<PropertyKey> source) {
+
+		for (final PropertyKey key : source) {
+			propertyKeys.add(key.dbName());
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * A single journal entry, i.e. one committed transaction.
+	 */
+	public static class Entry {
+
+		private List<Change> changes = null;
+		private long sequence        = 0L;
+
+		public Entry(final long sequence, final List<Change> changes) {
+
+			this.sequence = sequence;
+			this.changes  = changes;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public List<Change> getChanges() {
+			return changes;
+		}
+	}
+
+	/**
+	 * A single modified or deleted entity within a journal entry.
+	 */
+	public static class Change {
+
+		private Set<String> propertyKeys = null;
+		private String uuid              = null;
+		private boolean node             = false;
+		private boolean deleted          = false;
+
+		public Change(final String uuid, final boolean node, final boolean deleted, final Set<String> propertyKeys) {
+
+			this.uuid         = uuid;
+			this.node         = node;
+			this.deleted      = deleted;
+			this.propertyKeys = propertyKeys;
+		}
+
+		public String getUuid() {
+			return uuid;
+		}
+
+		public boolean isNode() {
+			return node;
+		}
+
+		public boolean isDeleted() {
+			return deleted;
+		}
+
+		public Set<String> getPropertyKeys() {
+			return propertyKeys;
+		}
+	}
+
+	/**
+	 * A memory-mapped segment file. Each record consists of the payload
+	 * length, the sequence number, a CRC32 checksum of the payload and the
+	 * payload itself. The length is written last, so a record only becomes
+	 * visible when it is complete.
+	 */
+	private static class Segment {
+
+		private final List<Integer> offsets = new ArrayList<>();
+		private RandomAccessFile raf        = null;
+		private MappedByteBuffer buffer     = null;
+		private File file                   = null;
+		private long firstSequence          = 0L;
+		private int position                = 0;
+
+		private Segment(final File file, final long firstSequence, final int size) throws IOException {
+
+			this.file          = file;
+			this.firstSequence = firstSequence;
+			this.raf           = new RandomAccessFile(file, "rw");
+
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+
+			this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+
+		public static Segment create(final File directory, final long firstSequence, final int size) throws IOException {
+			return new Segment(new File(directory, String.format("%020d", firstSequence) + SEGMENT_SUFFIX), firstSequence, size);
+		}
+
+		public static Segment open(final File file) throws IOException {
+
+			final String name     = file.getName();
+			final Segment segment = new Segment(file, Long.valueOf(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), 0);
+
+			segment.recover();
+
+			return segment;
+		}
+
+		public boolean hasRoom(final int payloadLength) {
+
+			// leave room for a terminating zero length
+			return position + HEADER_SIZE + payloadLength + 4 <= buffer.capacity();
+		}
+
+		public void append(final long sequence, final byte[] payload) {
+
+			final CRC32 crc = new CRC32();
+			crc.update(payload);
+
+			buffer.putLong(position + 4, sequence);
+			buffer.putInt(position + 12, (int)crc.getValue());
+
+			final ByteBuffer view = buffer.duplicate();
+			view.position(position + HEADER_SIZE);
+			view.put(payload);
+
+			// writing the length makes the record valid
+			buffer.putInt(position, payload.length);
+
+			offsets.add(position);
+			position += HEADER_SIZE + payload.length;
+		}
+
+		public void force() {
+			buffer.force();
+		}
+
+		public byte[] read(final long sequence) {
+
+			final int offset = offsets.get((int)(sequence - firstSequence));
+
+			return get(offset + HEADER_SIZE, buffer.getInt(offset));
+		}
+
+		public boolean contains(final long sequence) {
+			return sequence >= firstSequence && sequence < firstSequence + offsets.size();
+		}
+
+		public boolean isEmpty() {
+			return offsets.isEmpty();
+		}
+
+		public long getFirstSequence() {
+			return firstSequence;
+		}
+
+		public long getLastSequence() {
+			return firstSequence + offsets.size() - 1;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public void close() {
+
+			try {
+				raf.close();
+
+			} catch (IOException ioex) {
+				logger.log(Level.WARNING, "Unable to close replication journal segment {0}", file);
+			}
+		}
+
+		// ----- private methods -----
+		private void recover() {
+
+			final int capacity = buffer.capacity();
+			long expected      = firstSequence;
+
+			while (position + HEADER_SIZE <= capacity) {
+
+				final int length = buffer.getInt(position);
+				if (length <= 0 || position + HEADER_SIZE + length > capacity) {
+					break;
+				}
+
+				final long sequence  = buffer.getLong(position + 4);
+				final int checksum   = buffer.getInt(position + 12);
+				final byte[] payload = get(position + HEADER_SIZE, length);
+
+				final CRC32 crc = new CRC32();
+				crc.update(payload);
+
+				if (sequence != expected || (int)crc.getValue() != checksum) {
+
+					logger.log(Level.WARNING, "Discarding incomplete replication journal entry {0} in {1}", new Object[] { expected, file.getName() } );
+					break;
+				}
+
+				offsets.add(position);
+				position += HEADER_SIZE + length;
+				expected++;
+			}
+
+			// clear the remains of an incomplete record so it cannot
+			// be mistaken for a valid one after the next append
+			for (int i=position; i<Math.min(capacity, position + HEADER_SIZE); i++) {
+				buffer.put(i, (byte)0);
+			}
+		}
+
+		private byte[] get(final int offset, final int length) {
+
+			final ByteBuffer view = buffer.duplicate();
+			final byte[] data     = new byte[length];
+
+			view.position(offset);
+			view.get(data);
+
+			return data;
+		}
+	}
+}
@@ -39,6 +39,7 @@ public class ReplicationStatus extends Message<ReplicationStatus> {
 	private String slaveId  = null;
 	private String role     = null;
 	private long lastSync   = 0L;
+	private long sequence   = 0L;
 	private boolean update  = false;
 
 	public ReplicationStatus() {}
@@ -70,6 +71,10 @@ public class ReplicationStatus extends Message<ReplicationStatus> {
 		return lastSync;
 	}
 
+	public long getSequence() {
+		return sequence;
+	}
+
 	public String getRole() {
 		return role;
 	}
@@ -92,6 +97,7 @@ public class ReplicationStatus extends Message<ReplicationStatus> {
 			// this is not an error, we want the sync time for the
 			// given MASTER, since a slave can have multiple masters
 			this.lastSync = app.getGlobalSetting(masterId, 0L);
+			this.sequence = app.getGlobalSetting(masterId + ".sequence", 0L);
 			this.role     = StructrApp.getConfigurationValue("sync.role", "slave");
 		}
 
@@ -115,6 +121,7 @@ public class ReplicationStatus extends Message<ReplicationStatus> {
 		this.slaveId  = (String)SyncCommand.deserialize(inputStream);
 		this.role     = (String)SyncCommand.deserialize(inputStream);
 		this.lastSync = (Long)SyncCommand.deserialize(inputStream);
+		this.sequence = (Long)SyncCommand.deserialize(inputStream);
 		this.update   = (Boolean)SyncCommand.deserialize(inputStream);
 	}
 
@@ -125,6 +132,7 @@ public class ReplicationStatus extends Message<ReplicationStatus> {
 		SyncCommand.serialize(outputStream, slaveId);
 		SyncCommand.serialize(outputStream, role);
 		SyncCommand.serialize(outputStream, lastSync);
+		SyncCommand.serialize(outputStream, sequence);
 		SyncCommand.serialize(outputStream, update);
 	}
 }
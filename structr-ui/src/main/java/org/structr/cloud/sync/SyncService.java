@@ -18,13 +18,12 @@
  */
 package org.structr.cloud.sync;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang.StringUtils;
@@ -37,6 +36,7 @@ import org.structr.common.StructrConf;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Command;
 import org.structr.core.RunnableService;
+import org.structr.core.Services;
 import org.structr.core.StructrTransactionListener;
 import org.structr.core.TransactionSource;
 import org.structr.core.app.App;
@@ -51,21 +51,24 @@ import org.structr.core.graph.Tx;
  */
 public class SyncService extends Thread  implements RunnableService, StructrTransactionListener {
 
-	private static final BlockingQueue<List<ModificationEvent>> syncQueue = new ArrayBlockingQueue<>(1000);
-	private static final Logger logger                                    = Logger.getLogger(CloudService.class.getName());
+	private static final Logger logger = Logger.getLogger(CloudService.class.getName());
 
 	public enum SyncRole {
 		master,
 		slave
 	};
 
-	private final List<SyncHostInfo> syncHosts = new LinkedList<>();
+	private final List<SyncHostInfo> syncHosts      = new LinkedList<>();
+	private ReplicationJournal journal         = null;
+	private JournalWriter journalWriter        = null;
 	private boolean running                    = false;
 	private boolean active                     = false;
 	private String allowedMaster               = null;
 	private SyncRole role                      = null;
 	private int requiredSyncCount              = 0;
 	private int retryInterval                  = 60;
+	private int batchSize                      = 100;
+	private int window                         = 4;
 
 	public SyncService() {
 
@@ -102,6 +105,21 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 			// check only if we are a replication master
 			if (SyncRole.master.equals(role)) {
 
+				batchSize = Services.parseInt(config.getProperty("sync.batchsize"), 100);
+				window    = Math.max(1, Services.parseInt(config.getProperty("sync.window"), 4));
+
+				try {
+					final String journalPath = config.getProperty("sync.journal.path", config.getProperty(Services.BASE_PATH, ".") + "/sync");
+					final int segmentSize    = Services.parseInt(config.getProperty("sync.journal.segmentsize"), 16 * 1024 * 1024);
+					final boolean force      = "true".equals(config.getProperty("sync.journal.fsync", "true"));
+
+					journal       = new ReplicationJournal(new File(journalPath), segmentSize, force);
+					journalWriter = new JournalWriter(journal);
+
+				} catch (IOException ioex) {
+					throw new IllegalStateException("unable to open replication journal: " + ioex.getMessage());
+				}
+
 				if (StringUtils.isEmpty(hosts)) {
 					throw new IllegalStateException("no slave hosts set for this master, please set sync.hosts in structr.conf.");
 				}
@@ -179,6 +197,11 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 
 	@Override
 	public void shutdown() {
+
+		if (journalWriter != null) {
+			TransactionCommand.removeTransactionListener(journalWriter);
+		}
+
 		running = false;
 	}
 
@@ -192,6 +215,11 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 
 		TransactionCommand.registerTransactionListener(this);
 
+		// only a replication master writes a journal
+		if (journalWriter != null && active) {
+			TransactionCommand.registerTransactionListener(journalWriter);
+		}
+
 		running = true;
 		start();
 
@@ -201,59 +229,64 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 	@Override
 	public void run() {
 
-		while (running) {
+		// only a replication master ships its journal
+		if (journal == null) {
+			return;
+		}
 
-			try {
+		int lastUpToDate = syncHosts.size();
 
-				// wait to be notified when new data is available
-				synchronized (syncQueue) {
+		while (running) {
 
-					while (syncQueue.isEmpty()) {
-						syncQueue.wait();
-					}
-				}
+			try {
 
-				// load the head of the queue without removing it
-				// (will be removed later if sync was successful)
-				final List<ModificationEvent> transaction = syncQueue.peek();
-				if (transaction != null) {
+				final long lastSequence = journal.getLastSequence();
+				int upToDate            = 0;
 
-					// define success as "at least one sync process was successful"
-					final SyncListener successListener = new SyncListener(requiredSyncCount);
+				for (final SyncHostInfo host : syncHosts) {
 
-					final SyncTransmission transmission = new SyncTransmission(transaction);
+					if (host.getAcknowledgedSequence() < lastSequence && host.isRetryDue()) {
 
-					for (final SyncHostInfo info : syncHosts) {
+						final JournalTransmission transmission = new JournalTransmission(journal, host.getAcknowledgedSequence(), batchSize, window);
 
 						try {
 
-							CloudService.doRemote(transmission, info, successListener);
+							CloudService.doRemote(transmission, host, null);
 
 						} catch (FrameworkException fex) {
-							logger.log(Level.WARNING, "Unable to synchronize with host {0}: {1}", new Object[] { info, fex.getMessage() } );
-						}
-					}
 
-					// remove sync changeset from queue when sync
-					// was successful (see above)
-					if (successListener.wasSuccessful()) {
+							logger.log(Level.WARNING, "Unable to synchronize with host {0}: {1}, retrying in {2} seconds..", new Object[] { host, fex.getMessage(), retryInterval } );
+							host.retryIn(retryInterval * 1000L);
 
-						syncQueue.remove(transaction);
-
-					} else {
+						} finally {
 
-						logger.log(Level.WARNING, "Unable to synchronize with required number of hosts, retrying in {0} seconds..", retryInterval);
+							// slave has committed everything up to here, even if the transmission failed later
+							acknowledge(host, transmission.getAcknowledgedSequence());
+						}
+					}
 
-						// sleep
-						try { Thread.sleep(retryInterval * 1000); } catch (Throwable t) {}
+					if (host.getAcknowledgedSequence() >= lastSequence) {
+						upToDate++;
 					}
+				}
 
+				if (upToDate < requiredSyncCount && upToDate != lastUpToDate) {
+					logger.log(Level.WARNING, "Only {0} of {1} required hosts are up to date.", new Object[] { upToDate, requiredSyncCount } );
 				}
 
+				lastUpToDate = upToDate;
+
+				journal.truncate(getMinimumAcknowledgedSequence());
+
+				// wait to be notified when new data is available, or for the next retry
+				journal.awaitNewerThan(lastSequence, 1000);
+
 			} catch (Throwable t) {
 				t.printStackTrace();
 			}
 		}
+
+		journal.close();
 	}
 
 	@Override
@@ -306,19 +339,16 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 				logger.log(Level.SEVERE, "Unable to store last modified date for current instance.", fex);
 			}
 
+		}
+	}
 
-			try {
-
-				// copy all modification events and return quickly
-				syncQueue.put(new ArrayList<>(modificationEvents));
-
-				// notify sync queue of new input
-				synchronized (syncQueue) { syncQueue.notify(); }
-
-			} catch (InterruptedException iex) {
-				iex.printStackTrace();
-			}
+	@Override
+	public void transactionFinished(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source, final boolean committed) {
 
+		// keep hash tree up to date on master and slave, regardless of the transaction
+		// source, and also for transactions without notifications
+		if (active && !modificationEvents.isEmpty()) {
+			HashTree.getInstance().invalidate(modificationEvents);
 		}
 	}
 
@@ -356,6 +386,12 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 						// store replication status in host info
 						host.setReplicationStatus(status);
 
+						final long acknowledged = journal.getAcknowledged(host.getJournalKey());
+						if (status.getSequence() < acknowledged) {
+
+							logger.log(Level.WARNING, "Replication host {0} reports journal sequence {1}, but has acknowledged {2} before.", new Object[] { host, status.getSequence(), acknowledged } );
+						}
+
 					} else {
 
 						reachable = false;
@@ -404,7 +440,12 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 		final SimpleDateFormat df     = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 		final long localSyncTimestamp = StructrApp.getInstance().getGlobalSetting(masterId + ".lastModified", 0L);
 
-		if (localSyncTimestamp == 0L) {
+		if (host.getAcknowledgedSequence() > 0L && host.getAcknowledgedSequence() + 1 >= journal.getFirstSequence()) {
+
+			// the slave can catch up by replaying the journal
+			logger.log(Level.INFO, "Replication host {0} will resume from journal sequence {1}", new Object[] { host, host.getAcknowledgedSequence() + 1 } );
+
+		} else if (localSyncTimestamp == 0L) {
 
 			// no synchronization with this slave yet, clear and initialize slave database
 			synchronizeSlave(host);
@@ -430,14 +471,19 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 
 	private void synchronizeSlave(final SyncHostInfo info) {
 
-		logger.log(Level.INFO, "Establishing initial replication.");
+		logger.log(Level.INFO, "Comparing replica with master.");
+
+		// everything committed before the comparison starts is covered by it
+		final long sequence = journal.getLastSequence();
 
 		try (final Tx tx = StructrApp.getInstance().tx()) {
 
-			CloudService.doRemote(new UpdateTransmission(), info, new LoggingListener());
+			CloudService.doRemote(new AntiEntropyTransmission(), info, new LoggingListener());
 
 			tx.success();
 
+			acknowledge(info, sequence);
+
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
@@ -445,46 +491,37 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 		logger.log(Level.INFO, "Done.");
 	}
 
-	// ----- nested classes -----
-	private static class SyncListener implements CloudListener {
-
-		private int successCount         = 0;
-		private int requiredSuccessCount = 0;
+	private void acknowledge(final SyncHostInfo host, final long sequence) {
 
-		public SyncListener(final int requiredSuccessCount) {
-			this.requiredSuccessCount = requiredSuccessCount;
-		}
+		if (sequence > host.getAcknowledgedSequence()) {
 
-		@Override
-		public void transmissionStarted() {
+			host.setAcknowledgedSequence(sequence);
+			journal.acknowledge(host.getJournalKey(), sequence);
 		}
+	}
 
-		@Override
-		public void transmissionFinished() {
-			successCount++;
-		}
+	private long getMinimumAcknowledgedSequence() {
 
-		@Override
-		public void transmissionAborted() {
-		}
+		long minimum = journal.getLastSequence();
 
-		@Override
-		public void transmissionProgress(final String message) {
+		for (final SyncHostInfo host : syncHosts) {
+			minimum = Math.min(minimum, host.getAcknowledgedSequence());
 		}
 
-		public boolean wasSuccessful() {
-			return successCount >= requiredSuccessCount;
-		}
+		return minimum;
 	}
 
+	// ----- nested classes -----
 	private static class SyncHostInfo implements CloudHost {
 
-		private ReplicationStatus status = null;
-		private String instanceId        = null;
-		private String host              = null;
-		private String user              = null;
-		private String pwd               = null;
-		private int port                 = -1;
+		private ReplicationStatus status  = null;
+		private String instanceId         = null;
+		private String host               = null;
+		private String user               = null;
+		private String pwd                = null;
+		private long acknowledgedSequence = 0L;
+		private long retryTime            = 0L;
+		private int port                  = -1;
 
 		public SyncHostInfo(final String host, final String user, final String pwd, final String portSource) {
 
@@ -521,8 +558,9 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 
 		public void setReplicationStatus(final ReplicationStatus status) {
 
-			this.instanceId = status.getSlaveId();
-			this.status     = status;
+			this.instanceId           = status.getSlaveId();
+			this.status               = status;
+			this.acknowledgedSequence = status.getSequence();
 		}
 
 		public long getLastSyncTimestamp() {
@@ -532,6 +570,26 @@ public class SyncService extends Thread  implements RunnableService, StructrTran
 		public String getInstanceId() {
 			return instanceId;
 		}
+
+		public long getAcknowledgedSequence() {
+			return acknowledgedSequence;
+		}
+
+		public void setAcknowledgedSequence(final long acknowledgedSequence) {
+			this.acknowledgedSequence = acknowledgedSequence;
+		}
+
+		public String getJournalKey() {
+			return host + "_" + port;
+		}
+
+		public boolean isRetryDue() {
+			return System.currentTimeMillis() >= retryTime;
+		}
+
+		public void retryIn(final long millis) {
+			this.retryTime = System.currentTimeMillis() + millis;
+		}
 	}
 
 	private class LoggingListener implements CloudListener {
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.transmission;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.structr.cloud.CloudConnection;
+import org.structr.cloud.CloudTransmission;
+import org.structr.cloud.message.End;
+import org.structr.cloud.message.FileNodeDataContainer;
+import org.structr.common.error.FrameworkException;
+
+/**
+ * Sends a subset of the chunks of a file over an additional connection. The
+ * receiving end assembles the chunks of all connections into the same file,
+ * the transfer is completed by a <code>FileNodeEndChunk</code> on the main
+ * connection.
+ *
+ * @author Christian Morgner
+ */
+public class FileChunkTransmission implements CloudTransmission<Boolean> {
+
+	private List<Integer> chunks = null;
+	private String containerId   = null;
+	private Path path            = null;
+	private boolean compressible = true;
+	private long fileSize        = 0L;
+	private int chunkSize        = 0;
+
+	public FileChunkTransmission(final Path path, final String containerId, final long fileSize, final int chunkSize, final boolean compressible, final List<Integer> chunks) {
+
+		this.path         = path;
+		this.containerId  = containerId;
+		this.fileSize     = fileSize;
+		this.chunkSize    = chunkSize;
+		this.compressible = compressible;
+		this.chunks       = chunks;
+	}
+
+	@Override
+	public Boolean doRemote(final CloudConnection client) throws IOException, FrameworkException {
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+			for (final Integer index : chunks) {
+				client.send(FileNodeDataContainer.readChunk(channel, containerId, fileSize, chunkSize, index, compressible));
+			}
+		}
+
+		client.send(new End());
+
+		// wait for end of transmission
+		client.waitForTransmission();
+
+		return true;
+	}
+}
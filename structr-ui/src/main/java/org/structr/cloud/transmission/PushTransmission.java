@@ -19,13 +19,25 @@
 package org.structr.cloud.transmission;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.structr.cloud.CloudConnection;
 import org.structr.cloud.CloudService;
 import org.structr.cloud.CloudTransmission;
 import org.structr.cloud.ExportSet;
+import org.structr.cloud.PartialFile;
 import org.structr.cloud.message.End;
-import org.structr.cloud.message.FileNodeChunk;
 import org.structr.cloud.message.FileNodeDataContainer;
 import org.structr.cloud.message.FileNodeEndChunk;
 import org.structr.cloud.message.NodeDataContainer;
@@ -35,6 +47,7 @@ import org.structr.core.GraphObject;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.RelationshipInterface;
 import org.structr.dynamic.File;
+import org.structr.web.common.FileHelper;
 
 /**
  *
@@ -42,6 +55,8 @@ import org.structr.dynamic.File;
  */
 public class PushTransmission implements CloudTransmission {
 
+	private static final Logger logger = Logger.getLogger(PushTransmission.class.getName());
+
 	private ExportSet exportSet = null;
 	private int sequenceNumber  = 0;
 
@@ -104,6 +119,9 @@ public class PushTransmission implements CloudTransmission {
 	 * split into multiple instances of <code>FileChunkContainer</code> while being sent. To finalize the transfer, a <code>FileNodeEndChunk</code> is sent to notify the receiving end of the
 	 * successful transfer.
 	 *
+	 * For large files, chunks that the remote end already has from an earlier, interrupted transfer are skipped, and the remaining chunks are distributed over
+	 * additional connections to the same host if the given connection was opened by this instance.
+	 *
 	 * @param client the client to send over
 	 * @param file the file to split and send
 	 * @param chunkSize the chunk size for a single chunk
@@ -112,16 +130,77 @@ public class PushTransmission implements CloudTransmission {
 	 */
 	public static void sendFile(final CloudConnection client, final File file, final int chunkSize) throws FrameworkException, IOException {
 
-		// send file container first
-		FileNodeDataContainer container = new FileNodeDataContainer(file);
-		client.send(container);
+		final FileNodeDataContainer container = new FileNodeDataContainer(file, chunkSize);
+		final String containerId   = container.getSourceNodeId();
+		final String relativePath  = file.getRelativeFilePath();
+		final long fileSize        = container.getFileSize();
+		final int chunkCount       = PartialFile.getChunkCount(fileSize, chunkSize);
+		final boolean compressible = FileNodeDataContainer.isCompressible(file.getContentType());
+		BitSet received            = new BitSet();
+		int streams                = 1;
+
+		// send file container first; responses are handled by the connection thread,
+		// so we can only wait for the remote state when running in a different one
+		if (relativePath != null && chunkCount >= CloudService.FILE_STREAM_THRESHOLD && Thread.currentThread() != client) {
+
+			received = client.exchange(container).getReceivedChunks();
+
+			if (client.getHost() != null) {
+				streams = CloudService.FILE_STREAMS;
+			}
+
+		} else {
+
+			client.send(container);
+		}
+
+		if (relativePath != null) {
+
+			final Path path = Paths.get(FileHelper.getFilePath(relativePath));
+
+			// distribute missing chunks over the available streams
+			final List<List<Integer>> shares = new ArrayList<>();
+			for (int i=0; i<streams; i++) {
+				shares.add(new ArrayList<Integer>());
+			}
+
+			int next = 0;
+			for (int i=received.nextClearBit(0); i<chunkCount; i=received.nextClearBit(i+1)) {
+				shares.get(next++ % streams).add(i);
+			}
+
+			final List<Future<Boolean>> futures = new LinkedList<>();
+			for (int i=1; i<streams; i++) {
+
+				final List<Integer> share = shares.get(i);
+				if (!share.isEmpty()) {
+
+					futures.add(CloudService.doRemoteAsync(new FileChunkTransmission(path, containerId, fileSize, chunkSize, compressible, share), client.getHost()));
+				}
+			}
+
+			// send our own share over the main connection
+			try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
 
-		// send chunks
-		for (FileNodeChunk chunk : FileNodeDataContainer.getChunks(file, chunkSize)) {
-			client.send(chunk);
+				for (final Integer index : shares.get(0)) {
+					client.send(FileNodeDataContainer.readChunk(channel, containerId, fileSize, chunkSize, index, compressible));
+				}
+			}
+
+			for (final Future<Boolean> future : futures) {
+
+				try {
+					future.get();
+
+				} catch (InterruptedException | ExecutionException ex) {
+
+					// the remote end keeps what it received, the rest is sent in the next transfer
+					logger.log(Level.WARNING, "Unable to send part of file {0}: {1}", new Object[] { containerId, ex.getMessage() } );
+				}
+			}
 		}
 
 		// mark end of file with special chunk
-		client.send(new FileNodeEndChunk(container.getSourceNodeId(), container.getFileSize()));
+		client.send(new FileNodeEndChunk(containerId, fileSize));
 	}
 }
@@ -24,17 +24,49 @@ import java.util.Queue;
 /**
  * Special buffer for asynchronous streaming of chunked output.
  *
+ * Without a listener, this buffer simply collects every appended string in
+ * its queue. Once a listener is attached via {@link #setListener}, appended
+ * strings are coalesced into chunks, the listener is notified whenever a
+ * chunk is ready, and the producer blocks as soon as the maximum number of
+ * chunks are waiting to be consumed.
+ *
  * @author Axel Morgner
  */
 public class AsyncBuffer {
 
-	private final Queue<String> queue = new LinkedList<>();
+	private final Queue<String> queue   = new LinkedList<>();
+	private final StringBuilder pending = new StringBuilder();
+	private Runnable listener           = null;
+	private int chunkSize               = 0;
+	private int maxChunks               = 0;
+	private boolean finished            = false;
+	private boolean aborted             = false;
 
 	public AsyncBuffer append(final String s) {
 
+		boolean signal = false;
+
 		try {
 			synchronized(queue) {
-				queue.add(s);
+
+				if (listener == null) {
+
+					queue.add(s);
+
+				} else if (!aborted) {
+
+					pending.append(s);
+
+					if (pending.length() >= chunkSize && awaitCapacity()) {
+
+						enqueuePending();
+						signal = true;
+					}
+				}
+			}
+
+			if (signal) {
+				listener.run();
 			}
 
 		} catch (Throwable t) {
@@ -44,7 +76,118 @@ public class AsyncBuffer {
 		return this;
 	}
 
+	/**
+	 * Attaches a consumer to this buffer.
+	 *
+	 * @param listener the listener to notify when output is available
+	 * @param chunkSize the minimum number of characters per chunk
+	 * @param maxChunks the maximum number of chunks in flight, 0 for no limit
+	 */
+	public void setListener(final Runnable listener, final int chunkSize, final int maxChunks) {
+
+		synchronized(queue) {
+
+			this.listener  = listener;
+			this.chunkSize = chunkSize;
+			this.maxChunks = maxChunks;
+		}
+	}
+
+	/**
+	 * Removes and returns the next chunk of output, or null if no output
+	 * is available at the moment. Wakes up a producer waiting for capacity.
+	 *
+	 * @return the next chunk or null
+	 */
+	public String poll() {
+
+		synchronized(queue) {
+
+			final String chunk = queue.poll();
+			if (chunk != null) {
+
+				queue.notifyAll();
+			}
+
+			return chunk;
+		}
+	}
+
+	/**
+	 * Signals that no more output will be appended to this buffer.
+	 */
+	public void finish() {
+
+		synchronized(queue) {
+
+			enqueuePending();
+			finished = true;
+		}
+
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Discards all pending output and releases a waiting producer, for
+	 * example when the client has gone away. Subsequent output is ignored.
+	 */
+	public void abort() {
+
+		synchronized(queue) {
+
+			aborted = true;
+
+			queue.clear();
+			pending.setLength(0);
+			queue.notifyAll();
+		}
+	}
+
+	/**
+	 * @return whether {@link #finish} was called and all output was consumed
+	 */
+	public boolean isDrained() {
+
+		synchronized(queue) {
+			return finished && queue.isEmpty();
+		}
+	}
+
 	public Queue<String> getQueue() {
+
+		synchronized(queue) {
+			enqueuePending();
+		}
+
 		return queue;
 	}
+
+	// ----- private methods -----
+	private boolean awaitCapacity() {
+
+		try {
+
+			while (!aborted && maxChunks > 0 && queue.size() >= maxChunks) {
+				queue.wait();
+			}
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+			aborted = true;
+		}
+
+		return !aborted;
+	}
+
+	private void enqueuePending() {
+
+		if (pending.length() > 0) {
+
+			queue.add(pending.toString());
+			pending.setLength(0);
+		}
+	}
 }
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single byte range of an HTTP Range header, see RFC 7233.
+ *
+ * @author Axel Morgner
+ */
+public class ByteRange {
+
+	public static final int MAX_RANGES = 16;
+
+	private long start = 0L;
+	private long end   = 0L;
+
+	public ByteRange(final long start, final long end) {
+
+		this.start = start;
+		this.end   = end;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the last byte position of this range (inclusive)
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	public String getContentRange(final long totalLength) {
+		return "bytes " + start + "-" + end + "/" + totalLength;
+	}
+
+	/**
+	 * Parses the value of a Range header for an entity of the given length.
+	 *
+	 * Returns null if the header is missing, syntactically invalid or
+	 * contains too many ranges, in which case the whole entity should be
+	 * sent. Returns an empty list if none of the ranges is satisfiable.
+	 *
+	 * @param header the Range header value
+	 * @param totalLength the length of the entity
+	 * @return a list of satisfiable ranges, or null
+	 */
+	public static List<ByteRange> parse(final String header, final long totalLength) {
+
+		if (header == null || !header.startsWith("bytes=")) {
+			return null;
+		}
+
+		final String[] parts          = StringUtils.split(header.substring(6), ",");
+		final List<ByteRange> ranges  = new LinkedList<>();
+
+		if (parts.length == 0 || parts.length > MAX_RANGES) {
+			return null;
+		}
+
+		try {
+
+			for (final String rawPart : parts) {
+
+				final String part = rawPart.trim();
+				final int pos     = part.indexOf("-");
+
+				if (pos < 0) {
+					return null;
+				}
+
+				final String first = part.substring(0, pos).trim();
+				final String last  = part.substring(pos + 1).trim();
+
+				if (first.isEmpty()) {
+
+					// suffix range: the last n bytes
+					final long suffixLength = Long.parseLong(last);
+
+					if (suffixLength > 0 && totalLength > 0) {
+
+						ranges.add(new ByteRange(Math.max(0, totalLength - suffixLength), totalLength - 1));
+					}
+
+				} else {
+
+					final long rangeStart = Long.parseLong(first);
+					long rangeEnd         = totalLength - 1;
+
+					if (!last.isEmpty()) {
+
+						final long lastBytePos = Long.parseLong(last);
+						if (lastBytePos < rangeStart) {
+
+							return null;
+						}
+
+						rangeEnd = Math.min(lastBytePos, totalLength - 1);
+					}
+
+					if (rangeStart < totalLength) {
+
+						ranges.add(new ByteRange(rangeStart, rangeEnd));
+					}
+				}
+			}
+
+		} catch (NumberFormatException nfex) {
+
+			return null;
+		}
+
+		return ranges;
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.structr.core.GraphObject;
+import org.structr.common.SecurityContext;
+import org.structr.core.Services;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.TransactionSource;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.web.common.RenderContext.EditMode;
+import org.structr.web.entity.dom.DOMNode;
+
+/**
+ * Server-side cache for the rendered output of DOM subtrees.
+ *
+ * Only subtrees that do not depend on data are cached, i.e. subtrees without
+ * template expressions, show or hide conditions, data keys and queries, see
+ * {@link RenderContext#markDataBound()}. Entries are keyed by node UUID,
+ * locale, edit mode, the rendering user, the page and the data objects the
+ * node is rendered with, and remember the UUIDs of all nodes that were
+ * rendered into them. Any modification of one of these nodes invalidates
+ * the entry once the modifying transaction was committed.
+ *
+ * @author Christian Morgner
+ */
+public class FragmentCache implements StructrTransactionListener {
+
+	public static final String FRAGMENT_CACHE_SIZE_KEY = "HtmlServlet.fragmentcache.size";
+
+	private static FragmentCache instance = null;
+
+	private final Map<String, Set<String>> dependencies = new HashMap<>();
+	private final Map<String, Fragment> fragments;
+
+	private FragmentCache(final int maxSize) {
+
+		this.fragments = new LinkedHashMap<String, Fragment>(maxSize, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Fragment> eldest) {
+
+				if (size() > maxSize) {
+
+					removeDependencies(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+	public static synchronized FragmentCache getInstance() {
+
+		if (instance == null) {
+
+			instance = new FragmentCache(Services.parseInt(StructrApp.getConfigurationValue(FRAGMENT_CACHE_SIZE_KEY), 1000));
+
+			TransactionCommand.registerTransactionListener(instance);
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns the cache key for the given node in the given render context.
+	 *
+	 * @param node the node
+	 * @param renderContext the render context
+	 * @return the cache key
+	 */
+	public String getKey(final DOMNode node, final RenderContext renderContext) {
+
+		final SecurityContext securityContext = renderContext.getSecurityContext();
+		final Principal user                  = securityContext.getUser(false);
+		final EditMode editMode               = renderContext.getEditMode(user);
+		final StringBuilder buf               = new StringBuilder();
+
+		buf.append(node.getUuid());
+		buf.append("/");
+		buf.append(renderContext.getLocale());
+		buf.append("/");
+		buf.append(editMode);
+		buf.append("/");
+
+		if (securityContext.isSuperUser()) {
+
+			buf.append("superuser");
+
+		} else if (user != null) {
+
+			buf.append(user.getUuid());
+
+		} else {
+
+			buf.append("anonymous");
+		}
+
+		// the same node renders different content for different pages
+		// and data objects
+		buf.append("/");
+		buf.append(renderContext.getPageId());
+
+		appendId(buf, "details", renderContext.getDetailsDataObject());
+		appendId(buf, "current", renderContext.getDataObject());
+		appendId(buf, "source", renderContext.getSourceDataObject());
+
+		for (final Entry<String, GraphObject> entry : renderContext.getDataObjects().entrySet()) {
+			appendId(buf, entry.getKey(), entry.getValue());
+		}
+
+		return buf.toString();
+	}
+
+	public synchronized Fragment get(final String key) {
+		return fragments.get(key);
+	}
+
+	public synchronized void put(final String key, final String content, final Set<String> nodeIds) {
+
+		final Fragment fragment = new Fragment(content, nodeIds);
+		final Fragment previous = fragments.put(key, fragment);
+
+		if (previous != null) {
+			removeDependencies(key, previous);
+		}
+
+		for (final String nodeId : nodeIds) {
+
+			Set<String> keys = dependencies.get(nodeId);
+			if (keys == null) {
+
+				keys = new HashSet<>();
+				dependencies.put(nodeId, keys);
+			}
+
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * Removes all fragments that contain the node with the given UUID.
+	 *
+	 * @param nodeId the UUID
+	 */
+	public synchronized void invalidate(final String nodeId) {
+
+		final Set<String> keys = dependencies.remove(nodeId);
+		if (keys != null) {
+
+			for (final String key : keys) {
+
+				final Fragment fragment = fragments.remove(key);
+				if (fragment != null) {
+
+					removeDependencies(key, fragment);
+				}
+			}
+		}
+	}
+
+	public synchronized void clear() {
+
+		fragments.clear();
+		dependencies.clear();
+	}
+
+	public synchronized int size() {
+		return fragments.size();
+	}
+
+	// ----- interface StructrTransactionListener -----
+	@Override
+	public void beforeCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) {
+	}
+
+	@Override
+	public void afterCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) {
+	}
+
+	@Override
+	public void transactionFinished(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source, final boolean committed) {
+
+		// called for every transaction, including those without notifications
+		if (committed) {
+
+			for (final ModificationEvent event : modificationEvents) {
+
+				if (event.isNode()) {
+
+					invalidate(event.getUuid());
+				}
+			}
+		}
+	}
+
+	// ----- private methods -----
+	private void appendId(final StringBuilder buf, final String name, final GraphObject obj) {
+
+		if (obj != null) {
+
+			buf.append("/");
+			buf.append(name);
+			buf.append("=");
+			buf.append(obj.getUuid());
+		}
+	}
+
+	private void removeDependencies(final String key, final Fragment fragment) {
+
+		for (final String nodeId : fragment.getNodeIds()) {
+
+			final Set<String> keys = dependencies.get(nodeId);
+			if (keys != null) {
+
+				keys.remove(key);
+
+				if (keys.isEmpty()) {
+					dependencies.remove(nodeId);
+				}
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	public static class Fragment {
+
+		private Set<String> nodeIds = null;
+		private String content      = null;
+
+		public Fragment(final String content, final Set<String> nodeIds) {
+
+			this.content = content;
+			this.nodeIds = nodeIds;
+		}
+
+		public String getContent() {
+			return content;
+		}
+
+		public Set<String> getNodeIds() {
+			return nodeIds;
+		}
+	}
+}
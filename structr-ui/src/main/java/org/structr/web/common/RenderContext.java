@@ -18,9 +18,14 @@
  */
 package org.structr.web.common;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -52,11 +57,13 @@ public class RenderContext extends ActionContext {
 	private static final Logger logger = Logger.getLogger(RenderContext.class.getName());
 
 	private final Map<String, GraphObject> dataObjects = new LinkedHashMap<>();
+	private final LinkedList<Set<String>> fragments    = new LinkedList<>();
 	private final long renderStartTime                 = System.currentTimeMillis();
 	private Locale locale                              = Locale.getDefault();
 	private EditMode editMode                          = EditMode.NONE;
 	private AsyncBuffer buffer                         = new AsyncBuffer();
 	private int depth                                  = 0;
+	private int dataBoundFragments                     = 0;
 	private boolean inBody                             = false;
 	private boolean appLibRendered                     = false;
 	private GraphObject detailsDataObject              = null;
@@ -272,6 +279,53 @@ public class RenderContext extends ActionContext {
 		return buffer;
 	}
 
+	/**
+	 * Starts recording the UUIDs of all nodes rendered from now on, until
+	 * the matching call to {@link #endFragment}. Fragments can be nested.
+	 */
+	public void startFragment() {
+		fragments.push(new LinkedHashSet<String>());
+	}
+
+	public Set<String> endFragment() {
+
+		final Set<String> nodeIds = fragments.pop();
+
+		dataBoundFragments = Math.min(dataBoundFragments, fragments.size());
+
+		return nodeIds;
+	}
+
+	/**
+	 * Marks all fragments that are currently being recorded as dependent
+	 * on data, i.e. on request parameters, data objects or queries, so
+	 * that they are not cached.
+	 */
+	public void markDataBound() {
+		dataBoundFragments = fragments.size();
+	}
+
+	/**
+	 * @return whether the innermost fragment that is currently being recorded can be cached
+	 */
+	public boolean isFragmentCacheable() {
+		return dataBoundFragments < fragments.size();
+	}
+
+	public void addRenderedNodeIds(final Collection<String> nodeIds) {
+
+		for (final Set<String> fragment : fragments) {
+			fragment.addAll(nodeIds);
+		}
+	}
+
+	public void addRenderedNodeId(final String nodeId) {
+
+		for (final Set<String> fragment : fragments) {
+			fragment.add(nodeId);
+		}
+	}
+
 	public void setInBody(final boolean inBody) {
 		this.inBody = inBody;
 	}
@@ -303,6 +357,13 @@ public class RenderContext extends ActionContext {
 		setDataObject(null);
 	}
 
+	/**
+	 * @return the named data objects of the enclosing repeaters
+	 */
+	public Map<String, GraphObject> getDataObjects() {
+		return Collections.unmodifiableMap(dataObjects);
+	}
+
 	public boolean hasDataForKey(String key) {
 		return dataObjects.containsKey(key);
 	}
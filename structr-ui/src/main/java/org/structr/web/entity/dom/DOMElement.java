@@ -176,7 +176,7 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 
 	public static final org.structr.common.View uiView = new org.structr.common.View(DOMElement.class, PropertyView.Ui, name, tag, pageId, path, parent, children, childrenIds, owner,
 		restQuery, cypherQuery, xpathQuery, functionQuery, partialUpdateKey, dataKey, syncedNodes, sharedComponent,
-		renderDetails, hideOnIndex, hideOnDetail, showForLocales, hideForLocales, showConditions, hideConditions,
+		renderDetails, hideOnIndex, hideOnDetail, showForLocales, hideForLocales, showConditions, hideConditions, cacheFragment,
 		_accesskey, _class, _contenteditable, _contextmenu, _dir, _draggable, _dropzone, _hidden, _id, _lang, _spellcheck, _style,
 		_tabindex, _title, _translate, _onabort, _onblur, _oncanplay, _oncanplaythrough, _onchange, _onclick, _oncontextmenu, _ondblclick,
 		_ondrag, _ondragend, _ondragenter, _ondragleave, _ondragover, _ondragstart, _ondrop, _ondurationchange, _onemptied,
@@ -374,6 +374,7 @@ public class DOMElement extends DOMNode implements Element, NamedNodeMap {
 					//Sync syncRel = getIncomingRelationship(Sync.class);
 					DOMElement _syncedNode = (DOMElement) getProperty(sharedComponent);
 					if (_syncedNode != null) {
+						renderContext.addRenderedNodeId(_syncedNode.getUuid());
 						rels.addAll(_syncedNode.getChildRelationships());
 					}
 				}
@@ -80,9 +80,12 @@ import org.structr.core.property.StringProperty;
 import org.structr.rest.serialization.StreamingJsonWriter;
 import org.structr.schema.action.ActionContext;
 import org.structr.schema.action.Function;
+import org.structr.web.common.AsyncBuffer;
+import org.structr.web.common.FragmentCache;
 import org.structr.web.common.GraphDataSource;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.RenderContext.EditMode;
+import org.structr.web.common.StringRenderBuffer;
 import org.structr.web.common.microformat.MicroformatParser;
 import org.structr.web.datasource.CypherGraphDataSource;
 import org.structr.web.datasource.FunctionDataSource;
@@ -184,6 +187,9 @@ public abstract class DOMNode extends LinkedTreeNode<DOMChildren, DOMSiblings, D
 	public static final Property<String> showConditions = new StringProperty("showConditions").indexed();
 	public static final Property<String> hideConditions = new StringProperty("hideConditions").indexed();
 
+	// only for subtrees whose output does not depend on request parameters or data
+	public static final Property<Boolean> cacheFragment = new BooleanProperty("cacheFragment");
+
 	public static final Property<List<DOMNode>> children = new EndNodes<>("children", DOMChildren.class);
 	public static final Property<DOMNode> parent = new StartNode<>("parent", DOMChildren.class);
 	public static final Property<DOMNode> previousSibling = new StartNode<>("previousSibling", DOMSiblings.class);
@@ -784,6 +790,82 @@ public abstract class DOMNode extends LinkedTreeNode<DOMChildren, DOMSiblings, D
 
 		final EditMode editMode  = renderContext.getEditMode(securityContext.getUser(false));
 
+		if (EditMode.NONE.equals(editMode) && getProperty(cacheFragment)) {
+
+			renderFragment(renderContext, depth, editMode);
+
+		} else {
+
+			renderNode(renderContext, depth, editMode);
+		}
+	}
+
+	/**
+	 * Render this node from the fragment cache, or render it and store
+	 * the output in the cache.
+	 *
+	 * @param renderContext the RenderContext
+	 * @param depth the depth
+	 * @param editMode the edit mode
+	 * @throws FrameworkException on exceptions
+	 */
+	protected void renderFragment(final RenderContext renderContext, final int depth, final EditMode editMode) throws FrameworkException {
+
+		final FragmentCache cache         = FragmentCache.getInstance();
+		final String key                  = cache.getKey(this, renderContext);
+		final FragmentCache.Fragment hit  = cache.get(key);
+		final AsyncBuffer out             = renderContext.getBuffer();
+
+		if (hit != null) {
+
+			renderContext.addRenderedNodeIds(hit.getNodeIds());
+			out.append(hit.getContent());
+
+			return;
+		}
+
+		final StringRenderBuffer buffer = new StringRenderBuffer();
+		Set<String> nodeIds             = null;
+
+		renderContext.setBuffer(buffer);
+		renderContext.startFragment();
+
+		boolean cacheable               = false;
+
+		try {
+
+			renderNode(renderContext, depth, editMode);
+
+		} finally {
+
+			cacheable = renderContext.isFragmentCacheable();
+			nodeIds   = renderContext.endFragment();
+			renderContext.setBuffer(out);
+		}
+
+		final String content = buffer.getBuffer().toString();
+
+		// subtrees that depend on data are never cached, since their
+		// content can change without any of their nodes being modified
+		if (cacheable) {
+			cache.put(key, content, nodeIds);
+		}
+
+		out.append(content);
+	}
+
+	private void renderNode(final RenderContext renderContext, final int depth, final EditMode editMode) throws FrameworkException {
+
+		final GraphObject details = renderContext.getDetailsDataObject();
+		final boolean detailMode = details != null;
+
+		// record this node in all enclosing fragments
+		renderContext.addRenderedNodeId(getUuid());
+
+		if (isDataBound()) {
+			renderContext.markDataBound();
+		}
+
 		if (EditMode.RAW.equals(editMode) || EditMode.WIDGET.equals(editMode)) {
 
 			renderContent(renderContext, depth);
@@ -1238,6 +1320,34 @@ public abstract class DOMNode extends LinkedTreeNode<DOMChildren, DOMSiblings, D
 		return indent.toString();
 	}
 
+	@Override
+	public String getPropertyWithVariableReplacement(final ActionContext renderContext, final PropertyKey<String> key) throws FrameworkException {
+
+		// template expressions can read request parameters and data objects
+		if (renderContext instanceof RenderContext) {
+
+			final String value = getProperty(key);
+			if (value != null && value.contains("${")) {
+
+				((RenderContext)renderContext).markDataBound();
+			}
+		}
+
+		return super.getPropertyWithVariableReplacement(renderContext, key);
+	}
+
+	/**
+	 * @return whether this node renders data from a data key or a query
+	 */
+	protected boolean isDataBound() {
+
+		return StringUtils.isNotBlank(getProperty(dataKey))
+			|| StringUtils.isNotBlank(getProperty(restQuery))
+			|| StringUtils.isNotBlank(getProperty(cypherQuery))
+			|| StringUtils.isNotBlank(getProperty(xpathQuery))
+			|| StringUtils.isNotBlank(getProperty(functionQuery));
+	}
+
 	/**
 	 * Decide whether this node should be displayed for the given conditions
 	 * string.
@@ -1260,6 +1370,10 @@ public abstract class DOMNode extends LinkedTreeNode<DOMChildren, DOMSiblings, D
 		if (StringUtils.isBlank(_hideConditions) && StringUtils.isBlank(_showConditions)) {
 			return true;
 		}
+
+		// conditions can depend on request parameters and data objects
+		renderContext.markDataBound();
+
 		try {
 			// If hide conditions evaluate to "true", don't render
 			if (StringUtils.isNotBlank(_hideConditions) && Boolean.TRUE.equals(Functions.evaluate(renderContext, this, _hideConditions))) {
@@ -35,7 +35,7 @@ public class Template extends Content {
 
 	public static final org.structr.common.View uiView                                   = new org.structr.common.View(Content.class, PropertyView.Ui,
 		children, childrenIds, content, contentType, parent, pageId, hideOnDetail, hideOnIndex, sharedComponent, syncedNodes, dataKey, restQuery, cypherQuery, xpathQuery, functionQuery,
-		showForLocales, hideForLocales, showConditions, hideConditions, isContent, configuration
+		showForLocales, hideForLocales, showConditions, hideConditions, cacheFragment, isContent, configuration
 	);
 
 	public static final org.structr.common.View publicView                               = new org.structr.common.View(Content.class, PropertyView.Public,
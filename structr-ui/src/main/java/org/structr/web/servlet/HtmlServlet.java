@@ -20,6 +20,10 @@ package org.structr.web.servlet;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -29,15 +33,20 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Locale;
-import java.util.Queue;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
@@ -48,6 +57,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.LocaleUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
+import org.eclipse.jetty.server.HttpOutput;
 import org.structr.common.AccessMode;
 import org.structr.common.GraphObjectComparator;
 import org.structr.common.PathHelper;
@@ -64,6 +74,7 @@ import org.structr.core.auth.AuthHelper;
 import org.structr.core.auth.Authenticator;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
+import org.structr.core.graph.NodeServiceCommand;
 import org.structr.core.graph.Tx;
 import org.structr.dynamic.File;
 import org.structr.rest.ResourceProvider;
@@ -71,6 +82,8 @@ import org.structr.rest.service.HttpService;
 import org.structr.rest.service.HttpServiceServlet;
 import org.structr.rest.service.StructrHttpServiceConfig;
 import org.structr.web.auth.UiAuthenticator;
+import org.structr.web.common.AsyncBuffer;
+import org.structr.web.common.ByteRange;
 import org.structr.web.common.FileHelper;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.RenderContext.EditMode;
@@ -102,8 +115,13 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 	public static final String ERROR_PAGE_KEY            = "onerror";
 	public static final String LOCALE_KEY                = "locale";
 
+	public static final String RENDER_THREADS_KEY        = "HtmlServlet.render.threads";
+	public static final String RENDER_QUEUE_SIZE_KEY     = "HtmlServlet.render.queuesize";
+	public static final String RENDER_CHUNK_SIZE_KEY     = "HtmlServlet.render.chunksize";
+	public static final String RENDER_MAX_CHUNKS_KEY     = "HtmlServlet.render.maxchunks";
+
 	private static final ThreadLocalMatcher threadLocalUUIDMatcher = new ThreadLocalMatcher("[a-zA-Z0-9]{32}");
-	private static final ExecutorService threadPool = Executors.newCachedThreadPool();
+	private static ExecutorService renderExecutor                  = null;
 
 	private final StructrHttpServiceConfig config = new StructrHttpServiceConfig();
 
@@ -345,90 +363,61 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 						boolean isAsync = Services.parseBoolean(Services.getBaseConfiguration().getProperty(HttpService.ASYNC), true);
 						if (isAsync) {
 
-							final AsyncContext async      = request.startAsync();
-							final ServletOutputStream out = async.getResponse().getOutputStream();
-							final AtomicBoolean finished  = new AtomicBoolean(false);
-							final DOMNode rootNode        = rootElement;
-
-							threadPool.submit(new Runnable() {
-
-								@Override
-								public void run() {
-
-									try (final Tx tx = app.tx()) {
-
-										//final long start = System.currentTimeMillis();
-
-										// render
-										rootNode.render(renderContext, 0);
-										finished.set(true);
+							final AsyncContext async       = request.startAsync();
+							final ServletOutputStream out  = async.getResponse().getOutputStream();
+							final AsyncBuffer buffer       = renderContext.getBuffer();
+							final AsyncRenderOutput output = new AsyncRenderOutput(async, out, buffer);
+							final DOMNode rootNode         = rootElement;
 
-										//final long end = System.currentTimeMillis();
-										//System.out.println("Done in " + (end-start) + " ms");
+							buffer.setListener(output, getRenderConfig(RENDER_CHUNK_SIZE_KEY, 8192), getRenderConfig(RENDER_MAX_CHUNKS_KEY, 64));
+							async.addListener(output);
 
-										tx.success();
+							// start output write listener before any output is produced
+							out.setWriteListener(output);
 
-									} catch (Throwable t) {
-										t.printStackTrace();
-										final String errorMsg = t.getMessage();
-										try {
-											//response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-											response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, errorMsg);
-											finished.set(true);
-										} catch (IOException ex) {
-											ex.printStackTrace();
-										}
-									}
-								}
-
-							});
+							try {
 
-							// start output write listener
-							out.setWriteListener(new WriteListener() {
+								getRenderExecutor().execute(new Runnable() {
 
-								@Override
-								public void onWritePossible() throws IOException {
+									@Override
+									public void run() {
 
-									try {
+										try (final Tx tx = app.tx()) {
 
-										final Queue<String> queue = renderContext.getBuffer().getQueue();
-										while (out.isReady()) {
+											// render
+											rootNode.render(renderContext, 0);
 
-											String buffer = null;
+											tx.success();
 
-											synchronized(queue) {
-												buffer = queue.poll();
+										} catch (Throwable t) {
+											t.printStackTrace();
+											final String errorMsg = t.getMessage();
+											try {
+												//response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+												response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, errorMsg);
+											} catch (IOException ex) {
+												ex.printStackTrace();
 											}
 
-											if (buffer != null) {
+										} finally {
 
-												out.print(buffer);
-
-											} else {
-
-												if (finished.get()) {
+											buffer.finish();
+										}
+									}
 
-													async.complete();
-													response.setStatus(HttpServletResponse.SC_OK);
+								});
 
-													// prevent this block from being called again
-													break;
-												}
+							} catch (RejectedExecutionException rex) {
 
-												Thread.sleep(1);
-											}
-										}
+								// do not render on the container thread, it would block
+								// in the async buffer while waiting for the output
+								logger.log(Level.WARNING, "Render queue is full, rejecting request for {0}", request.getRequestURI());
 
-									} catch (Throwable t) {
-										t.printStackTrace();
-									}
-								}
+								response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+								response.setHeader("Retry-After", "1");
 
-								@Override
-								public void onError(Throwable t) {
-									t.printStackTrace();
-								}
-							});
+								buffer.finish();
+							}
 
 						} else {
 
@@ -1239,6 +1228,11 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 		final ServletOutputStream out = response.getOutputStream();
 		final String downloadAsFilename = request.getParameter(DOWNLOAD_AS_FILENAME_KEY);
+		final String etag = getETag(file);
+
+		if (etag != null) {
+			response.setHeader("ETag", etag);
+		}
 
 		if (downloadAsFilename != null) {
 			// Set Content-Disposition header to suggest a default filename and force a "save-as" dialog
@@ -1250,7 +1244,7 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 			response.addHeader("Content-Disposition", "attachment; filename=\"" + downloadAsFilename + "\"");
 		}
 
-		if (!EditMode.WIDGET.equals(edit) && notModifiedSince(request, response, file, false)) {
+		if (!EditMode.WIDGET.equals(edit) && notModified(request, response, file, etag)) {
 
 			out.flush();
 			out.close();
@@ -1271,19 +1265,40 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 
 
 				// 2b: stream file to response
-				final InputStream in = file.getInputStream();
-				final String contentType = file.getContentType();
+				final java.io.File fileOnDisk = file.getFileOnDisk();
+				String contentType = file.getContentType();
+
+				if (contentType == null) {
 
-				if (contentType != null) {
+					// Default
+					contentType = "application/octet-stream";
+				}
 
-					response.setContentType(contentType);
+				response.setContentType(contentType);
 
-				} else {
+				if (fileOnDisk != null && fileOnDisk.isFile()) {
 
-					// Default
-					response.setContentType("application/octet-stream");
+					try {
+
+						streamFileContent(request, response, out, file, fileOnDisk, contentType, etag);
+
+					} catch (Throwable t) {
+
+						logger.log(Level.FINE, "Error while streaming file {0}: {1}", new Object[] { file.getUuid(), t.getMessage() });
+
+					} finally {
+
+						try {
+							out.close();
+						} catch (Throwable t) {
+						}
+					}
+
+					return;
 				}
 
+				final InputStream in = file.getInputStream();
+
 				response.setStatus(HttpServletResponse.SC_OK);
 
 				try {
@@ -1315,6 +1330,165 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 		}
 	}
 
+	/**
+	 * Streams the given file on disk to the client, honoring Range and
+	 * If-Range headers. Complete files and single ranges are handed to
+	 * Jetty as memory-mapped buffers so that the content is not copied
+	 * through the heap.
+	 */
+	private void streamFileContent(final HttpServletRequest request, final HttpServletResponse response, final ServletOutputStream out, final File file, final java.io.File fileOnDisk, final String contentType, final String etag) throws IOException {
+
+		final long length      = fileOnDisk.length();
+		List<ByteRange> ranges = null;
+
+		response.setHeader("Accept-Ranges", "bytes");
+
+		if (ifRangeMatches(request, file, etag)) {
+			ranges = ByteRange.parse(request.getHeader("Range"), length);
+		}
+
+		try (final FileChannel channel = new RandomAccessFile(fileOnDisk, "r").getChannel()) {
+
+			if (ranges == null) {
+
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentLengthLong(length);
+
+				sendContent(out, channel, 0, length);
+
+			} else if (ranges.isEmpty()) {
+
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+
+			} else if (ranges.size() == 1) {
+
+				final ByteRange range = ranges.get(0);
+
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", range.getContentRange(length));
+				response.setContentLengthLong(range.getLength());
+
+				sendContent(out, channel, range.getStart(), range.getLength());
+
+			} else {
+
+				final String boundary = NodeServiceCommand.getNextUuid();
+
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setContentType("multipart/byteranges; boundary=" + boundary);
+
+				for (final ByteRange range : ranges) {
+
+					out.print("\r\n--" + boundary + "\r\n");
+					out.print("Content-Type: " + contentType + "\r\n");
+					out.print("Content-Range: " + range.getContentRange(length) + "\r\n\r\n");
+
+					transfer(out, channel, range.getStart(), range.getLength());
+				}
+
+				out.print("\r\n--" + boundary + "--\r\n");
+			}
+		}
+	}
+
+	private static void sendContent(final ServletOutputStream out, final FileChannel channel, final long position, final long count) throws IOException {
+
+		if (out instanceof HttpOutput && count <= Integer.MAX_VALUE) {
+
+			((HttpOutput) out).sendContent(channel.map(FileChannel.MapMode.READ_ONLY, position, count));
+
+		} else {
+
+			transfer(out, channel, position, count);
+		}
+	}
+
+	private static void transfer(final ServletOutputStream out, final FileChannel channel, final long position, final long count) throws IOException {
+
+		final WritableByteChannel target = Channels.newChannel(out);
+		long remaining                   = count;
+		long offset                      = position;
+
+		while (remaining > 0) {
+
+			final long transferred = channel.transferTo(offset, remaining, target);
+			if (transferred <= 0) {
+				break;
+			}
+
+			offset    += transferred;
+			remaining -= transferred;
+		}
+	}
+
+	private static String getETag(final File file) {
+
+		final Long checksum = file.getChecksum();
+		if (checksum != null) {
+
+			return "\"" + Long.toHexString(checksum) + "\"";
+		}
+
+		return null;
+	}
+
+	private static boolean notModified(final HttpServletRequest request, final HttpServletResponse response, final File file, final String etag) {
+
+		// sets the caching headers, so it must be called in any case
+		final boolean notModifiedSince = notModifiedSince(request, response, file, false);
+		final String ifNoneMatch       = request.getHeader("If-None-Match");
+
+		if (etag != null && ifNoneMatch != null) {
+
+			// If-None-Match takes precedence over If-Modified-Since, see RFC 7232
+			for (final String candidate : StringUtils.split(ifNoneMatch, ",")) {
+
+				final String value = StringUtils.removeStart(candidate.trim(), "W/");
+				if ("*".equals(value) || etag.equals(value)) {
+
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return true;
+				}
+			}
+
+			response.setStatus(HttpServletResponse.SC_OK);
+			return false;
+		}
+
+		return notModifiedSince;
+	}
+
+	private static boolean ifRangeMatches(final HttpServletRequest request, final File file, final String etag) {
+
+		final String ifRange = request.getHeader("If-Range");
+
+		if (ifRange == null) {
+			return true;
+		}
+
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+
+			// only strong validators can be used with If-Range
+			return etag != null && etag.equals(ifRange);
+		}
+
+		final Date lastModified = file.getLastModifiedDate();
+		if (lastModified != null) {
+
+			try {
+
+				final DateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+				httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+				return DateUtils.round(lastModified, Calendar.SECOND).equals(httpDateFormat.parse(ifRange));
+
+			} catch (ParseException ignore) {}
+		}
+
+		return false;
+	}
+
 	/**
 	 * Determine the effective locale for this request.
 	 *
@@ -1383,4 +1557,142 @@ public class HtmlServlet extends HttpServlet implements HttpServiceServlet {
 		return true;
 
 	}
+
+	// ----- private static methods -----
+	private static synchronized ExecutorService getRenderExecutor() {
+
+		if (renderExecutor == null) {
+
+			final int threads   = getRenderConfig(RENDER_THREADS_KEY, Runtime.getRuntime().availableProcessors() * 2);
+			final int queueSize = getRenderConfig(RENDER_QUEUE_SIZE_KEY, 1000);
+
+			// bounded pool, requests are rejected when the queue is full
+			final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.AbortPolicy());
+			executor.allowCoreThreadTimeOut(true);
+
+			renderExecutor = executor;
+		}
+
+		return renderExecutor;
+	}
+
+	private static int getRenderConfig(final String key, final int defaultValue) {
+		return Services.parseInt(StructrApp.getConfigurationValue(key), defaultValue);
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Writes the chunks of an {@link AsyncBuffer} to the non-blocking servlet
+	 * output stream. Called by the container when the stream becomes writable
+	 * and by the render thread when new output is available, output is only
+	 * ever written by one of them at a time.
+	 */
+	private static class AsyncRenderOutput implements WriteListener, AsyncListener, Runnable {
+
+		private final AtomicInteger signals   = new AtomicInteger(0);
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+		private final ServletOutputStream out;
+		private final AsyncContext async;
+		private final AsyncBuffer buffer;
+
+		public AsyncRenderOutput(final AsyncContext async, final ServletOutputStream out, final AsyncBuffer buffer) {
+
+			this.async  = async;
+			this.out    = out;
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void run() {
+
+			// only the thread that raised the first signal writes, all
+			// others just make sure it takes another round
+			if (signals.getAndIncrement() > 0) {
+				return;
+			}
+
+			int missed = 1;
+
+			do {
+
+				try {
+
+					write();
+
+				} catch (Throwable t) {
+
+					t.printStackTrace();
+					abort();
+				}
+
+				missed = signals.addAndGet(-missed);
+
+			} while (missed != 0);
+		}
+
+		@Override
+		public void onWritePossible() throws IOException {
+			run();
+		}
+
+		@Override
+		public void onError(final Throwable t) {
+
+			logger.log(Level.FINE, "Error while writing rendered output", t);
+			abort();
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) throws IOException {
+			buffer.abort();
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+
+			logger.log(Level.WARNING, "Timeout while rendering page");
+			abort();
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) throws IOException {
+			onError(event.getThrowable());
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) throws IOException {
+		}
+
+		// ----- private methods -----
+		private void write() throws IOException {
+
+			while (!completed.get() && out.isReady()) {
+
+				final String chunk = buffer.poll();
+				if (chunk != null) {
+
+					out.print(chunk);
+
+				} else {
+
+					if (buffer.isDrained() && completed.compareAndSet(false, true)) {
+
+						async.complete();
+					}
+
+					// wait for the next signal
+					break;
+				}
+			}
+		}
+
+		private void abort() {
+
+			buffer.abort();
+
+			if (completed.compareAndSet(false, true)) {
+				async.complete();
+			}
+		}
+	}
 }
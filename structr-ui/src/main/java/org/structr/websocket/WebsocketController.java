@@ -19,23 +19,32 @@
 package org.structr.websocket;
 
 import com.google.gson.Gson;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.lang3.Range;
-import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.websocket.api.Session;
-import org.eclipse.jetty.websocket.api.WebSocketException;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.neo4j.graphdb.RelationshipType;
-import org.structr.common.AccessMode;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
+import org.structr.core.Services;
 import org.structr.core.StructrTransactionListener;
 import org.structr.core.TransactionSource;
 import org.structr.core.app.StructrApp;
@@ -51,6 +60,17 @@ import org.structr.web.entity.dom.DOMNode;
 import org.structr.websocket.message.WebSocketMessage;
 
 /**
+ * Broadcasts the modifications of committed transactions to all connected
+ * websocket clients.
+ *
+ * Broadcasting does not happen on the committing thread. The events of
+ * a transaction are converted to messages (one per object and command) on
+ * the committing thread and handed to a single dispatcher thread via a
+ * bounded queue. The dispatcher serializes each message once for every
+ * distinct set of visible results and sends it asynchronously through a
+ * per-client outbound queue. Clients whose outbound queue overflows are
+ * disconnected. If the dispatcher queue overflows, all clients are
+ * disconnected so that they reload their state when they reconnect.
  *
  * @author Christian Morgner
  */
@@ -58,18 +78,47 @@ public class WebsocketController implements StructrTransactionListener {
 
 	private static final Logger logger = Logger.getLogger(WebsocketController.class.getName());
 
-	private final Set<StructrWebSocket> clients = new ConcurrentHashSet<>();
-	private Gson gson = null;
+	public static final String BROADCAST_QUEUE_SIZE        = "ws.broadcast.queue.size";
+	public static final String CLIENT_QUEUE_SIZE           = "ws.client.queue.size";
+
+	private final Map<StructrWebSocket, ClientQueue> clients = new ConcurrentHashMap<>();
+	private final AtomicBoolean resync                       = new AtomicBoolean(false);
+	private BlockingQueue<List<WebSocketMessage>> batches    = null;
+	private int maxClientQueueSize                           = 1000;
+	private Gson gson                                        = null;
 
 	public WebsocketController(final Gson gson) {
 
-		this.gson = gson;
+		this.gson               = gson;
+		this.batches            = new ArrayBlockingQueue<>(Services.parseInt(StructrApp.getConfigurationValue(BROADCAST_QUEUE_SIZE), 1000));
+		this.maxClientQueueSize = Services.parseInt(StructrApp.getConfigurationValue(CLIENT_QUEUE_SIZE), 1000);
+
+		final Thread dispatcher = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				while (true) {
+
+					try {
+
+						dispatch(batches.take());
+
+					} catch (InterruptedException iex) {
+						return;
+					}
+				}
+			}
+
+		}, "WebsocketBroadcast");
 
+		dispatcher.setDaemon(true);
+		dispatcher.start();
 	}
 
 	public void registerClient(final StructrWebSocket client) {
 
-		clients.add(client);
+		clients.put(client, new ClientQueue(client));
 
 	}
 
@@ -80,19 +129,101 @@ public class WebsocketController implements StructrTransactionListener {
 	}
 
 	// ----- private methods -----
+	private void dispatch(final List<WebSocketMessage> messages) {
+
+		if (resync.compareAndSet(true, false)) {
+
+			// updates were dropped, the remaining ones are useless
+			batches.clear();
+
+			for (final StructrWebSocket socket : clients.keySet()) {
+				evict(socket, StatusCode.SERVER_ERROR, "Updates dropped, please reconnect");
+			}
+
+			return;
+		}
+
+		// visibility is checked with the security context of each client
+		try (final Tx tx = StructrApp.getInstance().tx()) {
+
+			for (final WebSocketMessage message : messages) {
+
+				try {
+
+					logger.log(Level.FINE, "################### Broadcast message: {0}", message.getCommand());
+					broadcast(message);
+
+				} catch (Throwable t) {
+
+					// e.g. an object that was deleted in the meantime
+					logger.log(Level.FINE, "Unable to broadcast message", t);
+				}
+			}
+
+			tx.success();
+
+		} catch (Throwable t) {
+
+			logger.log(Level.WARNING, "Unable to broadcast modifications", t);
+		}
+	}
+
+	/**
+	 * Converts the given modification events to messages, coalescing the
+	 * messages per object and command.
+	 */
+	private List<WebSocketMessage> getMessages(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents) {
+
+		// keep the position of the first occurrence
+		final Map<String, WebSocketMessage> messages = new LinkedHashMap<>();
+		int anonymous                                = 0;
+
+		for (final ModificationEvent event : modificationEvents) {
+
+			try {
+				final WebSocketMessage message = getMessageForEvent(securityContext, event);
+				if (message != null) {
+
+					final String key                = message.getId() != null ? message.getCommand() + message.getId() : "#" + anonymous++;
+					final WebSocketMessage existing = messages.put(key, message);
+
+					if (existing != null) {
+
+						message.getModifiedProperties().addAll(existing.getModifiedProperties());
+						message.getRemovedProperties().addAll(existing.getRemovedProperties());
+					}
+				}
+
+			} catch (Throwable t) {
+
+				logger.log(Level.FINE, "Unable to create message for modification event", t);
+			}
+		}
+
+		return new ArrayList<>(messages.values());
+	}
+
 	private void broadcast(final WebSocketMessage webSocketData) {
 
 		//logger.log(Level.FINE, "Broadcasting message to {0} clients..", clients.size());
 		// session must be valid to be received by the client
 		webSocketData.setSessionValid(true);
 
-		String message;
-		String pagePath = (String) webSocketData.getNodeData().get("pagePath");
+		final String pagePath                    = (String) webSocketData.getNodeData().get("pagePath");
+		final List<? extends GraphObject> result = webSocketData.getResult();
+		final GraphObject graphObject            = webSocketData.getGraphObject();
+		final String command                     = webSocketData.getCommand();
+		final boolean filterResult               = (result != null) && (result.size() > 0) && ("UPDATE".equals(command) || "ADD".equals(command) || "CREATE".equals(command));
 
-		List<StructrWebSocket> clientsToRemove = new LinkedList<>();
+		// serialized messages, one per distinct set of visible result elements
+		final Map<BitSet, String> serialized = new HashMap<>();
 
-		// create message
-		for (StructrWebSocket socket : clients) {
+		// the callback differs between clients, it is added after serialization
+		webSocketData.setCallback(null);
+
+		for (final Map.Entry<StructrWebSocket, ClientQueue> entry : clients.entrySet()) {
+
+			final StructrWebSocket socket = entry.getKey();
 
 			String clientPagePath = socket.getPagePath();
 			if (clientPagePath != null && !clientPagePath.equals(URIUtil.encodePath(pagePath))) {
@@ -101,11 +232,8 @@ public class WebsocketController implements StructrTransactionListener {
 
 			Session session = socket.getSession();
 
-			webSocketData.setCallback(socket.getCallback());
-
 			if (session != null && socket.isAuthenticated()) {
 
-				List<? extends GraphObject> result = webSocketData.getResult();
 				SecurityContext securityContext = socket.getSecurityContext();
 
 				// if the object IS NOT of type AbstractNode AND the client is NOT priviledged
@@ -113,67 +241,100 @@ public class WebsocketController implements StructrTransactionListener {
 				// if the object IS of type AbstractNode AND the client has no access to the node
 				// THEN skip sending a message
 				if (
-						( !(webSocketData.getGraphObject() instanceof AbstractNode) && !socket.isPriviledgedUser(socket.getCurrentUser()) )
-						|| (webSocketData.getGraphObject() instanceof AbstractNode && !securityContext.isVisible((AbstractNode) webSocketData.getGraphObject()))
+						( !(graphObject instanceof AbstractNode) && !socket.isPriviledgedUser(socket.getCurrentUser()) )
+						|| (graphObject instanceof AbstractNode && !securityContext.isVisible((AbstractNode) graphObject))
 					) {
 					continue;
 				}
 
-				if ((result != null) && (result.size() > 0)
-					&& (webSocketData.getCommand().equals("UPDATE") || webSocketData.getCommand().equals("ADD") || webSocketData.getCommand().equals("CREATE"))) {
+				final BitSet visible = filterResult ? getVisible(securityContext, result) : new BitSet();
+				String message       = serialized.get(visible);
+
+				if (message == null) {
 
-					WebSocketMessage clientData = webSocketData.copy();
+					if (filterResult) {
 
-					clientData.setResult(filter(securityContext, result));
+						WebSocketMessage clientData = webSocketData.copy();
 
-					message = gson.toJson(clientData, WebSocketMessage.class);
+						clientData.setResult(filter(result, visible));
 
-				} else {
+						message = gson.toJson(clientData, WebSocketMessage.class);
 
-					message = gson.toJson(webSocketData, WebSocketMessage.class);
+					} else {
+
+						message = gson.toJson(webSocketData, WebSocketMessage.class);
+					}
+
+					serialized.put(visible, message);
 				}
 
 				//logger.log(Level.INFO, "############################################################ SENDING \n{0}", message);
-				try {
+				if (!entry.getValue().offer(withCallback(message, socket.getCallback()))) {
 
-					session.getRemote().sendString(message);
-
-				} catch (Throwable t) {
+					evict(socket, StatusCode.POLICY_VIOLATION, "Slow consumer");
+				}
+			}
+		}
+	}
 
-					if (t instanceof WebSocketException) {
+	private void evict(final StructrWebSocket socket, final int statusCode, final String reason) {
 
-						WebSocketException wse = (WebSocketException) t;
+		if (clients.remove(socket) != null) {
 
-						if ("RemoteEndpoint unavailable, current state [CLOSED], expecting [OPEN or CONNECTED]".equals(wse.getMessage())) {
-							clientsToRemove.add(socket);
-						}
-					}
+			logger.log(Level.WARNING, "Client removed from broadcast list: {0} ({1})", new Object[] { socket, reason });
 
-					logger.log(Level.FINE, "Error sending message to client.", t);
-				}
+			final Session session = socket.getSession();
+			if (session != null && statusCode > 0) {
 
+				session.close(statusCode, reason);
 			}
+		}
+	}
+
+	private String withCallback(final String message, final String callback) {
 
+		if (callback == null) {
+			return message;
 		}
 
-		for (StructrWebSocket s : clientsToRemove) {
+		final StringBuilder buf = new StringBuilder(message.length() + callback.length() + 16);
 
-			unregisterClient(s);
+		buf.append("{\"callback\":");
+		buf.append(gson.toJson(callback));
 
-			logger.log(Level.WARNING, "Client removed from broadcast list: {0}", s);
+		if (message.length() > 2) {
+			buf.append(",");
 		}
 
+		buf.append(message, 1, message.length());
+
+		return buf.toString();
 	}
 
-	private <T extends GraphObject> List<T> filter(final SecurityContext securityContext, final List<T> all) {
+	private BitSet getVisible(final SecurityContext securityContext, final List<? extends GraphObject> all) {
 
-		List<T> filteredResult = new LinkedList<>();
-		for (T obj : all) {
+		final BitSet visible = new BitSet(all.size());
+		int index            = 0;
+
+		for (GraphObject obj : all) {
 
 			if (securityContext.isVisible((AbstractNode) obj)) {
 
-				filteredResult.add(obj);
+				visible.set(index);
 			}
+
+			index++;
+		}
+
+		return visible;
+	}
+
+	private <T extends GraphObject> List<T> filter(final List<T> all, final BitSet visible) {
+
+		List<T> filteredResult = new LinkedList<>();
+		for (int i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+
+			filteredResult.add(all.get(i));
 		}
 
 		return filteredResult;
@@ -188,28 +349,27 @@ public class WebsocketController implements StructrTransactionListener {
 	@Override
 	public void afterCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) {
 
-		try (final Tx tx = StructrApp.getInstance(securityContext).tx()) {
+		if (clients.isEmpty() || modificationEvents.isEmpty()) {
+			return;
+		}
 
-			for (final ModificationEvent event : modificationEvents) {
+		// build the messages here, the security context of the
+		// transaction is not valid anymore when they are sent
+		final List<WebSocketMessage> messages = getMessages(securityContext, modificationEvents);
 
-				try {
-					final WebSocketMessage message = getMessageForEvent(securityContext, event);
-					if (message != null) {
-						logger.log(Level.FINE, "################### Broadcast message: {0}", message.getCommand());
-						broadcast(message);
-					}
+		// never block the committing thread
+		if (!messages.isEmpty() && !batches.offer(messages)) {
 
-				} catch (FrameworkException ignore) {
-				}
+			if (resync.compareAndSet(false, true)) {
+				logger.log(Level.WARNING, "Broadcast queue is full, dropping updates and disconnecting clients");
 			}
-
-			tx.success();
-
-		} catch (FrameworkException ex) {
-			ex.printStackTrace();
 		}
 	}
 
+	@Override
+	public void transactionFinished(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source, final boolean committed) {
+	}
+
 	// ----- private methods -----
 	private WebSocketMessage getMessageForEvent(final SecurityContext securityContext, final ModificationEvent modificationEvent) throws FrameworkException {
 
@@ -338,4 +498,77 @@ public class WebsocketController implements StructrTransactionListener {
 
 		return newMessage;
 	}
+
+	// ----- nested classes -----
+	/**
+	 * Outbound message queue of a single client. At most one asynchronous
+	 * write is in flight per client, the next message is sent when the
+	 * previous write has completed.
+	 */
+	private class ClientQueue implements WriteCallback {
+
+		private final Queue<String> messages = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size     = new AtomicInteger();
+		private final AtomicBoolean sending  = new AtomicBoolean();
+		private StructrWebSocket socket      = null;
+
+		public ClientQueue(final StructrWebSocket socket) {
+			this.socket = socket;
+		}
+
+		public boolean offer(final String message) {
+
+			if (size.incrementAndGet() > maxClientQueueSize) {
+
+				size.decrementAndGet();
+				return false;
+			}
+
+			messages.add(message);
+			flush();
+
+			return true;
+		}
+
+		private void flush() {
+
+			while (!messages.isEmpty() && sending.compareAndSet(false, true)) {
+
+				final String message = messages.poll();
+				if (message == null) {
+
+					sending.set(false);
+					continue;
+				}
+
+				final Session session = socket.getSession();
+				if (session == null || !session.isOpen()) {
+
+					evict(socket, 0, "Session closed");
+					return;
+				}
+
+				session.getRemote().sendString(message, this);
+
+				return;
+			}
+		}
+
+		@Override
+		public void writeSuccess() {
+
+			size.decrementAndGet();
+			sending.set(false);
+
+			flush();
+		}
+
+		@Override
+		public void writeFailed(final Throwable t) {
+
+			logger.log(Level.FINE, "Error sending message to client.", t);
+
+			evict(socket, 0, t.getMessage());
+		}
+	}
 }
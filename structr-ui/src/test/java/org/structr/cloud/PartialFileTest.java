@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ *
+ * @author Christian Morgner
+ */
+public class PartialFileTest extends TestCase {
+
+	private static final int CHUNK_SIZE = 16;
+
+	private File directory = null;
+	private File target    = null;
+	private byte[] content = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		directory = Files.createTempDirectory("structr-transfer").toFile();
+		target    = new File(directory, "target/file");
+		content   = new byte[40];
+
+		for (int i=0; i<content.length; i++) {
+			content[i] = (byte)i;
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	public void testOutOfOrderChunks() throws IOException {
+
+		final PartialFile partialFile = open("outOfOrder", crc(content));
+
+		assertTrue(partialFile.write(2, chunk(2), crc(chunk(2))));
+		assertFalse(partialFile.isComplete());
+		assertTrue(partialFile.write(0, chunk(0), crc(chunk(0))));
+		assertTrue(partialFile.write(1, chunk(1), crc(chunk(1))));
+		assertTrue(partialFile.isComplete());
+
+		partialFile.close();
+		partialFile.moveTo(target.getAbsolutePath());
+
+		assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+	}
+
+	public void testResumeFromStateFile() throws IOException {
+
+		final PartialFile first = open("resume", crc(content));
+
+		assertTrue(first.write(0, chunk(0), crc(chunk(0))));
+		assertTrue(first.write(2, chunk(2), crc(chunk(2))));
+		first.close();
+
+		final PartialFile second = open("resume", crc(content));
+		final BitSet received    = second.getReceivedChunks();
+
+		assertNotSame(first, second);
+		assertTrue(received.get(0));
+		assertFalse(received.get(1));
+		assertTrue(received.get(2));
+
+		assertTrue(second.write(1, chunk(1), crc(chunk(1))));
+		assertTrue(second.isComplete());
+
+		second.close();
+		second.moveTo(target.getAbsolutePath());
+
+		assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+	}
+
+	public void testMismatchedStateIsRejected() throws IOException {
+
+		final PartialFile first = open("mismatch", crc(content));
+
+		assertTrue(first.write(0, chunk(0), crc(chunk(0))));
+		first.close();
+
+		// same size and chunk size, but different content
+		final PartialFile second = open("mismatch", crc(content) + 1);
+
+		assertTrue(second.getReceivedChunks().isEmpty());
+
+		second.close();
+	}
+
+	public void testBadChunkChecksum() throws IOException {
+
+		final PartialFile partialFile = open("badChunk", crc(content));
+
+		assertFalse(partialFile.write(0, chunk(0), crc(chunk(0)) + 1));
+		assertFalse(partialFile.getReceivedChunks().get(0));
+
+		partialFile.close();
+	}
+
+	public void testBadFileChecksum() throws IOException {
+
+		final PartialFile partialFile = open("badFile", crc(content) + 1);
+
+		for (int i=0; i<3; i++) {
+			assertTrue(partialFile.write(i, chunk(i), crc(chunk(i))));
+		}
+
+		partialFile.close();
+
+		try {
+			partialFile.moveTo(target.getAbsolutePath());
+			fail("Moving a file with a checksum mismatch should fail.");
+
+		} catch (IOException expected) {}
+
+		assertFalse(target.exists());
+	}
+
+	// ----- private methods -----
+	private PartialFile open(final String id, final long checksum) throws IOException {
+		return PartialFile.open(directory, id, content.length, CHUNK_SIZE, checksum);
+	}
+
+	private byte[] chunk(final int index) {
+
+		final int start = index * CHUNK_SIZE;
+		final int end   = Math.min(start + CHUNK_SIZE, content.length);
+
+		return Arrays.copyOfRange(content, start, end);
+	}
+
+	private long crc(final byte[] data) {
+
+		final CRC32 crc = new CRC32();
+		crc.update(data);
+
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.cloud.sync;
+
+import java.io.File;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.TransactionSource;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.graph.Tx;
+import org.structr.web.common.StructrUiTest;
+import org.structr.web.entity.Folder;
+
+/**
+ * Tests that only committed transactions are shipped from the replication
+ * journal.
+ *
+ * @author Christian Morgner
+ */
+public class ReplicationJournalTest extends StructrUiTest {
+
+	private static final Logger logger = Logger.getLogger(ReplicationJournalTest.class.getName());
+
+	private ReplicationJournal journal = null;
+	private JournalWriter writer       = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		super.setUp();
+
+		journal = new ReplicationJournal(new File(basePath + "/journal"), 1024 * 1024, false);
+		writer  = new JournalWriter(journal);
+
+		TransactionCommand.registerTransactionListener(writer);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		TransactionCommand.removeTransactionListener(writer);
+		journal.close();
+
+		super.tearDown();
+	}
+
+	public void testCommittedDeletion() {
+
+		try {
+
+			final String uuid = createFolder();
+			final long before = journal.getLastSequence();
+
+			try (final Tx tx = app.tx()) {
+
+				app.delete(app.get(Folder.class, uuid));
+				tx.success();
+			}
+
+			final List<ReplicationJournal.Entry> entries = journal.read(before + 1, 10);
+
+			assertFalse(entries.isEmpty());
+			assertTrue(containsDeletion(entries.get(0), uuid));
+
+		} catch (Throwable t) {
+
+			logger.log(Level.WARNING, "", t);
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testRolledBackDeletion() {
+
+		final Veto veto = new Veto();
+
+		try {
+
+			final String uuid = createFolder();
+			final long before = journal.getLastSequence();
+
+			// the veto is registered after the journal writer, so the
+			// entry is already appended when the transaction fails
+			TransactionCommand.registerTransactionListener(veto);
+
+			try (final Tx tx = app.tx()) {
+
+				app.delete(app.get(Folder.class, uuid));
+				tx.success();
+
+				fail("Transaction should have been vetoed");
+
+			} catch (FrameworkException fex) {
+
+				assertEquals(422, fex.getStatus());
+			}
+
+			TransactionCommand.removeTransactionListener(veto);
+
+			assertEquals(Boolean.FALSE, veto.committed);
+
+			// the node must still exist on the master..
+			try (final Tx tx = app.tx()) {
+				assertNotNull(app.get(Folder.class, uuid));
+			}
+
+			// ..so the entry must not contain its deletion
+			final List<ReplicationJournal.Entry> entries = journal.read(before + 1, 10);
+
+			assertFalse(entries.isEmpty());
+			assertEquals(before + 1, entries.get(0).getSequence());
+			assertFalse(containsDeletion(entries.get(0), uuid));
+
+			// later entries are shipped normally
+			try (final Tx tx = app.tx()) {
+
+				app.delete(app.get(Folder.class, uuid));
+				tx.success();
+			}
+
+			final List<ReplicationJournal.Entry> next = journal.read(before + 2, 10);
+
+			assertFalse(next.isEmpty());
+			assertTrue(containsDeletion(next.get(0), uuid));
+
+		} catch (Throwable t) {
+
+			logger.log(Level.WARNING, "", t);
+			fail("Unexpected exception");
+
+		} finally {
+
+			TransactionCommand.removeTransactionListener(veto);
+		}
+	}
+
+	// ----- private methods -----
+	private String createFolder() throws FrameworkException {
+
+		try (final Tx tx = app.tx()) {
+
+			final Folder folder = app.create(Folder.class, "folder");
+
+			tx.success();
+
+			return folder.getUuid();
+		}
+	}
+
+	private boolean containsDeletion(final ReplicationJournal.Entry entry, final String uuid) {
+
+		for (final ReplicationJournal.Change change : entry.getChanges()) {
+
+			if (uuid.equals(change.getUuid()) && change.isDeleted()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// ----- nested classes -----
+	private static class Veto implements StructrTransactionListener {
+
+		private Boolean committed = null;
+
+		@Override
+		public void beforeCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) throws FrameworkException {
+			throw new FrameworkException(422, "Vetoed");
+		}
+
+		@Override
+		public void afterCommit(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source) {
+		}
+
+		@Override
+		public void transactionFinished(final SecurityContext securityContext, final List<ModificationEvent> modificationEvents, final TransactionSource source, final boolean committed) {
+			this.committed = committed;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Axel Morgner
+ */
+public class ByteRangeTest extends TestCase {
+
+	public void testSingleRanges() {
+
+		List<ByteRange> ranges = ByteRange.parse("bytes=0-499", 10000);
+		assertEquals(1, ranges.size());
+		assertEquals(0, ranges.get(0).getStart());
+		assertEquals(499, ranges.get(0).getEnd());
+		assertEquals(500, ranges.get(0).getLength());
+		assertEquals("bytes 0-499/10000", ranges.get(0).getContentRange(10000));
+
+		ranges = ByteRange.parse("bytes=9500-", 10000);
+		assertEquals(1, ranges.size());
+		assertEquals(9500, ranges.get(0).getStart());
+		assertEquals(9999, ranges.get(0).getEnd());
+
+		ranges = ByteRange.parse("bytes=-500", 10000);
+		assertEquals(1, ranges.size());
+		assertEquals(9500, ranges.get(0).getStart());
+		assertEquals(9999, ranges.get(0).getEnd());
+
+		// end position beyond entity length
+		ranges = ByteRange.parse("bytes=9000-20000", 10000);
+		assertEquals(1, ranges.size());
+		assertEquals(9999, ranges.get(0).getEnd());
+
+		// suffix longer than entity
+		ranges = ByteRange.parse("bytes=-20000", 10000);
+		assertEquals(1, ranges.size());
+		assertEquals(0, ranges.get(0).getStart());
+	}
+
+	public void testMultipleRanges() {
+
+		final List<ByteRange> ranges = ByteRange.parse("bytes=0-0, 500-999 ,-1", 10000);
+		assertEquals(3, ranges.size());
+		assertEquals(0, ranges.get(0).getEnd());
+		assertEquals(500, ranges.get(1).getStart());
+		assertEquals(9999, ranges.get(2).getStart());
+	}
+
+	public void testUnsatisfiableRanges() {
+
+		assertTrue(ByteRange.parse("bytes=10000-", 10000).isEmpty());
+		assertTrue(ByteRange.parse("bytes=-0", 10000).isEmpty());
+		assertTrue(ByteRange.parse("bytes=0-10", 0).isEmpty());
+	}
+
+	public void testInvalidRanges() {
+
+		assertNull(ByteRange.parse(null, 10000));
+		assertNull(ByteRange.parse("items=0-10", 10000));
+		assertNull(ByteRange.parse("bytes=", 10000));
+		assertNull(ByteRange.parse("bytes=10", 10000));
+		assertNull(ByteRange.parse("bytes=500-100", 10000));
+		assertNull(ByteRange.parse("bytes=a-b", 10000));
+
+		final StringBuilder tooMany = new StringBuilder("bytes=0-1");
+		for (int i=0; i<ByteRange.MAX_RANGES; i++) {
+			tooMany.append(",").append(i * 10).append("-").append(i * 10 + 5);
+		}
+
+		assertNull(ByteRange.parse(tooMany.toString(), 10000));
+	}
+}
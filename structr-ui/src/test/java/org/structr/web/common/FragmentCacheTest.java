@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2010-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import org.structr.common.error.FrameworkException;
+import org.structr.core.graph.Tx;
+import org.structr.web.entity.dom.Content;
+import org.structr.web.entity.dom.DOMNode;
+import org.structr.web.entity.dom.Page;
+
+/**
+ * Tests caching and invalidation of rendered DOM subtrees.
+ *
+ * @author Christian Morgner
+ */
+public class FragmentCacheTest extends StructrUiTest {
+
+	private Page page    = null;
+	private DOMNode body = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		super.setUp();
+
+		FragmentCache.getInstance().clear();
+
+		try (final Tx tx = app.tx()) {
+
+			page = Page.createNewPage(securityContext, "fragments");
+
+			final DOMNode html = (DOMNode)page.createElement("html");
+			body               = (DOMNode)page.createElement("body");
+
+			page.appendChild(html);
+			html.appendChild(body);
+
+			tx.success();
+		}
+	}
+
+	public void testStaticFragmentIsCachedAndInvalidated() {
+
+		try {
+
+			final Content content = createFragment(body, "static");
+
+			assertTrue(render().contains("static"));
+			assertEquals(1, FragmentCache.getInstance().size());
+
+			// a committed modification of a node in the fragment invalidates it
+			try (final Tx tx = app.tx()) {
+
+				content.setProperty(Content.content, "changed");
+				tx.success();
+			}
+
+			assertEquals(0, FragmentCache.getInstance().size());
+			assertTrue(render().contains("changed"));
+			assertEquals(1, FragmentCache.getInstance().size());
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testRolledBackModificationKeepsFragment() {
+
+		try {
+
+			final Content content = createFragment(body, "static");
+
+			render();
+			assertEquals(1, FragmentCache.getInstance().size());
+
+			try (final Tx tx = app.tx()) {
+
+				// no success, transaction is rolled back
+				content.setProperty(Content.content, "changed");
+			}
+
+			assertEquals(1, FragmentCache.getInstance().size());
+			assertTrue(render().contains("static"));
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	public void testDataBoundFragmentIsNotCached() {
+
+		try {
+
+			// a template expression in a nested node prevents caching of the
+			// enclosing fragment, but not of a static sibling fragment
+			createFragment(body, "static");
+
+			try (final Tx tx = app.tx()) {
+
+				final DOMNode div = (DOMNode)page.createElement("div");
+				div.setProperty(DOMNode.cacheFragment, true);
+				body.appendChild(div);
+
+				final DOMNode inner = (DOMNode)page.createElement("div");
+				inner.setProperty(DOMNode.cacheFragment, true);
+				div.appendChild(inner);
+				inner.appendChild(page.createTextNode("inner"));
+
+				div.appendChild(page.createTextNode("${concat('dyn', 'amic')}"));
+
+				tx.success();
+			}
+
+			final String output = render();
+
+			assertTrue(output.contains("dynamic"));
+			assertTrue(output.contains("inner"));
+
+			// the first static fragment and the inner one
+			assertEquals(2, FragmentCache.getInstance().size());
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	// ----- private methods -----
+	private Content createFragment(final DOMNode parent, final String text) throws FrameworkException {
+
+		try (final Tx tx = app.tx()) {
+
+			final DOMNode div     = (DOMNode)page.createElement("div");
+			final Content content = (Content)page.createTextNode(text);
+
+			div.setProperty(DOMNode.cacheFragment, true);
+			div.appendChild(content);
+			parent.appendChild(div);
+
+			tx.success();
+
+			return content;
+		}
+	}
+
+	private String render() throws FrameworkException {
+
+		try (final Tx tx = app.tx()) {
+			return page.getContent(RenderContext.EditMode.NONE);
+		}
+	}
+}